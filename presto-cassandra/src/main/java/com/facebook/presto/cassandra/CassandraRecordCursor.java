@@ -18,7 +18,10 @@ import com.datastax.driver.core.Row;
 import com.facebook.presto.spi.ColumnType;
 import com.facebook.presto.spi.RecordCursor;
 import com.google.common.base.Charsets;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class CassandraRecordCursor
@@ -109,6 +112,31 @@ public class CassandraRecordCursor
         return str.getBytes(Charsets.UTF_8);
     }
 
+    @Override
+    public Slice getSlice(int i)
+    {
+        switch (getCassandraType(i)) {
+            case ASCII:
+            case TEXT:
+            case VARCHAR:
+                // text values are serialized as utf8, so the driver buffer is used as is
+                return wrappedBuffer(currentRow.getBytesUnsafe(i));
+            default:
+                String str = CassandraType.getColumnValue(currentRow, i, fullCassandraTypes.get(i)).toString();
+                return Slices.copiedBuffer(str, Charsets.UTF_8);
+        }
+    }
+
+    private static Slice wrappedBuffer(ByteBuffer buffer)
+    {
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return Slices.wrappedBuffer(bytes);
+        }
+        return Slices.wrappedBuffer(buffer.array()).slice(buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
     @Override
     public long getTotalBytes()
     {
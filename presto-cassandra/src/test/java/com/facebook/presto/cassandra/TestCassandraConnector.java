@@ -196,9 +196,11 @@ public class TestCassandraConnector
 
                     assertEquals(keyValue, String.format("key %04d", rowId));
                     assertEquals(toUtf8String(cursor.getString(columnIndex.get("t_utf8"))), "utf8 " + rowId);
+                    assertEquals(toUtf8String(cursor.getSlice(columnIndex.get("t_utf8")).getBytes()), "utf8 " + rowId);
 
                     // bytes are encoded as a hex string for some reason
                     assertEquals(toUtf8String(cursor.getString(columnIndex.get("t_bytes"))), String.format("0x%08X", rowId));
+                    assertEquals(toUtf8String(cursor.getSlice(columnIndex.get("t_bytes")).getBytes()), String.format("0x%08X", rowId));
 
                     // VARINT is returned as a string
                     assertEquals(toUtf8String(cursor.getString(columnIndex.get("t_integer"))), String.valueOf(rowId));
@@ -14,11 +14,19 @@
 package com.facebook.presto.cli;
 
 import com.facebook.presto.client.ClientSession;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
 import io.airlift.command.Option;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 public class ClientOptions
 {
@@ -37,6 +45,9 @@ public class ClientOptions
     @Option(name = "--schema", title = "schema", description = "Default schema")
     public String schema = "default";
 
+    @Option(name = "--session", title = "session", description = "Session property (property can be used multiple times; format is name=value)")
+    public List<String> sessionProperties = new ArrayList<>();
+
     @Option(name = {"-f", "--file"}, title = "file", description = "Execute statements from file and exit")
     public String file;
 
@@ -61,7 +72,18 @@ public class ClientOptions
 
     public ClientSession toClientSession()
     {
-        return new ClientSession(parseServer(server), user, source, catalog, schema, debug);
+        return new ClientSession(parseServer(server), user, source, catalog, schema, parseSessionProperties(sessionProperties), debug);
+    }
+
+    public static Map<String, String> parseSessionProperties(List<String> sessionProperties)
+    {
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (String sessionProperty : sessionProperties) {
+            List<String> nameValue = ImmutableList.copyOf(Splitter.on('=').limit(2).trimResults().split(sessionProperty));
+            checkArgument(nameValue.size() == 2 && !nameValue.get(0).isEmpty(), "Session property must be in the format name=value: %s", sessionProperty);
+            properties.put(nameValue.get(0), nameValue.get(1));
+        }
+        return properties;
     }
 
     public static URI parseServer(String server)
@@ -14,8 +14,10 @@
 package com.facebook.presto.client;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
 
 import java.net.URI;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -26,15 +28,22 @@ public class ClientSession
     private final String source;
     private final String catalog;
     private final String schema;
+    private final Map<String, String> properties;
     private final boolean debug;
 
     public ClientSession(URI server, String user, String source, String catalog, String schema, boolean debug)
+    {
+        this(server, user, source, catalog, schema, ImmutableMap.<String, String>of(), debug);
+    }
+
+    public ClientSession(URI server, String user, String source, String catalog, String schema, Map<String, String> properties, boolean debug)
     {
         this.server = checkNotNull(server, "server is null");
         this.user = user;
         this.source = source;
         this.catalog = catalog;
         this.schema = schema;
+        this.properties = ImmutableMap.copyOf(checkNotNull(properties, "properties is null"));
         this.debug = debug;
     }
 
@@ -63,6 +72,11 @@ public class ClientSession
         return schema;
     }
 
+    public Map<String, String> getProperties()
+    {
+        return properties;
+    }
+
     public boolean isDebug()
     {
         return debug;
@@ -76,6 +90,7 @@ public class ClientSession
                 .add("user", user)
                 .add("catalog", catalog)
                 .add("schema", schema)
+                .add("properties", properties)
                 .add("debug", debug)
                 .toString();
     }
@@ -25,6 +25,7 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.Closeable;
 import java.net.URI;
+import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -98,6 +99,9 @@ public class StatementClient
         if (session.getSchema() != null) {
             builder.setHeader(PrestoHeaders.PRESTO_SCHEMA, session.getSchema());
         }
+        for (Entry<String, String> property : session.getProperties().entrySet()) {
+            builder.addHeader(PrestoHeaders.PRESTO_SESSION, property.getKey() + "=" + property.getValue());
+        }
         builder.setHeader(USER_AGENT, USER_AGENT_VALUE);
 
         return builder.build();
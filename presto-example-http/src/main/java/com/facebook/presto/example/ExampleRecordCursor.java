@@ -21,6 +21,8 @@ import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.io.CountingInputStream;
 import com.google.common.io.InputSupplier;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -131,6 +133,13 @@ public class ExampleRecordCursor
         return getFieldValue(field).getBytes(Charsets.UTF_8);
     }
 
+    @Override
+    public Slice getSlice(int field)
+    {
+        checkFieldType(field, ColumnType.STRING);
+        return Slices.copiedBuffer(getFieldValue(field), Charsets.UTF_8);
+    }
+
     @Override
     public boolean isNull(int field)
     {
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.hive;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.facebook.presto.hadoop.HadoopFileSystem.listLocatedStatus;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the located listing (file statuses and block locations) of a directory.
+ * A cached listing is only used while the modification time of the directory is
+ * unchanged, so adding, removing or renaming a file in the directory invalidates
+ * the listing.  Files rewritten in place are picked up when the entry expires.
+ * <p>
+ * Directories of file systems that do not track their modification time, such
+ * as S3, always report zero, so their listings are never cached.  Listings are
+ * keyed by the qualified path, which includes the scheme and authority of the
+ * file system.
+ */
+@ThreadSafe
+public class CachingDirectoryLister
+{
+    private final Cache<Path, DirectoryListing> cache;
+    private final boolean enabled;
+    private final AtomicLong staleCount = new AtomicLong();
+    private final AtomicLong uncachedCount = new AtomicLong();
+
+    @Inject
+    public CachingDirectoryLister(HiveClientConfig hiveClientConfig)
+    {
+        this(checkNotNull(hiveClientConfig, "hiveClientConfig is null").getFileListingCacheTtl(),
+                hiveClientConfig.getMaxFileListingCacheFiles());
+    }
+
+    public CachingDirectoryLister(Duration cacheTtl, long maxCachedFiles)
+    {
+        checkNotNull(cacheTtl, "cacheTtl is null");
+        checkArgument(maxCachedFiles >= 0, "maxCachedFiles is negative");
+
+        this.enabled = cacheTtl.toMillis() > 0 && maxCachedFiles > 0;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite((long) cacheTtl.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumWeight(maxCachedFiles)
+                .weigher(new Weigher<Path, DirectoryListing>()
+                {
+                    @Override
+                    public int weigh(Path path, DirectoryListing listing)
+                    {
+                        // empty directories still take a slot
+                        return Math.max(1, listing.getFiles().size());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public List<LocatedFileStatus> list(FileSystem fileSystem, Path path)
+            throws IOException
+    {
+        if (!enabled) {
+            return listDirectory(fileSystem, path);
+        }
+
+        // the status is fetched before the listing so a concurrent change makes the entry stale
+        FileStatus directory = fileSystem.getFileStatus(path);
+        long modificationTime = directory.getModificationTime();
+        if (modificationTime == 0) {
+            uncachedCount.incrementAndGet();
+            return listDirectory(fileSystem, path);
+        }
+
+        Path qualifiedPath = fileSystem.makeQualified(path);
+        DirectoryListing listing = cache.getIfPresent(qualifiedPath);
+        if (listing != null) {
+            if (listing.getModificationTime() == modificationTime) {
+                return listing.getFiles();
+            }
+            staleCount.incrementAndGet();
+            cache.invalidate(qualifiedPath);
+        }
+
+        List<LocatedFileStatus> files = listDirectory(fileSystem, path);
+        cache.put(qualifiedPath, new DirectoryListing(modificationTime, files));
+        return files;
+    }
+
+    private static List<LocatedFileStatus> listDirectory(FileSystem fileSystem, Path path)
+            throws IOException
+    {
+        ImmutableList.Builder<LocatedFileStatus> files = ImmutableList.builder();
+        RemoteIterator<LocatedFileStatus> iterator = listLocatedStatus(fileSystem, path);
+        while (iterator.hasNext()) {
+            files.add(iterator.next());
+        }
+        return files.build();
+    }
+
+    @Managed
+    public void flushCache()
+    {
+        cache.invalidateAll();
+    }
+
+    @Managed
+    public long getCachedDirectories()
+    {
+        return cache.size();
+    }
+
+    @Managed
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    @Managed
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+    @Managed
+    public long getEvictionCount()
+    {
+        return cache.stats().evictionCount();
+    }
+
+    @Managed
+    public long getStaleCount()
+    {
+        return staleCount.get();
+    }
+
+    @Managed
+    public long getUncachedCount()
+    {
+        return uncachedCount.get();
+    }
+
+    private static class DirectoryListing
+    {
+        private final long modificationTime;
+        private final List<LocatedFileStatus> files;
+
+        private DirectoryListing(long modificationTime, List<LocatedFileStatus> files)
+        {
+            this.modificationTime = modificationTime;
+            this.files = checkNotNull(files, "files is null");
+        }
+
+        public long getModificationTime()
+        {
+            return modificationTime;
+        }
+
+        public List<LocatedFileStatus> getFiles()
+        {
+            return files;
+        }
+    }
+}
@@ -13,10 +13,13 @@
  */
 package com.facebook.presto.hive;
 
+import com.facebook.presto.spi.BatchRecordCursor;
 import com.facebook.presto.spi.ColumnType;
-import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.ColumnWriter;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
@@ -34,7 +37,6 @@ import sun.misc.Unsafe;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -54,7 +56,7 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 class ColumnarBinaryHiveRecordCursor<K>
-        implements RecordCursor
+        implements BatchRecordCursor
 {
     private final RecordReader<K, BytesRefArrayWritable> recordReader;
     private final K key;
@@ -72,10 +74,12 @@ class ColumnarBinaryHiveRecordCursor<K>
     private final boolean[] isPartitionColumn;
 
     private final boolean[] loaded;
+    private final int[] loadedColumns;
+    private int loadedColumnCount;
     private final boolean[] booleans;
     private final long[] longs;
     private final double[] doubles;
-    private final byte[][] strings;
+    private final Slice[] slices;
     private final boolean[] nulls;
 
     private final long totalBytes;
@@ -85,7 +89,6 @@ class ColumnarBinaryHiveRecordCursor<K>
     private static final Unsafe unsafe;
 
     private static final byte HIVE_EMPTY_STRING_BYTE = (byte) 0xbf;
-    private static final byte[] EMPTY_STRING = new byte[0];
 
     private static final int SIZE_OF_SHORT = 2;
     private static final int SIZE_OF_INT = 4;
@@ -144,10 +147,11 @@ class ColumnarBinaryHiveRecordCursor<K>
         this.isPartitionColumn = new boolean[size];
 
         this.loaded = new boolean[size];
+        this.loadedColumns = new int[size];
         this.booleans = new boolean[size];
         this.longs = new long[size];
         this.doubles = new double[size];
-        this.strings = new byte[size][];
+        this.slices = new Slice[size];
         this.nulls = new boolean[size];
 
         // initialize data columns
@@ -209,13 +213,16 @@ class ColumnarBinaryHiveRecordCursor<K>
                         doubles[columnIndex] = parseDouble(bytes, 0, bytes.length);
                         break;
                     case STRING:
-                        strings[columnIndex] = Arrays.copyOf(bytes, bytes.length);
+                        slices[columnIndex] = Slices.wrappedBuffer(bytes);
                         break;
                     default:
                         throw new UnsupportedOperationException("Unsupported column type: " + types[columnIndex]);
                 }
             }
         }
+
+        // partition keys are loaded for every row
+        System.arraycopy(isPartitionColumn, 0, loaded, 0, isPartitionColumn.length);
     }
 
     @Override
@@ -258,13 +265,13 @@ class ColumnarBinaryHiveRecordCursor<K>
                 return false;
             }
 
-            // reset loaded flags
-            // partition keys are already loaded, but everything else is not
-            System.arraycopy(isPartitionColumn, 0, loaded, 0, isPartitionColumn.length);
-
-            // reset null flags
-            // todo this shouldn't be needed
-            Arrays.fill(nulls, false);
+            // only reset the columns read from the previous row, so rows rejected by a filter
+            // cost nothing for the projected columns, no matter how wide the projection is
+            // partition keys are never reset, and the null flag is set whenever a column is loaded
+            for (int i = 0; i < loadedColumnCount; i++) {
+                loaded[loadedColumns[i]] = false;
+            }
+            loadedColumnCount = 0;
 
             return true;
         }
@@ -292,6 +299,7 @@ class ColumnarBinaryHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -345,6 +353,7 @@ class ColumnarBinaryHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -441,6 +450,7 @@ class ColumnarBinaryHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -491,6 +501,12 @@ class ColumnarBinaryHiveRecordCursor<K>
 
     @Override
     public byte[] getString(int fieldId)
+    {
+        return getSlice(fieldId).getBytes();
+    }
+
+    @Override
+    public Slice getSlice(int fieldId)
     {
         checkState(!closed, "Cursor is closed");
 
@@ -498,7 +514,7 @@ class ColumnarBinaryHiveRecordCursor<K>
         if (!loaded[fieldId]) {
             parseStringColumn(fieldId);
         }
-        return strings[fieldId];
+        return slices[fieldId];
     }
 
     private void parseStringColumn(int column)
@@ -507,6 +523,7 @@ class ColumnarBinaryHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -546,15 +563,15 @@ class ColumnarBinaryHiveRecordCursor<K>
                 ByteArrayRef byteArrayRef = new ByteArrayRef();
                 byteArrayRef.setData(bytes);
                 lazyObject.init(byteArrayRef, start, length);
-                strings[column] = SerDeUtils.getJSONString(lazyObject.getObject(), fieldInspectors[column]).getBytes(Charsets.UTF_8);
+                slices[column] = Slices.wrappedBuffer(SerDeUtils.getJSONString(lazyObject.getObject(), fieldInspectors[column]).getBytes(Charsets.UTF_8));
             }
             else {
                 // TODO: zero length BINARY is not supported. See https://issues.apache.org/jira/browse/HIVE-2483
                 if (hiveTypes[column] == HiveType.STRING && (length == 1) && bytes[start] == HIVE_EMPTY_STRING_BYTE) {
-                    strings[column] = EMPTY_STRING;
+                    slices[column] = Slices.EMPTY_SLICE;
                 }
                 else {
-                    strings[column] = Arrays.copyOfRange(bytes, start, start + length);
+                    slices[column] = Slices.wrappedBuffer(bytes).slice(start, length);
                 }
             }
         }
@@ -591,6 +608,49 @@ class ColumnarBinaryHiveRecordCursor<K>
         }
     }
 
+    @Override
+    public int appendBatch(ColumnWriter[] columns, int maxPositions)
+    {
+        checkArgument(columns.length == types.length, "Expected %s column writers, but got %s", types.length, columns.length);
+
+        int positions = 0;
+        while (positions < maxPositions && advanceNextPosition()) {
+            for (int column = 0; column < types.length; column++) {
+                appendColumn(column, columns[column]);
+            }
+            positions++;
+        }
+        return positions;
+    }
+
+    private void appendColumn(int column, ColumnWriter output)
+    {
+        // strings are parsed to a slice over the row buffer, which the writer copies
+        if (!loaded[column]) {
+            parseColumn(column);
+        }
+        if (nulls[column]) {
+            output.appendNull();
+            return;
+        }
+        switch (types[column]) {
+            case BOOLEAN:
+                output.appendBoolean(booleans[column]);
+                break;
+            case LONG:
+                output.appendLong(longs[column]);
+                break;
+            case DOUBLE:
+                output.appendDouble(doubles[column]);
+                break;
+            case STRING:
+                output.appendString(slices[column]);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported column type: " + types[column]);
+        }
+    }
+
     private void validateType(int fieldId, ColumnType type)
     {
         if (types[fieldId] != type) {
@@ -14,10 +14,13 @@
 package com.facebook.presto.hive;
 
 import com.facebook.presto.hive.shaded.org.apache.commons.codec.binary.Base64;
+import com.facebook.presto.spi.BatchRecordCursor;
 import com.facebook.presto.spi.ColumnType;
-import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.ColumnWriter;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
@@ -50,7 +53,7 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 class ColumnarTextHiveRecordCursor<K>
-        implements RecordCursor
+        implements BatchRecordCursor
 {
     private final RecordReader<K, BytesRefArrayWritable> recordReader;
     private final K key;
@@ -68,10 +71,12 @@ class ColumnarTextHiveRecordCursor<K>
     private final boolean[] isPartitionColumn;
 
     private final boolean[] loaded;
+    private final int[] loadedColumns;
+    private int loadedColumnCount;
     private final boolean[] booleans;
     private final long[] longs;
     private final double[] doubles;
-    private final byte[][] strings;
+    private final Slice[] slices;
     private final boolean[] nulls;
 
     private final long totalBytes;
@@ -109,10 +114,11 @@ class ColumnarTextHiveRecordCursor<K>
         this.isPartitionColumn = new boolean[size];
 
         this.loaded = new boolean[size];
+        this.loadedColumns = new int[size];
         this.booleans = new boolean[size];
         this.longs = new long[size];
         this.doubles = new double[size];
-        this.strings = new byte[size][];
+        this.slices = new Slice[size];
         this.nulls = new boolean[size];
 
         // initialize data columns
@@ -174,13 +180,16 @@ class ColumnarTextHiveRecordCursor<K>
                         doubles[columnIndex] = parseDouble(bytes, 0, bytes.length);
                         break;
                     case STRING:
-                        strings[columnIndex] = Arrays.copyOf(bytes, bytes.length);
+                        slices[columnIndex] = Slices.wrappedBuffer(bytes);
                         break;
                     default:
                         throw new UnsupportedOperationException("Unsupported column type: " + types[columnIndex]);
                 }
             }
         }
+
+        // partition keys are loaded for every row
+        System.arraycopy(isPartitionColumn, 0, loaded, 0, isPartitionColumn.length);
     }
 
     @Override
@@ -223,13 +232,13 @@ class ColumnarTextHiveRecordCursor<K>
                 return false;
             }
 
-            // reset loaded flags
-            // partition keys are already loaded, but everything else is not
-            System.arraycopy(isPartitionColumn, 0, loaded, 0, isPartitionColumn.length);
-
-            // reset null flags
-            // todo this shouldn't be needed
-            Arrays.fill(nulls, false);
+            // only reset the columns read from the previous row, so rows rejected by a filter
+            // cost nothing for the projected columns, no matter how wide the projection is
+            // partition keys are never reset, and the null flag is set whenever a column is loaded
+            for (int i = 0; i < loadedColumnCount; i++) {
+                loaded[loadedColumns[i]] = false;
+            }
+            loadedColumnCount = 0;
 
             return true;
         }
@@ -257,6 +266,7 @@ class ColumnarTextHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -316,6 +326,7 @@ class ColumnarTextHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -376,6 +387,7 @@ class ColumnarTextHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -415,6 +427,12 @@ class ColumnarTextHiveRecordCursor<K>
 
     @Override
     public byte[] getString(int fieldId)
+    {
+        return getSlice(fieldId).getBytes();
+    }
+
+    @Override
+    public Slice getSlice(int fieldId)
     {
         checkState(!closed, "Cursor is closed");
 
@@ -422,7 +440,7 @@ class ColumnarTextHiveRecordCursor<K>
         if (!loaded[fieldId]) {
             parseStringColumn(fieldId);
         }
-        return strings[fieldId];
+        return slices[fieldId];
     }
 
     private void parseStringColumn(int column)
@@ -431,6 +449,7 @@ class ColumnarTextHiveRecordCursor<K>
         checkArgument(!isPartitionColumn[column], "Column is a partition key");
 
         loaded[column] = true;
+        loadedColumns[loadedColumnCount++] = column;
 
         if (hiveColumnIndexes[column] >= value.size()) {
             // this partition may contain fewer fields than what's declared in the schema
@@ -468,17 +487,17 @@ class ColumnarTextHiveRecordCursor<K>
             ByteArrayRef byteArrayRef = new ByteArrayRef();
             byteArrayRef.setData(bytes);
             lazyObject.init(byteArrayRef, start, length);
-            strings[column] = SerDeUtils.getJSONString(lazyObject.getObject(), fieldInspectors[column]).getBytes(Charsets.UTF_8);
+            slices[column] = Slices.wrappedBuffer(SerDeUtils.getJSONString(lazyObject.getObject(), fieldInspectors[column]).getBytes(Charsets.UTF_8));
             wasNull = false;
         }
-        else {
-            strings[column] = Arrays.copyOfRange(bytes, start, start + length);
-
+        else if (hiveTypes[column] == HiveType.BINARY) {
             // this is unbelievably stupid but Hive base64 encodes binary data in a binary file format
-            if (hiveTypes[column] == HiveType.BINARY) {
-                // and yes we end up with an extra copy here because the Base64 only handles whole arrays
-                strings[column] = Base64.decodeBase64(strings[column]);
-            }
+            // and yes we end up with an extra copy here because the Base64 only handles whole arrays
+            slices[column] = Slices.wrappedBuffer(Base64.decodeBase64(Arrays.copyOfRange(bytes, start, start + length)));
+            wasNull = false;
+        }
+        else {
+            slices[column] = Slices.wrappedBuffer(bytes).slice(start, length);
             wasNull = false;
         }
         nulls[column] = wasNull;
@@ -515,6 +534,49 @@ class ColumnarTextHiveRecordCursor<K>
         }
     }
 
+    @Override
+    public int appendBatch(ColumnWriter[] columns, int maxPositions)
+    {
+        checkArgument(columns.length == types.length, "Expected %s column writers, but got %s", types.length, columns.length);
+
+        int positions = 0;
+        while (positions < maxPositions && advanceNextPosition()) {
+            for (int column = 0; column < types.length; column++) {
+                appendColumn(column, columns[column]);
+            }
+            positions++;
+        }
+        return positions;
+    }
+
+    private void appendColumn(int column, ColumnWriter output)
+    {
+        // strings are parsed to a slice over the row buffer, which the writer copies
+        if (!loaded[column]) {
+            parseColumn(column);
+        }
+        if (nulls[column]) {
+            output.appendNull();
+            return;
+        }
+        switch (types[column]) {
+            case BOOLEAN:
+                output.appendBoolean(booleans[column]);
+                break;
+            case LONG:
+                output.appendLong(longs[column]);
+                break;
+            case DOUBLE:
+                output.appendDouble(doubles[column]);
+                break;
+            case STRING:
+                output.appendString(slices[column]);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported column type: " + types[column]);
+        }
+    }
+
     private void validateType(int fieldId, ColumnType type)
     {
         if (types[fieldId] != type) {
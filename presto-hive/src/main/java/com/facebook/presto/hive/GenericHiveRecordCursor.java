@@ -17,6 +17,8 @@ import com.facebook.presto.spi.ColumnType;
 import com.facebook.presto.spi.RecordCursor;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.apache.hadoop.hive.metastore.MetaStoreUtils;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.serde2.Deserializer;
@@ -26,12 +28,13 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.RecordReader;
 
 import java.io.IOException;
 import java.sql.Timestamp;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -71,7 +74,7 @@ class GenericHiveRecordCursor<K, V extends Writable>
     private final boolean[] booleans;
     private final long[] longs;
     private final double[] doubles;
-    private final byte[][] strings;
+    private final Slice[] slices;
     private final boolean[] nulls;
 
     private final long totalBytes;
@@ -116,7 +119,7 @@ class GenericHiveRecordCursor<K, V extends Writable>
         this.booleans = new boolean[size];
         this.longs = new long[size];
         this.doubles = new double[size];
-        this.strings = new byte[size][];
+        this.slices = new Slice[size];
         this.nulls = new boolean[size];
 
         // initialize data columns
@@ -172,7 +175,7 @@ class GenericHiveRecordCursor<K, V extends Writable>
                         doubles[columnIndex] = parseDouble(bytes, 0, bytes.length);
                         break;
                     case STRING:
-                        strings[columnIndex] = Arrays.copyOf(bytes, bytes.length);
+                        slices[columnIndex] = Slices.wrappedBuffer(bytes);
                         break;
                     default:
                         throw new UnsupportedOperationException("Unsupported column type: " + types[columnIndex]);
@@ -342,6 +345,12 @@ class GenericHiveRecordCursor<K, V extends Writable>
 
     @Override
     public byte[] getString(int fieldId)
+    {
+        return getSlice(fieldId).getBytes();
+    }
+
+    @Override
+    public Slice getSlice(int fieldId)
     {
         checkState(!closed, "Cursor is closed");
 
@@ -349,7 +358,7 @@ class GenericHiveRecordCursor<K, V extends Writable>
         if (!loaded[fieldId]) {
             parseStringColumn(fieldId);
         }
-        return strings[fieldId];
+        return slices[fieldId];
     }
 
     private void parseStringColumn(int column)
@@ -366,17 +375,24 @@ class GenericHiveRecordCursor<K, V extends Writable>
         }
         else if (hiveTypes[column] == HiveType.MAP || hiveTypes[column] == HiveType.LIST || hiveTypes[column] == HiveType.STRUCT) {
             // temporarily special case MAP, LIST, and STRUCT types as strings
-            strings[column] = SerDeUtils.getJSONString(fieldData, fieldInspectors[column]).getBytes(Charsets.UTF_8);
+            slices[column] = Slices.wrappedBuffer(SerDeUtils.getJSONString(fieldData, fieldInspectors[column]).getBytes(Charsets.UTF_8));
+            nulls[column] = false;
+        }
+        else if (fieldInspectors[column] instanceof StringObjectInspector) {
+            // use the bytes of the text directly instead of decoding and re-encoding a java String
+            Text text = ((StringObjectInspector) fieldInspectors[column]).getPrimitiveWritableObject(fieldData);
+            checkState(text != null, "text should not be null");
+            slices[column] = Slices.wrappedBuffer(text.getBytes()).slice(0, text.getLength());
             nulls[column] = false;
         }
         else {
             Object fieldValue = ((PrimitiveObjectInspector) fieldInspectors[column]).getPrimitiveJavaObject(fieldData);
             checkState(fieldValue != null, "fieldValue should not be null");
             if (fieldValue instanceof String) {
-                strings[column] = ((String) fieldValue).getBytes(Charsets.UTF_8);
+                slices[column] = Slices.copiedBuffer((String) fieldValue, Charsets.UTF_8);
             }
             else if (fieldValue instanceof byte[]) {
-                strings[column] = (byte[]) fieldValue;
+                slices[column] = Slices.wrappedBuffer((byte[]) fieldValue);
             }
             else {
                 throw new IllegalStateException("unsupported string field type: " + fieldValue.getClass().getName());
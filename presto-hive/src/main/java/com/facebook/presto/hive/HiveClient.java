@@ -137,6 +137,7 @@ public class HiveClient
     private final int maxPartitionBatchSize;
     private final CachingHiveMetastore metastore;
     private final HdfsEnvironment hdfsEnvironment;
+    private final CachingDirectoryLister directoryLister;
     private final Executor executor;
     private final DataSize maxSplitSize;
 
@@ -145,11 +146,13 @@ public class HiveClient
             HiveClientConfig hiveClientConfig,
             CachingHiveMetastore metastore,
             HdfsEnvironment hdfsEnvironment,
+            CachingDirectoryLister directoryLister,
             @ForHiveClient ExecutorService executorService)
     {
         this(connectorId,
                 metastore,
                 hdfsEnvironment,
+                directoryLister,
                 new BoundedExecutor(executorService, hiveClientConfig.getMaxGlobalSplitIteratorThreads()),
                 hiveClientConfig.getMaxSplitSize(),
                 hiveClientConfig.getMaxOutstandingSplits(),
@@ -161,6 +164,7 @@ public class HiveClient
     public HiveClient(HiveConnectorId connectorId,
             CachingHiveMetastore metastore,
             HdfsEnvironment hdfsEnvironment,
+            CachingDirectoryLister directoryLister,
             Executor executor,
             DataSize maxSplitSize,
             int maxOutstandingSplits,
@@ -178,6 +182,7 @@ public class HiveClient
 
         this.metastore = checkNotNull(metastore, "metastore is null");
         this.hdfsEnvironment = checkNotNull(hdfsEnvironment, "hdfsEnvironment is null");
+        this.directoryLister = checkNotNull(directoryLister, "directoryLister is null");
 
         this.executor = checkNotNull(executor, "executor is null");
     }
@@ -666,6 +671,7 @@ public class HiveClient
                 maxOutstandingSplits,
                 maxSplitIteratorThreads,
                 hdfsEnvironment,
+                directoryLister,
                 executor,
                 maxPartitionBatchSize).get();
     }
@@ -45,6 +45,8 @@ public class HiveClientConfig
     private Duration metastoreTimeout = new Duration(10, TimeUnit.SECONDS);
 
     private Duration fileSystemCacheTtl = new Duration(1, TimeUnit.DAYS);
+    private Duration fileListingCacheTtl = new Duration(0, TimeUnit.SECONDS);
+    private long maxFileListingCacheFiles = 100_000;
     private Duration dfsTimeout = new Duration(10, TimeUnit.SECONDS);
     private Duration dfsConnectTimeout = new Duration(500, TimeUnit.MILLISECONDS);
     private int dfsConnectMaxRetries = 5;
@@ -229,6 +231,32 @@ public class HiveClientConfig
         return this;
     }
 
+    @NotNull
+    public Duration getFileListingCacheTtl()
+    {
+        return fileListingCacheTtl;
+    }
+
+    @Config("hive.file-listing-cache-ttl")
+    public HiveClientConfig setFileListingCacheTtl(Duration fileListingCacheTtl)
+    {
+        this.fileListingCacheTtl = fileListingCacheTtl;
+        return this;
+    }
+
+    @Min(0)
+    public long getMaxFileListingCacheFiles()
+    {
+        return maxFileListingCacheFiles;
+    }
+
+    @Config("hive.file-listing-cache.max-files")
+    public HiveClientConfig setMaxFileListingCacheFiles(long maxFileListingCacheFiles)
+    {
+        this.maxFileListingCacheFiles = maxFileListingCacheFiles;
+        return this;
+    }
+
     @NotNull
     @MinDuration("1ms")
     public Duration getDfsTimeout()
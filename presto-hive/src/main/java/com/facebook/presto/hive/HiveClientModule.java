@@ -60,6 +60,10 @@ public class HiveClientModule
         newExporter(binder).export(CachingHiveMetastore.class)
                 .as(generatedNameOf(CachingHiveMetastore.class, connectorId));
 
+        binder.bind(CachingDirectoryLister.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(CachingDirectoryLister.class)
+                .as(generatedNameOf(CachingDirectoryLister.class, connectorId));
+
         binder.bind(DiscoveryLocatedHiveCluster.class).in(Scopes.SINGLETON);
         binder.bind(HiveMetastoreClientFactory.class).in(Scopes.SINGLETON);
         discoveryBinder(binder).bindSelector("hive-metastore");
@@ -26,11 +26,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.units.DataSize;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.metastore.MetaStoreUtils;
 import org.apache.hadoop.hive.metastore.api.FieldSchema;
@@ -105,6 +107,7 @@ class HiveSplitSourceProvider
     private final int maxOutstandingSplits;
     private final int maxThreads;
     private final HdfsEnvironment hdfsEnvironment;
+    private final CachingDirectoryLister directoryLister;
     private final Executor executor;
     private final ClassLoader classLoader;
     private final DataSize maxSplitSize;
@@ -119,6 +122,7 @@ class HiveSplitSourceProvider
             int maxOutstandingSplits,
             int maxThreads,
             HdfsEnvironment hdfsEnvironment,
+            CachingDirectoryLister directoryLister,
             Executor executor,
             int maxPartitionBatchSize)
     {
@@ -132,6 +136,7 @@ class HiveSplitSourceProvider
         this.maxOutstandingSplits = maxOutstandingSplits;
         this.maxThreads = maxThreads;
         this.hdfsEnvironment = hdfsEnvironment;
+        this.directoryLister = directoryLister;
         this.executor = executor;
         this.classLoader = Thread.currentThread().getContextClassLoader();
     }
@@ -157,7 +162,7 @@ class HiveSplitSourceProvider
         return hiveSplitSource;
     }
 
-    private void loadPartitionSplits(final HiveSplitSource hiveSplitSource, SuspendingExecutor suspendingExecutor)
+    private void loadPartitionSplits(final HiveSplitSource hiveSplitSource, final SuspendingExecutor suspendingExecutor)
             throws InterruptedException
     {
         final Semaphore semaphore = new Semaphore(maxPartitionBatchSize);
@@ -165,78 +170,17 @@ class HiveSplitSourceProvider
             ImmutableList.Builder<ListenableFuture<Void>> futureBuilder = ImmutableList.builder();
 
             Iterator<String> nameIterator = partitionNames.iterator();
-            for (Partition partition : partitions) {
+            for (final Partition partition : partitions) {
                 checkState(nameIterator.hasNext(), "different number of partitions and partition names!");
                 final String partitionName = nameIterator.next();
-                final Properties schema = getPartitionSchema(table, partition);
-                final List<HivePartitionKey> partitionKeys = getPartitionKeys(table, partition);
-
-                Path path = new Path(getPartitionLocation(table, partition));
-                final Configuration configuration = hdfsEnvironment.getConfiguration(path);
-                final InputFormat<?, ?> inputFormat = getInputFormat(configuration, schema, false);
-
-                FileSystem fs = path.getFileSystem(configuration);
                 final LastSplitMarkingQueue markerQueue = new LastSplitMarkingQueue(hiveSplitSource);
-
-                if (inputFormat instanceof SymlinkTextInputFormat) {
-                    JobConf jobConf = new JobConf(configuration);
-                    FileInputFormat.setInputPaths(jobConf, path);
-                    InputSplit[] splits = inputFormat.getSplits(jobConf, 0);
-                    for (InputSplit rawSplit : splits) {
-                        FileSplit split = ((SymlinkTextInputFormat.SymlinkTextInputSplit) rawSplit).getTargetSplit();
-
-                        // get the filesystem for the target path -- it may be a different hdfs instance
-                        FileSystem targetFilesystem = split.getPath().getFileSystem(configuration);
-                        FileStatus fileStatus = targetFilesystem.getFileStatus(split.getPath());
-                        markerQueue.addToQueue(createHiveSplits(
-                                partitionName,
-                                fileStatus,
-                                targetFilesystem.getFileBlockLocations(fileStatus, split.getStart(), split.getLength()),
-                                split.getStart(),
-                                split.getLength(),
-                                schema,
-                                partitionKeys,
-                                false));
-                    }
-                    markerQueue.finish();
-                    continue;
-                }
-
-                // TODO: this is currently serial across all partitions and should be done in suspendingExecutor
-                if (bucket.isPresent()) {
-                    Optional<FileStatus> bucketFile = getBucketFile(bucket.get(), fs, path);
-                    if (bucketFile.isPresent()) {
-                        FileStatus file = bucketFile.get();
-                        BlockLocation[] blockLocations = fs.getFileBlockLocations(file, 0, file.getLen());
-                        boolean splittable = isSplittable(inputFormat, fs, file.getPath());
-
-                        markerQueue.addToQueue(createHiveSplits(partitionName, file, blockLocations, 0, file.getLen(), schema, partitionKeys, splittable));
-                        markerQueue.finish();
-                        continue;
-                    }
-                }
+                final SettableFuture<Void> partitionFuture = SettableFuture.create();
 
                 // Acquire semaphore so that we only have a fixed number of outstanding partitions being processed asynchronously
                 // NOTE: there must not be any calls that throw in the space between acquiring the semaphore and setting the Future
                 // callback to release it. Otherwise, we will need a try-finally block around this section.
                 semaphore.acquire();
 
-                ListenableFuture<Void> partitionFuture = new AsyncRecursiveWalker(fs, suspendingExecutor).beginWalk(path, new FileStatusCallback()
-                {
-                    @Override
-                    public void process(FileStatus file, BlockLocation[] blockLocations)
-                    {
-                        try {
-                            boolean splittable = isSplittable(inputFormat, file.getPath().getFileSystem(configuration), file.getPath());
-
-                            markerQueue.addToQueue(createHiveSplits(partitionName, file, blockLocations, 0, file.getLen(), schema, partitionKeys, splittable));
-                        }
-                        catch (IOException e) {
-                            hiveSplitSource.fail(e);
-                        }
-                    }
-                });
-
                 // release the semaphore when the partition finishes
                 Futures.addCallback(partitionFuture, new FutureCallback<Void>()
                 {
@@ -256,6 +200,23 @@ class HiveSplitSourceProvider
                 });
 
                 futureBuilder.add(partitionFuture);
+
+                // the partition is listed in the suspending executor, so partitions are loaded in parallel
+                // and the loading stops while the split queue is full
+                suspendingExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try (ThreadContextClassLoader ignored = new ThreadContextClassLoader(classLoader)) {
+                            loadPartition(partition, partitionName, hiveSplitSource, markerQueue, suspendingExecutor, partitionFuture);
+                        }
+                        catch (Throwable t) {
+                            partitionFuture.setException(t);
+                            Throwables.propagateIfInstanceOf(t, Error.class);
+                        }
+                    }
+                });
             }
 
             // when all partitions finish, mark the queue as finished
@@ -280,17 +241,106 @@ class HiveSplitSourceProvider
         }
     }
 
-    private static Optional<FileStatus> getBucketFile(HiveBucket bucket, FileSystem fs, Path path)
+    private void loadPartition(
+            Partition partition,
+            final String partitionName,
+            final HiveSplitSource hiveSplitSource,
+            final LastSplitMarkingQueue markerQueue,
+            SuspendingExecutor suspendingExecutor,
+            final SettableFuture<Void> partitionFuture)
+            throws IOException
     {
-        FileStatus[] statuses = listStatus(fs, path);
+        final Properties schema = getPartitionSchema(table, partition);
+        final List<HivePartitionKey> partitionKeys = getPartitionKeys(table, partition);
+
+        Path path = new Path(getPartitionLocation(table, partition));
+        final Configuration configuration = hdfsEnvironment.getConfiguration(path);
+        final InputFormat<?, ?> inputFormat = getInputFormat(configuration, schema, false);
+
+        FileSystem fs = path.getFileSystem(configuration);
+
+        if (inputFormat instanceof SymlinkTextInputFormat) {
+            JobConf jobConf = new JobConf(configuration);
+            FileInputFormat.setInputPaths(jobConf, path);
+            InputSplit[] splits = inputFormat.getSplits(jobConf, 0);
+            for (InputSplit rawSplit : splits) {
+                FileSplit split = ((SymlinkTextInputFormat.SymlinkTextInputSplit) rawSplit).getTargetSplit();
+
+                // get the filesystem for the target path -- it may be a different hdfs instance
+                FileSystem targetFilesystem = split.getPath().getFileSystem(configuration);
+                FileStatus fileStatus = targetFilesystem.getFileStatus(split.getPath());
+                markerQueue.addToQueue(createHiveSplits(
+                        partitionName,
+                        fileStatus,
+                        targetFilesystem.getFileBlockLocations(fileStatus, split.getStart(), split.getLength()),
+                        split.getStart(),
+                        split.getLength(),
+                        schema,
+                        partitionKeys,
+                        false));
+            }
+            partitionFuture.set(null);
+            return;
+        }
 
-        if (statuses.length != bucket.getBucketCount()) {
+        if (bucket.isPresent()) {
+            Optional<LocatedFileStatus> bucketFile = getBucketFile(bucket.get(), fs, path);
+            if (bucketFile.isPresent()) {
+                LocatedFileStatus file = bucketFile.get();
+                BlockLocation[] blockLocations = file.getBlockLocations();
+                boolean splittable = isSplittable(inputFormat, fs, file.getPath());
+
+                markerQueue.addToQueue(createHiveSplits(partitionName, file, blockLocations, 0, file.getLen(), schema, partitionKeys, splittable));
+                partitionFuture.set(null);
+                return;
+            }
+        }
+
+        // splits are queued as soon as each file is listed
+        ListenableFuture<Void> walkFuture = new AsyncRecursiveWalker(fs, directoryLister, suspendingExecutor).beginWalk(path, new FileStatusCallback()
+        {
+            @Override
+            public void process(FileStatus file, BlockLocation[] blockLocations)
+            {
+                try {
+                    boolean splittable = isSplittable(inputFormat, file.getPath().getFileSystem(configuration), file.getPath());
+
+                    markerQueue.addToQueue(createHiveSplits(partitionName, file, blockLocations, 0, file.getLen(), schema, partitionKeys, splittable));
+                }
+                catch (IOException e) {
+                    hiveSplitSource.fail(e);
+                }
+            }
+        });
+
+        Futures.addCallback(walkFuture, new FutureCallback<Void>()
+        {
+            @Override
+            public void onSuccess(Void result)
+            {
+                partitionFuture.set(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                partitionFuture.setException(t);
+            }
+        });
+    }
+
+    private Optional<LocatedFileStatus> getBucketFile(HiveBucket bucket, FileSystem fs, Path path)
+            throws IOException
+    {
+        List<LocatedFileStatus> statuses = directoryLister.list(fs, path);
+
+        if (statuses.size() != bucket.getBucketCount()) {
             return Optional.absent();
         }
 
-        Map<String, FileStatus> map = new HashMap<>();
+        Map<String, LocatedFileStatus> map = new HashMap<>();
         List<String> paths = new ArrayList<>();
-        for (FileStatus status : statuses) {
+        for (LocatedFileStatus status : statuses) {
             if (!isFile(status)) {
                 return Optional.absent();
             }
@@ -306,16 +356,6 @@ class HiveSplitSourceProvider
         return Optional.of(map.get(pathString));
     }
 
-    private static FileStatus[] listStatus(FileSystem fs, Path path)
-    {
-        try {
-            return fs.listStatus(path);
-        }
-        catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
-    }
-
     private List<HiveSplit> createHiveSplits(
             String partitionName,
             FileStatus file,
@@ -13,29 +13,30 @@
  */
 package com.facebook.presto.hive.util;
 
+import com.facebook.presto.hive.CachingDirectoryLister;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.RemoteIterator;
 
 import java.io.FileNotFoundException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.facebook.presto.hadoop.HadoopFileStatus.isDirectory;
-import static com.facebook.presto.hadoop.HadoopFileSystem.listLocatedStatus;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class AsyncRecursiveWalker
 {
     private final FileSystem fileSystem;
+    private final CachingDirectoryLister directoryLister;
     private final Executor executor;
 
-    public AsyncRecursiveWalker(FileSystem fileSystem, Executor executor)
+    public AsyncRecursiveWalker(FileSystem fileSystem, CachingDirectoryLister directoryLister, Executor executor)
     {
         this.fileSystem = checkNotNull(fileSystem, "fileSystem is null");
+        this.directoryLister = checkNotNull(directoryLister, "directoryLister is null");
         this.executor = checkNotNull(executor, "executor is null");
     }
 
@@ -67,9 +68,7 @@ public class AsyncRecursiveWalker
     private void doWalk(Path path, FileStatusCallback callback, AtomicLong taskCount, SettableFuture<Void> future)
     {
         try {
-            RemoteIterator<LocatedFileStatus> iterator = listLocatedStatus(fileSystem, path);
-            while (iterator.hasNext()) {
-                LocatedFileStatus status = iterator.next();
+            for (LocatedFileStatus status : directoryLister.list(fileSystem, path)) {
                 if (isDirectory(status)) {
                     recursiveWalk(status.getPath(), callback, taskCount, future);
                 }
@@ -184,6 +184,7 @@ public abstract class AbstractTestHiveClient
                 new HiveConnectorId(connectorName),
                 metastoreClient,
                 new HdfsEnvironment(new HdfsConfiguration(hiveClientConfig)),
+                new CachingDirectoryLister(hiveClientConfig),
                 sameThreadExecutor(),
                 hiveClientConfig.getMaxSplitSize(),
                 maxOutstandingSplits,
@@ -71,6 +71,7 @@ public abstract class AbstractTestHiveClientS3
                 hiveClientConfig,
                 new CachingHiveMetastore(hiveCluster, executor, hiveClientConfig),
                 new HdfsEnvironment(new HdfsConfiguration(hiveClientConfig)),
+                new CachingDirectoryLister(hiveClientConfig),
                 sameThreadExecutor());
     }
 
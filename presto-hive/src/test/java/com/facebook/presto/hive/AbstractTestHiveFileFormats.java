@@ -13,6 +13,8 @@
  */
 package com.facebook.presto.hive;
 
+import com.facebook.presto.spi.BatchRecordCursor;
+import com.facebook.presto.spi.ColumnWriter;
 import com.facebook.presto.spi.RecordCursor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -21,6 +23,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import io.airlift.slice.Slice;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -45,6 +48,7 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
@@ -65,6 +69,7 @@ import static org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveO
 import static org.apache.hadoop.mapreduce.lib.output.FileOutputFormat.COMPRESS_CODEC;
 import static org.apache.hadoop.mapreduce.lib.output.FileOutputFormat.COMPRESS_TYPE;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 @Test(groups = "hive")
@@ -198,6 +203,9 @@ public abstract class AbstractTestHiveFileFormats
                 Pair.<Object, Object>of(ImmutableMap.of("test", ImmutableList.<Object>of(new Integer[] {1})), "{\"test\":[{\"s_int\":1}]}")
         );
 
+    private static final String PARTITION_STRING = "partition";
+    private static final long PARTITION_BIGINT = 42;
+
     protected List<HiveColumnHandle> getColumns()
     {
         List<HiveColumnHandle> columns = new ArrayList<>();
@@ -207,8 +215,43 @@ public abstract class AbstractTestHiveFileFormats
         return columns;
     }
 
+    /**
+     * Returns the columns of the test file followed by the partition keys
+     * returned by {@link #getPartitionKeys}.
+     */
+    protected List<HiveColumnHandle> getColumnsWithPartitionKeys()
+    {
+        List<HiveColumnHandle> columns = getColumns();
+        columns.add(new HiveColumnHandle("client_id=0", "p_string", COLUMN_NAMES.size(), HiveType.STRING, -1, true));
+        columns.add(new HiveColumnHandle("client_id=0", "p_bigint", COLUMN_NAMES.size() + 1, HiveType.LONG, -1, true));
+        return columns;
+    }
+
+    protected List<HivePartitionKey> getPartitionKeys()
+    {
+        return ImmutableList.of(
+                new HivePartitionKey("p_string", HiveType.STRING, PARTITION_STRING),
+                new HivePartitionKey("p_bigint", HiveType.LONG, String.valueOf(PARTITION_BIGINT)));
+    }
+
     public FileSplit createTestFile(String filePath, HiveOutputFormat<?, ?> outputFormat, @SuppressWarnings("deprecation") SerDe serDe, String compressionCodec)
             throws Exception
+    {
+        return createTestFile(filePath, outputFormat, serDe, compressionCodec, false);
+    }
+
+    /**
+     * Creates a test file where the values of each column are null in every
+     * third row, starting at a different row for adjacent columns.
+     */
+    public FileSplit createTestFileWithNulls(String filePath, HiveOutputFormat<?, ?> outputFormat, @SuppressWarnings("deprecation") SerDe serDe)
+            throws Exception
+    {
+        return createTestFile(filePath, outputFormat, serDe, null, true);
+    }
+
+    private FileSplit createTestFile(String filePath, HiveOutputFormat<?, ?> outputFormat, @SuppressWarnings("deprecation") SerDe serDe, String compressionCodec, boolean withNulls)
+            throws Exception
     {
         JobConf jobConf = new JobConf();
         Properties tableProperties = new Properties();
@@ -247,7 +290,8 @@ public abstract class AbstractTestHiveFileFormats
 
             for (int rowNumber = 0; rowNumber < NUM_ROWS; rowNumber++) {
                 for (int i = 0; i < TEST_VALUES.size(); i++) {
-                    objectInspector.setStructFieldData(row, fields.get(i), TEST_VALUES.get(i).getKey());
+                    Object value = withNulls && isNullInRow(rowNumber, i) ? null : TEST_VALUES.get(i).getKey();
+                    objectInspector.setStructFieldData(row, fields.get(i), value);
                 }
 
                 Writable record = serDe.serialize(row, objectInspector);
@@ -285,6 +329,7 @@ public abstract class AbstractTestHiveFileFormats
                         break;
                     case STRING:
                         fieldFromCursor = cursor.getString(i);
+                        assertEquals(cursor.getSlice(i).getBytes(), (byte[]) fieldFromCursor, String.format("Wrong slice for column %s", COLUMN_NAMES.get(i)));
                         break;
                     default:
                         throw new RuntimeException("unknown type");
@@ -305,4 +350,156 @@ public abstract class AbstractTestHiveFileFormats
             }
         }
     }
+
+    private static boolean isNullInRow(int row, int column)
+    {
+        return (row + column) % 3 == 0;
+    }
+
+    /**
+     * Reads a file created by {@link #createTestFileWithNulls} with a cursor over
+     * {@link #getColumnsWithPartitionKeys}, skipping different columns in each
+     * row, so a column read in a row was usually skipped or had a different
+     * null flag in the previous row.
+     */
+    protected void checkCursorWithNulls(RecordCursor cursor)
+    {
+        int stringPartitionKey = COLUMN_NAMES.size();
+        int bigintPartitionKey = COLUMN_NAMES.size() + 1;
+        for (int row = 0; row < NUM_ROWS; row++) {
+            assertTrue(cursor.advanceNextPosition());
+
+            // some rows are skipped entirely, like rows rejected by a filter on a partition key
+            if (row % 5 == 4) {
+                continue;
+            }
+
+            for (int i = 0; i < TEST_VALUES.size(); i++) {
+                if ((row + i) % 2 == 0) {
+                    continue;
+                }
+                boolean expectedNull = i == 0 || isNullInRow(row, i);
+                assertEquals(cursor.isNull(i), expectedNull, String.format("Wrong null flag for column %s in row %d", COLUMN_NAMES.get(i), row));
+                if (!expectedNull) {
+                    assertValue(cursor, i);
+                }
+            }
+
+            // partition keys are never null, and are not reset by the columns read in the row
+            if (row % 2 == 0) {
+                assertFalse(cursor.isNull(stringPartitionKey));
+                assertEquals(cursor.getSlice(stringPartitionKey).toStringUtf8(), PARTITION_STRING);
+            }
+            assertFalse(cursor.isNull(bigintPartitionKey));
+            assertEquals(cursor.getLong(bigintPartitionKey), PARTITION_BIGINT);
+        }
+        assertFalse(cursor.advanceNextPosition());
+    }
+
+    private static void assertValue(RecordCursor cursor, int field)
+    {
+        Object actual = getValue(cursor, field);
+        ObjectInspector fieldInspector = FIELD_INSPECTORS.get(field);
+        if (fieldInspector.getTypeName().equals("float") || fieldInspector.getTypeName().equals("double")) {
+            assertEquals((double) actual, (double) TEST_VALUES.get(field).getValue(), EPSILON);
+        }
+        else if (fieldInspector.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+            assertEquals(actual, TEST_VALUES.get(field).getValue(), String.format("Wrong value for column %s", COLUMN_NAMES.get(field)));
+        }
+    }
+
+    /**
+     * Reads the batch cursor with appendBatch and the row cursor a value at a
+     * time, and checks both see the same values.  Both cursors must read the
+     * same split.
+     */
+    protected void checkBatchCursor(BatchRecordCursor batchCursor, RecordCursor rowCursor)
+    {
+        ValueCollector[] columns = new ValueCollector[TEST_VALUES.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ValueCollector();
+        }
+
+        // use an odd batch size so a batch ends in the middle of a row group
+        int positions = 0;
+        int batchSize;
+        while ((batchSize = batchCursor.appendBatch(columns, 77)) > 0) {
+            positions += batchSize;
+        }
+        assertEquals(positions, NUM_ROWS);
+
+        for (int row = 0; row < NUM_ROWS; row++) {
+            assertTrue(rowCursor.advanceNextPosition());
+            for (int i = 0; i < TEST_VALUES.size(); i++) {
+                assertEquals(columns[i].getValues().get(row), getValue(rowCursor, i), String.format("Wrong batch value for column %s in row %d", COLUMN_NAMES.get(i), row));
+            }
+        }
+        assertFalse(rowCursor.advanceNextPosition());
+    }
+
+    private static Object getValue(RecordCursor cursor, int field)
+    {
+        if (cursor.isNull(field)) {
+            return null;
+        }
+        switch (HiveType.getHiveType(FIELD_INSPECTORS.get(field)).getNativeType()) {
+            case BOOLEAN:
+                return cursor.getBoolean(field);
+            case LONG:
+                return cursor.getLong(field);
+            case DOUBLE:
+                return cursor.getDouble(field);
+            case STRING:
+                return cursor.getSlice(field).getBytes();
+            default:
+                throw new RuntimeException("unknown type");
+        }
+    }
+
+    private static class ValueCollector
+            implements ColumnWriter
+    {
+        private final List<Object> values = new ArrayList<>();
+
+        public List<Object> getValues()
+        {
+            return values;
+        }
+
+        @Override
+        public void appendNull()
+        {
+            values.add(null);
+        }
+
+        @Override
+        public void appendBoolean(boolean value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public void appendLong(long value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public void appendDouble(double value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public void appendString(byte[] value, int offset, int length)
+        {
+            values.add(Arrays.copyOfRange(value, offset, offset + length));
+        }
+
+        @Override
+        public void appendString(Slice value)
+        {
+            values.add(value.getBytes());
+        }
+    }
 }
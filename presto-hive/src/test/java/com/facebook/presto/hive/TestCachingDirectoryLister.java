@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.hive;
+
+import com.google.common.io.Files;
+import io.airlift.units.Duration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.testing.FileUtils.deleteRecursively;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestCachingDirectoryLister
+{
+    private File directory;
+    private Path path;
+    private FileSystem fileSystem;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        directory = Files.createTempDir();
+        path = new Path(directory.toURI());
+        fileSystem = new RawLocalFileSystem();
+        fileSystem.initialize(URI.create("file:///"), new Configuration());
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        fileSystem.close();
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testCachedListing()
+            throws Exception
+    {
+        Files.touch(new File(directory, "file1"));
+        setModificationTime(1_000);
+
+        CachingDirectoryLister lister = new CachingDirectoryLister(new Duration(5, TimeUnit.MINUTES), 1000);
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+        assertEquals(lister.getMissCount(), 1);
+        assertEquals(lister.getCachedDirectories(), 1);
+
+        List<LocatedFileStatus> files = lister.list(fileSystem, path);
+        assertEquals(files.size(), 1);
+        assertEquals(files.get(0).getPath().getName(), "file1");
+        assertEquals(lister.getHitCount(), 1);
+
+        lister.flushCache();
+
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+        assertEquals(lister.getMissCount(), 2);
+    }
+
+    @Test
+    public void testModifiedDirectory()
+            throws Exception
+    {
+        Files.touch(new File(directory, "file1"));
+        setModificationTime(1_000);
+
+        CachingDirectoryLister lister = new CachingDirectoryLister(new Duration(5, TimeUnit.MINUTES), 1000);
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+
+        // an unchanged modification time returns the stale listing
+        Files.touch(new File(directory, "file2"));
+        setModificationTime(1_000);
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+        assertEquals(lister.getStaleCount(), 0);
+
+        setModificationTime(2_000);
+        assertEquals(lister.list(fileSystem, path).size(), 2);
+        assertEquals(lister.getStaleCount(), 1);
+        assertEquals(lister.getCachedDirectories(), 1);
+    }
+
+    @Test
+    public void testDirectoryWithoutModificationTime()
+            throws Exception
+    {
+        // like S3, the directory reports no modification time
+        Files.touch(new File(directory, "file1"));
+        setModificationTime(0);
+
+        CachingDirectoryLister lister = new CachingDirectoryLister(new Duration(5, TimeUnit.MINUTES), 1000);
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+
+        Files.touch(new File(directory, "file2"));
+        setModificationTime(0);
+        assertEquals(lister.list(fileSystem, path).size(), 2);
+        assertEquals(lister.getCachedDirectories(), 0);
+        assertEquals(lister.getUncachedCount(), 2);
+    }
+
+    @Test
+    public void testListingsAreKeyedByQualifiedPath()
+            throws Exception
+    {
+        Files.touch(new File(directory, "file1"));
+        setModificationTime(1_000);
+
+        CachingDirectoryLister lister = new CachingDirectoryLister(new Duration(5, TimeUnit.MINUTES), 1000);
+        assertEquals(lister.list(fileSystem, new Path(directory.getAbsolutePath())).size(), 1);
+        assertEquals(lister.list(fileSystem, fileSystem.makeQualified(path)).size(), 1);
+        assertEquals(lister.getHitCount(), 1);
+        assertEquals(lister.getCachedDirectories(), 1);
+    }
+
+    @Test
+    public void testDisabled()
+            throws Exception
+    {
+        Files.touch(new File(directory, "file1"));
+
+        CachingDirectoryLister lister = new CachingDirectoryLister(new Duration(0, TimeUnit.SECONDS), 1000);
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+        assertEquals(lister.list(fileSystem, path).size(), 1);
+        assertEquals(lister.getCachedDirectories(), 0);
+        assertEquals(lister.getHitCount(), 0);
+    }
+
+    private void setModificationTime(long modificationTime)
+    {
+        assertTrue(directory.setLastModified(modificationTime));
+    }
+}
@@ -46,6 +46,8 @@ public class TestHiveClientConfig
                 .setDfsConnectTimeout(new Duration(500, TimeUnit.MILLISECONDS))
                 .setDfsConnectMaxRetries(5)
                 .setFileSystemCacheTtl(new Duration(1, TimeUnit.DAYS))
+                .setFileListingCacheTtl(new Duration(0, TimeUnit.SECONDS))
+                .setMaxFileListingCacheFiles(100_000)
                 .setResourceConfigFiles((String) null)
                 .setDomainSocketPath(null)
                 .setS3AwsAccessKey(null)
@@ -71,6 +73,8 @@ public class TestHiveClientConfig
                 .put("hive.dfs.connect.timeout", "20s")
                 .put("hive.dfs.connect.max-retries", "10")
                 .put("hive.file-system-cache-ttl", "2d")
+                .put("hive.file-listing-cache-ttl", "30m")
+                .put("hive.file-listing-cache.max-files", "5000")
                 .put("hive.config.resources", "/foo.xml,/bar.xml")
                 .put("dfs.domain-socket-path", "/foo")
                 .put("hive.s3.aws-access-key", "abc123")
@@ -93,6 +97,8 @@ public class TestHiveClientConfig
                 .setDfsConnectTimeout(new Duration(20, TimeUnit.SECONDS))
                 .setDfsConnectMaxRetries(10)
                 .setFileSystemCacheTtl(new Duration(2, TimeUnit.DAYS))
+                .setFileListingCacheTtl(new Duration(30, TimeUnit.MINUTES))
+                .setMaxFileListingCacheFiles(5000)
                 .setResourceConfigFiles(ImmutableList.of("/foo.xml", "/bar.xml"))
                 .setDomainSocketPath("/foo")
                 .setS3AwsAccessKey("abc123")
@@ -13,7 +13,7 @@
  */
 package com.facebook.presto.hive;
 
-import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.BatchRecordCursor;
 import org.apache.hadoop.hive.ql.io.RCFileInputFormat;
 import org.apache.hadoop.hive.ql.io.RCFileOutputFormat;
 import org.apache.hadoop.hive.serde2.SerDe;
@@ -27,7 +27,9 @@ import org.apache.hadoop.mapred.Reporter;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 public class TestHiveFileFormats
@@ -37,24 +39,15 @@ public class TestHiveFileFormats
     public void testRCText()
             throws Exception
     {
-        JobConf jobConf = new JobConf();
         RCFileOutputFormat outputFormat = new RCFileOutputFormat();
-        @SuppressWarnings("rawtypes")
-        RCFileInputFormat inputFormat = new RCFileInputFormat();
         @SuppressWarnings("deprecation")
         SerDe serde = new ColumnarSerDe();
         File file = File.createTempFile("presto_test", "rc-text");
         try {
             FileSplit split = createTestFile(file.getAbsolutePath(), outputFormat, serde, null);
-            @SuppressWarnings("unchecked")
-            RecordReader<?, BytesRefArrayWritable> recordReader = (RecordReader<?, BytesRefArrayWritable>) inputFormat.getRecordReader(split, jobConf, Reporter.NULL);
-            Properties splitProperties = new Properties();
-            splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.ColumnarSerDe");
-            splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
-            splitProperties.setProperty("columns.types", COLUMN_TYPES);
-            RecordCursor cursor = new ColumnarTextHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns());
 
-            checkCursor(cursor, true);
+            checkCursor(createRCTextCursor(split), true);
+            checkBatchCursor(createRCTextCursor(split), createRCTextCursor(split));
         }
         finally {
             //noinspection ResultOfMethodCallIgnored
@@ -66,28 +59,99 @@ public class TestHiveFileFormats
     public void testRCBinary()
             throws Exception
     {
-        JobConf jobConf = new JobConf();
         RCFileOutputFormat outputFormat = new RCFileOutputFormat();
-        @SuppressWarnings("rawtypes")
-        RCFileInputFormat inputFormat = new RCFileInputFormat();
         @SuppressWarnings("deprecation")
         SerDe serde = new LazyBinaryColumnarSerDe();
         File file = File.createTempFile("presto_test", "rc-binary");
         try {
             FileSplit split = createTestFile(file.getAbsolutePath(), outputFormat, serde, null);
-            @SuppressWarnings("unchecked")
-            RecordReader<?, BytesRefArrayWritable> recordReader = (RecordReader<?, BytesRefArrayWritable>) inputFormat.getRecordReader(split, jobConf, Reporter.NULL);
-            Properties splitProperties = new Properties();
-            splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.LazyBinaryColumnarSerDe");
-            splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
-            splitProperties.setProperty("columns.types", COLUMN_TYPES);
-            RecordCursor cursor = new ColumnarBinaryHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns());
 
-            checkCursor(cursor, true);
+            checkCursor(createRCBinaryCursor(split), true);
+            checkBatchCursor(createRCBinaryCursor(split), createRCBinaryCursor(split));
         }
         finally {
             //noinspection ResultOfMethodCallIgnored
             file.delete();
         }
     }
+
+    @Test
+    public void testRCTextWithNulls()
+            throws Exception
+    {
+        RCFileOutputFormat outputFormat = new RCFileOutputFormat();
+        @SuppressWarnings("deprecation")
+        SerDe serde = new ColumnarSerDe();
+        File file = File.createTempFile("presto_test", "rc-text");
+        try {
+            FileSplit split = createTestFileWithNulls(file.getAbsolutePath(), outputFormat, serde);
+
+            checkCursorWithNulls(createRCTextCursor(split, getColumnsWithPartitionKeys(), getPartitionKeys()));
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRCBinaryWithNulls()
+            throws Exception
+    {
+        RCFileOutputFormat outputFormat = new RCFileOutputFormat();
+        @SuppressWarnings("deprecation")
+        SerDe serde = new LazyBinaryColumnarSerDe();
+        File file = File.createTempFile("presto_test", "rc-binary");
+        try {
+            FileSplit split = createTestFileWithNulls(file.getAbsolutePath(), outputFormat, serde);
+
+            checkCursorWithNulls(createRCBinaryCursor(split, getColumnsWithPartitionKeys(), getPartitionKeys()));
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private BatchRecordCursor createRCTextCursor(FileSplit split)
+            throws IOException
+    {
+        return createRCTextCursor(split, getColumns(), new ArrayList<HivePartitionKey>());
+    }
+
+    private BatchRecordCursor createRCTextCursor(FileSplit split, List<HiveColumnHandle> columns, List<HivePartitionKey> partitionKeys)
+            throws IOException
+    {
+        Properties splitProperties = new Properties();
+        splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.ColumnarSerDe");
+        splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
+        splitProperties.setProperty("columns.types", COLUMN_TYPES);
+        return new ColumnarTextHiveRecordCursor<>(createRCRecordReader(split), split.getLength(), splitProperties, partitionKeys, columns);
+    }
+
+    private BatchRecordCursor createRCBinaryCursor(FileSplit split)
+            throws IOException
+    {
+        return createRCBinaryCursor(split, getColumns(), new ArrayList<HivePartitionKey>());
+    }
+
+    private BatchRecordCursor createRCBinaryCursor(FileSplit split, List<HiveColumnHandle> columns, List<HivePartitionKey> partitionKeys)
+            throws IOException
+    {
+        Properties splitProperties = new Properties();
+        splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.LazyBinaryColumnarSerDe");
+        splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
+        splitProperties.setProperty("columns.types", COLUMN_TYPES);
+        return new ColumnarBinaryHiveRecordCursor<>(createRCRecordReader(split), split.getLength(), splitProperties, partitionKeys, columns);
+    }
+
+    private static RecordReader<?, BytesRefArrayWritable> createRCRecordReader(FileSplit split)
+            throws IOException
+    {
+        @SuppressWarnings("rawtypes")
+        RCFileInputFormat inputFormat = new RCFileInputFormat();
+        @SuppressWarnings("unchecked")
+        RecordReader<?, BytesRefArrayWritable> recordReader = (RecordReader<?, BytesRefArrayWritable>) inputFormat.getRecordReader(split, new JobConf(), Reporter.NULL);
+        return recordReader;
+    }
 }
@@ -0,0 +1,405 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.hive;
+
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.spi.SplitSource;
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.SerDeInfo;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestHiveSplitSourceProvider
+{
+    private static final String TABLE_LOCATION = "stub://test/table";
+    private static final int BLOCK_SIZE = 100;
+
+    // Hadoop creates the file system from the configuration, so the stub reads the directories from static state
+    private static final Map<String, List<LocatedFileStatus>> DIRECTORIES = new ConcurrentHashMap<>();
+    private static final Set<String> FAILING_DIRECTORIES = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final AtomicInteger LISTED_DIRECTORIES = new AtomicInteger();
+
+    private ExecutorService executor;
+    private HdfsEnvironment hdfsEnvironment;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        DIRECTORIES.clear();
+        FAILING_DIRECTORIES.clear();
+        LISTED_DIRECTORIES.set(0);
+
+        executor = newCachedThreadPool(daemonThreadsNamed("test-%s"));
+
+        final Configuration configuration = new Configuration();
+        configuration.setClass("fs.stub.impl", StubFileSystem.class, FileSystem.class);
+        configuration.setBoolean("fs.stub.impl.disable.cache", true);
+        hdfsEnvironment = new HdfsEnvironment(new HdfsConfiguration(new HiveClientConfig())
+        {
+            @Override
+            public Configuration getConfiguration(String host)
+            {
+                return configuration;
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLastSplitOfEachPartition()
+            throws Exception
+    {
+        List<String> partitionNames = new ArrayList<>();
+        for (int partition = 0; partition < 5; partition++) {
+            String partitionName = "ds=" + partition;
+            partitionNames.add(partitionName);
+            // two files of two blocks each, so every partition has four splits
+            addDirectory(partitionName, 2, 2);
+        }
+
+        SplitSource splitSource = createSplitSource(partitionNames, 1000, 4);
+
+        ListMultimap<String, HiveSplit> splits = ArrayListMultimap.create();
+        for (Split split : getAllSplits(splitSource)) {
+            HiveSplit hiveSplit = (HiveSplit) split;
+            splits.put(hiveSplit.getPartitionId(), hiveSplit);
+        }
+
+        assertEquals(splits.keySet().size(), partitionNames.size());
+        for (String partitionName : partitionNames) {
+            List<HiveSplit> partitionSplits = splits.get(partitionName);
+            assertEquals(partitionSplits.size(), 4);
+
+            // only the split returned last for a partition is marked
+            for (int i = 0; i < partitionSplits.size() - 1; i++) {
+                assertFalse(partitionSplits.get(i).isLastSplit());
+            }
+            assertTrue(partitionSplits.get(partitionSplits.size() - 1).isLastSplit());
+        }
+    }
+
+    @Test
+    public void testPartitionFailure()
+            throws Exception
+    {
+        List<String> partitionNames = ImmutableList.of("ds=0", "ds=1", "ds=2");
+        for (String partitionName : partitionNames) {
+            addDirectory(partitionName, 1, 1);
+        }
+        FAILING_DIRECTORIES.add(getPartitionLocation("ds=1"));
+
+        SplitSource splitSource = createSplitSource(partitionNames, 1000, 4);
+        try {
+            getAllSplits(splitSource);
+            fail("expected exception");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException, "unexpected cause: " + e.getCause());
+            assertEquals(e.getCause().getMessage(), "listing failed: " + getPartitionLocation("ds=1"));
+        }
+    }
+
+    @Test
+    public void testSuspendAtMaxOutstandingSplits()
+            throws Exception
+    {
+        List<String> partitionNames = new ArrayList<>();
+        for (int partition = 0; partition < 10; partition++) {
+            String partitionName = "ds=" + partition;
+            partitionNames.add(partitionName);
+            addDirectory(partitionName, 1, 1);
+        }
+
+        // a single listing thread makes the partitions load one at a time
+        SplitSource splitSource = createSplitSource(partitionNames, 2, 1);
+
+        // wait for the queue to fill up, and check the loader does not list the remaining partitions
+        long start = System.nanoTime();
+        while (LISTED_DIRECTORIES.get() < 2) {
+            assertTrue(Duration.nanosSince(start).toMillis() < 10_000, "partitions were not listed");
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertTrue(LISTED_DIRECTORIES.get() < partitionNames.size(), "loading was not suspended");
+
+        // reading the splits resumes the loader
+        assertEquals(getAllSplits(splitSource).size(), partitionNames.size());
+        assertEquals(LISTED_DIRECTORIES.get(), partitionNames.size());
+    }
+
+    private SplitSource createSplitSource(List<String> partitionNames, int maxOutstandingSplits, int maxThreads)
+    {
+        Table table = createTable();
+        ImmutableList.Builder<Partition> partitions = ImmutableList.builder();
+        for (String partitionName : partitionNames) {
+            partitions.add(createPartition(table, partitionName));
+        }
+
+        return new HiveSplitSourceProvider("test",
+                table,
+                partitionNames,
+                partitions.build(),
+                Optional.<HiveBucketing.HiveBucket>absent(),
+                new DataSize(64, MEGABYTE),
+                maxOutstandingSplits,
+                maxThreads,
+                hdfsEnvironment,
+                new CachingDirectoryLister(new Duration(0, TimeUnit.SECONDS), 0),
+                executor,
+                100).get();
+    }
+
+    private static List<Split> getAllSplits(SplitSource splitSource)
+            throws InterruptedException
+    {
+        ImmutableList.Builder<Split> splits = ImmutableList.builder();
+        while (!splitSource.isFinished()) {
+            splits.addAll(splitSource.getNextBatch(1));
+        }
+        return splits.build();
+    }
+
+    private static void addDirectory(String partitionName, int fileCount, int blocksPerFile)
+    {
+        String location = getPartitionLocation(partitionName);
+        ImmutableList.Builder<LocatedFileStatus> files = ImmutableList.builder();
+        for (int file = 0; file < fileCount; file++) {
+            long length = blocksPerFile * BLOCK_SIZE;
+            BlockLocation[] blockLocations = new BlockLocation[blocksPerFile];
+            for (int block = 0; block < blocksPerFile; block++) {
+                blockLocations[block] = new BlockLocation(new String[] {"host" + block + ":50010"}, new String[] {"host" + block}, block * BLOCK_SIZE, BLOCK_SIZE);
+            }
+            FileStatus status = new FileStatus(length, false, 1, BLOCK_SIZE, 0, new Path(location + "/file" + file));
+            files.add(new LocatedFileStatus(status, blockLocations));
+        }
+        DIRECTORIES.put(location, files.build());
+    }
+
+    private static String getPartitionLocation(String partitionName)
+    {
+        return TABLE_LOCATION + "/" + partitionName;
+    }
+
+    private static Table createTable()
+    {
+        Table table = new Table();
+        table.setDbName("test_schema");
+        table.setTableName("test_table");
+        table.setPartitionKeys(ImmutableList.of(new FieldSchema("ds", "string", null)));
+        table.setParameters(ImmutableMap.<String, String>of());
+        table.setSd(createStorageDescriptor(TABLE_LOCATION));
+        return table;
+    }
+
+    private static Partition createPartition(Table table, String partitionName)
+    {
+        Partition partition = new Partition();
+        partition.setDbName(table.getDbName());
+        partition.setTableName(table.getTableName());
+        partition.setValues(ImmutableList.of(partitionName.substring("ds=".length())));
+        partition.setParameters(ImmutableMap.<String, String>of());
+        partition.setSd(createStorageDescriptor(getPartitionLocation(partitionName)));
+        return partition;
+    }
+
+    private static StorageDescriptor createStorageDescriptor(String location)
+    {
+        StorageDescriptor storageDescriptor = new StorageDescriptor();
+        storageDescriptor.setCols(ImmutableList.of(new FieldSchema("t_string", "string", null)));
+        storageDescriptor.setLocation(location);
+        storageDescriptor.setInputFormat(TextInputFormat.class.getName());
+        storageDescriptor.setOutputFormat(HiveIgnoreKeyTextOutputFormat.class.getName());
+        storageDescriptor.setSerdeInfo(new SerDeInfo("test", LazySimpleSerDe.class.getName(), ImmutableMap.<String, String>of()));
+        storageDescriptor.setParameters(ImmutableMap.<String, String>of());
+        return storageDescriptor;
+    }
+
+    @SuppressWarnings("deprecation")
+    public static class StubFileSystem
+            extends FileSystem
+    {
+        private URI uri;
+
+        @Override
+        public void initialize(URI name, Configuration conf)
+                throws IOException
+        {
+            super.initialize(name, conf);
+            uri = URI.create(name.getScheme() + "://" + name.getAuthority());
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return uri;
+        }
+
+        @Override
+        public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path f)
+                throws IOException
+        {
+            String location = f.toString();
+            if (FAILING_DIRECTORIES.contains(location)) {
+                throw new IOException("listing failed: " + location);
+            }
+            List<LocatedFileStatus> files = DIRECTORIES.get(location);
+            if (files == null) {
+                throw new IOException("unknown directory: " + location);
+            }
+            LISTED_DIRECTORIES.incrementAndGet();
+
+            final Iterator<LocatedFileStatus> iterator = files.iterator();
+            return new RemoteIterator<LocatedFileStatus>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public LocatedFileStatus next()
+                {
+                    return iterator.next();
+                }
+            };
+        }
+
+        @Override
+        public FSDataInputStream open(Path f, int bufferSize)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize, short replication, long blockSize, Progressable progress)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean rename(Path src, Path dst)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean delete(Path f)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean delete(Path f, boolean recursive)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileStatus[] listStatus(Path f)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setWorkingDirectory(Path path)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path getWorkingDirectory()
+        {
+            return new Path(uri);
+        }
+
+        @Override
+        public boolean mkdirs(Path f, FsPermission permission)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileStatus getFileStatus(Path f)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
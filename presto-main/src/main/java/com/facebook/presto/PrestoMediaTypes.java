@@ -19,6 +19,8 @@ public final class PrestoMediaTypes
 {
     public static final String PRESTO_PAGES = "application/X-presto-pages";
     public static final MediaType PRESTO_PAGES_TYPE = MediaType.create("application", "X-presto-pages");
+    public static final String PRESTO_COMPRESSED_PAGES = "application/X-presto-compressed-pages";
+    public static final MediaType PRESTO_COMPRESSED_PAGES_TYPE = MediaType.create("application", "X-presto-compressed-pages");
 
     private PrestoMediaTypes()
     {
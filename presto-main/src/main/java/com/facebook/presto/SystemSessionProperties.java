@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto;
+
+import com.facebook.presto.sql.analyzer.Session;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Names and accessors for session properties understood by the engine.
+ */
+public final class SystemSessionProperties
+{
+    /**
+     * When true, joins between distributed relations repartition both sides on
+     * the join keys instead of replicating the build side to every node.
+     */
+    public static final String DISTRIBUTED_JOIN = "distributed_join";
+
+    /**
+     * When true, table scans on the probe side of an inner join skip rows whose
+     * join keys are outside the domain of the keys seen by the build side.
+     * Disabled by default.
+     */
+    public static final String DYNAMIC_FILTERING = "dynamic_filtering";
+
+    /**
+     * Number of drivers that run final aggregations, window functions and
+     * sorts within a task.
+     */
+    public static final String TASK_CONCURRENCY = "task_concurrency";
+
+    private SystemSessionProperties() {}
+
+    public static boolean isDistributedJoinEnabled(Session session)
+    {
+        return getBoolean(session, DISTRIBUTED_JOIN, false);
+    }
+
+    public static boolean isDynamicFilteringEnabled(Session session)
+    {
+        return getBoolean(session, DYNAMIC_FILTERING, false);
+    }
+
+    public static int getTaskConcurrency(Session session, int defaultValue)
+    {
+        return getInteger(session, TASK_CONCURRENCY, defaultValue);
+    }
+
+    private static int getInteger(Session session, String propertyName, int defaultValue)
+    {
+        checkNotNull(session, "session is null");
+        String value = session.getProperties().get(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value);
+            checkArgument(intValue > 0, "%s must be positive: %s", propertyName, value);
+            return intValue;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s is not an integer: %s", propertyName, value), e);
+        }
+    }
+
+    private static boolean getBoolean(Session session, String propertyName, boolean defaultValue)
+    {
+        checkNotNull(session, "session is null");
+        String value = session.getProperties().get(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+}
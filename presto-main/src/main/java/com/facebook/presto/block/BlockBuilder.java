@@ -149,6 +149,13 @@ public class BlockBuilder
         return append(Slices.wrappedBuffer(value));
     }
 
+    public BlockBuilder append(byte[] value, int offset, int length)
+    {
+        tupleBuilder.append(value, offset, length);
+        positionCount++;
+        return this;
+    }
+
     public BlockBuilder append(String value)
     {
         return append(Slices.copiedBuffer(value, Charsets.UTF_8));
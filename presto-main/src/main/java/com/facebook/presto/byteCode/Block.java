@@ -203,6 +203,18 @@ public class Block
         return this;
     }
 
+    public Block intAdd()
+    {
+        nodes.add(OpCodes.IADD);
+        return this;
+    }
+
+    public Block intMultiply()
+    {
+        nodes.add(OpCodes.IMUL);
+        return this;
+    }
+
     public Block intLeftShift()
     {
         nodes.add(OpCodes.ISHL);
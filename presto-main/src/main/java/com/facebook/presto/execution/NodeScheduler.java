@@ -21,10 +21,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.SetMultimap;
 import com.google.common.net.InetAddresses;
 import org.weakref.jmx.Managed;
@@ -35,10 +36,11 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -86,7 +88,7 @@ public class NodeScheduler
         scheduleRandom.set(0);
     }
 
-    public NodeSelector createNodeSelector(final String dataSourceName, final Comparator<Node> nodeComparator)
+    public NodeSelector createNodeSelector(final String dataSourceName)
     {
         // this supplier is thread-safe. TODO: this logic should probably move to the scheduler since the choice of which node to run in should be
         // done as close to when the the split is about to be scheduled
@@ -125,17 +127,15 @@ public class NodeScheduler
             }
         }, 5, TimeUnit.SECONDS);
 
-        return new NodeSelector(nodeComparator, nodeMap);
+        return new NodeSelector(nodeMap);
     }
 
     public class NodeSelector
     {
-        private final Comparator<Node> nodeComparator;
         private final AtomicReference<Supplier<NodeMap>> nodeMap;
 
-        public NodeSelector(Comparator<Node> nodeComparator, Supplier<NodeMap> nodeMap)
+        public NodeSelector(Supplier<NodeMap> nodeMap)
         {
-            this.nodeComparator = nodeComparator;
             this.nodeMap = new AtomicReference<>(nodeMap);
         }
 
@@ -178,16 +178,45 @@ public class NodeScheduler
             return nodes.get(0);
         }
 
-        public Node selectNode(Split split)
+        /**
+         * Assigns a batch of splits to nodes.  Each split is assigned to the acceptable node
+         * with the fewest splits, counting both the splits queued on the node and the splits
+         * assigned earlier in the batch.  Assignment stops at the first split whose acceptable
+         * nodes all have {@code maxSplitsPerNode} splits, so the assignments are for a prefix
+         * of the splits.
+         *
+         * @param queuedSplits the number of splits queued on each node, nodes without splits can be omitted
+         */
+        public Multimap<Node, Split> computeAssignments(List<Split> splits, Map<Node, Integer> queuedSplits, int maxSplitsPerNode)
         {
-            // select acceptable nodes
-            List<Node> nodes = selectNodes(nodeMap.get().get(), split, minCandidates);
+            NodeMap nodeMap = this.nodeMap.get().get();
+            Map<Node, Integer> splitCounts = new HashMap<>(queuedSplits);
 
-            Preconditions.checkState(!nodes.isEmpty(), "No nodes available to run query");
+            Multimap<Node, Split> assignments = ArrayListMultimap.create();
+            for (Split split : splits) {
+                List<Node> nodes = selectNodes(nodeMap, split, minCandidates);
+                Preconditions.checkState(!nodes.isEmpty(), "No nodes available to run query");
 
-            // select the node with the smallest number of assignments
-            Node chosen = Ordering.from(nodeComparator).min(nodes);
-            return chosen;
+                Node chosen = null;
+                int chosenSplitCount = Integer.MAX_VALUE;
+                for (Node node : nodes) {
+                    Integer splitCount = splitCounts.get(node);
+                    if (splitCount == null) {
+                        splitCount = 0;
+                    }
+                    if (splitCount < chosenSplitCount) {
+                        chosen = node;
+                        chosenSplitCount = splitCount;
+                    }
+                }
+
+                if (chosenSplitCount >= maxSplitsPerNode) {
+                    break;
+                }
+                assignments.put(chosen, split);
+                splitCounts.put(chosen, chosenSplitCount + 1);
+            }
+            return assignments;
         }
 
         private List<Node> selectNodes(NodeMap nodeMap, Split split, int minCount)
@@ -17,14 +17,16 @@ import com.facebook.presto.OutputBuffers;
 import com.facebook.presto.PagePartitionFunction;
 import com.facebook.presto.execution.StateMachine.StateChangeListener;
 import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.SpillFile;
+import com.facebook.presto.operator.SpillFile.SpilledPage;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
-import com.google.common.collect.ComparisonChain;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -32,21 +34,23 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import javax.annotation.concurrent.GuardedBy;
-import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.facebook.presto.execution.BufferResult.emptyResults;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -54,6 +58,24 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+/**
+ * Buffers the output pages of a task for one or more named queues.
+ * <p/>
+ * Pages are appended to a singly linked page log with a compare-and-set on
+ * the tail, and each named queue tracks its acknowledged sequence id and log
+ * node with atomics, so producers and readers never take a shared lock.  A
+ * page is released when every open queue has acknowledged it, which happens
+ * naturally when no queue references its log node anymore.  Only changes to
+ * the set of queues are synchronized.
+ * <p/>
+ * When the buffer is full, producers are blocked until the readers catch up.
+ * If a spill directory is configured, the pages beyond the buffer size are
+ * instead written to a local {@link SpillFile} and read back by
+ * {@link #get}, so the producing pipeline can finish without waiting for slow
+ * readers.  Once every queue has acknowledged all pages in the spill file and
+ * the file has grown to the buffer size, the file is deleted and the next
+ * spilled page starts a new one.
+ */
 @ThreadSafe
 public class SharedBuffer
 {
@@ -74,24 +96,45 @@ public class SharedBuffer
     }
 
     private final long maxBufferedBytes;
+    private final String spillFilePrefix;
+    private final Optional<File> spillDirectory;
+    private final AtomicReference<SpillFile> spillFile = new AtomicReference<>();
+
+    /**
+     * Held shared while a page is written to the spill file, and exclusively
+     * while the spill file is closed, so a write never races with the close.
+     */
+    private final ReadWriteLock spillLock = new ReentrantReadWriteLock();
+
+    /**
+     * The sequence id of the last page written to the current spill file.
+     */
+    private final AtomicLong lastSpilledSequenceId = new AtomicLong(-1);
 
     @GuardedBy("this")
     private OutputBuffers outputBuffers;
 
-    @GuardedBy("this")
-    private long bufferedBytes;
-    @GuardedBy("this")
-    private final LinkedList<Page> masterQueue = new LinkedList<>();
-    @GuardedBy("this")
-    private final LinkedList<QueuedPage> queuedPages = new LinkedList<>();
-    @GuardedBy("this")
-    private long masterSequenceId;
-    @GuardedBy("this")
-    private Map<String, NamedQueue> namedQueues = new HashMap<>();
-    @GuardedBy("this")
-    private final SortedSet<NamedQueue> openQueuesBySequenceId = new TreeSet<>();
-    @GuardedBy("this")
-    private StateMachine<QueueState> state;
+    private final StateMachine<QueueState> state;
+
+    /**
+     * Queues are only added while the buffer is open, so the map is replaced on each change.
+     */
+    private volatile Map<String, NamedQueue> namedQueues = ImmutableMap.of();
+
+    private final AtomicReference<PageNode> tail;
+
+    /**
+     * The start of the log, which is retained until no more queues can be added,
+     * since a new queue reads all pages from the beginning.
+     */
+    private volatile PageNode retainedHead;
+
+    private final ConcurrentLinkedQueue<QueuedPage> queuedPages = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Completed whenever readers should recheck their queue.
+     */
+    private final AtomicReference<SettableFuture<?>> readerSignal = new AtomicReference<>(SettableFuture.create());
 
     private final AtomicLong pagesAdded = new AtomicLong();
 
@@ -101,6 +144,11 @@ public class SharedBuffer
     private final AtomicBoolean closed = new AtomicBoolean();
 
     public SharedBuffer(TaskId taskId, Executor executor, DataSize maxBufferSize, OutputBuffers outputBuffers)
+    {
+        this(taskId, executor, maxBufferSize, outputBuffers, Optional.<File>absent());
+    }
+
+    public SharedBuffer(TaskId taskId, Executor executor, DataSize maxBufferSize, OutputBuffers outputBuffers, Optional<File> spillDirectory)
     {
         checkNotNull(taskId, "taskId is null");
         checkNotNull(executor, "executor is null");
@@ -110,8 +158,17 @@ public class SharedBuffer
         checkArgument(maxBufferSize.toBytes() > 0, "maxBufferSize must be at least 1");
         this.maxBufferedBytes = maxBufferSize.toBytes();
 
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+        this.spillFilePrefix = taskId + "-output-";
+
+        PageNode head = new PageNode(null, null, null, 0, 0, false);
+        this.tail = new AtomicReference<>(head);
+        this.retainedHead = head;
+
         this.outputBuffers = checkNotNull(outputBuffers, "outputBuffers is null");
-        updateOutputBuffers();
+        synchronized (this) {
+            updateOutputBuffers();
+        }
     }
 
     public void addStateChangeListener(StateChangeListener<QueueState> stateChangeListener)
@@ -124,13 +181,13 @@ public class SharedBuffer
         return state.get() == QueueState.FINISHED;
     }
 
-    public synchronized SharedBufferInfo getInfo()
+    public SharedBufferInfo getInfo()
     {
         ImmutableList.Builder<BufferInfo> infos = ImmutableList.builder();
         for (NamedQueue namedQueue : namedQueues.values()) {
             infos.add(new BufferInfo(namedQueue.getQueueId(), namedQueue.isFinished(), namedQueue.size(), namedQueue.pagesRemoved()));
         }
-        return new SharedBufferInfo(state.get(), masterSequenceId, pagesAdded.get(), infos.build());
+        return new SharedBufferInfo(state.get(), getOldestRetainedNode().getSequenceId(), pagesAdded.get(), infos.build());
     }
 
     public synchronized void setOutputBuffers(OutputBuffers newOutputBuffers)
@@ -150,27 +207,34 @@ public class SharedBuffer
         updateOutputBuffers();
     }
 
-    private synchronized void updateOutputBuffers()
+    @GuardedBy("this")
+    private void updateOutputBuffers()
     {
+        Map<String, NamedQueue> newQueues = null;
         for (Entry<String, PagePartitionFunction> entry : outputBuffers.getBuffers().entrySet()) {
             String bufferId = entry.getKey();
             if (!namedQueues.containsKey(bufferId)) {
                 checkState(state.get() == QueueState.OPEN, "%s is not OPEN", SharedBuffer.class.getSimpleName());
-                NamedQueue namedQueue = new NamedQueue(bufferId, entry.getValue());
-                namedQueues.put(bufferId, namedQueue);
-                openQueuesBySequenceId.add(namedQueue);
+                if (newQueues == null) {
+                    newQueues = new HashMap<>(namedQueues);
+                }
+                newQueues.put(bufferId, new NamedQueue(bufferId, entry.getValue(), retainedHead));
             }
         }
+        if (newQueues != null) {
+            namedQueues = ImmutableMap.copyOf(newQueues);
+        }
 
         if (outputBuffers.isNoMoreBufferIds()) {
-            namedQueues = ImmutableMap.copyOf(namedQueues);
             if (state.compareAndSet(QueueState.OPEN, QueueState.NO_MORE_QUEUES)) {
+                // pages are now only retained for the existing queues
+                retainedHead = null;
                 updateState();
             }
         }
     }
 
-    public synchronized ListenableFuture<?> enqueue(Page page)
+    public ListenableFuture<?> enqueue(Page page)
     {
         checkNotNull(page, "page is null");
 
@@ -180,32 +244,194 @@ public class SharedBuffer
         }
 
         // is there room in the buffer
-        if (bufferedBytes < maxBufferedBytes) {
+        if (getBufferedBytes() < maxBufferedBytes) {
             addInternal(page);
             return Futures.immediateFuture(true);
         }
 
+        // keep the producer running and read the page back from disk
+        if (spillDirectory.isPresent()) {
+            spill(page);
+            return Futures.immediateFuture(true);
+        }
+
         QueuedPage queuedPage = new QueuedPage(page);
-        queuedPages.addLast(queuedPage);
+        queuedPages.add(queuedPage);
+
+        // the buffer may have been drained or closed before the page was queued
+        if (closed.get()) {
+            discardQueuedPages();
+        }
+        else {
+            refillBuffer();
+        }
         return queuedPage.getFuture();
     }
 
-    private synchronized void addInternal(Page page)
+    private void addInternal(Page page)
+    {
+        addInternal(page, null, null);
+    }
+
+    private PageNode addInternal(Page page, SpillFile file, SpilledPage spilledPage)
+    {
+        PageNode node = append(page, file, spilledPage);
+        if (node != null) {
+            pagesAdded.incrementAndGet();
+
+            // notify consumers a page has arrived
+            signalReaders();
+        }
+        return node;
+    }
+
+    private void spill(Page page)
+    {
+        rotateSpillFile();
+
+        spillLock.readLock().lock();
+        try {
+            // the spill file is closed once the buffer is destroyed
+            if (closed.get()) {
+                return;
+            }
+
+            SpillFile file = getSpillFile();
+            PageNode node = addInternal(null, file, file.append(page));
+            if (node != null) {
+                long sequenceId = lastSpilledSequenceId.get();
+                while (sequenceId < node.getSequenceId() && !lastSpilledSequenceId.compareAndSet(sequenceId, node.getSequenceId())) {
+                    sequenceId = lastSpilledSequenceId.get();
+                }
+            }
+        }
+        finally {
+            spillLock.readLock().unlock();
+        }
+    }
+
+    private SpillFile getSpillFile()
+    {
+        SpillFile file = spillFile.get();
+        if (file == null) {
+            file = SpillFile.createSpillFile(spillDirectory.get(), spillFilePrefix);
+            if (!spillFile.compareAndSet(null, file)) {
+                file.close();
+                file = spillFile.get();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the spill file if all of its pages have been acknowledged by
+     * every queue, and it holds at least a full buffer of pages.
+     */
+    private void rotateSpillFile()
+    {
+        if (!isSpillFileConsumed()) {
+            return;
+        }
+
+        spillLock.writeLock().lock();
+        try {
+            // no page is being written, so the last spilled sequence id is current
+            if (isSpillFileConsumed()) {
+                spillFile.getAndSet(null).close();
+            }
+        }
+        finally {
+            spillLock.writeLock().unlock();
+        }
+    }
+
+    private boolean isSpillFileConsumed()
+    {
+        SpillFile file = spillFile.get();
+        return file != null &&
+                file.getDataSize() >= maxBufferedBytes &&
+                getOldestRetainedNode().getSequenceId() >= lastSpilledSequenceId.get();
+    }
+
+    /**
+     * Appends an in memory or spilled page, or the closed marker if both are null,
+     * to the end of the log.  Returns the new node, or null if the log is already closed.
+     */
+    private PageNode append(Page page, SpillFile file, SpilledPage spilledPage)
+    {
+        while (true) {
+            PageNode last = tail.get();
+            PageNode next = last.getNext();
+            if (next != null) {
+                // help an append that has not moved the tail yet
+                tail.compareAndSet(last, next);
+                continue;
+            }
+            if (last.isClosedMarker()) {
+                return null;
+            }
+
+            PageNode node;
+            if (page != null) {
+                node = new PageNode(page, null, null, last.getSequenceId() + 1, last.getCumulativeBytes() + page.getDataSize().toBytes(), false);
+            }
+            else if (spilledPage != null) {
+                // spilled pages do not count against the buffer size
+                node = new PageNode(null, file, spilledPage, last.getSequenceId() + 1, last.getCumulativeBytes(), false);
+            }
+            else {
+                node = new PageNode(null, null, null, last.getSequenceId(), last.getCumulativeBytes(), true);
+            }
+            if (last.casNext(node)) {
+                tail.compareAndSet(last, node);
+                return node;
+            }
+        }
+    }
+
+    private PageNode getLastNode()
     {
-        // add page
-        masterQueue.add(page);
-        pagesAdded.incrementAndGet();
-        bufferedBytes += page.getDataSize().toBytes();
+        PageNode node = tail.get();
+        for (PageNode next = node.getNext(); next != null; next = node.getNext()) {
+            node = next;
+        }
+        return node;
+    }
 
-        // notify consumers an page has arrived
-        this.notifyAll();
+    /**
+     * Returns the node before the oldest page that must be retained.
+     */
+    private PageNode getOldestRetainedNode()
+    {
+        PageNode oldest = retainedHead;
+        if (oldest != null) {
+            return oldest;
+        }
+
+        oldest = getLastNode();
+        for (NamedQueue namedQueue : namedQueues.values()) {
+            if (!namedQueue.isFinished()) {
+                PageNode node = namedQueue.advanceAcknowledgedNode();
+                if (node.getSequenceId() < oldest.getSequenceId()) {
+                    oldest = node;
+                }
+            }
+        }
+        return oldest;
+    }
+
+    private long getBufferedBytes()
+    {
+        PageNode oldest = getOldestRetainedNode();
+        return getLastNode().getCumulativeBytes() - oldest.getCumulativeBytes();
     }
 
     @VisibleForTesting
-    public synchronized void acknowledge(String outputId, long sequenceId)
+    public void acknowledge(String outputId, long sequenceId)
     {
         checkNotNull(outputId, "outputId is null");
 
+        Map<String, NamedQueue> namedQueues = this.namedQueues;
         NamedQueue namedQueue = namedQueues.get(outputId);
         if (namedQueue == null) {
             throw new NoSuchBufferException(outputId, namedQueues.keySet());
@@ -215,32 +441,25 @@ public class SharedBuffer
             return;
         }
 
-        // remove queue from set before calling getPages because getPages changes
-        // the sequence number of the queue which is used for identity comparison in the
-        // sorted set
-        openQueuesBySequenceId.remove(namedQueue);
-
         // acknowledge the pages
         namedQueue.acknowledge(sequenceId);
 
-        // only add back the queue if it is still open
-        if (!closed.get()) {
-            openQueuesBySequenceId.add(namedQueue);
-        }
-        else {
+        // the queue is finished once acknowledged after the buffer is closed
+        if (closed.get()) {
             namedQueue.setFinished();
         }
 
         updateState();
     }
 
-    public synchronized BufferResult get(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
+    public BufferResult get(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
             throws InterruptedException
     {
         checkNotNull(outputId, "outputId is null");
         checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
         checkNotNull(maxWait, "maxWait is null");
 
+        Map<String, NamedQueue> namedQueues = this.namedQueues;
         NamedQueue namedQueue = namedQueues.get(outputId);
         if (namedQueue == null) {
             throw new NoSuchBufferException(outputId, namedQueues.keySet());
@@ -250,39 +469,39 @@ public class SharedBuffer
             return emptyResults(namedQueue.getSequenceId(), true);
         }
 
+        // requesting a sequence id acknowledges all earlier pages
+        namedQueue.acknowledge(startingSequenceId);
+
         // wait for pages to arrive
-        if (namedQueue.isEmpty()) {
-            long remainingNanos = maxWait.roundTo(NANOSECONDS);
-            long end = System.nanoTime() + remainingNanos;
-            while (remainingNanos > 0 && namedQueue.isEmpty() && !namedQueue.isFinished()) {
-                // wait for timeout or notification
-                NANOSECONDS.timedWait(this, remainingNanos);
-                remainingNanos = end - System.nanoTime();
+        long remainingNanos = maxWait.roundTo(NANOSECONDS);
+        long end = System.nanoTime() + remainingNanos;
+        while (remainingNanos > 0) {
+            // read the signal before checking the queue, so a page added after the check completes it
+            SettableFuture<?> signal = readerSignal.get();
+            if (!namedQueue.isEmpty() || namedQueue.isFinished()) {
+                break;
             }
-        }
 
-        // remove queue from set before calling getPages because getPages changes
-        // the sequence number of the queue which is used for identity comparison in the
-        // sorted set
-        openQueuesBySequenceId.remove(namedQueue);
+            try {
+                signal.get(remainingNanos, NANOSECONDS);
+            }
+            catch (TimeoutException ignored) {
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            remainingNanos = end - System.nanoTime();
+        }
 
         // get the pages
         BufferResult results = namedQueue.getPages(startingSequenceId, maxSize);
 
-        // only add back the queue if it is still open
-        if (!closed.get() || !results.isBufferClosed()) {
-            openQueuesBySequenceId.add(namedQueue);
-        }
-        else {
-            namedQueue.setFinished();
-        }
-
         updateState();
 
         return results;
     }
 
-    public synchronized void abort(String outputId)
+    public void abort(String outputId)
     {
         checkNotNull(outputId, "outputId is null");
         NamedQueue namedQueue = namedQueues.get(outputId);
@@ -290,66 +509,74 @@ public class SharedBuffer
             return;
         }
         namedQueue.setFinished();
-        openQueuesBySequenceId.remove(namedQueue);
 
         updateState();
     }
 
-    private synchronized void updateState()
+    private void updateState()
     {
         if (closed.get()) {
-            // remove all empty queues
-            for (Iterator<NamedQueue> iterator = openQueuesBySequenceId.iterator(); iterator.hasNext(); ) {
-                NamedQueue namedQueue = iterator.next();
+            // finish all empty queues
+            for (NamedQueue namedQueue : namedQueues.values()) {
                 if (namedQueue.isEmpty()) {
                     namedQueue.setFinished();
-                    iterator.remove();
                 }
             }
             // discard queued pages (not officially in the buffer) and waiters
-            for (QueuedPage queuedPage : queuedPages) {
-                queuedPage.getFuture().set(null);
-            }
-            queuedPages.clear();
+            discardQueuedPages();
+        }
+        else {
+            refillBuffer();
         }
 
-        if (state.get() == QueueState.NO_MORE_QUEUES && !openQueuesBySequenceId.isEmpty()) {
-            // advance master sequence id
-            long oldMasterSequenceId = masterSequenceId;
-            masterSequenceId = openQueuesBySequenceId.iterator().next().getSequenceId();
+        if (state.get() == QueueState.NO_MORE_QUEUES && closed.get() && allQueuesFinished()) {
+            destroy();
+        }
 
-            // drop consumed pages
-            int pagesToRemove = Ints.checkedCast(masterSequenceId - oldMasterSequenceId);
-            checkState(pagesToRemove >= 0,
-                    "Master sequence id moved backwards: oldMasterSequenceId=%s, newMasterSequenceId=%s",
-                    oldMasterSequenceId,
-                    masterSequenceId);
+        signalReaders();
+    }
 
-            for (int i = 0; i < pagesToRemove; i++) {
-                Page page = masterQueue.removeFirst();
-                bufferedBytes -= page.getDataSize().toBytes();
+    private void refillBuffer()
+    {
+        while (!queuedPages.isEmpty() && getBufferedBytes() < maxBufferedBytes) {
+            QueuedPage queuedPage = queuedPages.poll();
+            if (queuedPage == null) {
+                return;
             }
+            addInternal(queuedPage.getPage());
+            queuedPage.getFuture().set(null);
+        }
+    }
 
-            // refill buffer from queued pages
-            while (!queuedPages.isEmpty() && bufferedBytes < maxBufferedBytes) {
-                QueuedPage queuedPage = queuedPages.removeFirst();
-                addInternal(queuedPage.getPage());
-                queuedPage.getFuture().set(null);
-            }
+    private void discardQueuedPages()
+    {
+        for (QueuedPage queuedPage = queuedPages.poll(); queuedPage != null; queuedPage = queuedPages.poll()) {
+            queuedPage.getFuture().set(null);
         }
+    }
 
-        if (state.get() == QueueState.NO_MORE_QUEUES && closed.get() && openQueuesBySequenceId.isEmpty()) {
-            destroy();
+    private boolean allQueuesFinished()
+    {
+        for (NamedQueue namedQueue : namedQueues.values()) {
+            if (!namedQueue.isFinished()) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        this.notifyAll();
+    private void signalReaders()
+    {
+        readerSignal.getAndSet(SettableFuture.create()).set(null);
     }
 
     /**
      * Marks the output as complete.  After this method is called no more data can be added but there may still be buffered output pages.
      */
-    public synchronized void finish()
+    public void finish()
     {
+        // the closed marker orders the close after all pages added concurrently
+        append(null, null, null);
         closed.set(true);
 
         // the output will only transition to finished if it isn't already marked as failed or cancel
@@ -359,45 +586,52 @@ public class SharedBuffer
     /**
      * Destroys the queue, discarding all pages.
      */
-    public synchronized void destroy()
+    public void destroy()
     {
+        append(null, null, null);
         closed.set(true);
         state.set(QueueState.FINISHED);
 
-        // drop all of the queues
-        for (NamedQueue namedQueue : openQueuesBySequenceId) {
+        // drop all of the queues, which releases the pages
+        for (NamedQueue namedQueue : namedQueues.values()) {
             namedQueue.setFinished();
         }
-        openQueuesBySequenceId.clear();
-
-        // clear the buffer
-        masterQueue.clear();
-        bufferedBytes = 0;
+        retainedHead = null;
 
         // free queued page waiters
-        for (QueuedPage queuedPage : queuedPages) {
-            queuedPage.getFuture().set(null);
+        discardQueuedPages();
+
+        // wait for pages being written, which see the buffer is closed before writing more
+        spillLock.writeLock().lock();
+        try {
+            SpillFile file = spillFile.getAndSet(null);
+            if (file != null) {
+                file.close();
+            }
+        }
+        finally {
+            spillLock.writeLock().unlock();
         }
-        queuedPages.clear();
 
         // notify readers that the buffer has been destroyed
-        this.notifyAll();
+        signalReaders();
     }
 
-    @NotThreadSafe
+    @ThreadSafe
     private class NamedQueue
-            implements Comparable<NamedQueue>
     {
         private final String queueId;
         private final PagePartitionFunction partitionFunction;
 
-        private long sequenceId;
-        private boolean finished;
+        private final AtomicLong sequenceId = new AtomicLong();
+        private final AtomicReference<PageNode> acknowledgedNode;
+        private final AtomicBoolean finished = new AtomicBoolean();
 
-        private NamedQueue(String queueId, PagePartitionFunction partitionFunction)
+        private NamedQueue(String queueId, PagePartitionFunction partitionFunction, PageNode startNode)
         {
             this.queueId = queueId;
             this.partitionFunction = partitionFunction;
+            this.acknowledgedNode = new AtomicReference<>(checkNotNull(startNode, "startNode is null"));
         }
 
         public String getQueueId()
@@ -407,16 +641,16 @@ public class SharedBuffer
 
         public boolean isFinished()
         {
-            checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            return finished;
+            return finished.get();
         }
 
         public void setFinished()
         {
-            checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            finished = true;
+            if (finished.compareAndSet(false, true)) {
+                // detach from the log so the remaining pages can be released
+                PageNode last = getLastNode();
+                acknowledgedNode.set(new PageNode(null, null, null, last.getSequenceId(), last.getCumulativeBytes(), true));
+            }
         }
 
         public boolean isEmpty()
@@ -426,9 +660,7 @@ public class SharedBuffer
 
         public long getSequenceId()
         {
-            checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            return sequenceId;
+            return sequenceId.get();
         }
 
         public long pagesRemoved()
@@ -438,40 +670,60 @@ public class SharedBuffer
 
         public int size()
         {
-            checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            if (finished) {
-                return 0;
-            }
-
-            int listOffset = Ints.checkedCast(sequenceId - masterSequenceId);
-            if (listOffset >= masterQueue.size()) {
+            if (isFinished()) {
                 return 0;
             }
             // todo include queued pages?
-            return masterQueue.size() - listOffset;
+            return (int) Math.max(getLastNode().getSequenceId() - sequenceId.get(), 0);
         }
 
         public void acknowledge(long sequenceId)
         {
-            if (this.sequenceId < sequenceId) {
-                this.sequenceId = sequenceId;
+            while (true) {
+                long current = this.sequenceId.get();
+                if (current >= sequenceId || this.sequenceId.compareAndSet(current, sequenceId)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Moves the acknowledged node as close to the acknowledged sequence id as
+         * the log allows, and returns it.  The node never moves backwards.
+         */
+        public PageNode advanceAcknowledgedNode()
+        {
+            long targetSequenceId = sequenceId.get();
+            while (true) {
+                PageNode current = acknowledgedNode.get();
+                PageNode node = current;
+                while (node.getSequenceId() < targetSequenceId) {
+                    PageNode next = node.getNext();
+                    if (next == null || next.isClosedMarker()) {
+                        break;
+                    }
+                    node = next;
+                }
+                if (node == current || acknowledgedNode.compareAndSet(current, node)) {
+                    return node;
+                }
             }
         }
 
         public BufferResult getPages(long startingSequenceId, DataSize maxSize)
         {
-            checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
             checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
 
             acknowledge(startingSequenceId);
 
-            if (finished) {
-                return emptyResults(sequenceId, true);
+            if (isFinished()) {
+                return emptyResults(getSequenceId(), true);
             }
 
-            int listOffset = Ints.checkedCast(sequenceId - masterSequenceId);
-            if (listOffset >= masterQueue.size()) {
+            PageNode node = advanceAcknowledgedNode();
+            long sequenceId = getSequenceId();
+            if (node.getSequenceId() < sequenceId) {
+                // the acknowledged pages have not been added yet
                 return emptyResults(sequenceId, false);
             }
 
@@ -479,41 +731,128 @@ public class SharedBuffer
 
             List<Page> pages = new ArrayList<>();
             long bytes = 0;
-            while (listOffset < masterQueue.size()) {
-                Page page = masterQueue.get(listOffset++);
-                bytes += page.getDataSize().toBytes();
+            for (PageNode next = node.getNext(); next != null && !next.isClosedMarker(); next = next.getNext()) {
+                bytes += next.getPageBytes();
                 // break (and don't add) if this page would exceed the limit
                 if (!pages.isEmpty() && bytes > maxBytes) {
                     break;
                 }
-                pages.add(page);
+                if (next.getPage() != null) {
+                    pages.add(next.getPage());
+                }
+                else {
+                    try {
+                        pages.add(next.getSpillFile().read(next.getSpilledPage()));
+                    }
+                    catch (RuntimeException e) {
+                        // the spill file is deleted when the buffer is destroyed
+                        if (isFinished()) {
+                            return emptyResults(getSequenceId(), true);
+                        }
+                        // or when the page was acknowledged by a newer request while it was read
+                        if (next.getSequenceId() <= getSequenceId()) {
+                            return emptyResults(getSequenceId(), false);
+                        }
+                        throw e;
+                    }
+                }
             }
 
+            if (pages.isEmpty()) {
+                return emptyResults(sequenceId, false);
+            }
             return new BufferResult(startingSequenceId, startingSequenceId + pages.size(), false, ImmutableList.copyOf(pages), partitionFunction);
         }
 
-        @Override
-        public int compareTo(NamedQueue other)
-        {
-            checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            return ComparisonChain.start()
-                    .compare(this.sequenceId, other.sequenceId)
-                    .compare(this.queueId, other.queueId)
-                    .result();
-        }
-
         @Override
         public String toString()
         {
             return Objects.toStringHelper(this)
                     .add("queueId", queueId)
-                    .add("sequenceId", sequenceId)
-                    .add("finished", finished)
+                    .add("sequenceId", sequenceId.get())
+                    .add("finished", finished.get())
                     .toString();
         }
     }
 
+    /**
+     * An entry in the page log.  The sequence id is the number of pages up to and
+     * including this entry, so a queue that acknowledged sequence id N references
+     * the node with sequence id N.  The cumulative bytes only include pages held
+     * in memory.
+     */
+    private static class PageNode
+    {
+        private final Page page;
+        private final SpillFile spillFile;
+        private final SpilledPage spilledPage;
+        private final long sequenceId;
+        private final long cumulativeBytes;
+        private final boolean closedMarker;
+        private final AtomicReference<PageNode> next = new AtomicReference<>();
+
+        private PageNode(Page page, SpillFile spillFile, SpilledPage spilledPage, long sequenceId, long cumulativeBytes, boolean closedMarker)
+        {
+            this.page = page;
+            this.spillFile = spillFile;
+            this.spilledPage = spilledPage;
+            this.sequenceId = sequenceId;
+            this.cumulativeBytes = cumulativeBytes;
+            this.closedMarker = closedMarker;
+        }
+
+        public Page getPage()
+        {
+            return page;
+        }
+
+        public SpillFile getSpillFile()
+        {
+            return spillFile;
+        }
+
+        public SpilledPage getSpilledPage()
+        {
+            return spilledPage;
+        }
+
+        public long getPageBytes()
+        {
+            if (page != null) {
+                return page.getDataSize().toBytes();
+            }
+            if (spilledPage != null) {
+                return spilledPage.getDataSize();
+            }
+            return 0;
+        }
+
+        public long getSequenceId()
+        {
+            return sequenceId;
+        }
+
+        public long getCumulativeBytes()
+        {
+            return cumulativeBytes;
+        }
+
+        public boolean isClosedMarker()
+        {
+            return closedMarker;
+        }
+
+        public PageNode getNext()
+        {
+            return next.get();
+        }
+
+        public boolean casNext(PageNode node)
+        {
+            return next.compareAndSet(null, node);
+        }
+    }
+
     private static class QueuedPage
     {
         private final Page page;
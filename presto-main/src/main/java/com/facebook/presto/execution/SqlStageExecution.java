@@ -42,12 +42,10 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import io.airlift.log.Logger;
 import io.airlift.stats.Distribution;
@@ -242,15 +240,7 @@ public class SqlStageExecution
             this.subStages = subStages.build();
 
             String dataSourceName = dataSource.isPresent() ? dataSource.get().getDataSourceName() : null;
-            this.nodeSelector = nodeScheduler.createNodeSelector(dataSourceName, Ordering.natural().onResultOf(new Function<Node, Integer>()
-            {
-                @Override
-                public Integer apply(Node input)
-                {
-                    RemoteTask task = tasks.get(input);
-                    return task == null ? 0 : task.getQueuedSplits();
-                }
-            }));
+            this.nodeSelector = nodeScheduler.createNodeSelector(dataSourceName);
             stageState = new StateMachine<>("stage " + stageId, this.executor, StageState.PLANNED);
             stageState.addStateChangeListener(new StateChangeListener<StageState>()
             {
@@ -621,23 +611,25 @@ public class SqlStageExecution
             throws InterruptedException
     {
         AtomicInteger nextTaskId = new AtomicInteger(0);
-        long getSplitStart = System.nanoTime();
 
         SplitSource splitSource = this.dataSource.get();
-        while (!splitSource.isFinished()) {
-            getSplitDistribution.add(System.nanoTime() - getSplitStart);
-
+        List<Split> pendingSplits = ImmutableList.of();
+        while (!pendingSplits.isEmpty() || !splitSource.isFinished()) {
             // if query has been canceled, exit cleanly; query will never run regardless
             if (getState().isDone()) {
                 break;
             }
 
-            Multimap<Node, Split> nodeSplits = ArrayListMultimap.create();
-            for (Split split : splitSource.getNextBatch(splitBatchSize)) {
-                Node node = chooseNode(nodeSelector, split, nextTaskId);
-                nodeSplits.put(node, split);
+            if (pendingSplits.isEmpty()) {
+                long getSplitStart = System.nanoTime();
+                pendingSplits = splitSource.getNextBatch(splitBatchSize);
+                getSplitDistribution.add(System.nanoTime() - getSplitStart);
             }
 
+            // assign the whole batch at once, so the splits are spread over the nodes by queue depth
+            Multimap<Node, Split> nodeSplits = nodeSelector.computeAssignments(pendingSplits, getQueuedSplitsByNode(), maxPendingSplitsPerNode);
+            pendingSplits = ImmutableList.copyOf(pendingSplits.subList(nodeSplits.size(), pendingSplits.size()));
+
             for (Entry<Node, Collection<Split>> taskSplits : nodeSplits.asMap().entrySet()) {
                 long scheduleSplitStart = System.nanoTime();
                 Node node = taskSplits.getKey();
@@ -655,8 +647,11 @@ public class SqlStageExecution
                     task.addSplits(fragment.getPartitionedSource(), taskSplits.getValue());
                     addSplitDistribution.add(System.nanoTime() - scheduleSplitStart);
                 }
+            }
 
-                getSplitStart = System.nanoTime();
+            // the remaining splits can only run on nodes that are full
+            if (nodeSplits.isEmpty() && !pendingSplits.isEmpty()) {
+                waitForSplitQueueSpace(nextTaskId);
             }
         }
 
@@ -669,6 +664,15 @@ public class SqlStageExecution
         setNoMoreStageNodes();
     }
 
+    private Map<Node, Integer> getQueuedSplitsByNode()
+    {
+        ImmutableMap.Builder<Node, Integer> queuedSplits = ImmutableMap.builder();
+        for (Entry<Node, RemoteTask> entry : tasks.entrySet()) {
+            queuedSplits.put(entry.getKey(), entry.getValue().getQueuedSplits());
+        }
+        return queuedSplits.build();
+    }
+
     private void addStageNode(Node node)
     {
         for (StageExecutionNode subStage : subStages.values()) {
@@ -683,50 +687,33 @@ public class SqlStageExecution
         }
     }
 
-    private Node chooseNode(NodeSelector nodeSelector, Split split, AtomicInteger nextTaskId)
+    private void waitForSplitQueueSpace(AtomicInteger nextTaskId)
     {
-        while (true) {
-            // if query has been canceled, exit
-            if (getState().isDone()) {
-                return null;
-            }
-
-            // for each split, pick the node with the smallest number of assignments
-            Node chosen = nodeSelector.selectNode(split);
-
-            // if the chosen node doesn't have too many tasks already, return
-            RemoteTask task = tasks.get(chosen);
-            if (task == null || task.getQueuedSplits() < maxPendingSplitsPerNode) {
-                return chosen;
+        // if we have sub stages...
+        if (!subStages.isEmpty()) {
+            // before we block, we need to create all possible output buffers on the sub stages, or they can deadlock
+            // waiting for the "noMoreBuffers" call
+            nodeSelector.lockDownNodes();
+            for (Node node : Sets.difference(new HashSet<>(nodeSelector.allNodes()), tasks.keySet())) {
+                scheduleTask(nextTaskId.getAndIncrement(), node);
             }
 
-            // if we have sub stages...
-            if (!subStages.isEmpty()) {
-                // before we block, we need to create all possible output buffers on the sub stages, or they can deadlock
-                // waiting for the "noMoreBuffers" call
-                nodeSelector.lockDownNodes();
-                for (Node node : Sets.difference(new HashSet<>(nodeSelector.allNodes()), tasks.keySet())) {
-                    scheduleTask(nextTaskId.getAndIncrement(), node);
-                }
+            // tell sub stages there will be no more output buffers
+            setNoMoreStageNodes();
+        }
 
-                // tell sub stages there will be no more output buffers
-                setNoMoreStageNodes();
+        synchronized (this) {
+            // wait for a task to report progress, every task info update wakes this thread
+            try {
+                TimeUnit.SECONDS.timedWait(this, 1);
             }
-
-            synchronized (this) {
-                // otherwise wait for some tasks to complete
-                try {
-                    // todo this adds latency: replace this wait with an event listener
-                    TimeUnit.SECONDS.timedWait(this, 1);
-                }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw Throwables.propagate(e);
-                }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
             }
-
-            updateNewExchangesAndBuffers(false);
         }
+
+        updateNewExchangesAndBuffers(false);
     }
 
     private RemoteTask scheduleTask(int id, Node node)
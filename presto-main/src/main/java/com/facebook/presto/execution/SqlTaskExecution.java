@@ -24,9 +24,11 @@ import com.facebook.presto.execution.TaskExecutor.TaskHandle;
 import com.facebook.presto.operator.Driver;
 import com.facebook.presto.operator.DriverContext;
 import com.facebook.presto.operator.DriverFactory;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.PipelineContext;
 import com.facebook.presto.operator.TaskContext;
 import com.facebook.presto.operator.TaskOutputOperator.TaskOutputFactory;
+import com.facebook.presto.operator.TaskStats;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner.LocalExecutionPlan;
@@ -35,6 +37,7 @@ import com.facebook.presto.sql.planner.PlanFragment.PlanDistribution;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.util.SetThreadName;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.FutureCallback;
@@ -47,6 +50,7 @@ import org.joda.time.DateTime;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.util.ArrayList;
@@ -116,10 +120,12 @@ public class SqlTaskExecution
             OutputBuffers outputBuffers,
             LocalExecutionPlanner planner,
             DataSize maxBufferSize,
+            Optional<File> outputSpillDirectory,
             TaskExecutor taskExecutor,
             ExecutorService notificationExecutor,
             DataSize maxTaskMemoryUsage,
             DataSize operatorPreAllocatedMemory,
+            MemoryPool memoryPool,
             QueryMonitor queryMonitor,
             boolean cpuTimerEnabled)
     {
@@ -130,9 +136,11 @@ public class SqlTaskExecution
                 outputBuffers,
                 planner,
                 maxBufferSize,
+                outputSpillDirectory,
                 taskExecutor,
                 maxTaskMemoryUsage,
                 operatorPreAllocatedMemory,
+                memoryPool,
                 queryMonitor,
                 notificationExecutor,
                 cpuTimerEnabled
@@ -153,9 +161,11 @@ public class SqlTaskExecution
             OutputBuffers outputBuffers,
             LocalExecutionPlanner planner,
             DataSize maxBufferSize,
+            Optional<File> outputSpillDirectory,
             TaskExecutor taskExecutor,
             DataSize maxTaskMemoryUsage,
             DataSize operatorPreAllocatedMemory,
+            MemoryPool memoryPool,
             QueryMonitor queryMonitor,
             Executor notificationExecutor,
             boolean cpuTimerEnabled)
@@ -185,13 +195,15 @@ public class SqlTaskExecution
                     session,
                     checkNotNull(maxTaskMemoryUsage, "maxTaskMemoryUsage is null"),
                     checkNotNull(operatorPreAllocatedMemory, "operatorPreAllocatedMemory is null"),
+                    checkNotNull(memoryPool, "memoryPool is null"),
                     cpuTimerEnabled);
 
             this.sharedBuffer = new SharedBuffer(
                     taskId,
                     notificationExecutor,
                     checkNotNull(maxBufferSize, "maxBufferSize is null"),
-                    outputBuffers);
+                    outputBuffers,
+                    checkNotNull(outputSpillDirectory, "outputSpillDirectory is null"));
             sharedBuffer.addStateChangeListener(new StateChangeListener<QueueState>()
             {
                 @Override
@@ -240,7 +252,9 @@ public class SqlTaskExecution
         // start unpartitioned drivers
         List<DriverSplitRunner> runners = new ArrayList<>();
         for (DriverSplitRunnerFactory driverFactory : unpartitionedDriverFactories) {
-            runners.add(driverFactory.createDriverRunner(null));
+            for (int i = 0; i < driverFactory.getDriverInstances(); i++) {
+                runners.add(driverFactory.createDriverRunner(null));
+            }
             driverFactory.setNoMoreSplits();
         }
         enqueueDrivers(true, runners);
@@ -279,6 +293,12 @@ public class SqlTaskExecution
                 failures = toFailures(taskStateMachine.getFailureCauses());
             }
 
+            // pipeline and operator stats are large, so they are only sent on request and in the final info of the task
+            TaskStats taskStats = taskContext.getTaskStats();
+            if (!full && !state.isDone()) {
+                taskStats = taskStats.summarize();
+            }
+
             return new TaskInfo(
                     taskStateMachine.getTaskId(),
                     nextTaskInfoVersion.getAndIncrement(),
@@ -287,7 +307,7 @@ public class SqlTaskExecution
                     lastHeartbeat.get(),
                     sharedBuffer.getInfo(),
                     getNoMoreSplits(),
-                    taskContext.getTaskStats(),
+                    taskStats,
                     failures,
                     taskContext.getOutputItems());
         }
@@ -575,6 +595,11 @@ public class SqlTaskExecution
             return driver;
         }
 
+        private int getDriverInstances()
+        {
+            return driverFactory.getDriverInstances();
+        }
+
         private boolean isNoMoreSplits()
         {
             return noMoreSplits.get();
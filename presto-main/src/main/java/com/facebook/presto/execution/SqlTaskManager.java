@@ -18,11 +18,14 @@ import com.facebook.presto.TaskSource;
 import com.facebook.presto.client.FailureInfo;
 import com.facebook.presto.event.query.QueryMonitor;
 import com.facebook.presto.execution.SharedBuffer.QueueState;
+import com.facebook.presto.operator.MemoryPool;
+import com.facebook.presto.operator.SpillFile;
 import com.facebook.presto.operator.TaskContext;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.PlanFragment;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -37,10 +40,12 @@ import org.joda.time.DateTime;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
+import java.io.File;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
@@ -56,6 +61,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import static com.facebook.presto.util.Threads.threadsNamed;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class SqlTaskManager
@@ -64,6 +70,8 @@ public class SqlTaskManager
     private static final Logger log = Logger.get(SqlTaskManager.class);
 
     private final DataSize maxBufferSize;
+    private final Optional<File> outputSpillDirectory;
+    private final Optional<File> spillDirectory;
 
     private final ExecutorService taskNotificationExecutor;
     private final ThreadPoolExecutorMBean taskNotificationExecutorMBean;
@@ -77,6 +85,7 @@ public class SqlTaskManager
     private final LocationFactory locationFactory;
     private final QueryMonitor queryMonitor;
     private final DataSize maxTaskMemoryUsage;
+    private final MemoryPool memoryPool;
     private final DataSize operatorPreAllocatedMemory;
     private final Duration infoCacheTime;
     private final Duration clientTimeout;
@@ -112,8 +121,11 @@ public class SqlTaskManager
 
         checkNotNull(config, "config is null");
         this.maxBufferSize = config.getSinkMaxBufferSize();
+        this.outputSpillDirectory = config.isSinkSpillEnabled() ? Optional.of(config.getSpillDirectory()) : Optional.<File>absent();
+        this.spillDirectory = config.isSinkSpillEnabled() || config.isSpillEnabled() ? Optional.of(config.getSpillDirectory()) : Optional.<File>absent();
         this.maxTaskMemoryUsage = config.getMaxTaskMemoryUsage();
         this.operatorPreAllocatedMemory = config.getOperatorPreAllocatedMemory();
+        this.memoryPool = new MemoryPool(config.getMemoryPoolSize());
         this.infoCacheTime = config.getInfoMaxAge();
         this.clientTimeout = config.getClientTimeout();
         this.cpuTimerEnabled = config.isTaskCpuTimerEnabled();
@@ -128,6 +140,11 @@ public class SqlTaskManager
     @PostConstruct
     public void start()
     {
+        // spill files are deleted when closed, so only a crashed process leaves files behind
+        if (spillDirectory.isPresent()) {
+            SpillFile.deleteSpillFiles(spillDirectory.get());
+        }
+
         taskManagementExecutor.scheduleAtFixedRate(new Runnable()
         {
             @Override
@@ -170,6 +187,13 @@ public class SqlTaskManager
         taskManagementExecutor.shutdownNow();
     }
 
+    @Managed
+    @Nested
+    public MemoryPool getMemoryPool()
+    {
+        return memoryPool;
+    }
+
     @Managed
     @Nested
     public CounterStat getInputDataSize()
@@ -282,7 +306,7 @@ public class SqlTaskManager
     }
 
     @Override
-    public TaskInfo updateTask(Session session, TaskId taskId, PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputBuffers)
+    public TaskInfo updateTask(Session session, TaskId taskId, @Nullable PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputBuffers)
     {
         URI location = locationFactory.createLocalTaskLocation(taskId);
 
@@ -296,6 +320,8 @@ public class SqlTaskManager
                     return taskInfo;
                 }
 
+                // the coordinator only sends the fragment until the task has been created
+                checkArgument(fragment != null, "Task %s does not exist and the update does not contain a fragment", taskId);
                 taskExecution = SqlTaskExecution.createSqlTaskExecution(session,
                         taskId,
                         location,
@@ -304,10 +330,12 @@ public class SqlTaskManager
                         outputBuffers,
                         planner,
                         maxBufferSize,
+                        outputSpillDirectory,
                         taskExecutor,
                         taskNotificationExecutor,
                         maxTaskMemoryUsage,
                         operatorPreAllocatedMemory,
+                        memoryPool,
                         queryMonitor,
                         cpuTimerEnabled
                 );
@@ -18,9 +18,7 @@ import com.facebook.presto.util.SetThreadName;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Ticker;
-import com.google.common.collect.Sets;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.concurrent.ThreadPoolExecutorMBean;
@@ -39,16 +37,20 @@ import javax.inject.Inject;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -56,12 +58,27 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.facebook.presto.util.Threads.threadsNamed;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Runs splits on a fixed number of runner threads using a multilevel feedback queue.
+ * A split is placed in a level based on the CPU time already used by its task, so
+ * new and short tasks are in the lower levels.  Each level is given a share of the
+ * runner time that halves with every level, which lets short queries run ahead of
+ * long scans without starving them.  Within a level, splits of the query that has
+ * used the least CPU time on this node run first.
+ * <p>
+ * To avoid a handoff through the shared queue after every quanta, each runner
+ * keeps the runnable splits it just ran in a small local deque, and idle runners
+ * steal from the deques of other runners.  A local split competes with the shared
+ * queue under the same level and query selection, so keeping a split local never
+ * lets it run ahead of a split the shared queue would have chosen.
+ */
 @ThreadSafe
 public class TaskExecutor
 {
@@ -71,28 +88,41 @@ public class TaskExecutor
     private static final int GUARANTEED_SPLITS_PER_TASK = 3;
 
     // each time we run a split, run it for this length before returning to the pool
-    private static final Duration SPLIT_RUN_QUANTA = new Duration(1, TimeUnit.SECONDS);
+    private static final Duration DEFAULT_SPLIT_RUN_QUANTA = new Duration(1, TimeUnit.SECONDS);
+
+    // task thread usage, in seconds, at which splits enter each level
+    private static final long[] LEVEL_THRESHOLD_SECONDS = {0, 1, 10, 60, 300};
+
+    // each level gets this many times the runner time of the next level
+    private static final int LEVEL_TIME_MULTIPLIER = 2;
+
+    // runnable splits kept by a runner before they are returned to the shared queue
+    private static final int MAX_LOCAL_SPLITS = 4;
 
     private static final AtomicLong NEXT_RUNNER_ID = new AtomicLong();
-    private static final AtomicLong NEXT_WORKER_ID = new AtomicLong();
 
     private final ExecutorService executor;
     private final ThreadPoolExecutorMBean executorMBean;
 
     private final int runnerThreads;
     private final int minimumNumberOfTasks;
+    private final Duration splitRunQuanta;
 
     private final Ticker ticker;
 
     @GuardedBy("this")
     private final List<TaskHandle> tasks;
 
+    @GuardedBy("this")
+    private final Map<QueryId, QueryHandle> queries = new HashMap<>();
+
     private final Set<PrioritizedSplitRunner> allSplits = new HashSet<>();
-    private final PriorityBlockingQueue<PrioritizedSplitRunner> pendingSplits;
-    private final Set<PrioritizedSplitRunner> runningSplits = Sets.newSetFromMap(new ConcurrentHashMap<PrioritizedSplitRunner, Boolean>());
-    private final Set<PrioritizedSplitRunner> blockedSplits = Sets.newSetFromMap(new ConcurrentHashMap<PrioritizedSplitRunner, Boolean>());
+    private final MultilevelSplitQueue pendingSplits;
+    private final List<Runner> runners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger runningSplits = new AtomicInteger();
+    private final AtomicInteger blockedSplits = new AtomicInteger();
 
-    private final AtomicLongArray completedTasksPerLevel = new AtomicLongArray(5);
+    private final AtomicLongArray completedTasksPerLevel = new AtomicLongArray(LEVEL_THRESHOLD_SECONDS.length);
 
     private final DistributionStat queuedTime = new DistributionStat();
     private final DistributionStat wallTime = new DistributionStat();
@@ -102,7 +132,7 @@ public class TaskExecutor
     @Inject
     public TaskExecutor(TaskManagerConfig config)
     {
-        this(checkNotNull(config, "config is null").getMaxShardProcessorThreads());
+        this(checkNotNull(config, "config is null").getMaxShardProcessorThreads(), config.getSplitRunQuanta(), Ticker.systemTicker());
     }
 
     public TaskExecutor(int runnerThreads)
@@ -112,19 +142,28 @@ public class TaskExecutor
 
     @VisibleForTesting
     public TaskExecutor(int runnerThreads, Ticker ticker)
+    {
+        this(runnerThreads, DEFAULT_SPLIT_RUN_QUANTA, ticker);
+    }
+
+    @VisibleForTesting
+    public TaskExecutor(int runnerThreads, Duration splitRunQuanta, Ticker ticker)
     {
         checkArgument(runnerThreads > 0, "runnerThreads must be at least 1");
+        checkNotNull(splitRunQuanta, "splitRunQuanta is null");
+        checkArgument(splitRunQuanta.toMillis() > 0, "splitRunQuanta must be at least 1ms");
 
         // we manages thread pool size directly, so create an unlimited pool
         this.executor = Executors.newCachedThreadPool(threadsNamed("task-processor-%d"));
         this.executorMBean = new ThreadPoolExecutorMBean((ThreadPoolExecutor) executor);
         this.runnerThreads = runnerThreads;
+        this.splitRunQuanta = splitRunQuanta;
 
         this.ticker = checkNotNull(ticker, "ticker is null");
 
         // we assume we need at least two tasks per runner thread to keep the system busy
         this.minimumNumberOfTasks = 2 * this.runnerThreads;
-        this.pendingSplits = new PriorityBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 10);
+        this.pendingSplits = new MultilevelSplitQueue(ticker);
         this.tasks = new LinkedList<>();
     }
 
@@ -151,8 +190,8 @@ public class TaskExecutor
                 .add("runnerThreads", runnerThreads)
                 .add("allSplits", allSplits.size())
                 .add("pendingSplits", pendingSplits.size())
-                .add("runningSplits", runningSplits.size())
-                .add("blockedSplits", blockedSplits.size())
+                .add("runningSplits", runningSplits.get())
+                .add("blockedSplits", blockedSplits.get())
                 .toString();
     }
 
@@ -167,7 +206,17 @@ public class TaskExecutor
 
     public synchronized TaskHandle addTask(TaskId taskId)
     {
-        TaskHandle taskHandle = new TaskHandle(checkNotNull(taskId, "taskId is null"));
+        checkNotNull(taskId, "taskId is null");
+
+        // tasks of the same query share the thread usage used for fair sharing across queries
+        QueryHandle queryHandle = queries.get(taskId.getQueryId());
+        if (queryHandle == null) {
+            queryHandle = new QueryHandle();
+            queries.put(taskId.getQueryId(), queryHandle);
+        }
+        queryHandle.addTask();
+
+        TaskHandle taskHandle = new TaskHandle(taskId, queryHandle);
         tasks.add(taskHandle);
         return taskHandle;
     }
@@ -175,7 +224,12 @@ public class TaskExecutor
     public synchronized void removeTask(TaskHandle taskHandle)
     {
         taskHandle.destroy();
-        tasks.remove(taskHandle);
+        if (tasks.remove(taskHandle)) {
+            QueryId queryId = taskHandle.getTaskId().getQueryId();
+            if (queries.get(queryId).removeTask()) {
+                queries.remove(queryId);
+            }
+        }
 
         // record completed stats
         long threadUsageNanos = taskHandle.getThreadUsageNanos();
@@ -187,7 +241,7 @@ public class TaskExecutor
     {
         List<ListenableFuture<?>> finishedFutures = new ArrayList<>(taskSplits.size());
         for (SplitRunner taskSplit : taskSplits) {
-            PrioritizedSplitRunner prioritizedSplitRunner = new PrioritizedSplitRunner(taskHandle, taskSplit, ticker);
+            PrioritizedSplitRunner prioritizedSplitRunner = new PrioritizedSplitRunner(taskHandle, taskSplit, splitRunQuanta);
 
             if (forceStart) {
                 // Note: we do not record queued time for forced splits
@@ -257,50 +311,91 @@ public class TaskExecutor
     private synchronized void startSplit(PrioritizedSplitRunner split)
     {
         allSplits.add(split);
-        pendingSplits.put(split);
+        pendingSplits.offer(split);
     }
 
     private synchronized PrioritizedSplitRunner pollNextSplitWorker()
     {
-        // todo find a better algorithm for this
-        // find the first task that produces a split, then move that task to the
-        // end of the task list, so we get round robin
-        for (Iterator<TaskHandle> iterator = tasks.iterator(); iterator.hasNext(); ) {
-            TaskHandle task = iterator.next();
-            PrioritizedSplitRunner split = task.pollNextSplit();
-            if (split != null) {
-                // move task to end of list
-                iterator.remove();
-
-                // CAUTION: we are modifying the list in the loop which would normally
-                // cause a ConcurrentModificationException but we exit immediately
-                tasks.add(task);
-                return split;
+        // find the task with queued splits whose query has used the least thread
+        // time, then move that task to the end of the task list, so tasks of
+        // queries with equal usage are chosen round robin
+        TaskHandle selectedTask = null;
+        for (TaskHandle task : tasks) {
+            if (task.hasQueuedSplits() && (selectedTask == null || task.getQueryThreadUsageNanos() < selectedTask.getQueryThreadUsageNanos())) {
+                selectedTask = task;
             }
         }
-        return null;
+        if (selectedTask == null) {
+            return null;
+        }
+
+        tasks.remove(selectedTask);
+        tasks.add(selectedTask);
+        return selectedTask.pollNextSplit();
+    }
+
+    @ThreadSafe
+    private static class QueryHandle
+    {
+        private final AtomicLong threadUsageNanos = new AtomicLong();
+
+        // guarded by the task executor
+        private int taskCount;
+
+        private void addTask()
+        {
+            taskCount++;
+        }
+
+        /**
+         * @return true if this was the last task of the query
+         */
+        private boolean removeTask()
+        {
+            taskCount--;
+            return taskCount == 0;
+        }
+
+        private void addThreadUsageNanos(long durationNanos)
+        {
+            threadUsageNanos.addAndGet(durationNanos);
+        }
+
+        private long getThreadUsageNanos()
+        {
+            return threadUsageNanos.get();
+        }
     }
 
     @NotThreadSafe
     public static class TaskHandle
     {
         private final TaskId taskId;
+        private final QueryHandle queryHandle;
         private final Queue<PrioritizedSplitRunner> queuedSplits = new ArrayDeque<>(10);
         private final List<PrioritizedSplitRunner> runningSplits = new ArrayList<>(10);
         private final AtomicLong taskThreadUsageNanos = new AtomicLong();
 
         private final AtomicInteger nextSplitId = new AtomicInteger();
 
-        private TaskHandle(TaskId taskId)
+        private TaskHandle(TaskId taskId, QueryHandle queryHandle)
         {
             this.taskId = taskId;
+            this.queryHandle = queryHandle;
         }
 
-        private long addThreadUsageNanos(long durationNanos)
+        @VisibleForTesting
+        long addThreadUsageNanos(long durationNanos)
         {
+            queryHandle.addThreadUsageNanos(durationNanos);
             return taskThreadUsageNanos.addAndGet(durationNanos);
         }
 
+        private long getQueryThreadUsageNanos()
+        {
+            return queryHandle.getThreadUsageNanos();
+        }
+
         private TaskId getTaskId()
         {
             return taskId;
@@ -329,6 +424,11 @@ public class TaskExecutor
             return runningSplits.size();
         }
 
+        private boolean hasQueuedSplits()
+        {
+            return !queuedSplits.isEmpty();
+        }
+
         private long getThreadUsageNanos()
         {
             return taskThreadUsageNanos.get();
@@ -362,37 +462,40 @@ public class TaskExecutor
         }
     }
 
-    private static class PrioritizedSplitRunner
-            implements Comparable<PrioritizedSplitRunner>
+    private enum SplitState
+    {
+        QUEUED, RUNNING, BLOCKED, FINISHED
+    }
+
+    @VisibleForTesting
+    static class PrioritizedSplitRunner
     {
         private final long createdNanos = System.nanoTime();
 
         private final TaskHandle taskHandle;
         private final int splitId;
-        private final long workerId;
         private final SplitRunner split;
-
-        private final Ticker ticker;
+        private final Duration splitRunQuanta;
 
         private final SettableFuture<?> finishedFuture = SettableFuture.create();
 
         private final AtomicBoolean destroyed = new AtomicBoolean();
+        private final AtomicReference<SplitState> state = new AtomicReference<>(SplitState.QUEUED);
 
         private final AtomicInteger priorityLevel = new AtomicInteger();
-        private final AtomicLong threadUsageNanos = new AtomicLong();
-        private final AtomicLong lastRun = new AtomicLong();
+        private final AtomicLong queuedNanos = new AtomicLong();
         private final AtomicLong start = new AtomicLong();
 
         private final AtomicLong cpuTime = new AtomicLong();
         private final AtomicLong processCalls = new AtomicLong();
 
-        private PrioritizedSplitRunner(TaskHandle taskHandle, SplitRunner split, Ticker ticker)
+        @VisibleForTesting
+        PrioritizedSplitRunner(TaskHandle taskHandle, SplitRunner split, Duration splitRunQuanta)
         {
             this.taskHandle = taskHandle;
             this.splitId = taskHandle.getNextSplitId();
             this.split = split;
-            this.ticker = ticker;
-            this.workerId = NEXT_WORKER_ID.getAndIncrement();
+            this.splitRunQuanta = splitRunQuanta;
         }
 
         private TaskHandle getTaskHandle()
@@ -433,20 +536,13 @@ public class TaskExecutor
 
                 processCalls.incrementAndGet();
                 CpuTimer timer = new CpuTimer();
-                ListenableFuture<?> blocked = split.processFor(SPLIT_RUN_QUANTA);
-
-                CpuTimer.CpuDuration elapsed = timer.elapsedTime();
-
-                // update priority level base on total thread usage of task
-                long durationNanos = elapsed.getWall().roundTo(TimeUnit.NANOSECONDS);
-                long threadUsageNanos = taskHandle.addThreadUsageNanos(durationNanos);
-                this.threadUsageNanos.set(threadUsageNanos);
-                priorityLevel.set(calculatePriorityLevel(threadUsageNanos));
+                ListenableFuture<?> blocked = split.processFor(splitRunQuanta);
 
-                // record last run for prioritization within a level
-                lastRun.set(ticker.read());
+                // the level of the split is based on the total cpu usage of the task
+                long cpuNanos = timer.elapsedTime().getCpu().roundTo(TimeUnit.NANOSECONDS);
+                taskHandle.addThreadUsageNanos(cpuNanos);
 
-                cpuTime.addAndGet(elapsed.getCpu().roundTo(TimeUnit.NANOSECONDS));
+                cpuTime.addAndGet(cpuNanos);
                 return blocked;
             }
             catch (Throwable e) {
@@ -455,39 +551,31 @@ public class TaskExecutor
             }
         }
 
-        public boolean updatePriorityLevel()
+        public void transitionState(SplitState expectedState, SplitState newState)
         {
-            int newPriority = calculatePriorityLevel(taskHandle.getThreadUsageNanos());
-            if (newPriority == priorityLevel.getAndSet(newPriority)) {
-                return false;
-            }
-
-            // update thread usage while if level changed
-            threadUsageNanos.set(taskHandle.getThreadUsageNanos());
-            return true;
+            checkState(state.compareAndSet(expectedState, newState), "%s is %s, expected %s", this, state.get(), expectedState);
         }
 
-        @Override
-        public int compareTo(PrioritizedSplitRunner o)
+        public int getPriorityLevel()
         {
-            int level = priorityLevel.get();
+            return priorityLevel.get();
+        }
 
-            int result = Ints.compare(level, o.priorityLevel.get());
-            if (result != 0) {
-                return result;
-            }
+        public int updatePriorityLevel()
+        {
+            int level = calculatePriorityLevel(taskHandle.getThreadUsageNanos());
+            priorityLevel.set(level);
+            return level;
+        }
 
-            if (level < 4) {
-                result = Long.compare(threadUsageNanos.get(), threadUsageNanos.get());
-            }
-            else {
-                result = Long.compare(lastRun.get(), o.lastRun.get());
-            }
-            if (result != 0) {
-                return result;
-            }
+        public long getQueuedNanos()
+        {
+            return queuedNanos.get();
+        }
 
-            return Longs.compare(workerId, o.workerId);
+        public void setQueuedNanos(long queuedNanos)
+        {
+            this.queuedNanos.set(queuedNanos);
         }
 
         public int getSplitId()
@@ -515,83 +603,389 @@ public class TaskExecutor
 
     private static int calculatePriorityLevel(long threadUsageNanos)
     {
-        long millis = TimeUnit.NANOSECONDS.toMillis(threadUsageNanos);
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(threadUsageNanos);
 
-        int priorityLevel;
-        if (millis < 1000) {
-            priorityLevel = 0;
+        int priorityLevel = 0;
+        while (priorityLevel + 1 < LEVEL_THRESHOLD_SECONDS.length && seconds >= LEVEL_THRESHOLD_SECONDS[priorityLevel + 1]) {
+            priorityLevel++;
         }
-        else if (millis < 10_000) {
-            priorityLevel = 1;
+        return priorityLevel;
+    }
+
+    /**
+     * Queue of the splits waiting for a runner thread.  Every level tracks the
+     * runner time its splits have used, and the next split is taken from the
+     * level that is furthest below its share.  A level that was empty is moved
+     * up to the other levels when it receives a split, so time it did not use
+     * while idle can not be used to starve the other levels.
+     * <p>
+     * The lowest queued level and the number of waiting runners are published
+     * so runners can skip the lock when the queue is empty, and only keep
+     * splits local while no runner is waiting.
+     */
+    @ThreadSafe
+    @VisibleForTesting
+    static class MultilevelSplitQueue
+    {
+        private final Ticker ticker;
+
+        @GuardedBy("this")
+        private final List<Map<QueryId, Queue<PrioritizedSplitRunner>>> levels;
+
+        private final List<LevelStats> levelStats;
+
+        @GuardedBy("this")
+        private int size;
+
+        private volatile int minimumQueuedLevel = LEVEL_THRESHOLD_SECONDS.length;
+        private final AtomicInteger waitingRunners = new AtomicInteger();
+
+        @VisibleForTesting
+        MultilevelSplitQueue(Ticker ticker)
+        {
+            this.ticker = ticker;
+
+            ImmutableList.Builder<Map<QueryId, Queue<PrioritizedSplitRunner>>> levels = ImmutableList.builder();
+            ImmutableList.Builder<LevelStats> levelStats = ImmutableList.builder();
+            long weight = 1;
+            for (int level = 0; level < LEVEL_THRESHOLD_SECONDS.length; level++) {
+                levels.add(new LinkedHashMap<QueryId, Queue<PrioritizedSplitRunner>>());
+                levelStats.add(new LevelStats(weight));
+                weight *= LEVEL_TIME_MULTIPLIER;
+            }
+            this.levels = levels.build();
+            this.levelStats = levelStats.build();
         }
-        else if (millis < 60_000) {
-            priorityLevel = 2;
+
+        public synchronized int size()
+        {
+            return size;
         }
-        else if (millis < 300_000) {
-            priorityLevel = 3;
+
+        public synchronized void offer(PrioritizedSplitRunner split)
+        {
+            int level = split.updatePriorityLevel();
+            Map<QueryId, Queue<PrioritizedSplitRunner>> queries = levels.get(level);
+
+            if (queries.isEmpty()) {
+                long minimumNormalizedNanos = getMinimumNormalizedScheduledNanos();
+                if (minimumNormalizedNanos != Long.MAX_VALUE) {
+                    levelStats.get(level).raiseScheduledNanos(minimumNormalizedNanos);
+                }
+            }
+
+            QueryId queryId = split.getTaskHandle().getTaskId().getQueryId();
+            Queue<PrioritizedSplitRunner> queue = queries.get(queryId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queries.put(queryId, queue);
+            }
+            queue.add(split);
+            split.setQueuedNanos(ticker.read());
+            size++;
+            minimumQueuedLevel = Math.min(minimumQueuedLevel, level);
+
+            notify();
         }
-        else {
-            priorityLevel = 4;
+
+        /**
+         * Takes the next split without waiting.
+         *
+         * @return the split or null if the queue is empty
+         */
+        public PrioritizedSplitRunner poll()
+        {
+            // avoid the lock when the queue is empty
+            if (minimumQueuedLevel == LEVEL_THRESHOLD_SECONDS.length) {
+                return null;
+            }
+            synchronized (this) {
+                if (size == 0) {
+                    return null;
+                }
+                return pollLevel(selectLevel(-1));
+            }
+        }
+
+        /**
+         * Takes the next split, waiting for a split to be queued.
+         */
+        public synchronized PrioritizedSplitRunner take()
+                throws InterruptedException
+        {
+            waitingRunners.incrementAndGet();
+            try {
+                while (size == 0) {
+                    wait();
+                }
+            }
+            finally {
+                waitingRunners.decrementAndGet();
+            }
+            return pollLevel(selectLevel(-1));
+        }
+
+        /**
+         * Selects the next split as if the specified split, which is held outside
+         * of the queue, were queued.  Ties are broken in favor of the split that
+         * was queued first.
+         *
+         * @return a queued split if it is selected, or null if the specified split should run next
+         */
+        public PrioritizedSplitRunner pollUnlessPreferred(PrioritizedSplitRunner candidate)
+        {
+            // avoid the lock when the queue is empty
+            if (minimumQueuedLevel == LEVEL_THRESHOLD_SECONDS.length) {
+                return null;
+            }
+            synchronized (this) {
+                if (size == 0) {
+                    return null;
+                }
+
+                int candidateLevel = candidate.getPriorityLevel();
+                int level = selectLevel(candidateLevel);
+                if (level == candidateLevel) {
+                    Entry<QueryId, Queue<PrioritizedSplitRunner>> selectedQuery = selectQuery(levels.get(level));
+                    if (selectedQuery == null) {
+                        return null;
+                    }
+                    PrioritizedSplitRunner queued = selectedQuery.getValue().peek();
+                    long candidateUsage = candidate.getTaskHandle().getQueryThreadUsageNanos();
+                    long queuedUsage = queued.getTaskHandle().getQueryThreadUsageNanos();
+                    if (candidateUsage < queuedUsage || (candidateUsage == queuedUsage && candidate.getQueuedNanos() <= queued.getQueuedNanos())) {
+                        return null;
+                    }
+                }
+                return pollLevel(level);
+            }
+        }
+
+        /**
+         * Selects the non-empty level that has used the least of its share.
+         *
+         * @param extraLevel a level to consider non-empty, or -1
+         */
+        @GuardedBy("this")
+        private int selectLevel(int extraLevel)
+        {
+            int selectedLevel = -1;
+            for (int level = 0; level < levels.size(); level++) {
+                if ((level == extraLevel || !levels.get(level).isEmpty()) && (selectedLevel < 0 || getNormalizedScheduledNanos(level) < getNormalizedScheduledNanos(selectedLevel))) {
+                    selectedLevel = level;
+                }
+            }
+            return selectedLevel;
+        }
+
+        /**
+         * Selects the query in the level that has used the least thread time.
+         */
+        private static Entry<QueryId, Queue<PrioritizedSplitRunner>> selectQuery(Map<QueryId, Queue<PrioritizedSplitRunner>> queries)
+        {
+            Entry<QueryId, Queue<PrioritizedSplitRunner>> selectedQuery = null;
+            for (Entry<QueryId, Queue<PrioritizedSplitRunner>> entry : queries.entrySet()) {
+                if (selectedQuery == null || getQueryThreadUsageNanos(entry.getValue()) < getQueryThreadUsageNanos(selectedQuery.getValue())) {
+                    selectedQuery = entry;
+                }
+            }
+            return selectedQuery;
+        }
+
+        @GuardedBy("this")
+        private PrioritizedSplitRunner pollLevel(int level)
+        {
+            Map<QueryId, Queue<PrioritizedSplitRunner>> queries = levels.get(level);
+            Entry<QueryId, Queue<PrioritizedSplitRunner>> selectedQuery = selectQuery(queries);
+
+            Queue<PrioritizedSplitRunner> queue = selectedQuery.getValue();
+            PrioritizedSplitRunner split = queue.poll();
+            if (queue.isEmpty()) {
+                queries.remove(selectedQuery.getKey());
+                if (queries.isEmpty()) {
+                    updateMinimumQueuedLevel();
+                }
+            }
+            size--;
+
+            recordQueuedTime(split);
+            return split;
+        }
+
+        public boolean hasWaitingRunners()
+        {
+            return waitingRunners.get() > 0;
+        }
+
+        public void recordQueuedTime(PrioritizedSplitRunner split)
+        {
+            levelStats.get(split.getPriorityLevel()).getQueuedTime().add(ticker.read() - split.getQueuedNanos());
+        }
+
+        public void addLevelScheduledNanos(int level, long scheduledNanos)
+        {
+            levelStats.get(level).addScheduledNanos(scheduledNanos);
+        }
+
+        public LevelStats getLevelStats(int level)
+        {
+            return levelStats.get(level);
+        }
+
+        private long getNormalizedScheduledNanos(int level)
+        {
+            return levelStats.get(level).getNormalizedScheduledNanos();
+        }
+
+        @GuardedBy("this")
+        private void updateMinimumQueuedLevel()
+        {
+            int level = 0;
+            while (level < levels.size() && levels.get(level).isEmpty()) {
+                level++;
+            }
+            minimumQueuedLevel = level;
+        }
+
+        private long getMinimumNormalizedScheduledNanos()
+        {
+            long minimum = Long.MAX_VALUE;
+            for (int level = 0; level < levels.size(); level++) {
+                if (!levels.get(level).isEmpty()) {
+                    minimum = Math.min(minimum, getNormalizedScheduledNanos(level));
+                }
+            }
+            return minimum;
+        }
+
+        private static long getQueryThreadUsageNanos(Queue<PrioritizedSplitRunner> queue)
+        {
+            return queue.peek().getTaskHandle().getQueryThreadUsageNanos();
+        }
+    }
+
+    /**
+     * Runner time used by the splits of one level of the {@link MultilevelSplitQueue},
+     * and the time they waited in the queue.
+     */
+    @ThreadSafe
+    public static class LevelStats
+    {
+        private final long weight;
+        private final AtomicLong scheduledNanos = new AtomicLong();
+        private final DistributionStat queuedTime = new DistributionStat();
+
+        private LevelStats(long weight)
+        {
+            this.weight = weight;
+        }
+
+        @Managed
+        public long getWeight()
+        {
+            return weight;
+        }
+
+        @Managed
+        public long getScheduledNanos()
+        {
+            return scheduledNanos.get();
+        }
+
+        @Managed
+        @Nested
+        public DistributionStat getQueuedTime()
+        {
+            return queuedTime;
+        }
+
+        private void addScheduledNanos(long nanos)
+        {
+            scheduledNanos.addAndGet(nanos);
+        }
+
+        /**
+         * Raises the scheduled time so the normalized time is at least the specified value.
+         */
+        private void raiseScheduledNanos(long minimumNormalizedNanos)
+        {
+            long minimumScheduledNanos = minimumNormalizedNanos / weight;
+            while (true) {
+                long current = scheduledNanos.get();
+                if (current >= minimumScheduledNanos || scheduledNanos.compareAndSet(current, minimumScheduledNanos)) {
+                    return;
+                }
+            }
+        }
+
+        private long getNormalizedScheduledNanos()
+        {
+            return scheduledNanos.get() * weight;
         }
-        return priorityLevel;
     }
 
     private class Runner
             implements Runnable
     {
         private final long runnerId = NEXT_RUNNER_ID.getAndIncrement();
+        private final Deque<PrioritizedSplitRunner> localSplits = new ConcurrentLinkedDeque<>();
 
         @Override
         public void run()
         {
+            runners.add(this);
             try (SetThreadName runnerName = new SetThreadName("SplitRunner-%s", runnerId)) {
                 while (!closed && !Thread.currentThread().isInterrupted()) {
                     // select next worker
                     final PrioritizedSplitRunner split;
                     try {
-                        split = pendingSplits.take();
-                        if (split.updatePriorityLevel()) {
-                            // priority level changed, return split to queue for re-prioritization
-                            pendingSplits.put(split);
-                            continue;
-                        }
+                        split = pollNextSplit();
                     }
                     catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         return;
                     }
+                    if (split == null) {
+                        continue;
+                    }
 
                     try (SetThreadName splitName = new SetThreadName(split.getTaskHandle().getTaskId() + "-" + split.getSplitId())) {
-                        runningSplits.add(split);
+                        split.transitionState(SplitState.QUEUED, SplitState.RUNNING);
+                        runningSplits.incrementAndGet();
 
                         boolean finished;
                         ListenableFuture<?> blocked;
+                        long startNanos = ticker.read();
                         try {
                             blocked = split.process();
                             finished = split.isFinished();
                         }
                         finally {
-                            runningSplits.remove(split);
+                            runningSplits.decrementAndGet();
+                            pendingSplits.addLevelScheduledNanos(split.getPriorityLevel(), ticker.read() - startNanos);
                         }
 
                         if (finished) {
                             log.debug("%s is finished", split.getInfo());
+                            split.transitionState(SplitState.RUNNING, SplitState.FINISHED);
                             splitFinished(split);
                         }
                         else {
                             if (blocked.isDone()) {
-                                pendingSplits.put(split);
+                                split.transitionState(SplitState.RUNNING, SplitState.QUEUED);
+                                requeueSplit(split);
                             }
                             else {
-                                blockedSplits.add(split);
+                                split.transitionState(SplitState.RUNNING, SplitState.BLOCKED);
+                                blockedSplits.incrementAndGet();
                                 blocked.addListener(new Runnable()
                                 {
                                     @Override
                                     public void run()
                                     {
-                                        blockedSplits.remove(split);
-                                        split.updatePriorityLevel();
-                                        pendingSplits.put(split);
+                                        blockedSplits.decrementAndGet();
+                                        split.transitionState(SplitState.BLOCKED, SplitState.QUEUED);
+                                        pendingSplits.offer(split);
                                     }
                                 }, executor);
                             }
@@ -604,12 +998,78 @@ public class TaskExecutor
                 }
             }
             finally {
+                // return the local splits to the shared queue, so other runners can process them
+                runners.remove(this);
+                for (PrioritizedSplitRunner split = localSplits.pollFirst(); split != null; split = localSplits.pollFirst()) {
+                    pendingSplits.offer(split);
+                }
+
                 // unless we have been closed, we need to replace this thread
                 if (!closed) {
                     addRunnerThread();
                 }
             }
         }
+
+        private PrioritizedSplitRunner pollNextSplit()
+                throws InterruptedException
+        {
+            // the next local split runs unless the shared queue selects one of its splits instead
+            for (PrioritizedSplitRunner localSplit = localSplits.peekFirst(); localSplit != null; localSplit = localSplits.peekFirst()) {
+                PrioritizedSplitRunner split = pendingSplits.pollUnlessPreferred(localSplit);
+                if (split != null) {
+                    return split;
+                }
+                if (localSplits.removeFirstOccurrence(localSplit)) {
+                    pendingSplits.recordQueuedTime(localSplit);
+                    return localSplit;
+                }
+                // the split was stolen by another runner
+            }
+
+            PrioritizedSplitRunner split = pendingSplits.poll();
+            if (split != null) {
+                return split;
+            }
+
+            // steal from the other runners before waiting for new splits
+            for (Runner runner : runners) {
+                if (runner != this) {
+                    split = pollLocalSplit(runner);
+                    if (split != null) {
+                        return split;
+                    }
+                }
+            }
+
+            // splits are only kept local while no runner is waiting, so a waiting
+            // runner is woken up by the next split offered to the shared queue
+            return pendingSplits.take();
+        }
+
+        private PrioritizedSplitRunner pollLocalSplit(Runner runner)
+        {
+            // thieves take from the tail of the deque
+            PrioritizedSplitRunner split = runner.localSplits.pollLast();
+            if (split != null) {
+                pendingSplits.recordQueuedTime(split);
+            }
+            return split;
+        }
+
+        private void requeueSplit(PrioritizedSplitRunner split)
+        {
+            // keep the split local unless it changed level, the local deque is
+            // full, or another runner is waiting for work
+            int previousLevel = split.getPriorityLevel();
+            if (split.updatePriorityLevel() == previousLevel && localSplits.size() < MAX_LOCAL_SPLITS && !pendingSplits.hasWaitingRunners()) {
+                split.setQueuedNanos(ticker.read());
+                localSplits.addLast(split);
+            }
+            else {
+                pendingSplits.offer(split);
+            }
+        }
     }
 
     //
@@ -649,13 +1109,13 @@ public class TaskExecutor
     @Managed
     public int getRunningSplits()
     {
-        return runningSplits.size();
+        return runningSplits.get();
     }
 
     @Managed
     public int getBlockedSplits()
     {
-        return blockedSplits.size();
+        return blockedSplits.get();
     }
 
     @Managed
@@ -732,6 +1192,41 @@ public class TaskExecutor
         return wallTime;
     }
 
+    @Managed
+    @Nested
+    public LevelStats getLevel0()
+    {
+        return pendingSplits.getLevelStats(0);
+    }
+
+    @Managed
+    @Nested
+    public LevelStats getLevel1()
+    {
+        return pendingSplits.getLevelStats(1);
+    }
+
+    @Managed
+    @Nested
+    public LevelStats getLevel2()
+    {
+        return pendingSplits.getLevelStats(2);
+    }
+
+    @Managed
+    @Nested
+    public LevelStats getLevel3()
+    {
+        return pendingSplits.getLevelStats(3);
+    }
+
+    @Managed
+    @Nested
+    public LevelStats getLevel4()
+    {
+        return pendingSplits.getLevelStats(4);
+    }
+
     private synchronized int calculateRunningTasksForLevel(int level)
     {
         int count = 0;
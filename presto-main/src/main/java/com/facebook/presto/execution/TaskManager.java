@@ -20,6 +20,8 @@ import com.facebook.presto.sql.planner.PlanFragment;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
+import javax.annotation.Nullable;
+
 import java.util.List;
 
 public interface TaskManager
@@ -31,7 +33,11 @@ public interface TaskManager
 
     TaskInfo getTaskInfo(TaskId taskId, boolean full);
 
-    TaskInfo updateTask(Session session, TaskId taskId, PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds);
+    /**
+     * Creates the task if it does not exist, and adds the sources and output buffers to the task.
+     * The fragment is only required to create the task.
+     */
+    TaskInfo updateTask(Session session, TaskId taskId, @Nullable PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds);
 
     BufferResult getTaskResults(TaskId taskId, String outputName, long startingSequenceId, DataSize maxSize, Duration maxWaitTime)
             throws InterruptedException;
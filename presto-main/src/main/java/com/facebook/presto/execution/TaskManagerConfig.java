@@ -14,6 +14,7 @@
 package com.facebook.presto.execution;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
@@ -22,6 +23,7 @@ import io.airlift.units.MinDuration;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 public class TaskManagerConfig
@@ -29,13 +31,20 @@ public class TaskManagerConfig
     private boolean taskCpuTimerEnabled = true;
     private DataSize maxTaskMemoryUsage = new DataSize(256, Unit.MEGABYTE);
     private DataSize operatorPreAllocatedMemory = new DataSize(16, Unit.MEGABYTE);
+    private DataSize memoryPoolSize = new DataSize(Runtime.getRuntime().maxMemory() * 0.7, Unit.BYTE);
     private int maxShardProcessorThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private Duration splitRunQuanta = new Duration(1, TimeUnit.SECONDS);
+    private int taskConcurrency = 1;
 
     private DataSize sinkMaxBufferSize = new DataSize(32, Unit.MEGABYTE);
+    private boolean sinkSpillEnabled;
 
     private Duration clientTimeout = new Duration(5, TimeUnit.MINUTES);
     private Duration infoMaxAge = new Duration(15, TimeUnit.MINUTES);
 
+    private boolean spillEnabled;
+    private File spillDirectory = new File("var/spill");
+
     public boolean isTaskCpuTimerEnabled()
     {
         return taskCpuTimerEnabled;
@@ -74,6 +83,20 @@ public class TaskManagerConfig
         return this;
     }
 
+    @NotNull
+    public DataSize getMemoryPoolSize()
+    {
+        return memoryPoolSize;
+    }
+
+    @Config("task.memory-pool-size")
+    @ConfigDescription("Memory shared by all tasks on a node")
+    public TaskManagerConfig setMemoryPoolSize(DataSize memoryPoolSize)
+    {
+        this.memoryPoolSize = memoryPoolSize;
+        return this;
+    }
+
     @Min(1)
     public int getMaxShardProcessorThreads()
     {
@@ -87,6 +110,35 @@ public class TaskManagerConfig
         return this;
     }
 
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getSplitRunQuanta()
+    {
+        return splitRunQuanta;
+    }
+
+    @Config("task.split-run-quanta")
+    @ConfigDescription("Time a split runs on a processor thread before it is returned to the scheduler")
+    public TaskManagerConfig setSplitRunQuanta(Duration splitRunQuanta)
+    {
+        this.splitRunQuanta = splitRunQuanta;
+        return this;
+    }
+
+    @Min(1)
+    public int getTaskConcurrency()
+    {
+        return taskConcurrency;
+    }
+
+    @Config("task.concurrency")
+    @ConfigDescription("Number of drivers used for final aggregations, window functions and sorts in a task")
+    public TaskManagerConfig setTaskConcurrency(int taskConcurrency)
+    {
+        this.taskConcurrency = taskConcurrency;
+        return this;
+    }
+
     @NotNull
     public DataSize getSinkMaxBufferSize()
     {
@@ -100,6 +152,19 @@ public class TaskManagerConfig
         return this;
     }
 
+    public boolean isSinkSpillEnabled()
+    {
+        return sinkSpillEnabled;
+    }
+
+    @Config("sink.spill-enabled")
+    @ConfigDescription("Spill task output beyond the sink buffer size to the spill directory instead of blocking the task")
+    public TaskManagerConfig setSinkSpillEnabled(boolean sinkSpillEnabled)
+    {
+        this.sinkSpillEnabled = sinkSpillEnabled;
+        return this;
+    }
+
     @MinDuration("5s")
     @NotNull
     public Duration getClientTimeout()
@@ -126,4 +191,31 @@ public class TaskManagerConfig
         this.infoMaxAge = infoMaxAge;
         return this;
     }
+
+    public boolean isSpillEnabled()
+    {
+        return spillEnabled;
+    }
+
+    @Config("task.spill-enabled")
+    @ConfigDescription("Allow operators to spill state to local disk when a task runs out of memory")
+    public TaskManagerConfig setSpillEnabled(boolean spillEnabled)
+    {
+        this.spillEnabled = spillEnabled;
+        return this;
+    }
+
+    @NotNull
+    public File getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    @Config("task.spill-directory")
+    @ConfigDescription("Base directory for operator spill files")
+    public TaskManagerConfig setSpillDirectory(File spillDirectory)
+    {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
 }
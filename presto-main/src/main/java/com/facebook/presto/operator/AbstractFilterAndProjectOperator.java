@@ -14,6 +14,7 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
+import com.facebook.presto.operator.EncodedBlocksFilterAndProject.RowOrientedFilterAndProject;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -30,6 +31,32 @@ public abstract class AbstractFilterAndProjectOperator
     private final List<TupleInfo> tupleInfos;
 
     private final PageBuilder pageBuilder;
+    private final RowOrientedFilterAndProject rowOrientedFilterAndProject = new RowOrientedFilterAndProject()
+    {
+        @Override
+        public void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
+        {
+            AbstractFilterAndProjectOperator.this.filterAndProjectRowOriented(blocks, pageBuilder);
+        }
+
+        @Override
+        public void filterRowOriented(Block[] blocks, PageBuilder pageBuilder)
+        {
+            AbstractFilterAndProjectOperator.this.filterRowOriented(blocks, pageBuilder);
+        }
+
+        @Override
+        public boolean isFilterChannel(int channel)
+        {
+            return AbstractFilterAndProjectOperator.this.isFilterChannel(channel);
+        }
+
+        @Override
+        public boolean isInputChannel(int channel)
+        {
+            return AbstractFilterAndProjectOperator.this.isInputChannel(channel);
+        }
+    };
     private boolean finishing;
 
     public AbstractFilterAndProjectOperator(OperatorContext operatorContext, Iterable<TupleInfo> tupleInfos)
@@ -41,6 +68,55 @@ public abstract class AbstractFilterAndProjectOperator
 
     protected abstract void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder);
 
+    /**
+     * Declares a position in the page builder for each row that passes the
+     * filter, without evaluating the projections.  Must be implemented by
+     * operators that are deterministic.
+     */
+    protected void filterRowOriented(Block[] blocks, PageBuilder pageBuilder)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Filters and projects the blocks a column at a time.  Returns false if the
+     * blocks are not supported, in which case nothing was added to the page builder.
+     */
+    protected boolean filterAndProjectColumnar(Block[] blocks, PageBuilder pageBuilder)
+    {
+        return false;
+    }
+
+    /**
+     * Returns true if the filter and projections always produce the same
+     * output for the same input row.
+     */
+    protected boolean isDeterministic()
+    {
+        return false;
+    }
+
+    /**
+     * Returns true if the filter reads the specified channel.
+     */
+    protected boolean isFilterChannel(int channel)
+    {
+        return true;
+    }
+
+    /**
+     * Returns true if the filter or a projection reads the specified channel.
+     */
+    protected boolean isInputChannel(int channel)
+    {
+        return true;
+    }
+
+    private boolean filterAndProjectEncoded(Block[] blocks)
+    {
+        return isDeterministic() && EncodedBlocksFilterAndProject.filterAndProject(blocks, tupleInfos, pageBuilder, rowOrientedFilterAndProject);
+    }
+
     @Override
     public OperatorContext getOperatorContext()
     {
@@ -85,7 +161,9 @@ public abstract class AbstractFilterAndProjectOperator
         checkState(!pageBuilder.isFull(), "Page buffer is full");
 
         Block[] blocks = page.getBlocks();
-        filterAndProjectRowOriented(blocks, pageBuilder);
+        if (!filterAndProjectColumnar(blocks, pageBuilder) && !filterAndProjectEncoded(blocks)) {
+            filterAndProjectRowOriented(blocks, pageBuilder);
+        }
     }
 
     @Override
@@ -14,6 +14,7 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
+import com.facebook.presto.operator.EncodedBlocksFilterAndProject.RowOrientedFilterAndProject;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.Split;
@@ -43,6 +44,32 @@ public abstract class AbstractScanFilterAndProjectOperator
     private final List<TupleInfo> tupleInfos;
     private final List<ColumnHandle> columns;
     private final PageBuilder pageBuilder;
+    private final RowOrientedFilterAndProject rowOrientedFilterAndProject = new RowOrientedFilterAndProject()
+    {
+        @Override
+        public void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
+        {
+            AbstractScanFilterAndProjectOperator.this.filterAndProjectRowOriented(blocks, pageBuilder);
+        }
+
+        @Override
+        public void filterRowOriented(Block[] blocks, PageBuilder pageBuilder)
+        {
+            AbstractScanFilterAndProjectOperator.this.filterRowOriented(blocks, pageBuilder);
+        }
+
+        @Override
+        public boolean isFilterChannel(int channel)
+        {
+            return AbstractScanFilterAndProjectOperator.this.isFilterChannel(channel);
+        }
+
+        @Override
+        public boolean isInputChannel(int channel)
+        {
+            return AbstractScanFilterAndProjectOperator.this.isInputChannel(channel);
+        }
+    };
 
     @GuardedBy("this")
     private RecordCursor cursor;
@@ -72,6 +99,47 @@ public abstract class AbstractScanFilterAndProjectOperator
 
     protected abstract void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder);
 
+    /**
+     * Declares a position in the page builder for each row that passes the
+     * filter, without evaluating the projections.  Must be implemented by
+     * operators that are deterministic.
+     */
+    protected void filterRowOriented(Block[] blocks, PageBuilder pageBuilder)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean filterAndProjectColumnar(Block[] blocks, PageBuilder pageBuilder)
+    {
+        return false;
+    }
+
+    protected boolean isDeterministic()
+    {
+        return false;
+    }
+
+    /**
+     * Returns true if the filter reads the specified channel.
+     */
+    protected boolean isFilterChannel(int channel)
+    {
+        return true;
+    }
+
+    /**
+     * Returns true if the filter or a projection reads the specified channel.
+     */
+    protected boolean isInputChannel(int channel)
+    {
+        return true;
+    }
+
+    private boolean filterAndProjectEncoded(Block[] blocks)
+    {
+        return isDeterministic() && EncodedBlocksFilterAndProject.filterAndProject(blocks, tupleInfos, pageBuilder, rowOrientedFilterAndProject);
+    }
+
     protected abstract int filterAndProjectRowOriented(RecordCursor cursor, PageBuilder pageBuilder);
 
     @Override
@@ -187,7 +255,10 @@ public abstract class AbstractScanFilterAndProjectOperator
             else {
                 Page output = operator.getOutput();
                 if (output != null) {
-                    filterAndProjectRowOriented(output.getBlocks(), pageBuilder);
+                    Block[] blocks = output.getBlocks();
+                    if (!filterAndProjectColumnar(blocks, pageBuilder) && !filterAndProjectEncoded(blocks)) {
+                        filterAndProjectRowOriented(blocks, pageBuilder);
+                    }
                 }
             }
         }
@@ -176,6 +176,15 @@ public class ChannelIndex
         return valueHashCode(type, slice, offset);
     }
 
+    public boolean isNull(int position)
+    {
+        long sliceAddress = valueAddresses.getLong(position);
+        Slice slice = getSliceForSyntheticAddress(sliceAddress);
+        int offset = decodePosition(sliceAddress);
+
+        return tupleInfo.isNull(slice, offset);
+    }
+
     public int compare(SortOrder sortOrder, int leftPosition, int rightPosition)
     {
         long leftSliceAddress = valueAddresses.getLong(leftPosition);
@@ -186,6 +195,11 @@ public class ChannelIndex
         Slice rightSlice = getSliceForSyntheticAddress(rightSliceAddress);
         int rightOffset = decodePosition(rightSliceAddress);
 
+        return compare(tupleInfo, sortOrder, leftSlice, leftOffset, rightSlice, rightOffset);
+    }
+
+    public static int compare(TupleInfo tupleInfo, SortOrder sortOrder, Slice leftSlice, int leftOffset, Slice rightSlice, int rightOffset)
+    {
         boolean leftIsNull = tupleInfo.isNull(leftSlice, leftOffset);
         boolean rightIsNull = tupleInfo.isNull(rightSlice, rightOffset);
 
@@ -202,7 +216,7 @@ public class ChannelIndex
         }
 
         int comparison;
-        switch (type) {
+        switch (tupleInfo.getType()) {
             case BOOLEAN:
                 comparison = Boolean.compare(
                         tupleInfo.getBoolean(leftSlice, leftOffset),
@@ -223,7 +237,7 @@ public class ChannelIndex
                         .compareTo(tupleInfo.getSlice(rightSlice, rightOffset));
                 break;
             default:
-                throw new AssertionError("unimplemented type: " + type);
+                throw new AssertionError("unimplemented type: " + tupleInfo.getType());
         }
         return sortOrder.isAscending() ? comparison : -comparison;
     }
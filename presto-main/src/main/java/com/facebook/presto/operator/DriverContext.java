@@ -67,6 +67,11 @@ public class DriverContext
         this.executor = checkNotNull(executor, "executor is null");
     }
 
+    public PipelineContext getPipelineContext()
+    {
+        return pipelineContext;
+    }
+
     public TaskId getTaskId()
     {
         return pipelineContext.getTaskId();
@@ -114,6 +119,11 @@ public class DriverContext
         executionEndTime.set(DateTime.now());
         endNanos.set(System.nanoTime());
 
+        // revocable memory is only held while the operators are running
+        for (OperatorContext operatorContext : operatorContexts) {
+            operatorContext.trySetRevocableMemoryReservation(0);
+        }
+
         pipelineContext.driverFinished(this);
     }
 
@@ -147,6 +157,22 @@ public class DriverContext
         return result;
     }
 
+    public void freeMemory(long bytes)
+    {
+        pipelineContext.freeMemory(bytes);
+        memoryReservation.getAndAdd(-bytes);
+    }
+
+    public boolean reserveRevocableMemory(OperatorContext operatorContext, long bytes)
+    {
+        return pipelineContext.reserveRevocableMemory(operatorContext, bytes);
+    }
+
+    public void freeRevocableMemory(OperatorContext operatorContext, long bytes)
+    {
+        pipelineContext.freeRevocableMemory(operatorContext, bytes);
+    }
+
     public boolean isCpuTimerEnabled()
     {
         return pipelineContext.isCpuTimerEnabled();
@@ -31,6 +31,7 @@ public class DriverFactory
     private final boolean inputDriver;
     private final boolean outputDriver;
     private final List<OperatorFactory> operatorFactories;
+    private final int driverInstances;
     private final Set<PlanNodeId> sourceIds;
     private boolean closed;
 
@@ -46,11 +47,21 @@ public class DriverFactory
     }
 
     public DriverFactory(boolean inputDriver, boolean outputDriver, List<OperatorFactory> operatorFactories)
+    {
+        this(inputDriver, outputDriver, operatorFactories, 1);
+    }
+
+    /**
+     * @param driverInstances the number of drivers created for the pipeline when it does not process splits
+     */
+    public DriverFactory(boolean inputDriver, boolean outputDriver, List<OperatorFactory> operatorFactories, int driverInstances)
     {
         this.inputDriver = inputDriver;
         this.outputDriver = outputDriver;
         this.operatorFactories = ImmutableList.copyOf(checkNotNull(operatorFactories, "operatorFactories is null"));
         checkArgument(!operatorFactories.isEmpty(), "There must be at least one operator");
+        checkArgument(driverInstances > 0, "driverInstances must be at least 1");
+        this.driverInstances = driverInstances;
 
         ImmutableSet.Builder<PlanNodeId> sourceIds = ImmutableSet.builder();
         for (OperatorFactory operatorFactory : operatorFactories) {
@@ -72,6 +83,11 @@ public class DriverFactory
         return outputDriver;
     }
 
+    public int getDriverInstances()
+    {
+        return driverInstances;
+    }
+
     public Set<PlanNodeId> getSourceIds()
     {
         return sourceIds;
@@ -0,0 +1,517 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.spi.Domain;
+import com.facebook.presto.spi.Range;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.SortedRangeSet;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.facebook.presto.operator.SyntheticAddress.decodePosition;
+import static com.facebook.presto.util.MoreFutures.tryGetUnchecked;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Filters the rows of a probe side table scan with the domain of the join keys
+ * seen by the build side of an inner join.  Each build key is summarized as the
+ * set of its distinct values, or as the range between its smallest and largest
+ * value when there are too many distinct values.  String keys are summarized
+ * as raw slices, so keys that are not valid UTF-8 are matched exactly.  Rows
+ * are only filtered once the build side has finished; until then every row
+ * passes.
+ */
+@ThreadSafe
+public class DynamicFilter
+{
+    private static final int MAX_DISTINCT_VALUES = 1000;
+
+    private final ListenableFuture<List<Domain>> buildKeyDomains;
+    private final Map<Integer, Integer> buildKeyByChannel;
+
+    private volatile Map<Integer, KeyFilter> channelFilters;
+
+    /**
+     * @param buildKeyDomains domain of each build key, in join criteria order
+     * @param buildKeyByChannel index of the build key matched against each filtered scan channel
+     */
+    public DynamicFilter(ListenableFuture<List<Domain>> buildKeyDomains, Map<Integer, Integer> buildKeyByChannel)
+    {
+        this.buildKeyDomains = checkNotNull(buildKeyDomains, "buildKeyDomains is null");
+        this.buildKeyByChannel = ImmutableMap.copyOf(checkNotNull(buildKeyByChannel, "buildKeyByChannel is null"));
+    }
+
+    public boolean isReady()
+    {
+        if (channelFilters != null) {
+            return true;
+        }
+
+        List<Domain> domains = tryGetUnchecked(buildKeyDomains);
+        if (domains == null) {
+            return false;
+        }
+
+        ImmutableMap.Builder<Integer, KeyFilter> channelFilters = ImmutableMap.builder();
+        for (Map.Entry<Integer, Integer> entry : buildKeyByChannel.entrySet()) {
+            Domain domain = domains.get(entry.getValue());
+            if (!domain.isAll()) {
+                channelFilters.put(entry.getKey(), KeyFilter.create(domain));
+            }
+        }
+        this.channelFilters = channelFilters.build();
+        return true;
+    }
+
+    public boolean contains(RecordCursor cursor)
+    {
+        checkState(channelFilters != null, "Dynamic filter is not ready");
+        for (Map.Entry<Integer, KeyFilter> entry : channelFilters.entrySet()) {
+            int field = entry.getKey();
+            if (cursor.isNull(field) || !entry.getValue().includes(cursor, field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(BlockCursor[] cursors)
+    {
+        checkState(channelFilters != null, "Dynamic filter is not ready");
+        for (Map.Entry<Integer, KeyFilter> entry : channelFilters.entrySet()) {
+            BlockCursor cursor = cursors[entry.getKey()];
+            if (cursor.isNull() || !entry.getValue().includes(cursor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the page with the rows outside the build key domains removed, or
+     * null if no row of the page is left.
+     */
+    public Page filter(Page page)
+    {
+        checkState(channelFilters != null, "Dynamic filter is not ready");
+        if (channelFilters.isEmpty()) {
+            return page;
+        }
+
+        Block[] blocks = page.getBlocks();
+        int positionCount = page.getPositionCount();
+
+        BlockCursor[] cursors = new BlockCursor[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            cursors[channel] = blocks[channel].cursor();
+        }
+
+        boolean[] matches = new boolean[positionCount];
+        int matchCount = 0;
+        for (int position = 0; position < positionCount; position++) {
+            for (int channel : channelFilters.keySet()) {
+                checkState(cursors[channel].advanceNextPosition());
+            }
+            if (contains(cursors)) {
+                matches[position] = true;
+                matchCount++;
+            }
+        }
+
+        if (matchCount == positionCount) {
+            return page;
+        }
+        if (matchCount == 0) {
+            return null;
+        }
+
+        ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+        for (int channel = 0; channel < blocks.length; channel++) {
+            tupleInfos.add(blocks[channel].getTupleInfo());
+            cursors[channel] = blocks[channel].cursor();
+        }
+
+        PageBuilder pageBuilder = new PageBuilder(tupleInfos.build());
+        for (int position = 0; position < positionCount; position++) {
+            for (int channel = 0; channel < cursors.length; channel++) {
+                checkState(cursors[channel].advanceNextPosition());
+                if (matches[position]) {
+                    cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+                }
+            }
+        }
+        return pageBuilder.build();
+    }
+
+    /**
+     * Computes the domain of each hash channel of a join build.  Nulls never
+     * match in an equijoin, so they are not part of the domains.
+     */
+    public static List<Domain> summarizeBuildKeys(PagesIndex pagesIndex, List<Integer> hashChannels)
+    {
+        ImmutableList.Builder<Domain> domains = ImmutableList.builder();
+        for (int channel : hashChannels) {
+            domains.add(summarizeChannel(pagesIndex.getTupleInfo(channel), pagesIndex.getIndex(channel)));
+        }
+        return domains.build();
+    }
+
+    /**
+     * Combines the build key domains of the partitions of a join build.  A key
+     * with too many distinct values over all partitions is summarized as the
+     * range of its values.
+     */
+    public static List<Domain> unionBuildKeys(List<List<Domain>> partitionDomains)
+    {
+        checkNotNull(partitionDomains, "partitionDomains is null");
+        checkArgument(!partitionDomains.isEmpty(), "partitionDomains is empty");
+
+        List<Domain> domains = new ArrayList<>(partitionDomains.get(0));
+        for (List<Domain> partition : partitionDomains.subList(1, partitionDomains.size())) {
+            checkArgument(partition.size() == domains.size(), "partitions have a different number of build keys");
+            for (int key = 0; key < domains.size(); key++) {
+                domains.set(key, domains.get(key).union(partition.get(key)));
+            }
+        }
+
+        ImmutableList.Builder<Domain> result = ImmutableList.builder();
+        for (Domain domain : domains) {
+            if (domain.getRanges().getRangeCount() > MAX_DISTINCT_VALUES) {
+                domain = Domain.create(SortedRangeSet.of(domain.getRanges().getSpan()), domain.isNullAllowed());
+            }
+            result.add(domain);
+        }
+        return result.build();
+    }
+
+    private static Domain summarizeChannel(TupleInfo tupleInfo, ChannelIndex channelIndex)
+    {
+        Class<?> type = getNativeType(tupleInfo.getType());
+
+        Set<Comparable<?>> values = new HashSet<>();
+        Comparable<?> min = null;
+        Comparable<?> max = null;
+        for (int position = 0; position < channelIndex.getPositionCount(); position++) {
+            long sliceAddress = channelIndex.getValueAddresses().getLong(position);
+            Slice slice = channelIndex.getSliceForSyntheticAddress(sliceAddress);
+            int offset = decodePosition(sliceAddress);
+            if (tupleInfo.isNull(slice, offset)) {
+                continue;
+            }
+
+            Comparable<?> value = getValue(tupleInfo, slice, offset);
+            if (values != null) {
+                values.add(value);
+                if (values.size() > MAX_DISTINCT_VALUES) {
+                    values = null;
+                }
+            }
+            if (min == null || compare(value, min) < 0) {
+                min = value;
+            }
+            if (max == null || compare(value, max) > 0) {
+                max = value;
+            }
+        }
+
+        if (min == null) {
+            return Domain.none(type);
+        }
+        if (values == null) {
+            return Domain.create(SortedRangeSet.of(Range.range(copyValue(min), true, copyValue(max), true)), false);
+        }
+
+        List<Range> ranges = new ArrayList<>(values.size());
+        for (Comparable<?> value : values) {
+            ranges.add(Range.equal(copyValue(value)));
+        }
+        return Domain.create(SortedRangeSet.copyOf(type, ranges), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable<?> left, Comparable<?> right)
+    {
+        return ((Comparable<Object>) left).compareTo(right);
+    }
+
+    private static Class<?> getNativeType(TupleInfo.Type type)
+    {
+        switch (type) {
+            case BOOLEAN:
+                return Boolean.class;
+            case FIXED_INT_64:
+                return Long.class;
+            case DOUBLE:
+                return Double.class;
+            case VARIABLE_BINARY:
+                return Slice.class;
+            default:
+                throw new IllegalArgumentException("Unsupported type " + type);
+        }
+    }
+
+    /**
+     * Slice values point into the build pages, so they are copied before they are kept in the domain.
+     */
+    private static Comparable<?> copyValue(Comparable<?> value)
+    {
+        if (value instanceof Slice) {
+            return Slices.copyOf((Slice) value);
+        }
+        return value;
+    }
+
+    private static Comparable<?> getValue(TupleInfo tupleInfo, Slice slice, int offset)
+    {
+        switch (tupleInfo.getType()) {
+            case BOOLEAN:
+                return tupleInfo.getBoolean(slice, offset);
+            case FIXED_INT_64:
+                return tupleInfo.getLong(slice, offset);
+            case DOUBLE:
+                return tupleInfo.getDouble(slice, offset);
+            case VARIABLE_BINARY:
+                return tupleInfo.getSlice(slice, offset);
+            default:
+                throw new IllegalArgumentException("Unsupported type " + tupleInfo.getType());
+        }
+    }
+
+    /**
+     * The domain of a build key, matched against the probe values without
+     * boxing them.  A key with a set of values is matched against the set, and
+     * any other key against the span of its ranges.  The span contains the
+     * domain, so no row that may join is removed.
+     */
+    private abstract static class KeyFilter
+    {
+        public static KeyFilter create(Domain domain)
+        {
+            Class<?> type = domain.getType();
+            if (type == Boolean.class) {
+                return new BooleanKeyFilter(domain);
+            }
+            if (type == Long.class) {
+                return new LongKeyFilter(domain);
+            }
+            if (type == Double.class) {
+                return new DoubleKeyFilter(domain);
+            }
+            if (type == Slice.class) {
+                return new SliceKeyFilter(domain);
+            }
+            throw new IllegalArgumentException("Unsupported type " + type.getName());
+        }
+
+        public abstract boolean includes(RecordCursor cursor, int field);
+
+        public abstract boolean includes(BlockCursor cursor);
+
+        protected static boolean isDistinctValues(Domain domain)
+        {
+            for (Range range : domain.getRanges()) {
+                if (!range.isSingleValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class BooleanKeyFilter
+            extends KeyFilter
+    {
+        private final boolean includesTrue;
+        private final boolean includesFalse;
+
+        private BooleanKeyFilter(Domain domain)
+        {
+            this.includesTrue = domain.includesValue(true);
+            this.includesFalse = domain.includesValue(false);
+        }
+
+        @Override
+        public boolean includes(RecordCursor cursor, int field)
+        {
+            return cursor.getBoolean(field) ? includesTrue : includesFalse;
+        }
+
+        @Override
+        public boolean includes(BlockCursor cursor)
+        {
+            return cursor.getBoolean() ? includesTrue : includesFalse;
+        }
+    }
+
+    private static class LongKeyFilter
+            extends KeyFilter
+    {
+        private final LongOpenHashSet values;
+        private final long min;
+        private final long max;
+
+        private LongKeyFilter(Domain domain)
+        {
+            if (isDistinctValues(domain)) {
+                values = new LongOpenHashSet(domain.getRanges().getRangeCount());
+                for (Range range : domain.getRanges()) {
+                    values.add((long) (Long) range.getSingleValue());
+                }
+                min = Long.MIN_VALUE;
+                max = Long.MAX_VALUE;
+            }
+            else {
+                values = null;
+                Range span = domain.getRanges().getSpan();
+                min = span.getLow().isLowerUnbounded() ? Long.MIN_VALUE : (Long) span.getLow().getValue();
+                max = span.getHigh().isUpperUnbounded() ? Long.MAX_VALUE : (Long) span.getHigh().getValue();
+            }
+        }
+
+        @Override
+        public boolean includes(RecordCursor cursor, int field)
+        {
+            return includes(cursor.getLong(field));
+        }
+
+        @Override
+        public boolean includes(BlockCursor cursor)
+        {
+            return includes(cursor.getLong());
+        }
+
+        private boolean includes(long value)
+        {
+            if (values != null) {
+                return values.contains(value);
+            }
+            return value >= min && value <= max;
+        }
+    }
+
+    private static class DoubleKeyFilter
+            extends KeyFilter
+    {
+        private final DoubleOpenHashSet values;
+        private final double min;
+        private final double max;
+
+        private DoubleKeyFilter(Domain domain)
+        {
+            if (isDistinctValues(domain)) {
+                values = new DoubleOpenHashSet(domain.getRanges().getRangeCount());
+                for (Range range : domain.getRanges()) {
+                    values.add((double) (Double) range.getSingleValue());
+                }
+                min = Double.NEGATIVE_INFINITY;
+                max = Double.POSITIVE_INFINITY;
+            }
+            else {
+                values = null;
+                Range span = domain.getRanges().getSpan();
+                min = span.getLow().isLowerUnbounded() ? Double.NEGATIVE_INFINITY : (Double) span.getLow().getValue();
+                max = span.getHigh().isUpperUnbounded() ? Double.POSITIVE_INFINITY : (Double) span.getHigh().getValue();
+            }
+        }
+
+        @Override
+        public boolean includes(RecordCursor cursor, int field)
+        {
+            return includes(cursor.getDouble(field));
+        }
+
+        @Override
+        public boolean includes(BlockCursor cursor)
+        {
+            return includes(cursor.getDouble());
+        }
+
+        private boolean includes(double value)
+        {
+            if (values != null) {
+                return values.contains(value);
+            }
+            // NaN sorts after every other value, so it is only compared against a NaN bound
+            if (Double.isNaN(value)) {
+                return Double.isNaN(max);
+            }
+            return value >= min && (value <= max || Double.isNaN(max));
+        }
+    }
+
+    private static class SliceKeyFilter
+            extends KeyFilter
+    {
+        private final Set<Slice> values;
+        private final Slice min;
+        private final Slice max;
+
+        private SliceKeyFilter(Domain domain)
+        {
+            if (isDistinctValues(domain)) {
+                values = new HashSet<>();
+                for (Range range : domain.getRanges()) {
+                    values.add((Slice) range.getSingleValue());
+                }
+                min = null;
+                max = null;
+            }
+            else {
+                values = null;
+                Range span = domain.getRanges().getSpan();
+                min = span.getLow().isLowerUnbounded() ? null : (Slice) span.getLow().getValue();
+                max = span.getHigh().isUpperUnbounded() ? null : (Slice) span.getHigh().getValue();
+            }
+        }
+
+        @Override
+        public boolean includes(RecordCursor cursor, int field)
+        {
+            return includes(cursor.getSlice(field));
+        }
+
+        @Override
+        public boolean includes(BlockCursor cursor)
+        {
+            return includes(cursor.getSlice());
+        }
+
+        private boolean includes(Slice value)
+        {
+            if (values != null) {
+                return values.contains(value);
+            }
+            return (min == null || value.compareTo(min) >= 0) && (max == null || value.compareTo(max) <= 0);
+        }
+    }
+}
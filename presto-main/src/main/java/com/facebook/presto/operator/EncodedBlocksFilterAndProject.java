@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import io.airlift.slice.Slice;
+
+import java.util.List;
+
+import static com.facebook.presto.tuple.Tuples.nullTuple;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Filters and projects pages with run length and dictionary encoded blocks
+ * by evaluating the expressions once per distinct row instead of once per
+ * position.  Only the channels read by the filter and projections are
+ * considered.
+ * <p/>
+ * If every channel read is run length encoded, except for at most one
+ * dictionary encoded channel, every row is determined by its dictionary id,
+ * so the filter and projections are evaluated once per dictionary entry (or
+ * once per page if there is no dictionary) and the results are copied to the
+ * positions with that id.
+ * <p/>
+ * Otherwise, if this holds for the channels read by the filter, only the
+ * filter is evaluated once per dictionary entry, with nulls in place of the
+ * channels only read by the projections.  The projections are never evaluated
+ * on these placeholders.  The positions that pass are copied to a smaller
+ * page, which is filtered and projected row at a time.
+ */
+final class EncodedBlocksFilterAndProject
+{
+    private EncodedBlocksFilterAndProject() {}
+
+    interface RowOrientedFilterAndProject
+    {
+        void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder);
+
+        /**
+         * Declares a position in the page builder for each row that passes the
+         * filter.  The projections are not evaluated.
+         */
+        void filterRowOriented(Block[] blocks, PageBuilder pageBuilder);
+
+        boolean isFilterChannel(int channel);
+
+        boolean isInputChannel(int channel);
+    }
+
+    /**
+     * Returns false if the blocks are not encoded as described above, in which
+     * case nothing was added to the page builder.
+     */
+    public static boolean filterAndProject(Block[] blocks, List<TupleInfo> tupleInfos, PageBuilder pageBuilder, RowOrientedFilterAndProject rowOriented)
+    {
+        if (blocks.length == 0) {
+            return false;
+        }
+
+        // a dictionary read by the filter is preferred, since it can be used even if the projections read plain channels
+        int dictionaryChannel = findDictionaryChannel(blocks, rowOriented, true);
+        if (dictionaryChannel < 0) {
+            dictionaryChannel = findDictionaryChannel(blocks, rowOriented, false);
+        }
+
+        boolean projectsPlainChannels = false;
+        for (int channel = 0; channel < blocks.length; channel++) {
+            if (channel == dictionaryChannel || !rowOriented.isInputChannel(channel) || blocks[channel] instanceof RunLengthEncodedBlock) {
+                continue;
+            }
+            if (rowOriented.isFilterChannel(channel)) {
+                return false;
+            }
+            projectsPlainChannels = true;
+        }
+        if (projectsPlainChannels && dictionaryChannel >= 0 && !rowOriented.isFilterChannel(dictionaryChannel)) {
+            // the dictionary is only read by the projections, so the filter is evaluated once per page
+            dictionaryChannel = -1;
+        }
+
+        int positionCount = blocks[0].getPositionCount();
+        Dictionary dictionary = null;
+        int distinctCount = 1;
+        if (dictionaryChannel >= 0) {
+            dictionary = ((DictionaryEncodedBlock) blocks[dictionaryChannel]).getDictionary();
+            distinctCount = dictionary.size();
+        }
+        if (distinctCount >= positionCount) {
+            return false;
+        }
+
+        // evaluate the filter and projections for each distinct row, recording the output row of the rows that pass
+        PageBuilder distinctPageBuilder = new PageBuilder(projectsPlainChannels ? ImmutableList.<TupleInfo>of() : tupleInfos);
+        int[] distinctOutputRows = new int[distinctCount];
+        Block[] distinctRow = new Block[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            if (channel == dictionaryChannel) {
+                continue;
+            }
+            Block block = blocks[channel];
+            if (projectsPlainChannels && rowOriented.isInputChannel(channel) && !(block instanceof RunLengthEncodedBlock)) {
+                // only read by the projections, so the value does not change the filter result
+                distinctRow[channel] = new RunLengthEncodedBlock(nullTuple(block.getTupleInfo()), 1);
+            }
+            else {
+                distinctRow[channel] = block.getRegion(0, 1);
+            }
+        }
+        for (int dictionaryKey = 0; dictionaryKey < distinctCount; dictionaryKey++) {
+            if (dictionary != null) {
+                distinctRow[dictionaryChannel] = new RunLengthEncodedBlock(dictionary.getTuple(dictionaryKey), 1);
+            }
+
+            int outputRow = distinctPageBuilder.getPositionCount();
+            if (projectsPlainChannels) {
+                // the row holds null placeholders for the channels only read by the projections
+                rowOriented.filterRowOriented(distinctRow, distinctPageBuilder);
+            }
+            else {
+                rowOriented.filterAndProjectRowOriented(distinctRow, distinctPageBuilder);
+            }
+            distinctOutputRows[dictionaryKey] = distinctPageBuilder.getPositionCount() > outputRow ? outputRow : -1;
+        }
+
+        int[] dictionaryKeys = getDictionaryKeys(blocks, dictionaryChannel, positionCount);
+        if (projectsPlainChannels) {
+            filterAndProjectSelectedPositions(blocks, dictionaryKeys, distinctOutputRows, pageBuilder, rowOriented);
+        }
+        else {
+            copyDistinctRows(dictionaryKeys, distinctOutputRows, getTuples(distinctPageBuilder, tupleInfos.size()), pageBuilder);
+        }
+        return true;
+    }
+
+    private static int findDictionaryChannel(Block[] blocks, RowOrientedFilterAndProject rowOriented, boolean filterChannel)
+    {
+        for (int channel = 0; channel < blocks.length; channel++) {
+            if (blocks[channel] instanceof DictionaryEncodedBlock && rowOriented.isInputChannel(channel) && (!filterChannel || rowOriented.isFilterChannel(channel))) {
+                return channel;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] getDictionaryKeys(Block[] blocks, int dictionaryChannel, int positionCount)
+    {
+        int[] dictionaryKeys = new int[positionCount];
+        if (dictionaryChannel >= 0) {
+            BlockCursor idCursor = ((DictionaryEncodedBlock) blocks[dictionaryChannel]).getIdBlock().cursor();
+            for (int position = 0; position < positionCount; position++) {
+                checkState(idCursor.advanceNextPosition());
+                dictionaryKeys[position] = Ints.checkedCast(idCursor.getLong());
+            }
+        }
+        return dictionaryKeys;
+    }
+
+    private static void copyDistinctRows(int[] dictionaryKeys, int[] distinctOutputRows, Slice[][] outputTuples, PageBuilder pageBuilder)
+    {
+        // copy the output row of each position
+        for (int position = 0; position < dictionaryKeys.length; position++) {
+            int outputRow = distinctOutputRows[dictionaryKeys[position]];
+            if (outputRow < 0) {
+                continue;
+            }
+
+            if (outputTuples.length == 0) {
+                pageBuilder.declarePosition();
+            }
+            for (int channel = 0; channel < outputTuples.length; channel++) {
+                pageBuilder.getBlockBuilder(channel).appendTuple(outputTuples[channel][outputRow], 0);
+            }
+        }
+    }
+
+    private static void filterAndProjectSelectedPositions(Block[] blocks, int[] dictionaryKeys, int[] distinctOutputRows, PageBuilder pageBuilder, RowOrientedFilterAndProject rowOriented)
+    {
+        SelectedPositions selectedPositions = SelectedPositions.create(dictionaryKeys.length);
+        for (int position = 0; position < dictionaryKeys.length; position++) {
+            if (distinctOutputRows[dictionaryKeys[position]] >= 0) {
+                selectedPositions.add(position);
+            }
+        }
+
+        if (selectedPositions.size() == 0) {
+            return;
+        }
+        if (selectedPositions.size() == dictionaryKeys.length) {
+            rowOriented.filterAndProjectRowOriented(blocks, pageBuilder);
+            return;
+        }
+
+        // the filter is evaluated again for the selected positions, which all pass
+        Block[] selectedBlocks = new Block[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            Block block = blocks[channel];
+            if (block instanceof RunLengthEncodedBlock) {
+                selectedBlocks[channel] = new RunLengthEncodedBlock(((RunLengthEncodedBlock) block).getValue(), selectedPositions.size());
+            }
+            else if (!rowOriented.isInputChannel(channel)) {
+                selectedBlocks[channel] = new RunLengthEncodedBlock(nullTuple(block.getTupleInfo()), selectedPositions.size());
+            }
+            else {
+                BlockBuilder blockBuilder = new BlockBuilder(block.getTupleInfo());
+                BlockCursor cursor = block.cursor();
+                for (int index = 0; index < selectedPositions.size(); index++) {
+                    checkState(cursor.advanceToPosition(selectedPositions.get(index)));
+                    cursor.appendTupleTo(blockBuilder);
+                }
+                selectedBlocks[channel] = blockBuilder.build();
+            }
+        }
+        rowOriented.filterAndProjectRowOriented(selectedBlocks, pageBuilder);
+    }
+
+    private static Slice[][] getTuples(PageBuilder pageBuilder, int channelCount)
+    {
+        Slice[][] tuples = new Slice[channelCount][];
+        if (pageBuilder.isEmpty()) {
+            return tuples;
+        }
+
+        Page page = pageBuilder.build();
+        for (int channel = 0; channel < channelCount; channel++) {
+            tuples[channel] = new Slice[page.getPositionCount()];
+            BlockCursor cursor = page.getBlock(channel).cursor();
+            for (int row = 0; row < tuples[channel].length; row++) {
+                checkState(cursor.advanceNextPosition());
+                tuples[channel][row] = cursor.getTuple().getTupleSlice();
+            }
+        }
+        return tuples;
+    }
+}
@@ -14,6 +14,7 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.operator.HttpPageBufferClient.ClientCallback;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
@@ -22,6 +23,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.http.client.AsyncHttpClient;
 import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
 
 import javax.annotation.Nullable;
@@ -32,9 +34,11 @@ import java.io.Closeable;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -53,8 +57,16 @@ public class ExchangeClient
 {
     private static final Page NO_MORE_PAGES = new Page(0);
 
+    // weight of the latest request in the moving averages of the request size and time
+    private static final double REQUEST_STATS_WEIGHT = 0.2;
+
+    // full responses slower than this are split into smaller responses so more sources can be read concurrently
+    private static final long TARGET_REQUEST_NANOS = new Duration(500, TimeUnit.MILLISECONDS).roundTo(TimeUnit.NANOSECONDS);
+    private static final long MIN_RESPONSE_SIZE_BYTES = new DataSize(1, Unit.MEGABYTE).toBytes();
+
     private final long maxBufferedBytes;
     private final DataSize maxResponseSize;
+    private final boolean compressionEnabled;
     private final int concurrentRequestMultiplier;
     private final AsyncHttpClient httpClient;
     private final Executor executor;
@@ -76,12 +88,21 @@ public class ExchangeClient
     @GuardedBy("this")
     private final List<SettableFuture<?>> blockedCallers = new ArrayList<>();
 
+    @GuardedBy("this")
+    private final Map<HttpPageBufferClient, RunningRequest> runningRequests = new HashMap<>();
+
     @GuardedBy("this")
     private long bufferBytes;
     @GuardedBy("this")
     private long successfulRequests;
     @GuardedBy("this")
     private long averageBytesPerRequest;
+    @GuardedBy("this")
+    private long averageRequestNanos;
+    @GuardedBy("this")
+    private long responseSizeBytes;
+    @GuardedBy("this")
+    private int concurrentRequestTarget;
 
     private final AtomicBoolean closed = new AtomicBoolean();
 
@@ -90,9 +111,21 @@ public class ExchangeClient
             int concurrentRequestMultiplier,
             AsyncHttpClient httpClient,
             Executor executor)
+    {
+        this(maxBufferedBytes, maxResponseSize, false, concurrentRequestMultiplier, httpClient, executor);
+    }
+
+    public ExchangeClient(DataSize maxBufferedBytes,
+            DataSize maxResponseSize,
+            boolean compressionEnabled,
+            int concurrentRequestMultiplier,
+            AsyncHttpClient httpClient,
+            Executor executor)
     {
         this.maxBufferedBytes = maxBufferedBytes.toBytes();
         this.maxResponseSize = maxResponseSize;
+        this.compressionEnabled = compressionEnabled;
+        this.responseSizeBytes = maxResponseSize.toBytes();
         this.concurrentRequestMultiplier = concurrentRequestMultiplier;
         this.httpClient = httpClient;
         this.executor = checkNotSameThreadExecutor(executor, "executor");
@@ -109,7 +142,14 @@ public class ExchangeClient
         for (HttpPageBufferClient client : allClients.values()) {
             exchangeStatus.add(client.getStatus());
         }
-        return new ExchangeClientStatus(bufferBytes, averageBytesPerRequest, bufferedPages, exchangeStatus.build());
+        return new ExchangeClientStatus(
+                bufferBytes,
+                averageBytesPerRequest,
+                new Duration(averageRequestNanos, TimeUnit.NANOSECONDS).convertToMostSuccinctTimeUnit(),
+                new DataSize(responseSizeBytes, Unit.BYTE).convertToMostSuccinctDataSize(),
+                concurrentRequestTarget,
+                bufferedPages,
+                exchangeStatus.build());
     }
 
     public synchronized void addLocation(URI location)
@@ -206,6 +246,7 @@ public class ExchangeClient
             Closeables.closeQuietly(client);
         }
         pageBuffer.clear();
+        runningRequests.clear();
         bufferBytes = 0;
         if (pageBuffer.peekLast() != NO_MORE_PAGES) {
             checkState(pageBuffer.add(NO_MORE_PAGES), "Could not add no more pages marker");
@@ -234,7 +275,7 @@ public class ExchangeClient
         // add clients for new locations
         for (URI location : locations) {
             if (!allClients.containsKey(location)) {
-                HttpPageBufferClient client = new HttpPageBufferClient(httpClient, maxResponseSize, location, new ExchangeClientCallback(), executor);
+                HttpPageBufferClient client = new HttpPageBufferClient(httpClient, maxResponseSize, compressionEnabled, location, new ExchangeClientCallback(), executor);
                 allClients.put(location, client);
                 queuedClients.add(client);
             }
@@ -249,19 +290,21 @@ public class ExchangeClient
             return;
         }
 
-        int clientCount = (int) ((1.0 * neededBytes / averageBytesPerRequest) * concurrentRequestMultiplier);
-        clientCount = Math.max(clientCount, 1);
+        int clientCount = getRequestedClientCount(neededBytes, averageBytesPerRequest, concurrentRequestMultiplier);
+        concurrentRequestTarget = Math.min(clientCount, allClients.size() - completedClients.size());
 
         int pendingClients = allClients.size() - queuedClients.size() - completedClients.size();
         clientCount -= pendingClients;
 
+        DataSize responseSize = new DataSize(responseSizeBytes, Unit.BYTE).convertToMostSuccinctDataSize();
         for (int i = 0; i < clientCount; i++) {
             HttpPageBufferClient client = queuedClients.poll();
             if (client == null) {
                 // no more clients available
                 return;
             }
-            client.scheduleRequest();
+            runningRequests.put(client, new RunningRequest(System.nanoTime()));
+            client.scheduleRequest(responseSize);
         }
     }
 
@@ -275,7 +318,7 @@ public class ExchangeClient
         return future;
     }
 
-    private synchronized void addPage(Page page)
+    private synchronized void addPage(HttpPageBufferClient client, Page page)
     {
         if (closed.get()) {
             return;
@@ -286,15 +329,62 @@ public class ExchangeClient
         // notify all blocked callers
         notifyBlockedCallers();
 
-        bufferBytes += page.getDataSize().toBytes();
-        successfulRequests++;
+        long pageBytes = page.getDataSize().toBytes();
+        bufferBytes += pageBytes;
 
-        // AVG_n = AVG_(n-1) * (n-1)/n + VALUE_n / n
-        averageBytesPerRequest = (long) (1.0 * averageBytesPerRequest * (successfulRequests - 1) / successfulRequests + page.getDataSize().toBytes() / successfulRequests);
+        RunningRequest runningRequest = runningRequests.get(client);
+        if (runningRequest != null) {
+            runningRequest.addBytes(pageBytes);
+        }
 
         scheduleRequestIfNecessary();
     }
 
+    private synchronized void recordRequest(HttpPageBufferClient client)
+    {
+        RunningRequest runningRequest = runningRequests.remove(client);
+
+        // empty responses only measure how long the source waited for data
+        if (runningRequest == null || runningRequest.getBytes() == 0) {
+            return;
+        }
+        long requestBytes = runningRequest.getBytes();
+        long requestNanos = System.nanoTime() - runningRequest.getStartNanos();
+
+        successfulRequests++;
+        if (successfulRequests == 1) {
+            averageBytesPerRequest = requestBytes;
+            averageRequestNanos = requestNanos;
+        }
+        else {
+            averageBytesPerRequest = (long) (averageBytesPerRequest + REQUEST_STATS_WEIGHT * (requestBytes - averageBytesPerRequest));
+            averageRequestNanos = (long) (averageRequestNanos + REQUEST_STATS_WEIGHT * (requestNanos - averageRequestNanos));
+        }
+
+        responseSizeBytes = getNextResponseSize(responseSizeBytes, maxResponseSize.toBytes(), requestBytes, requestNanos);
+    }
+
+    @VisibleForTesting
+    static int getRequestedClientCount(long neededBytes, long averageBytesPerRequest, int concurrentRequestMultiplier)
+    {
+        // before the first response every source is requested, since the request size is unknown
+        int clientCount = (int) ((1.0 * neededBytes / averageBytesPerRequest) * concurrentRequestMultiplier);
+        return Math.max(clientCount, 1);
+    }
+
+    @VisibleForTesting
+    static long getNextResponseSize(long responseSizeBytes, long maxResponseSizeBytes, long requestBytes, long requestNanos)
+    {
+        // only a full response measures the transfer rate instead of the rate of the source
+        if (requestBytes < responseSizeBytes / 2) {
+            return responseSizeBytes;
+        }
+        if (requestNanos > TARGET_REQUEST_NANOS) {
+            return Math.max(responseSizeBytes / 2, Math.min(MIN_RESPONSE_SIZE_BYTES, maxResponseSizeBytes));
+        }
+        return Math.min(responseSizeBytes * 2, maxResponseSizeBytes);
+    }
+
     private synchronized void notifyBlockedCallers()
     {
         List<SettableFuture<?>> callers = ImmutableList.copyOf(blockedCallers);
@@ -306,6 +396,7 @@ public class ExchangeClient
 
     private synchronized void requestComplete(HttpPageBufferClient client)
     {
+        recordRequest(client);
         if (!queuedClients.contains(client)) {
             queuedClients.add(client);
         }
@@ -315,6 +406,7 @@ public class ExchangeClient
     private synchronized void clientFinished(HttpPageBufferClient client)
     {
         checkNotNull(client, "client is null");
+        recordRequest(client);
         completedClients.add(client);
         scheduleRequestIfNecessary();
     }
@@ -327,7 +419,7 @@ public class ExchangeClient
         {
             checkNotNull(client, "client is null");
             checkNotNull(page, "page is null");
-            ExchangeClient.this.addPage(page);
+            ExchangeClient.this.addPage(client, page);
             scheduleRequestIfNecessary();
         }
 
@@ -344,4 +436,30 @@ public class ExchangeClient
             ExchangeClient.this.clientFinished(client);
         }
     }
+
+    private static class RunningRequest
+    {
+        private final long startNanos;
+        private long bytes;
+
+        private RunningRequest(long startNanos)
+        {
+            this.startNanos = startNanos;
+        }
+
+        public long getStartNanos()
+        {
+            return startNanos;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        public void addBytes(long bytes)
+        {
+            this.bytes += bytes;
+        }
+    }
 }
@@ -32,6 +32,7 @@ public class ExchangeClientFactory
     private final int concurrentRequestMultiplier;
     private final AsyncHttpClient httpClient;
     private final DataSize maxResponseSize;
+    private final boolean compressionEnabled;
     private final Executor executor;
 
     @Inject
@@ -39,6 +40,7 @@ public class ExchangeClientFactory
     {
         this(config.getExchangeMaxBufferSize(),
                 new DataSize(10, Unit.MEGABYTE),
+                config.isExchangeCompressionEnabled(),
                 config.getExchangeConcurrentRequestMultiplier(),
                 httpClient,
                 executor);
@@ -49,11 +51,22 @@ public class ExchangeClientFactory
             int concurrentRequestMultiplier,
             AsyncHttpClient httpClient,
             Executor executor)
+    {
+        this(maxBufferedBytes, maxResponseSize, false, concurrentRequestMultiplier, httpClient, executor);
+    }
+
+    public ExchangeClientFactory(DataSize maxBufferedBytes,
+            DataSize maxResponseSize,
+            boolean compressionEnabled,
+            int concurrentRequestMultiplier,
+            AsyncHttpClient httpClient,
+            Executor executor)
     {
         this.maxBufferedBytes = checkNotNull(maxBufferedBytes, "maxBufferedBytes is null");
         this.concurrentRequestMultiplier = concurrentRequestMultiplier;
         this.httpClient = checkNotNull(httpClient, "httpClient is null");
         this.maxResponseSize = checkNotNull(maxResponseSize, "maxResponseSize is null");
+        this.compressionEnabled = compressionEnabled;
         this.executor = checkNotNull(executor, "executor is null");
 
         checkArgument(maxBufferedBytes.toBytes() > 0, "maxBufferSize must be at least 1 byte: %s", maxBufferedBytes);
@@ -64,6 +77,6 @@ public class ExchangeClientFactory
     @Override
     public ExchangeClient get()
     {
-        return new ExchangeClient(maxBufferedBytes, maxResponseSize, concurrentRequestMultiplier, httpClient, executor);
+        return new ExchangeClient(maxBufferedBytes, maxResponseSize, compressionEnabled, concurrentRequestMultiplier, httpClient, executor);
     }
 }
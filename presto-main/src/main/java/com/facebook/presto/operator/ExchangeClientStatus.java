@@ -17,6 +17,8 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 
 import java.util.List;
 
@@ -26,6 +28,9 @@ public class ExchangeClientStatus
 {
     private final long bufferedBytes;
     private final long averageBytesPerRequest;
+    private final Duration averageRequestTime;
+    private final DataSize maxResponseSize;
+    private final int concurrentRequestTarget;
     private final int bufferedPages;
     private final List<PageBufferClientStatus> pageBufferClientStatuses;
 
@@ -33,11 +38,17 @@ public class ExchangeClientStatus
     public ExchangeClientStatus(
             @JsonProperty("bufferedBytes") long bufferedBytes,
             @JsonProperty("averageBytesPerRequest") long averageBytesPerRequest,
+            @JsonProperty("averageRequestTime") Duration averageRequestTime,
+            @JsonProperty("maxResponseSize") DataSize maxResponseSize,
+            @JsonProperty("concurrentRequestTarget") int concurrentRequestTarget,
             @JsonProperty("bufferedPages") int bufferedPages,
             @JsonProperty("pageBufferClientStatuses") List<PageBufferClientStatus> pageBufferClientStatuses)
     {
         this.bufferedBytes = bufferedBytes;
         this.averageBytesPerRequest = averageBytesPerRequest;
+        this.averageRequestTime = checkNotNull(averageRequestTime, "averageRequestTime is null");
+        this.maxResponseSize = checkNotNull(maxResponseSize, "maxResponseSize is null");
+        this.concurrentRequestTarget = concurrentRequestTarget;
         this.bufferedPages = bufferedPages;
         this.pageBufferClientStatuses = ImmutableList.copyOf(checkNotNull(pageBufferClientStatuses, "pageBufferClientStatuses is null"));
     }
@@ -54,6 +65,24 @@ public class ExchangeClientStatus
         return averageBytesPerRequest;
     }
 
+    @JsonProperty
+    public Duration getAverageRequestTime()
+    {
+        return averageRequestTime;
+    }
+
+    @JsonProperty
+    public DataSize getMaxResponseSize()
+    {
+        return maxResponseSize;
+    }
+
+    @JsonProperty
+    public int getConcurrentRequestTarget()
+    {
+        return concurrentRequestTarget;
+    }
+
     @JsonProperty
     public int getBufferedPages()
     {
@@ -72,6 +101,9 @@ public class ExchangeClientStatus
         return Objects.toStringHelper(this)
                 .add("bufferBytes", bufferedBytes)
                 .add("averageBytesPerRequest", averageBytesPerRequest)
+                .add("averageRequestTime", averageRequestTime)
+                .add("maxResponseSize", maxResponseSize)
+                .add("concurrentRequestTarget", concurrentRequestTarget)
                 .add("bufferedPages", bufferedPages)
                 .add("pageBufferClientStatuses", pageBufferClientStatuses)
                 .toString();
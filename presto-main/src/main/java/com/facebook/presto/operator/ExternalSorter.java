@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Sorts more pages than fit in memory.  Pages are added to a {@link PagesIndex}
+ * until the operator can not reserve more memory, at which point the index is
+ * sorted and written to a spill file as a sorted run.  When the input is
+ * finished, the sorted runs are combined with a streaming k-way merge.
+ */
+@NotThreadSafe
+public class ExternalSorter
+        implements Closeable
+{
+    // merged pages are kept small since consumers may buffer them in another index
+    private static final DataSize MERGED_PAGE_SIZE = new DataSize(64, Unit.KILOBYTE);
+
+    private final List<TupleInfo> tupleInfos;
+    private final int expectedPositions;
+    private final int[] sortChannels;
+    private final SortOrder[] sortOrders;
+    private final OperatorContext operatorContext;
+    private final File spillDirectory;
+
+    private final List<SpillFile> sortedRuns = new ArrayList<>();
+    private PagesIndex pagesIndex;
+
+    public ExternalSorter(
+            List<TupleInfo> tupleInfos,
+            int expectedPositions,
+            int[] sortChannels,
+            SortOrder[] sortOrders,
+            OperatorContext operatorContext,
+            File spillDirectory)
+    {
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        this.expectedPositions = expectedPositions;
+        this.sortChannels = checkNotNull(sortChannels, "sortChannels is null").clone();
+        this.sortOrders = checkNotNull(sortOrders, "sortOrders is null").clone();
+        checkArgument(sortChannels.length == sortOrders.length, "sortChannels and sortOrders have different sizes");
+        this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+
+        this.pagesIndex = new PagesIndex(tupleInfos, expectedPositions, operatorContext);
+    }
+
+    public void addPage(Page page)
+    {
+        checkNotNull(page, "page is null");
+        checkState(pagesIndex != null, "Sorter is already finished");
+
+        if (!pagesIndex.tryAddPage(page)) {
+            spillSortedRun();
+        }
+    }
+
+    public boolean isSpilled()
+    {
+        return !sortedRuns.isEmpty();
+    }
+
+    /**
+     * Returns the in-memory index, which holds all of the input if nothing has been spilled.
+     */
+    public PagesIndex getPagesIndex()
+    {
+        checkState(pagesIndex != null, "Sorter is already finished");
+        return pagesIndex;
+    }
+
+    /**
+     * Spills the remaining in-memory positions and returns all input pages in sorted order.
+     */
+    public Iterator<Page> mergeSortedRuns()
+    {
+        checkState(pagesIndex != null, "Sorter is already finished");
+        if (pagesIndex.getPositionCount() > 0) {
+            spillSortedRun();
+        }
+        pagesIndex = null;
+        operatorContext.setMemoryReservation(0);
+
+        ImmutableList.Builder<Iterator<Page>> runs = ImmutableList.builder();
+        for (SpillFile sortedRun : sortedRuns) {
+            runs.add(sortedRun.read());
+        }
+        return new MergeSortedPages(tupleInfos, runs.build(), sortChannels, sortOrders);
+    }
+
+    @Override
+    public void close()
+    {
+        for (SpillFile sortedRun : sortedRuns) {
+            sortedRun.close();
+        }
+        sortedRuns.clear();
+    }
+
+    private void spillSortedRun()
+    {
+        pagesIndex.sort(sortChannels, sortOrders);
+
+        SpillFile sortedRun = SpillFile.createSpillFile(spillDirectory, "sorted-run-");
+        sortedRuns.add(sortedRun);
+        Iterator<Page> pages = pagesIndex.getPages();
+        while (pages.hasNext()) {
+            sortedRun.append(pages.next());
+        }
+
+        // the reservation of the spilled index is released when the next index updates the reservation
+        pagesIndex = new PagesIndex(tupleInfos, expectedPositions, operatorContext);
+    }
+
+    /**
+     * Streaming k-way merge of sorted runs of pages.
+     */
+    static class MergeSortedPages
+            extends AbstractIterator<Page>
+    {
+        private final PageBuilder pageBuilder;
+        private final PriorityQueue<SortedRunCursor> queue;
+
+        MergeSortedPages(List<TupleInfo> tupleInfos, List<Iterator<Page>> sortedRuns, final int[] sortChannels, final SortOrder[] sortOrders)
+        {
+            this.pageBuilder = new PageBuilder(tupleInfos, MERGED_PAGE_SIZE);
+
+            Comparator<SortedRunCursor> comparator = new Comparator<SortedRunCursor>()
+            {
+                @Override
+                public int compare(SortedRunCursor left, SortedRunCursor right)
+                {
+                    for (int i = 0; i < sortChannels.length; i++) {
+                        BlockCursor leftCursor = left.getCursor(sortChannels[i]);
+                        BlockCursor rightCursor = right.getCursor(sortChannels[i]);
+                        int compare = ChannelIndex.compare(
+                                leftCursor.getTupleInfo(),
+                                sortOrders[i],
+                                leftCursor.getRawSlice(),
+                                leftCursor.getRawOffset(),
+                                rightCursor.getRawSlice(),
+                                rightCursor.getRawOffset());
+                        if (compare != 0) {
+                            return compare;
+                        }
+                    }
+                    return 0;
+                }
+            };
+
+            this.queue = new PriorityQueue<>(Math.max(1, sortedRuns.size()), comparator);
+            for (Iterator<Page> sortedRun : sortedRuns) {
+                SortedRunCursor cursor = new SortedRunCursor(sortedRun);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            if (queue.isEmpty()) {
+                return endOfData();
+            }
+
+            pageBuilder.reset();
+            while (!pageBuilder.isFull() && !queue.isEmpty()) {
+                SortedRunCursor cursor = queue.poll();
+                cursor.appendTo(pageBuilder);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            return pageBuilder.build();
+        }
+    }
+
+    private static class SortedRunCursor
+    {
+        private final Iterator<Page> pages;
+        private BlockCursor[] cursors;
+
+        private SortedRunCursor(Iterator<Page> pages)
+        {
+            this.pages = pages;
+        }
+
+        public BlockCursor getCursor(int channel)
+        {
+            return cursors[channel];
+        }
+
+        public boolean advance()
+        {
+            while (cursors == null || !advanceCursors()) {
+                if (!pages.hasNext()) {
+                    cursors = null;
+                    return false;
+                }
+
+                Page page = pages.next();
+                cursors = new BlockCursor[page.getChannelCount()];
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    cursors[channel] = page.getBlock(channel).cursor();
+                }
+            }
+            return true;
+        }
+
+        private boolean advanceCursors()
+        {
+            boolean advanced = true;
+            for (BlockCursor cursor : cursors) {
+                advanced = cursor.advanceNextPosition() && advanced;
+            }
+            return advanced;
+        }
+
+        public void appendTo(PageBuilder pageBuilder)
+        {
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+        }
+    }
+}
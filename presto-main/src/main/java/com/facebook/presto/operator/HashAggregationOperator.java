@@ -17,6 +17,7 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.operator.aggregation.AggregationFunction;
 import com.facebook.presto.operator.aggregation.GroupedAccumulator;
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
+import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.base.Function;
@@ -24,22 +25,30 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
-import it.unimi.dsi.fastutil.longs.Long2IntMap.Entry;
-import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import it.unimi.dsi.fastutil.HashCommon;
 
+import java.io.File;
 import java.util.Iterator;
 import java.util.List;
 
+import static com.facebook.presto.operator.AggregationFunctionDefinition.aggregation;
+import static com.facebook.presto.operator.GroupByHashes.createGroupByHash;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.transform;
 
 public class HashAggregationOperator
-        implements Operator
+        implements Operator, AutoCloseable
 {
+    private static final int SPILL_PARTITION_COUNT = 16;
+    private static final DataSize SPILL_PAGE_SIZE = new DataSize(64, Unit.KILOBYTE);
+
     public static class HashAggregationOperatorFactory
             implements OperatorFactory
     {
@@ -49,6 +58,7 @@ public class HashAggregationOperator
         private final Step step;
         private final List<AggregationFunctionDefinition> functionDefinitions;
         private final int expectedGroups;
+        private final Optional<File> spillDirectory;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -59,6 +69,18 @@ public class HashAggregationOperator
                 Step step,
                 List<AggregationFunctionDefinition> functionDefinitions,
                 int expectedGroups)
+        {
+            this(operatorId, groupByTupleInfos, groupByChannels, step, functionDefinitions, expectedGroups, Optional.<File>absent());
+        }
+
+        public HashAggregationOperatorFactory(
+                int operatorId,
+                List<TupleInfo> groupByTupleInfos,
+                List<Integer> groupByChannels,
+                Step step,
+                List<AggregationFunctionDefinition> functionDefinitions,
+                int expectedGroups,
+                Optional<File> spillDirectory)
         {
             this.operatorId = operatorId;
             this.groupByTupleInfos = groupByTupleInfos;
@@ -66,6 +88,7 @@ public class HashAggregationOperator
             this.step = step;
             this.functionDefinitions = functionDefinitions;
             this.expectedGroups = expectedGroups;
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
             this.tupleInfos = toTupleInfos(groupByTupleInfos, step, functionDefinitions);
         }
@@ -88,7 +111,8 @@ public class HashAggregationOperator
                     groupByChannels,
                     step,
                     functionDefinitions,
-                    expectedGroups
+                    expectedGroups,
+                    spillDirectory
             );
         }
 
@@ -105,11 +129,13 @@ public class HashAggregationOperator
     private final Step step;
     private final List<AggregationFunctionDefinition> functionDefinitions;
     private final int expectedGroups;
+    private final Optional<File> spillDirectory;
 
     private final List<TupleInfo> tupleInfos;
     private final HashMemoryManager memoryManager;
 
     private GroupByHashAggregationBuilder aggregationBuilder;
+    private List<SpillFile> spillPartitions;
     private Iterator<Page> outputIterator;
     private boolean finishing;
 
@@ -119,7 +145,8 @@ public class HashAggregationOperator
             List<Integer> groupByChannels,
             Step step,
             List<AggregationFunctionDefinition> functionDefinitions,
-            int expectedGroups)
+            int expectedGroups,
+            Optional<File> spillDirectory)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         Preconditions.checkNotNull(step, "step is null");
@@ -131,7 +158,9 @@ public class HashAggregationOperator
         this.functionDefinitions = ImmutableList.copyOf(functionDefinitions);
         this.step = step;
         this.expectedGroups = expectedGroups;
-        this.memoryManager = new HashMemoryManager(operatorContext);
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+        // state that can be spilled is held as revocable memory, so the memory pool can ask for it back
+        this.memoryManager = new HashMemoryManager(operatorContext, step != Step.PARTIAL && spillDirectory.isPresent());
 
         this.tupleInfos = toTupleInfos(groupByTupleInfos, step, functionDefinitions);
     }
@@ -157,7 +186,16 @@ public class HashAggregationOperator
     @Override
     public boolean isFinished()
     {
-        return finishing && aggregationBuilder == null && (outputIterator == null || !outputIterator.hasNext());
+        if (!finishing || aggregationBuilder != null) {
+            return false;
+        }
+
+        // spilled state has not been merged yet
+        if (spillPartitions != null && outputIterator == null) {
+            return false;
+        }
+
+        return outputIterator == null || !outputIterator.hasNext();
     }
 
     @Override
@@ -192,11 +230,26 @@ public class HashAggregationOperator
             checkState(!aggregationBuilder.isFull(), "Aggregation buffer is full");
         }
         aggregationBuilder.processPage(page);
+
+        // Only partial aggregation can flush early, so other steps write their state to disk instead
+        if (canSpill() && aggregationBuilder.isFull()) {
+            spill();
+        }
     }
 
     @Override
     public Page getOutput()
     {
+        // memory revoking can be requested between calls to addInput, which makes a spillable builder full
+        if (!finishing && canSpill() && aggregationBuilder != null && aggregationBuilder.isFull()) {
+            spill();
+            return null;
+        }
+
+        if (spillPartitions != null) {
+            return getSpilledOutput();
+        }
+
         if (outputIterator == null || !outputIterator.hasNext()) {
             // no data
             if (aggregationBuilder == null) {
@@ -222,6 +275,112 @@ public class HashAggregationOperator
         return outputIterator.next();
     }
 
+    @Override
+    public void close()
+    {
+        if (spillPartitions != null) {
+            for (SpillFile spillPartition : spillPartitions) {
+                spillPartition.close();
+            }
+        }
+        operatorContext.trySetRevocableMemoryReservation(0);
+        operatorContext.setMemoryReservation(0);
+    }
+
+    private boolean canSpill()
+    {
+        return step != Step.PARTIAL && spillDirectory.isPresent();
+    }
+
+    private void spill()
+    {
+        if (spillPartitions == null) {
+            ImmutableList.Builder<SpillFile> partitions = ImmutableList.builder();
+            for (int i = 0; i < SPILL_PARTITION_COUNT; i++) {
+                partitions.add(SpillFile.createSpillFile(spillDirectory.get(), "hash-aggregation-"));
+            }
+            spillPartitions = partitions.build();
+        }
+
+        aggregationBuilder.spillTo(spillPartitions);
+        aggregationBuilder = null;
+        memoryManager.release();
+    }
+
+    private Page getSpilledOutput()
+    {
+        if (!finishing) {
+            return null;
+        }
+
+        if (outputIterator == null) {
+            if (aggregationBuilder != null) {
+                spill();
+            }
+            outputIterator = mergeSpillPartitions();
+        }
+
+        if (!outputIterator.hasNext()) {
+            return null;
+        }
+        return outputIterator.next();
+    }
+
+    private Iterator<Page> mergeSpillPartitions()
+    {
+        // spilled pages contain the group by columns followed by the intermediate state of each aggregation
+        int groupByCount = groupByTupleInfos.size();
+
+        ImmutableList.Builder<Integer> channels = ImmutableList.builder();
+        for (int i = 0; i < groupByCount; i++) {
+            channels.add(i);
+        }
+        final List<Integer> groupByChannels = channels.build();
+
+        ImmutableList.Builder<AggregationFunctionDefinition> definitions = ImmutableList.builder();
+        for (int i = 0; i < functionDefinitions.size(); i++) {
+            definitions.add(aggregation(functionDefinitions.get(i).getFunction(), new Input(groupByCount + i)));
+        }
+        final List<AggregationFunctionDefinition> intermediateDefinitions = definitions.build();
+
+        // merged state can not be spilled again, so it is not revocable
+        final HashMemoryManager mergeMemoryManager = new HashMemoryManager(operatorContext, false);
+
+        // each partition holds a disjoint set of groups, so partitions are merged one at a time
+        return Iterators.concat(new AbstractIterator<Iterator<Page>>()
+        {
+            private int partition;
+
+            @Override
+            protected Iterator<Page> computeNext()
+            {
+                if (partition >= spillPartitions.size()) {
+                    return endOfData();
+                }
+
+                SpillFile spillPartition = spillPartitions.get(partition);
+                partition++;
+
+                GroupByHashAggregationBuilder mergeBuilder = new GroupByHashAggregationBuilder(
+                        intermediateDefinitions,
+                        Step.FINAL,
+                        expectedGroups,
+                        groupByTupleInfos,
+                        groupByChannels,
+                        mergeMemoryManager);
+
+                Iterator<Page> pages = spillPartition.read();
+                while (pages.hasNext()) {
+                    mergeBuilder.processPage(pages.next());
+                    checkState(!mergeBuilder.isFull(), "Task exceeded max memory size of %s", mergeMemoryManager.getMaxMemorySize());
+                }
+                spillPartition.close();
+
+                return mergeBuilder.build();
+            }
+        });
+    }
+
     private static List<TupleInfo> toTupleInfos(List<TupleInfo> groupByTupleInfo, Step step, List<AggregationFunctionDefinition> functionDefinitions)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
@@ -259,7 +418,7 @@ public class HashAggregationOperator
                 }
             }));
 
-            this.groupByHash = new GroupByHash(groupByTypes, Ints.toArray(groupByChannels), expectedGroups);
+            this.groupByHash = createGroupByHash(groupByTypes, Ints.toArray(groupByChannels), expectedGroups);
             this.memoryManager = memoryManager;
 
             // wrapper each function with an aggregator
@@ -288,6 +447,49 @@ public class HashAggregationOperator
             return memoryManager.canUse(memorySize);
         }
 
+        public void spillTo(List<SpillFile> partitions)
+        {
+            List<Type> types = groupByHash.getTypes();
+            ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+            for (Type type : types) {
+                tupleInfos.add(new TupleInfo(type));
+            }
+            for (Aggregator aggregator : aggregators) {
+                tupleInfos.add(aggregator.getIntermediateTupleInfo());
+            }
+
+            PageBuilder[] pageBuilders = new PageBuilder[partitions.size()];
+            for (int i = 0; i < pageBuilders.length; i++) {
+                pageBuilders[i] = new PageBuilder(tupleInfos.build(), SPILL_PAGE_SIZE);
+            }
+
+            BlockBuilder[] groupByBlockBuilders = new BlockBuilder[types.size()];
+            for (int groupId = 0; groupId < groupByHash.getGroupCount(); groupId++) {
+                int partition = (HashCommon.murmurHash3(groupByHash.hashGroup(groupId)) & Integer.MAX_VALUE) % partitions.size();
+                PageBuilder pageBuilder = pageBuilders[partition];
+
+                for (int i = 0; i < types.size(); i++) {
+                    groupByBlockBuilders[i] = pageBuilder.getBlockBuilder(i);
+                }
+                groupByHash.appendValuesTo(groupId, groupByBlockBuilders);
+
+                for (int i = 0; i < aggregators.size(); i++) {
+                    aggregators.get(i).evaluateIntermediate(groupId, pageBuilder.getBlockBuilder(types.size() + i));
+                }
+
+                if (pageBuilder.isFull()) {
+                    partitions.get(partition).append(pageBuilder.build());
+                    pageBuilder.reset();
+                }
+            }
+
+            for (int i = 0; i < pageBuilders.length; i++) {
+                if (!pageBuilders[i].isEmpty()) {
+                    partitions.get(i).append(pageBuilders[i].build());
+                }
+            }
+        }
+
         public Iterator<Page> build()
         {
             List<Type> types = groupByHash.getTypes();
@@ -302,12 +504,13 @@ public class HashAggregationOperator
             final PageBuilder pageBuilder = new PageBuilder(tupleInfos.build());
             return new AbstractIterator<Page>()
             {
-                private final ObjectIterator<Entry> pagePositionToGroup = groupByHash.getPagePositionToGroupId().long2IntEntrySet().fastIterator();
+                private final int groupCount = groupByHash.getGroupCount();
+                private int groupId;
 
                 @Override
                 protected Page computeNext()
                 {
-                    if (!pagePositionToGroup.hasNext()) {
+                    if (groupId >= groupCount) {
                         return endOfData();
                     }
 
@@ -319,18 +522,15 @@ public class HashAggregationOperator
                         groupByBlockBuilders[i] = pageBuilder.getBlockBuilder(i);
                     }
 
-                    while (!pageBuilder.isFull() && pagePositionToGroup.hasNext()) {
-                        Entry next = pagePositionToGroup.next();
-                        long pagePosition = next.getLongKey();
-                        int groupId = next.getIntValue();
-
-                        groupByHash.appendValuesTo(pagePosition, groupByBlockBuilders);
+                    while (!pageBuilder.isFull() && groupId < groupCount) {
+                        groupByHash.appendValuesTo(groupId, groupByBlockBuilders);
 
                         for (int i = 0; i < aggregators.size(); i++) {
                             Aggregator aggregator = aggregators.get(i);
                             BlockBuilder output = pageBuilder.getBlockBuilder(types.size() + i);
                             aggregator.evaluate(groupId, output);
                         }
+                        groupId++;
                     }
 
                     Page page = pageBuilder.build();
@@ -343,11 +543,18 @@ public class HashAggregationOperator
     public static class HashMemoryManager
     {
         private final OperatorContext operatorContext;
+        private final boolean revocable;
         private long currentMemoryReservation;
 
         public HashMemoryManager(OperatorContext operatorContext)
+        {
+            this(operatorContext, false);
+        }
+
+        public HashMemoryManager(OperatorContext operatorContext, boolean revocable)
         {
             this.operatorContext = operatorContext;
+            this.revocable = revocable;
         }
 
         public boolean canUse(long memorySize)
@@ -355,6 +562,10 @@ public class HashAggregationOperator
             // remove the pre-allocated memory from this size
             memorySize -= operatorContext.getOperatorPreAllocatedMemory().toBytes();
 
+            if (revocable) {
+                return !canUseRevocable(memorySize);
+            }
+
             long delta = memorySize - currentMemoryReservation;
             if (delta <= 0) {
                 return false;
@@ -369,6 +580,31 @@ public class HashAggregationOperator
             return false;
         }
 
+        private boolean canUseRevocable(long memorySize)
+        {
+            if (operatorContext.isMemoryRevokingRequested()) {
+                return false;
+            }
+
+            if (memorySize > currentMemoryReservation) {
+                if (!operatorContext.trySetRevocableMemoryReservation(memorySize)) {
+                    return false;
+                }
+                currentMemoryReservation = memorySize;
+            }
+            return true;
+        }
+
+        /**
+         * Gives back the memory of a builder whose state was written to disk.
+         */
+        public void release()
+        {
+            checkState(revocable, "Only revocable memory can be released");
+            operatorContext.trySetRevocableMemoryReservation(0);
+            currentMemoryReservation = 0;
+        }
+
         public Object getMaxMemorySize()
         {
             return operatorContext.getMaxMemorySize();
@@ -411,6 +647,11 @@ public class HashAggregationOperator
             return aggregation.getEstimatedSize();
         }
 
+        public TupleInfo getIntermediateTupleInfo()
+        {
+            return aggregation.getIntermediateTupleInfo();
+        }
+
         public TupleInfo getTupleInfo()
         {
             if (step == Step.PARTIAL) {
@@ -431,6 +672,11 @@ public class HashAggregationOperator
             }
         }
 
+        public void evaluateIntermediate(int groupId, BlockBuilder output)
+        {
+            aggregation.evaluateIntermediate(groupId, output);
+        }
+
         public void evaluate(int groupId, BlockBuilder output)
         {
             if (step == Step.PARTIAL) {
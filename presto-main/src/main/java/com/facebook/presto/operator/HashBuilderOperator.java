@@ -13,6 +13,7 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.spi.Domain;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -21,10 +22,15 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -32,14 +38,37 @@ import static com.google.common.base.Preconditions.checkState;
 public class HashBuilderOperator
         implements Operator
 {
+    /**
+     * Supplies the lookup source of a join once every partition of the build has finished.
+     */
     public static class HashSupplier
     {
         private final List<TupleInfo> tupleInfos;
-        private final SettableFuture<JoinHash> hashFuture = SettableFuture.create();
+        private final int partitionCount;
+        private final SettableFuture<List<JoinHash>> hashFuture = SettableFuture.create();
+        private final SettableFuture<List<Domain>> buildKeyDomainsFuture = SettableFuture.create();
+        private volatile boolean buildKeyDomainsRequested;
+
+        @GuardedBy("this")
+        private final JoinHash[] partitions;
+        @GuardedBy("this")
+        private final List<List<Domain>> partitionBuildKeyDomains = new ArrayList<>();
+        @GuardedBy("this")
+        private int finishedPartitions;
+        @GuardedBy("this")
+        private boolean buildKeyDomainsMissing;
 
         public HashSupplier(List<TupleInfo> tupleInfos)
+        {
+            this(tupleInfos, 1);
+        }
+
+        public HashSupplier(List<TupleInfo> tupleInfos, int partitionCount)
         {
             this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+            checkArgument(partitionCount > 0, "partitionCount must be at least 1");
+            this.partitionCount = partitionCount;
+            this.partitions = new JoinHash[partitionCount];
         }
 
         public List<TupleInfo> getTupleInfos()
@@ -47,23 +76,77 @@ public class HashBuilderOperator
             return tupleInfos;
         }
 
-        public ListenableFuture<JoinHash> getSourceHash()
+        public int getPartitionCount()
+        {
+            return partitionCount;
+        }
+
+        public ListenableFuture<LookupSource> getSourceHash()
         {
-            return Futures.transform(hashFuture, new Function<JoinHash, JoinHash>()
+            return Futures.transform(hashFuture, new Function<List<JoinHash>, LookupSource>()
             {
                 @Override
-                public JoinHash apply(JoinHash joinHash)
+                public LookupSource apply(List<JoinHash> partitions)
                 {
-                    return new JoinHash(joinHash);
+                    if (partitions.size() == 1) {
+                        return new JoinHash(partitions.get(0));
+                    }
+
+                    ImmutableList.Builder<JoinHash> copies = ImmutableList.builder();
+                    for (JoinHash partition : partitions) {
+                        copies.add(new JoinHash(partition));
+                    }
+                    return new PartitionedLookupSource(copies.build());
                 }
             });
         }
 
-        void setHash(JoinHash joinHash)
+        /**
+         * @param buildKeyDomains the domains of the build keys of the partition, or null if they were not computed
+         */
+        synchronized void setPartition(int partition, JoinHash joinHash, @Nullable List<Domain> buildKeyDomains)
         {
-            boolean wasSet = hashFuture.set(joinHash);
+            checkElementIndex(partition, partitionCount, "partition");
+            checkState(partitions[partition] == null, "Hash partition %s already set", partition);
+            partitions[partition] = joinHash;
+            finishedPartitions++;
+
+            if (buildKeyDomains == null) {
+                buildKeyDomainsMissing = true;
+            }
+            else {
+                partitionBuildKeyDomains.add(buildKeyDomains);
+            }
+
+            if (finishedPartitions < partitionCount) {
+                return;
+            }
+
+            // publish the key domains first so probe scans can filter as soon as the join starts
+            if (!buildKeyDomainsMissing) {
+                boolean wasSet = buildKeyDomainsFuture.set(DynamicFilter.unionBuildKeys(partitionBuildKeyDomains));
+                checkState(wasSet, "Build key domains already set");
+            }
+            partitionBuildKeyDomains.clear();
+
+            boolean wasSet = hashFuture.set(ImmutableList.copyOf(partitions));
             checkState(wasSet, "Hash already set");
         }
+
+        /**
+         * Returns the domains of the build keys, which are computed only if this
+         * method is called before the build of every partition finishes.
+         */
+        public ListenableFuture<List<Domain>> getBuildKeyDomains()
+        {
+            buildKeyDomainsRequested = true;
+            return buildKeyDomainsFuture;
+        }
+
+        boolean isBuildKeyDomainsRequested()
+        {
+            return buildKeyDomainsRequested;
+        }
     }
 
     public static class HashBuilderOperatorFactory
@@ -73,6 +156,7 @@ public class HashBuilderOperator
         private final HashSupplier hashSupplier;
         private final List<Integer> hashChannels;
         private final int expectedPositions;
+        private int nextPartition;
         private boolean closed;
 
         public HashBuilderOperatorFactory(
@@ -80,9 +164,25 @@ public class HashBuilderOperator
                 List<TupleInfo> tupleInfos,
                 List<Integer> hashChannels,
                 int expectedPositions)
+        {
+            this(operatorId, tupleInfos, hashChannels, expectedPositions, 1);
+        }
+
+        /**
+         * Creates a factory for a build with the specified number of partitions.  The build
+         * rows must be hash partitioned with {@link HashStrategyUtils#hashPartition} on the
+         * hash channels, and the operator created for partition N must receive the rows of
+         * partition N.  Partitions are assigned to operators in creation order.
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                List<Integer> hashChannels,
+                int expectedPositions,
+                int partitionCount)
         {
             this.operatorId = operatorId;
-            this.hashSupplier = new HashSupplier(checkNotNull(tupleInfos, "tupleInfos is null"));
+            this.hashSupplier = new HashSupplier(checkNotNull(tupleInfos, "tupleInfos is null"), partitionCount);
 
             Preconditions.checkArgument(!hashChannels.isEmpty(), "hashChannels is empty");
             this.hashChannels = ImmutableList.copyOf(checkNotNull(hashChannels, "hashChannels is null"));
@@ -102,13 +202,15 @@ public class HashBuilderOperator
         }
 
         @Override
-        public Operator createOperator(DriverContext driverContext)
+        public synchronized Operator createOperator(DriverContext driverContext)
         {
             checkState(!closed, "Factory is already closed");
+            checkState(nextPartition < hashSupplier.getPartitionCount(), "All hash partitions already have an operator");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, HashBuilderOperator.class.getSimpleName());
             return new HashBuilderOperator(
                     operatorContext,
                     hashSupplier,
+                    nextPartition++,
                     hashChannels,
                     expectedPositions);
         }
@@ -122,6 +224,7 @@ public class HashBuilderOperator
 
     private final OperatorContext operatorContext;
     private final HashSupplier hashSupplier;
+    private final int partition;
     private final List<Integer> hashChannels;
 
     private final PagesIndex pagesIndex;
@@ -133,10 +236,22 @@ public class HashBuilderOperator
             HashSupplier hashSupplier,
             List<Integer> hashChannels,
             int expectedPositions)
+    {
+        this(operatorContext, hashSupplier, 0, hashChannels, expectedPositions);
+    }
+
+    public HashBuilderOperator(
+            OperatorContext operatorContext,
+            HashSupplier hashSupplier,
+            int partition,
+            List<Integer> hashChannels,
+            int expectedPositions)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
 
         this.hashSupplier = checkNotNull(hashSupplier, "hashSupplier is null");
+        checkElementIndex(partition, hashSupplier.getPartitionCount(), "partition");
+        this.partition = partition;
 
         Preconditions.checkArgument(!hashChannels.isEmpty(), "hashChannels is empty");
         this.hashChannels = ImmutableList.copyOf(checkNotNull(hashChannels, "hashChannels is null"));
@@ -164,7 +279,12 @@ public class HashBuilderOperator
         }
 
         JoinHash joinHash = new JoinHash(pagesIndex, hashChannels, operatorContext);
-        hashSupplier.setHash(joinHash);
+
+        List<Domain> buildKeyDomains = null;
+        if (hashSupplier.isBuildKeyDomainsRequested()) {
+            buildKeyDomains = DynamicFilter.summarizeBuildKeys(pagesIndex, hashChannels);
+        }
+        hashSupplier.setPartition(partition, joinHash, buildKeyDomains);
         finished = true;
     }
 
@@ -85,7 +85,7 @@ public class HashJoinOperator
         }
     }
 
-    private final ListenableFuture<JoinHash> hashFuture;
+    private final ListenableFuture<LookupSource> hashFuture;
 
     private final OperatorContext operatorContext;
     private final int[] probeJoinChannels;
@@ -96,9 +96,9 @@ public class HashJoinOperator
 
     private final PageBuilder pageBuilder;
 
-    private JoinHash hash;
+    private LookupSource hash;
     private boolean finishing;
-    private int joinPosition = -1;
+    private long joinPosition = -1;
 
     public HashJoinOperator(OperatorContext operatorContext, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, List<Integer> probeJoinChannels, boolean enableOuterJoin)
     {
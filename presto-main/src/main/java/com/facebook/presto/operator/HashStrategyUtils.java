@@ -16,6 +16,7 @@ package com.facebook.presto.operator;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.primitives.Longs;
 import io.airlift.slice.Slice;
+import it.unimi.dsi.fastutil.HashCommon;
 
 import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
 
@@ -31,6 +32,18 @@ public final class HashStrategyUtils
         return result;
     }
 
+    /**
+     * Returns the partition of a row with the specified hash code.  Hash tables
+     * select buckets with the low bits of the mixed hash code, so the partition
+     * is taken from the high bits to keep the rows of a partition spread over
+     * all buckets.
+     */
+    public static int hashPartition(int hashCode, int partitionCount)
+    {
+        long mixedHashCode = HashCommon.murmurHash3(hashCode) & 0xFFFF_FFFFL;
+        return (int) ((mixedHashCode * partitionCount) >>> 32);
+    }
+
     private static int getVariableBinaryLength(Slice slice, int offset)
     {
         return slice.getInt(offset + SIZE_OF_BYTE);
@@ -43,8 +43,11 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_COMPRESSED_PAGES_TYPE;
 import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES_TYPE;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_MAX_SIZE;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_COMPRESSION;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_COMPRESSION_SNAPPY;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_NEXT_TOKEN;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_TOKEN;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -79,6 +82,7 @@ public class HttpPageBufferClient
 
     private final AsyncHttpClient httpClient;
     private final DataSize maxResponseSize;
+    private final boolean compressionEnabled;
     private final URI location;
     private final ClientCallback clientCallback;
     @GuardedBy("this")
@@ -96,9 +100,20 @@ public class HttpPageBufferClient
     private final AtomicInteger requestsCompleted = new AtomicInteger();
 
     public HttpPageBufferClient(AsyncHttpClient httpClient, DataSize maxResponseSize, URI location, ClientCallback clientCallback, Executor executor)
+    {
+        this(httpClient, maxResponseSize, false, location, clientCallback, executor);
+    }
+
+    public HttpPageBufferClient(AsyncHttpClient httpClient,
+            DataSize maxResponseSize,
+            boolean compressionEnabled,
+            URI location,
+            ClientCallback clientCallback,
+            Executor executor)
     {
         this.httpClient = checkNotNull(httpClient, "httpClient is null");
         this.maxResponseSize = checkNotNull(maxResponseSize, "maxResponseSize is null");
+        this.compressionEnabled = compressionEnabled;
         this.location = checkNotNull(location, "location is null");
         this.clientCallback = checkNotNull(clientCallback, "clientCallback is null");
         this.executor = checkNotNull(executor, "executor is null");
@@ -155,6 +170,12 @@ public class HttpPageBufferClient
 
     public synchronized void scheduleRequest()
     {
+        scheduleRequest(maxResponseSize);
+    }
+
+    public synchronized void scheduleRequest(DataSize maxResponseSize)
+    {
+        checkNotNull(maxResponseSize, "maxResponseSize is null");
         if (closed) {
             log.debug("scheduleRequest() called, but client has been closed");
             return;
@@ -165,9 +186,13 @@ public class HttpPageBufferClient
         }
 
         final URI uri = HttpUriBuilder.uriBuilderFrom(location).appendPath(String.valueOf(token)).build();
-        future = httpClient.executeAsync(prepareGet()
+        Request.Builder requestBuilder = prepareGet()
                 .setHeader(PRESTO_MAX_SIZE, maxResponseSize.toString())
-                .setUri(uri).build(), new PageResponseHandler());
+                .setUri(uri);
+        if (compressionEnabled) {
+            requestBuilder.setHeader(PRESTO_PAGE_COMPRESSION, PRESTO_PAGE_COMPRESSION_SNAPPY);
+        }
+        future = httpClient.executeAsync(requestBuilder.build(), new PageResponseHandler());
 
         Futures.addCallback(future, new FutureCallback<PagesResponse>()
         {
@@ -324,7 +349,8 @@ public class HttpPageBufferClient
             }
 
             String contentType = response.getHeader(CONTENT_TYPE);
-            if (contentType == null || !MediaType.parse(contentType).is(PRESTO_PAGES_TYPE)) {
+            MediaType mediaType = (contentType == null) ? null : MediaType.parse(contentType);
+            if (mediaType == null || !(mediaType.is(PRESTO_PAGES_TYPE) || mediaType.is(PRESTO_COMPRESSED_PAGES_TYPE))) {
                 // this can happen when an error page is returned, but is unlikely given the above 200
                 log.debug("Expected %s response from server but got %s: uri=%s, response=%s", PRESTO_PAGES_TYPE, contentType, request.getUri(), response);
                 return PagesResponse.createEmptyPagesResponse(token, nextToken);
@@ -332,6 +358,9 @@ public class HttpPageBufferClient
 
             try {
                 InputStreamSliceInput sliceInput = new InputStreamSliceInput(response.getInputStream());
+                if (mediaType.is(PRESTO_COMPRESSED_PAGES_TYPE)) {
+                    return PagesResponse.createPagesResponse(token, nextToken, ImmutableList.copyOf(PagesSerde.readCompressedPages(sliceInput)));
+                }
                 return PagesResponse.createPagesResponse(token, nextToken, ImmutableList.copyOf(PagesSerde.readPages(sliceInput)));
             }
             catch (IOException e) {
@@ -17,6 +17,7 @@ import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.DataSize;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -24,23 +25,68 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static com.facebook.presto.operator.Operator.NOT_BLOCKED;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
 
+/**
+ * Exchanges pages between the drivers of a task.  The exchange has one or more
+ * buffers, and each source operator reads from one buffer.  Sinks distribute
+ * pages between the buffers round robin, by hash of the partitioning channels,
+ * or write to a buffer per sink.
+ * <p>
+ * The pages in the buffers are reserved against the memory of the sink that
+ * added them, until they are removed from the exchange.  Sinks are blocked
+ * while the buffers they write to are full.
+ */
 public class InMemoryExchange
 {
+    public static final DataSize DEFAULT_MAX_BUFFERED_SIZE = new DataSize(8, MEGABYTE);
+
     private final List<TupleInfo> tupleInfos;
-    private final Queue<Page> buffer;
+    private final List<Queue<BufferedPage>> buffers;
+    private final boolean[] finishedBuffers;
+    private final long maxBufferedBytes;
+    private final long[] bufferedBytes;
+
     private final List<SettableFuture<?>> blockedCallers = new ArrayList<>();
     private boolean finishing;
     private boolean noMoreSinkFactories;
     private int sinkFactories;
     private int sinks;
 
+    private int nextBuffer;
+    private int nextSinkBuffer;
+    private int nextSourceBuffer;
+
     public InMemoryExchange(List<TupleInfo> tupleInfos)
+    {
+        this(tupleInfos, 1);
+    }
+
+    public InMemoryExchange(List<TupleInfo> tupleInfos, int bufferCount)
+    {
+        this(tupleInfos, bufferCount, DEFAULT_MAX_BUFFERED_SIZE);
+    }
+
+    /**
+     * @param maxBufferedSize the size of the pages in a buffer at which the sinks writing to the buffer are blocked
+     */
+    public InMemoryExchange(List<TupleInfo> tupleInfos, int bufferCount, DataSize maxBufferedSize)
     {
         this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
-        this.buffer = new ConcurrentLinkedQueue<>();
+        checkArgument(bufferCount > 0, "bufferCount must be at least 1");
+        this.maxBufferedBytes = checkNotNull(maxBufferedSize, "maxBufferedSize is null").toBytes();
+
+        ImmutableList.Builder<Queue<BufferedPage>> buffers = ImmutableList.builder();
+        for (int i = 0; i < bufferCount; i++) {
+            buffers.add(new ConcurrentLinkedQueue<BufferedPage>());
+        }
+        this.buffers = buffers.build();
+        this.finishedBuffers = new boolean[bufferCount];
+        this.bufferedBytes = new long[bufferCount];
     }
 
     public List<TupleInfo> getTupleInfos()
@@ -48,10 +94,39 @@ public class InMemoryExchange
         return tupleInfos;
     }
 
+    public int getBufferCount()
+    {
+        return buffers.size();
+    }
+
+    /**
+     * Creates a factory for sinks that distribute pages between the buffers round robin.
+     */
     public synchronized OperatorFactory createSinkFactory(int operatorId)
     {
         sinkFactories++;
-        return new InMemoryExchangeSinkOperatorFactory(operatorId);
+        return new InMemoryExchangeSinkOperatorFactory(operatorId, false, ImmutableList.<Integer>of());
+    }
+
+    /**
+     * Creates a factory for sinks that distribute rows between the buffers by the hash of the partitioning channels.
+     */
+    public synchronized OperatorFactory createHashPartitionedSinkFactory(int operatorId, List<Integer> partitionChannels)
+    {
+        checkNotNull(partitionChannels, "partitionChannels is null");
+        checkArgument(!partitionChannels.isEmpty(), "partitionChannels is empty");
+        sinkFactories++;
+        return new InMemoryExchangeSinkOperatorFactory(operatorId, false, partitionChannels);
+    }
+
+    /**
+     * Creates a factory for sinks that each write to their own buffer, so the order of the pages of every sink is preserved.
+     * These sinks are blocked while their own buffer is full.
+     */
+    public synchronized OperatorFactory createBufferPerSinkFactory(int operatorId)
+    {
+        sinkFactories++;
+        return new InMemoryExchangeSinkOperatorFactory(operatorId, true, ImmutableList.<Integer>of());
     }
 
     private synchronized void addSink()
@@ -60,6 +135,20 @@ public class InMemoryExchange
         sinks++;
     }
 
+    private synchronized int assignSinkBuffer()
+    {
+        int buffer = nextSinkBuffer;
+        nextSinkBuffer = (nextSinkBuffer + 1) % buffers.size();
+        return buffer;
+    }
+
+    synchronized int assignSourceBuffer()
+    {
+        int buffer = nextSourceBuffer;
+        nextSourceBuffer = (nextSourceBuffer + 1) % buffers.size();
+        return buffer;
+    }
+
     public synchronized void sinkFinished()
     {
         checkState(sinks != 0, "All sinks are already complete");
@@ -98,20 +187,123 @@ public class InMemoryExchange
         notifyBlockedCallers();
     }
 
+    /**
+     * Discards the pages of a buffer that is no longer read.  The exchange
+     * is finished when all buffers are finished.
+     */
+    public synchronized void finishBuffer(int buffer)
+    {
+        checkElementIndex(buffer, buffers.size(), "buffer");
+        finishedBuffers[buffer] = true;
+        for (BufferedPage bufferedPage = buffers.get(buffer).poll(); bufferedPage != null; bufferedPage = buffers.get(buffer).poll()) {
+            bufferedPage.free();
+        }
+        bufferedBytes[buffer] = 0;
+        notifyBlockedCallers();
+
+        for (boolean finishedBuffer : finishedBuffers) {
+            if (!finishedBuffer) {
+                return;
+            }
+        }
+        finish();
+    }
+
     public synchronized boolean isFinished()
     {
-        return finishing && buffer.isEmpty();
+        for (int buffer = 0; buffer < buffers.size(); buffer++) {
+            if (!isFinished(buffer)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public synchronized void addPage(Page page)
+    public synchronized boolean isFinished(int buffer)
     {
-        if (finishing) {
+        return finishedBuffers[buffer] || (finishing && buffers.get(buffer).isEmpty());
+    }
+
+    /**
+     * Adds the page to the next buffer in round robin order that is not full.
+     */
+    public synchronized void addPage(OperatorContext sinkContext, Page page)
+    {
+        for (int i = 0; i < buffers.size() && isFull(nextBuffer); i++) {
+            nextBuffer = (nextBuffer + 1) % buffers.size();
+        }
+        addPage(sinkContext, nextBuffer, page);
+        nextBuffer = (nextBuffer + 1) % buffers.size();
+    }
+
+    /**
+     * Adds the page to the buffer.  The memory of the page is reserved by the
+     * sink until the page is removed from the exchange.
+     */
+    public synchronized void addPage(OperatorContext sinkContext, int buffer, Page page)
+    {
+        checkNotNull(sinkContext, "sinkContext is null");
+        if (finishing || finishedBuffers[buffer]) {
             return;
         }
-        buffer.add(page);
+        // the buffers are bounded, so the reservation only fails when the rest of the task already holds most of the memory
+        BufferedPage bufferedPage = new BufferedPage(sinkContext, page);
+        checkState(sinkContext.reserveMemory(bufferedPage.getBytes()), "Task exceeded max memory size of %s", sinkContext.getMaxMemorySize());
+        buffers.get(buffer).add(bufferedPage);
+        bufferedBytes[buffer] += bufferedPage.getBytes();
         notifyBlockedCallers();
     }
 
+    private boolean isFull(int buffer)
+    {
+        return bufferedBytes[buffer] >= maxBufferedBytes;
+    }
+
+    /**
+     * @return a future that is done when a page can be added to any buffer
+     */
+    public synchronized ListenableFuture<?> waitForAnyNotFull()
+    {
+        for (int buffer = 0; buffer < buffers.size(); buffer++) {
+            if (!isFull(buffer)) {
+                return NOT_BLOCKED;
+            }
+        }
+        return waitForNotFull();
+    }
+
+    /**
+     * @return a future that is done when a page can be added to every buffer
+     */
+    public synchronized ListenableFuture<?> waitForAllNotFull()
+    {
+        for (int buffer = 0; buffer < buffers.size(); buffer++) {
+            if (isFull(buffer)) {
+                return waitForNotFull();
+            }
+        }
+        return NOT_BLOCKED;
+    }
+
+    /**
+     * @return a future that is done when a page can be added to the buffer
+     */
+    public synchronized ListenableFuture<?> waitForNotFull(int buffer)
+    {
+        if (finishedBuffers[buffer] || !isFull(buffer)) {
+            return NOT_BLOCKED;
+        }
+        return waitForNotFull();
+    }
+
+    private synchronized ListenableFuture<?> waitForNotFull()
+    {
+        if (finishing) {
+            return NOT_BLOCKED;
+        }
+        return addBlockedCaller();
+    }
+
     private synchronized void notifyBlockedCallers()
     {
         for (SettableFuture<?> blockedCaller : blockedCallers) {
@@ -120,30 +312,91 @@ public class InMemoryExchange
         blockedCallers.clear();
     }
 
-    public synchronized ListenableFuture<?> waitForNotEmpty()
+    public synchronized ListenableFuture<?> waitForNotEmpty(int buffer)
+    {
+        if (finishing || finishedBuffers[buffer] || !buffers.get(buffer).isEmpty()) {
+            return NOT_BLOCKED;
+        }
+        return addBlockedCaller();
+    }
+
+    public synchronized ListenableFuture<?> waitForFinishing()
     {
-        if (finishing || !buffer.isEmpty()) {
+        if (finishing) {
             return NOT_BLOCKED;
         }
+        return addBlockedCaller();
+    }
+
+    private synchronized ListenableFuture<?> addBlockedCaller()
+    {
         SettableFuture<?> settableFuture = SettableFuture.create();
         blockedCallers.add(settableFuture);
         return settableFuture;
     }
 
-    public synchronized Page removePage()
+    /**
+     * Removes the next page of the buffer and frees its memory in the sink that added it.
+     *
+     * @return the page, or null if the buffer is empty
+     */
+    public synchronized Page removePage(int buffer)
+    {
+        BufferedPage bufferedPage = buffers.get(buffer).poll();
+        if (bufferedPage == null) {
+            return null;
+        }
+        boolean wasFull = isFull(buffer);
+        bufferedBytes[buffer] -= bufferedPage.getBytes();
+        bufferedPage.free();
+        if (wasFull && !isFull(buffer)) {
+            notifyBlockedCallers();
+        }
+        return bufferedPage.getPage();
+    }
+
+    private static class BufferedPage
     {
-        return buffer.poll();
+        private final OperatorContext sinkContext;
+        private final Page page;
+        private final long bytes;
+
+        private BufferedPage(OperatorContext sinkContext, Page page)
+        {
+            this.sinkContext = sinkContext;
+            this.page = checkNotNull(page, "page is null");
+            this.bytes = page.getDataSize().toBytes();
+        }
+
+        public Page getPage()
+        {
+            return page;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        public void free()
+        {
+            sinkContext.freeMemory(bytes);
+        }
     }
 
     private class InMemoryExchangeSinkOperatorFactory
             implements OperatorFactory
     {
         private final int operatorId;
+        private final boolean bufferPerSink;
+        private final List<Integer> partitionChannels;
         private boolean closed;
 
-        private InMemoryExchangeSinkOperatorFactory(int operatorId)
+        private InMemoryExchangeSinkOperatorFactory(int operatorId, boolean bufferPerSink, List<Integer> partitionChannels)
         {
             this.operatorId = operatorId;
+            this.bufferPerSink = bufferPerSink;
+            this.partitionChannels = ImmutableList.copyOf(partitionChannels);
         }
 
         @Override
@@ -158,7 +411,8 @@ public class InMemoryExchange
             checkState(!closed, "Factory is already closed");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, InMemoryExchangeSinkOperator.class.getSimpleName());
             addSink();
-            return new InMemoryExchangeSinkOperator(operatorContext, InMemoryExchange.this);
+            int sinkBuffer = bufferPerSink ? assignSinkBuffer() : -1;
+            return new InMemoryExchangeSinkOperator(operatorContext, InMemoryExchange.this, sinkBuffer, partitionChannels);
         }
 
         @Override
@@ -0,0 +1,315 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Merges the sorted pages in the buffers of an {@link InMemoryExchange}, which
+ * combines the output of a sort running in several drivers.  The merge streams
+ * the pages out of the buffers, and holds only the current page of each buffer.
+ * It is blocked while any buffer that is not finished has no page to merge.
+ */
+public class InMemoryExchangeMergeOperator
+        implements Operator
+{
+    public static class InMemoryExchangeMergeOperatorFactory
+            implements OperatorFactory
+    {
+        private final int operatorId;
+        private final InMemoryExchange inMemoryExchange;
+        private final int[] sortChannels;
+        private final SortOrder[] sortOrders;
+        private boolean closed;
+
+        public InMemoryExchangeMergeOperatorFactory(int operatorId, InMemoryExchange inMemoryExchange, int[] sortChannels, SortOrder[] sortOrders)
+        {
+            this.operatorId = operatorId;
+            this.inMemoryExchange = checkNotNull(inMemoryExchange, "inMemoryExchange is null");
+            this.sortChannels = checkNotNull(sortChannels, "sortChannels is null").clone();
+            this.sortOrders = checkNotNull(sortOrders, "sortOrders is null").clone();
+            checkArgument(sortChannels.length == sortOrders.length, "sortChannels and sortOrders have different sizes");
+        }
+
+        @Override
+        public List<TupleInfo> getTupleInfos()
+        {
+            return inMemoryExchange.getTupleInfos();
+        }
+
+        @Override
+        public Operator createOperator(DriverContext driverContext)
+        {
+            checkState(!closed, "Factory is already closed");
+            OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, InMemoryExchangeMergeOperator.class.getSimpleName());
+            return new InMemoryExchangeMergeOperator(operatorContext, inMemoryExchange, sortChannels, sortOrders);
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+
+    private final OperatorContext operatorContext;
+    private final InMemoryExchange exchange;
+    private final PageBuilder pageBuilder;
+    private final PriorityQueue<BufferCursor> queue;
+    private final List<BufferCursor> waitingCursors = new ArrayList<>();
+
+    private long memoryReservation;
+    private boolean finished;
+
+    public InMemoryExchangeMergeOperator(OperatorContext operatorContext, InMemoryExchange exchange, final int[] sortChannels, final SortOrder[] sortOrders)
+    {
+        this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.exchange = checkNotNull(exchange, "exchange is null");
+        checkNotNull(sortChannels, "sortChannels is null");
+        checkNotNull(sortOrders, "sortOrders is null");
+        this.pageBuilder = new PageBuilder(exchange.getTupleInfos());
+
+        Comparator<BufferCursor> comparator = new Comparator<BufferCursor>()
+        {
+            @Override
+            public int compare(BufferCursor left, BufferCursor right)
+            {
+                for (int i = 0; i < sortChannels.length; i++) {
+                    BlockCursor leftCursor = left.getCursor(sortChannels[i]);
+                    BlockCursor rightCursor = right.getCursor(sortChannels[i]);
+                    int compare = ChannelIndex.compare(
+                            leftCursor.getTupleInfo(),
+                            sortOrders[i],
+                            leftCursor.getRawSlice(),
+                            leftCursor.getRawOffset(),
+                            rightCursor.getRawSlice(),
+                            rightCursor.getRawOffset());
+                    if (compare != 0) {
+                        return compare;
+                    }
+                }
+                return 0;
+            }
+        };
+        this.queue = new PriorityQueue<>(exchange.getBufferCount(), comparator);
+
+        // no row can be merged before every buffer has a page or is finished
+        for (int buffer = 0; buffer < exchange.getBufferCount(); buffer++) {
+            waitingCursors.add(new BufferCursor(buffer));
+        }
+    }
+
+    @Override
+    public OperatorContext getOperatorContext()
+    {
+        return operatorContext;
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return exchange.getTupleInfos();
+    }
+
+    @Override
+    public void finish()
+    {
+        finished = true;
+        queue.clear();
+        waitingCursors.clear();
+        for (int buffer = 0; buffer < exchange.getBufferCount(); buffer++) {
+            exchange.finishBuffer(buffer);
+        }
+        memoryReservation = 0;
+        operatorContext.setMemoryReservation(0);
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        if (!finished && waitingCursors.isEmpty() && queue.isEmpty()) {
+            finished = true;
+            memoryReservation = 0;
+            operatorContext.setMemoryReservation(0);
+        }
+        return finished;
+    }
+
+    @Override
+    public ListenableFuture<?> isBlocked()
+    {
+        for (BufferCursor cursor : waitingCursors) {
+            ListenableFuture<?> blocked = exchange.waitForNotEmpty(cursor.getBuffer());
+            if (!blocked.isDone()) {
+                return blocked;
+            }
+        }
+        return NOT_BLOCKED;
+    }
+
+    @Override
+    public boolean needsInput()
+    {
+        return false;
+    }
+
+    @Override
+    public void addInput(Page page)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Page getOutput()
+    {
+        if (finished) {
+            return null;
+        }
+
+        for (Iterator<BufferCursor> iterator = waitingCursors.iterator(); iterator.hasNext(); ) {
+            if (loadNextPage(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        if (!waitingCursors.isEmpty()) {
+            return null;
+        }
+
+        // the merge stops at a buffer without pages, since its next row may sort before the rows of the other buffers
+        while (!pageBuilder.isFull() && !queue.isEmpty()) {
+            BufferCursor cursor = queue.poll();
+            cursor.appendTo(pageBuilder);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            else if (!loadNextPage(cursor)) {
+                waitingCursors.add(cursor);
+                break;
+            }
+        }
+
+        if (pageBuilder.isEmpty()) {
+            return null;
+        }
+        Page page = pageBuilder.build();
+        pageBuilder.reset();
+        return page;
+    }
+
+    /**
+     * Replaces the exhausted page of the cursor with the next page of its buffer.
+     *
+     * @return false if the buffer has no page yet, and is not finished
+     */
+    private boolean loadNextPage(BufferCursor cursor)
+    {
+        while (true) {
+            setPage(cursor, null);
+            Page page = exchange.removePage(cursor.getBuffer());
+            if (page == null) {
+                return exchange.isFinished(cursor.getBuffer());
+            }
+            operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
+
+            // the memory of the page moves from the sink to the merge
+            setPage(cursor, page);
+            if (cursor.advance()) {
+                queue.add(cursor);
+                return true;
+            }
+        }
+    }
+
+    private void setPage(BufferCursor cursor, Page page)
+    {
+        long delta = cursor.setPage(page);
+        if (delta != 0) {
+            memoryReservation += delta;
+            operatorContext.setMemoryReservation(memoryReservation);
+        }
+    }
+
+    private static class BufferCursor
+    {
+        private final int buffer;
+        private BlockCursor[] cursors;
+        private long pageBytes;
+
+        private BufferCursor(int buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        public int getBuffer()
+        {
+            return buffer;
+        }
+
+        public BlockCursor getCursor(int channel)
+        {
+            return cursors[channel];
+        }
+
+        /**
+         * @return the change in the size of the pages held by the cursor
+         */
+        public long setPage(Page page)
+        {
+            long oldPageBytes = pageBytes;
+            if (page == null) {
+                cursors = null;
+                pageBytes = 0;
+            }
+            else {
+                cursors = new BlockCursor[page.getChannelCount()];
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    cursors[channel] = page.getBlock(channel).cursor();
+                }
+                pageBytes = page.getDataSize().toBytes();
+            }
+            return pageBytes - oldPageBytes;
+        }
+
+        public boolean advance()
+        {
+            if (cursors == null) {
+                return false;
+            }
+            boolean advanced = true;
+            for (BlockCursor cursor : cursors) {
+                advanced = cursor.advanceNextPosition() && advanced;
+            }
+            return advanced;
+        }
+
+        public void appendTo(PageBuilder pageBuilder)
+        {
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+        }
+    }
+}
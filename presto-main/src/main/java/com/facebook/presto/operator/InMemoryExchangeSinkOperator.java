@@ -13,11 +13,16 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
 
+import static com.facebook.presto.operator.HashStrategyUtils.addToHashCode;
+import static com.facebook.presto.operator.HashStrategyUtils.hashPartition;
+import static com.facebook.presto.operator.HashStrategyUtils.valueHashCode;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -26,12 +31,36 @@ public class InMemoryExchangeSinkOperator
 {
     private final OperatorContext operatorContext;
     private final InMemoryExchange inMemoryExchange;
+    private final int sinkBuffer;
+    private final List<Integer> partitionChannels;
+    private final PageBuilder[] partitionPageBuilders;
     private boolean finished;
 
     InMemoryExchangeSinkOperator(OperatorContext operatorContext, InMemoryExchange inMemoryExchange)
+    {
+        this(operatorContext, inMemoryExchange, -1, ImmutableList.<Integer>of());
+    }
+
+    /**
+     * @param sinkBuffer the buffer for all pages of this sink, or -1 to distribute the pages between the buffers
+     * @param partitionChannels channels used to hash partition the rows between the buffers, or empty to distribute pages round robin
+     */
+    InMemoryExchangeSinkOperator(OperatorContext operatorContext, InMemoryExchange inMemoryExchange, int sinkBuffer, List<Integer> partitionChannels)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.inMemoryExchange = checkNotNull(inMemoryExchange, "inMemoryExchange is null");
+        this.sinkBuffer = sinkBuffer;
+        this.partitionChannels = ImmutableList.copyOf(checkNotNull(partitionChannels, "partitionChannels is null"));
+
+        if (!partitionChannels.isEmpty() && inMemoryExchange.getBufferCount() > 1) {
+            partitionPageBuilders = new PageBuilder[inMemoryExchange.getBufferCount()];
+            for (int buffer = 0; buffer < partitionPageBuilders.length; buffer++) {
+                partitionPageBuilders[buffer] = new PageBuilder(inMemoryExchange.getTupleInfos());
+            }
+        }
+        else {
+            partitionPageBuilders = null;
+        }
     }
 
     @Override
@@ -67,13 +96,27 @@ public class InMemoryExchangeSinkOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
-        return NOT_BLOCKED;
+        // partitioned pages go to every buffer, while other pages go to any buffer that is not full
+        ListenableFuture<?> blocked;
+        if (sinkBuffer >= 0) {
+            blocked = inMemoryExchange.waitForNotFull(sinkBuffer);
+        }
+        else if (partitionPageBuilders != null) {
+            blocked = inMemoryExchange.waitForAllNotFull();
+        }
+        else {
+            blocked = inMemoryExchange.waitForAnyNotFull();
+        }
+        if (blocked.isDone()) {
+            return NOT_BLOCKED;
+        }
+        return blocked;
     }
 
     @Override
     public boolean needsInput()
     {
-        return !isFinished();
+        return !isFinished() && isBlocked().isDone();
     }
 
     @Override
@@ -81,10 +124,57 @@ public class InMemoryExchangeSinkOperator
     {
         checkNotNull(page, "page is null");
         checkState(!finished, "Already finished");
-        inMemoryExchange.addPage(page);
+        if (partitionPageBuilders != null) {
+            partitionPage(page);
+        }
+        else if (sinkBuffer >= 0) {
+            inMemoryExchange.addPage(operatorContext, sinkBuffer, page);
+        }
+        else {
+            inMemoryExchange.addPage(operatorContext, page);
+        }
         operatorContext.recordGeneratedOutput(page.getDataSize(), page.getPositionCount());
     }
 
+    private void partitionPage(Page page)
+    {
+        BlockCursor[] cursors = new BlockCursor[page.getChannelCount()];
+        for (int channel = 0; channel < cursors.length; channel++) {
+            cursors[channel] = page.getBlock(channel).cursor();
+        }
+
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            for (BlockCursor cursor : cursors) {
+                checkState(cursor.advanceNextPosition());
+            }
+
+            PageBuilder pageBuilder = partitionPageBuilders[getPartition(cursors)];
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+        }
+
+        // pages are not held across calls, since the sink may be finished at any time
+        for (int buffer = 0; buffer < partitionPageBuilders.length; buffer++) {
+            PageBuilder pageBuilder = partitionPageBuilders[buffer];
+            if (!pageBuilder.isEmpty()) {
+                inMemoryExchange.addPage(operatorContext, buffer, pageBuilder.build());
+                pageBuilder.reset();
+            }
+        }
+    }
+
+    private int getPartition(BlockCursor[] cursors)
+    {
+        // rows are hashed like the rows of a join hash, so a hash build can be partitioned by the exchange
+        int hashCode = 0;
+        for (int channel : partitionChannels) {
+            BlockCursor cursor = cursors[channel];
+            hashCode = addToHashCode(hashCode, valueHashCode(cursor.getTupleInfo().getType(), cursor.getRawSlice(), cursor.getRawOffset()));
+        }
+        return hashPartition(hashCode, partitionPageBuilders.length);
+    }
+
     @Override
     public Page getOutput()
     {
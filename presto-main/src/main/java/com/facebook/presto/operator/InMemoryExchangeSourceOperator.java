@@ -18,6 +18,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
 
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -48,7 +49,7 @@ public class InMemoryExchangeSourceOperator
         {
             checkState(!closed, "Factory is already closed");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, InMemoryExchangeSourceOperator.class.getSimpleName());
-            return new InMemoryExchangeSourceOperator(operatorContext, inMemoryExchange);
+            return new InMemoryExchangeSourceOperator(operatorContext, inMemoryExchange, inMemoryExchange.assignSourceBuffer());
         }
 
         @Override
@@ -60,11 +61,19 @@ public class InMemoryExchangeSourceOperator
 
     private final OperatorContext operatorContext;
     private final InMemoryExchange exchange;
+    private final int buffer;
 
     public InMemoryExchangeSourceOperator(OperatorContext operatorContext, InMemoryExchange exchange)
+    {
+        this(operatorContext, exchange, 0);
+    }
+
+    public InMemoryExchangeSourceOperator(OperatorContext operatorContext, InMemoryExchange exchange, int buffer)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.exchange = checkNotNull(exchange, "exchange is null");
+        checkElementIndex(buffer, exchange.getBufferCount(), "buffer");
+        this.buffer = buffer;
     }
 
     @Override
@@ -82,19 +91,19 @@ public class InMemoryExchangeSourceOperator
     @Override
     public void finish()
     {
-        exchange.finish();
+        exchange.finishBuffer(buffer);
     }
 
     @Override
     public boolean isFinished()
     {
-        return exchange.isFinished();
+        return exchange.isFinished(buffer);
     }
 
     @Override
     public ListenableFuture<?> isBlocked()
     {
-        ListenableFuture<?> blocked = exchange.waitForNotEmpty();
+        ListenableFuture<?> blocked = exchange.waitForNotEmpty(buffer);
         if (blocked.isDone()) {
             return NOT_BLOCKED;
         }
@@ -116,7 +125,7 @@ public class InMemoryExchangeSourceOperator
     @Override
     public Page getOutput()
     {
-        Page page = exchange.removePage();
+        Page page = exchange.removePage(buffer);
         if (page != null) {
             operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
         }
@@ -16,13 +16,7 @@ package com.facebook.presto.operator;
 import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.collect.ImmutableList;
-import com.google.common.primitives.Ints;
-import io.airlift.units.DataSize;
-import io.airlift.units.DataSize.Unit;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
-import it.unimi.dsi.fastutil.longs.LongHash;
-import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
+import it.unimi.dsi.fastutil.HashCommon;
 
 import java.util.Arrays;
 import java.util.List;
@@ -31,222 +25,236 @@ import static com.facebook.presto.operator.HashStrategyUtils.addToHashCode;
 import static com.facebook.presto.operator.HashStrategyUtils.valueHashCode;
 import static io.airlift.slice.SizeOf.sizeOf;
 
+/**
+ * Open addressing hash over the positions of a {@link PagesIndex}.  The hash
+ * code of every build position is computed once and stored, so rehash and
+ * collision resolution never touch the indexed slices.  Positions with the
+ * same key are chained through {@code positionLinks}.  A small bloom filter
+ * over the build hash codes lets probe rows that can not match skip the
+ * table lookup entirely.
+ * <p/>
+ * The build arrays are immutable once constructed and are shared by all
+ * copies of the hash; each copy only owns its probe cursors.
+ */
 public class JoinHash
+        implements LookupSource
 {
-    private static final long CURRENT_ROW_ADDRESS = 0xFF_FF_FF_FF_FF_FF_FF_FFL;
+    private static final float FILL_RATIO = 0.75f;
+
+    // eight bits per build position gives a false positive rate of about 5% with two bits per key
+    private static final int BLOOM_FILTER_BITS_PER_POSITION = 8;
 
     private final PagesIndex pagesIndex;
-    private final PagesHashStrategy hashStrategy;
-    private final AddressToPositionMap addressToPositionMap;
-    private final IntArrayList positionLinks;
+    private final List<Type> types;
+    private final List<ChannelIndex> channels;
+
+    private final int mask;
+    private final int[] key;
+    private final int[] positionHashes;
+    private final int[] positionLinks;
+
+    private final int bloomFilterMask;
+    private final long[] bloomFilter;
+
+    private final BlockCursor[] joinCursors;
 
     public JoinHash(PagesIndex pagesIndex, List<Integer> hashChannels, OperatorContext operatorContext)
     {
         this.pagesIndex = pagesIndex;
-        this.hashStrategy = new PagesHashStrategy(pagesIndex, hashChannels);
-        this.addressToPositionMap = new AddressToPositionMap(pagesIndex.getPositionCount(), hashStrategy);
-        this.positionLinks = new IntArrayList(new int[pagesIndex.getPositionCount()]);
-        Arrays.fill(positionLinks.elements(), -1);
+
+        ImmutableList.Builder<Type> types = ImmutableList.builder();
+        ImmutableList.Builder<ChannelIndex> channels = ImmutableList.builder();
+        for (int channel : hashChannels) {
+            types.add(pagesIndex.getTupleInfo(channel).getType());
+            channels.add(pagesIndex.getIndex(channel));
+        }
+        this.types = types.build();
+        this.channels = channels.build();
+        this.joinCursors = new BlockCursor[hashChannels.size()];
+
+        int positionCount = pagesIndex.getPositionCount();
+
+        int hashSize = HashCommon.arraySize(positionCount, FILL_RATIO);
+        this.mask = hashSize - 1;
+        this.key = new int[hashSize];
+        Arrays.fill(key, -1);
+
+        this.positionHashes = new int[positionCount];
+        this.positionLinks = new int[positionCount];
+        Arrays.fill(positionLinks, -1);
+
+        int bloomFilterSize = HashCommon.arraySize(Math.max(1, (positionCount * BLOOM_FILTER_BITS_PER_POSITION) / Long.SIZE), 1.0f);
+        this.bloomFilterMask = bloomFilterSize - 1;
+        this.bloomFilter = new long[bloomFilterSize];
+
+        operatorContext.setMemoryReservation(getEstimatedSize());
 
         // index pages
-        for (int position = 0; position < pagesIndex.getPositionCount(); position++) {
-            operatorContext.setMemoryReservation(getEstimatedSize());
-
-            // address and position are the same thing on this side
-            // todo we should be able to do this with a set but fast utils doesn't have anything like that
-            int oldPosition = addressToPositionMap.put(position, position);
-            if (oldPosition >= 0) {
-                // link the new position to the old position
-                positionLinks.set(position, oldPosition);
+        for (int position = 0; position < positionCount; position++) {
+            // null values will never match in an equijoin, so they are left out of the hash
+            if (positionContainsNull(position)) {
+                continue;
             }
+
+            int hash = hashPosition(position);
+            positionHashes[position] = hash;
+            addToBloomFilter(hash);
+
+            int pos = HashCommon.murmurHash3(hash) & mask;
+            while (key[pos] != -1) {
+                int currentKey = key[pos];
+                if (positionHashes[currentKey] == hash && positionEqualsPosition(currentKey, position)) {
+                    // link the new position to the old position
+                    positionLinks[position] = currentKey;
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            key[pos] = position;
         }
     }
 
     public JoinHash(JoinHash joinHash)
     {
-        this.positionLinks = joinHash.positionLinks;
         this.pagesIndex = joinHash.pagesIndex;
-        this.hashStrategy = new PagesHashStrategy(joinHash.hashStrategy);
-        this.addressToPositionMap = new AddressToPositionMap(joinHash.addressToPositionMap, hashStrategy);
+        this.types = joinHash.types;
+        this.channels = joinHash.channels;
+        this.mask = joinHash.mask;
+        this.key = joinHash.key;
+        this.positionHashes = joinHash.positionHashes;
+        this.positionLinks = joinHash.positionLinks;
+        this.bloomFilterMask = joinHash.bloomFilterMask;
+        this.bloomFilter = joinHash.bloomFilter;
+        this.joinCursors = new BlockCursor[types.size()];
     }
 
     public long getEstimatedSize()
     {
-        return pagesIndex.getEstimatedSize().toBytes() + addressToPositionMap.getEstimatedSize().toBytes() + sizeOf(positionLinks.elements());
+        return pagesIndex.getEstimatedSize().toBytes() + sizeOf(key) + sizeOf(positionHashes) + sizeOf(positionLinks) + sizeOf(bloomFilter);
     }
 
+    @Override
     public int getChannelCount()
     {
         return pagesIndex.getTupleInfos().size();
     }
 
+    @Override
     public void setProbeCursors(BlockCursor[] cursors, int[] probeJoinChannels)
     {
-        hashStrategy.setProbeCursors(cursors, probeJoinChannels);
-    }
-
-    public int getJoinPosition()
-    {
-        int position = addressToPositionMap.get(CURRENT_ROW_ADDRESS);
-        return position;
+        for (int i = 0; i < probeJoinChannels.length; i++) {
+            int probeJoinChannel = probeJoinChannels[i];
+            joinCursors[i] = cursors[probeJoinChannel];
+        }
     }
 
-    public int getNextJoinPosition(int currentPosition)
+    @Override
+    public long getJoinPosition()
     {
-        return positionLinks.getInt(currentPosition);
+        return getJoinPosition(hashCurrentRow());
     }
 
-    public void appendTupleTo(int position, PageBuilder pageBuilder, int outputChannelOffset)
+    /**
+     * Returns the join position of the current probe row, given the hash of the row.
+     */
+    int getJoinPosition(int hash)
     {
-        for (int channel = 0; channel < getChannelCount(); channel++) {
-            pagesIndex.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(outputChannelOffset + channel));
+        if (!bloomFilterMightContain(hash)) {
+            return -1;
         }
-    }
 
-    private static class PagesHashStrategy
-            implements Strategy
-    {
-        private final List<Type> types;
-        private final List<ChannelIndex> channels;
-        private final BlockCursor[] joinCursors;
-
-        private PagesHashStrategy(PagesIndex pagesIndex, List<Integer> hashChannels)
-        {
-            ImmutableList.Builder<Type> types = ImmutableList.builder();
-            ImmutableList.Builder<ChannelIndex> channels = ImmutableList.builder();
-            for (int channel : hashChannels) {
-                types.add(pagesIndex.getTupleInfo(channel).getType());
-                channels.add(pagesIndex.getIndex(channel));
+        int pos = HashCommon.murmurHash3(hash) & mask;
+        while (key[pos] != -1) {
+            int position = key[pos];
+            if (positionHashes[position] == hash && positionEqualsCurrentRow(position)) {
+                return position;
             }
-            this.types = types.build();
-            this.channels = channels.build();
-            this.joinCursors = new BlockCursor[hashChannels.size()];
+            pos = (pos + 1) & mask;
         }
+        return -1;
+    }
 
-        private PagesHashStrategy(PagesHashStrategy pagesHashStrategy)
-        {
-            this.types = pagesHashStrategy.types;
-            this.channels = pagesHashStrategy.channels;
-            this.joinCursors = new BlockCursor[types.size()];
-        }
+    @Override
+    public long getNextJoinPosition(long currentPosition)
+    {
+        return positionLinks[(int) currentPosition];
+    }
 
-        public void setProbeCursors(BlockCursor[] cursors, int[] probeJoinChannels)
-        {
-            for (int i = 0; i < probeJoinChannels.length; i++) {
-                int probeJoinChannel = probeJoinChannels[i];
-                joinCursors[i] = cursors[probeJoinChannel];
-            }
+    @Override
+    public void appendTupleTo(long position, PageBuilder pageBuilder, int outputChannelOffset)
+    {
+        for (int channel = 0; channel < getChannelCount(); channel++) {
+            pagesIndex.appendTupleTo(channel, (int) position, pageBuilder.getBlockBuilder(outputChannelOffset + channel));
         }
+    }
 
-        @Override
-        public int hashCode(long address)
-        {
-            if (address == CURRENT_ROW_ADDRESS) {
-                return hashCurrentRow();
-            }
-            else {
-                return hashPosition(address);
-            }
-        }
+    private void addToBloomFilter(int hash)
+    {
+        long bloomHash = HashCommon.murmurHash3((long) hash);
+        bloomFilter[(int) bloomHash & bloomFilterMask] |= bloomFilterBits(bloomHash);
+    }
 
-        private int hashPosition(long address)
-        {
-            int position = Ints.checkedCast(address);
+    private boolean bloomFilterMightContain(int hash)
+    {
+        long bloomHash = HashCommon.murmurHash3((long) hash);
+        long bits = bloomFilterBits(bloomHash);
+        return (bloomFilter[(int) bloomHash & bloomFilterMask] & bits) == bits;
+    }
 
-            int result = 0;
-            for (ChannelIndex hashChannel : channels) {
-                result = addToHashCode(result, hashChannel.hashCode(position));
-            }
-            return result;
-        }
+    private static long bloomFilterBits(long bloomHash)
+    {
+        // both bits come from the high bits of the hash, which are not used to select the word
+        return (1L << (bloomHash >>> 58)) | (1L << ((bloomHash >>> 52) & 63));
+    }
 
-        private int hashCurrentRow()
-        {
-            int result = 0;
-            for (int channel = 0; channel < types.size(); channel++) {
-                Type type = types.get(channel);
-                BlockCursor cursor = joinCursors[channel];
-                result = addToHashCode(result, valueHashCode(type, cursor.getRawSlice(), cursor.getRawOffset()));
-            }
-            return result;
+    private int hashPosition(int position)
+    {
+        int result = 0;
+        for (ChannelIndex hashChannel : channels) {
+            result = addToHashCode(result, hashChannel.hashCode(position));
         }
+        return result;
+    }
 
-        @Override
-        public boolean equals(long leftAddress, long rightAddress)
-        {
-            // current row always equals itself
-            if (leftAddress == CURRENT_ROW_ADDRESS && rightAddress == CURRENT_ROW_ADDRESS) {
-                return true;
-            }
-
-            // current row == position
-            if (leftAddress == CURRENT_ROW_ADDRESS) {
-                return positionEqualsCurrentRow(Ints.saturatedCast(rightAddress));
-            }
-
-            // position == current row
-            if (rightAddress == CURRENT_ROW_ADDRESS) {
-                return positionEqualsCurrentRow(Ints.saturatedCast(leftAddress));
-            }
-
-            // position == position
-            return positionEqualsPosition(Ints.saturatedCast(leftAddress), Ints.saturatedCast(rightAddress));
+    int hashCurrentRow()
+    {
+        int result = 0;
+        for (int channel = 0; channel < types.size(); channel++) {
+            Type type = types.get(channel);
+            BlockCursor cursor = joinCursors[channel];
+            result = addToHashCode(result, valueHashCode(type, cursor.getRawSlice(), cursor.getRawOffset()));
         }
+        return result;
+    }
 
-        public boolean positionEqualsPosition(int thisPosition, int thatPosition)
-        {
-            if (thisPosition == thatPosition) {
+    private boolean positionContainsNull(int position)
+    {
+        for (ChannelIndex hashChannel : channels) {
+            if (hashChannel.isNull(position)) {
                 return true;
             }
-
-            for (ChannelIndex hashChannel : channels) {
-                if (!hashChannel.equals(thisPosition, thatPosition)) {
-                    return false;
-                }
-            }
-            return true;
         }
+        return false;
+    }
 
-        private boolean positionEqualsCurrentRow(int position)
-        {
-            for (int i = 0; i < channels.size(); i++) {
-                ChannelIndex channelIndex = channels.get(i);
-                if (!channelIndex.equals(position, joinCursors[i])) {
-                    return false;
-                }
+    private boolean positionEqualsPosition(int thisPosition, int thatPosition)
+    {
+        for (ChannelIndex hashChannel : channels) {
+            if (!hashChannel.equals(thisPosition, thatPosition)) {
+                return false;
             }
-            return true;
         }
+        return true;
     }
 
-    private static class AddressToPositionMap
-            extends Long2IntOpenCustomHashMap
+    private boolean positionEqualsCurrentRow(int position)
     {
-        private AddressToPositionMap(int expected, LongHash.Strategy strategy)
-        {
-            super(expected, strategy);
-            defaultReturnValue(-1);
-        }
-
-        private AddressToPositionMap(AddressToPositionMap map, LongHash.Strategy strategy)
-        {
-            // this is super expensive
-            super(0, DEFAULT_LOAD_FACTOR, strategy);
-            key = map.key;
-            value = map.value;
-            used = map.used;
-
-            n = map.n;
-            maxFill = map.maxFill;
-            mask = map.mask;
-            size = map.size;
-
-            defaultReturnValue(-1);
-        }
-
-        public DataSize getEstimatedSize()
-        {
-            return new DataSize(sizeOf(this.key) + sizeOf(this.value) + sizeOf(this.used), Unit.BYTE);
+        for (int i = 0; i < channels.size(); i++) {
+            ChannelIndex channelIndex = channels.get(i);
+            if (!channelIndex.equals(position, joinCursors[i])) {
+                return false;
+            }
         }
+        return true;
     }
 }
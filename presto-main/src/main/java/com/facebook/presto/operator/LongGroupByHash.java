@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo.Type;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * Group by hash for a single BIGINT or DOUBLE channel.  Values are compared by
+ * their long bits in an open addressing table of primitive arrays, so a probe
+ * does not go through a block cursor or a hash strategy.
+ */
+public class LongGroupByHash
+        implements GroupByHash
+{
+    private static final float FILL_RATIO = 0.75f;
+
+    private final Type type;
+    private final int channel;
+
+    private int mask;
+    private long[] values;
+    private int[] groupIds;
+    private int maxFill;
+    private int hashSize;
+
+    private final LongArrayList valuesByGroupId;
+    private int nullGroupId = -1;
+    private int nextGroupId;
+
+    public static boolean isSupported(Type type)
+    {
+        return type == Type.FIXED_INT_64 || type == Type.DOUBLE;
+    }
+
+    public LongGroupByHash(Type type, int channel, int expectedSize)
+    {
+        this.type = checkNotNull(type, "type is null");
+        checkArgument(isSupported(type), "Unsupported type %s", type);
+        checkArgument(channel >= 0, "channel is negative");
+        checkArgument(expectedSize > 0, "expectedSize must be greater than zero");
+        this.channel = channel;
+
+        int hashCapacity = HashCommon.arraySize(expectedSize, FILL_RATIO);
+        this.maxFill = HashCommon.maxFill(hashCapacity, FILL_RATIO);
+        this.mask = hashCapacity - 1;
+        this.values = new long[hashCapacity];
+        this.groupIds = new int[hashCapacity];
+        Arrays.fill(groupIds, -1);
+
+        this.valuesByGroupId = new LongArrayList(maxFill);
+    }
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return sizeOf(values) + sizeOf(groupIds) + sizeOf(valuesByGroupId.elements());
+    }
+
+    @Override
+    public List<Type> getTypes()
+    {
+        return ImmutableList.of(type);
+    }
+
+    @Override
+    public int getGroupCount()
+    {
+        return nextGroupId;
+    }
+
+    @Override
+    public GroupByIdBlock getGroupIds(Page page)
+    {
+        int positionCount = page.getPositionCount();
+
+        int groupIdBlockSize = SINGLE_LONG.getFixedSize() * positionCount;
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_LONG, groupIdBlockSize, Slices.allocate(groupIdBlockSize).getOutput());
+
+        Block block = page.getBlock(channel);
+        if (block instanceof RunLengthEncodedBlock) {
+            int groupId = getGroupId(((RunLengthEncodedBlock) block).getValue());
+            for (int position = 0; position < positionCount; position++) {
+                blockBuilder.append(groupId);
+            }
+        }
+        else if (block instanceof DictionaryEncodedBlock) {
+            Dictionary dictionary = ((DictionaryEncodedBlock) block).getDictionary();
+            int[] dictionaryGroupIds = new int[dictionary.size()];
+            Arrays.fill(dictionaryGroupIds, -1);
+
+            BlockCursor idCursor = ((DictionaryEncodedBlock) block).getIdBlock().cursor();
+            for (int position = 0; position < positionCount; position++) {
+                checkState(idCursor.advanceNextPosition());
+                int dictionaryKey = Ints.checkedCast(idCursor.getLong());
+
+                int groupId = dictionaryGroupIds[dictionaryKey];
+                if (groupId < 0) {
+                    groupId = getGroupId(dictionary.getTuple(dictionaryKey));
+                    dictionaryGroupIds[dictionaryKey] = groupId;
+                }
+                blockBuilder.append(groupId);
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            for (int position = 0; position < positionCount; position++) {
+                checkState(cursor.advanceNextPosition());
+                int groupId;
+                if (cursor.isNull()) {
+                    groupId = getNullGroupId();
+                }
+                else if (type == Type.FIXED_INT_64) {
+                    groupId = getGroupId(cursor.getLong());
+                }
+                else {
+                    groupId = getGroupId(Double.doubleToLongBits(cursor.getDouble()));
+                }
+                blockBuilder.append(groupId);
+            }
+        }
+
+        UncompressedBlock groupIdBlock = blockBuilder.build();
+        return new GroupByIdBlock(nextGroupId, groupIdBlock);
+    }
+
+    @Override
+    public void appendValuesTo(int groupId, BlockBuilder[] builders)
+    {
+        checkArgument(groupId >= 0 && groupId < nextGroupId, "groupId is out of range");
+        BlockBuilder builder = builders[0];
+        if (groupId == nullGroupId) {
+            builder.appendNull();
+        }
+        else if (type == Type.FIXED_INT_64) {
+            builder.append(valuesByGroupId.getLong(groupId));
+        }
+        else {
+            builder.append(Double.longBitsToDouble(valuesByGroupId.getLong(groupId)));
+        }
+    }
+
+    @Override
+    public int hashGroup(int groupId)
+    {
+        checkArgument(groupId >= 0 && groupId < nextGroupId, "groupId is out of range");
+        if (groupId == nullGroupId) {
+            return 0;
+        }
+        return Longs.hashCode(valuesByGroupId.getLong(groupId));
+    }
+
+    private int getGroupId(Tuple tuple)
+    {
+        if (tuple.isNull()) {
+            return getNullGroupId();
+        }
+        if (type == Type.FIXED_INT_64) {
+            return getGroupId(tuple.getLong());
+        }
+        return getGroupId(Double.doubleToLongBits(tuple.getDouble()));
+    }
+
+    private int getNullGroupId()
+    {
+        if (nullGroupId < 0) {
+            nullGroupId = nextGroupId++;
+            // keep group ids and values aligned
+            valuesByGroupId.add(0);
+        }
+        return nullGroupId;
+    }
+
+    private int getGroupId(long value)
+    {
+        int hashPosition = getHashPosition(value, mask);
+
+        // look for an empty slot or a slot containing this value
+        while (true) {
+            int groupId = groupIds[hashPosition];
+            if (groupId == -1) {
+                break;
+            }
+            if (values[hashPosition] == value) {
+                return groupId;
+            }
+            hashPosition = (hashPosition + 1) & mask;
+        }
+
+        return addNewGroup(hashPosition, value);
+    }
+
+    private int addNewGroup(int hashPosition, long value)
+    {
+        int groupId = nextGroupId++;
+        values[hashPosition] = value;
+        groupIds[hashPosition] = groupId;
+        valuesByGroupId.add(value);
+
+        hashSize++;
+        if (hashSize >= maxFill) {
+            rehash();
+        }
+        return groupId;
+    }
+
+    private void rehash()
+    {
+        int newCapacity = values.length * 2;
+        int newMask = newCapacity - 1;
+        long[] newValues = new long[newCapacity];
+        int[] newGroupIds = new int[newCapacity];
+        Arrays.fill(newGroupIds, -1);
+
+        for (int i = 0; i < values.length; i++) {
+            int groupId = groupIds[i];
+            if (groupId == -1) {
+                continue;
+            }
+
+            long value = values[i];
+            int hashPosition = getHashPosition(value, newMask);
+            while (newGroupIds[hashPosition] != -1) {
+                hashPosition = (hashPosition + 1) & newMask;
+            }
+            newValues[hashPosition] = value;
+            newGroupIds[hashPosition] = groupId;
+        }
+
+        mask = newMask;
+        maxFill = HashCommon.maxFill(newCapacity, FILL_RATIO);
+        values = newValues;
+        groupIds = newGroupIds;
+    }
+
+    private static int getHashPosition(long value, int mask)
+    {
+        return (int) HashCommon.murmurHash3(value) & mask;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+
+/**
+ * The build side of a hash join, as seen by the probe.  Join positions are
+ * opaque, and a negative position means there is no match.
+ */
+public interface LookupSource
+{
+    int getChannelCount();
+
+    void setProbeCursors(BlockCursor[] cursors, int[] probeJoinChannels);
+
+    long getJoinPosition();
+
+    long getNextJoinPosition(long currentPosition);
+
+    void appendTupleTo(long position, PageBuilder pageBuilder, int outputChannelOffset);
+}
@@ -20,6 +20,7 @@ import io.airlift.slice.Slices;
 
 import java.util.List;
 
+import static com.facebook.presto.operator.GroupByHashes.createGroupByHash;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_BOOLEAN;
 
 public class MarkDistinctHash
@@ -34,7 +35,7 @@ public class MarkDistinctHash
 
     public MarkDistinctHash(List<TupleInfo.Type> types, int[] channels, int expectedDistinctValues)
     {
-        this.groupByHash = new GroupByHash(types, channels, expectedDistinctValues);
+        this.groupByHash = createGroupByHash(types, channels, expectedDistinctValues);
     }
 
     public long getEstimatedSize()
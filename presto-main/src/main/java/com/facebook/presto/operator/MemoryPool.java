@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.google.common.base.Objects;
+import io.airlift.units.DataSize;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Memory shared by all tasks on a node.
+ * <p/>
+ * Revocable memory is memory that an operator can give back on request, for
+ * example by spilling its state to disk.  It is only granted when the pool has
+ * free space, but a regular reservation may use memory that is currently held
+ * as revocable memory.  When that happens, every operator holding revocable
+ * memory is asked to revoke it.
+ */
+@ThreadSafe
+public class MemoryPool
+{
+    private final long maxBytes;
+
+    @GuardedBy("this")
+    private long reservedBytes;
+
+    @GuardedBy("this")
+    private long revocableBytes;
+
+    @GuardedBy("this")
+    private final Map<OperatorContext, Long> revocableReservations = new HashMap<>();
+
+    public MemoryPool(DataSize maxSize)
+    {
+        this.maxBytes = checkNotNull(maxSize, "maxSize is null").toBytes();
+    }
+
+    @Managed
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    @Managed
+    public synchronized long getReservedBytes()
+    {
+        return reservedBytes;
+    }
+
+    @Managed
+    public synchronized long getRevocableBytes()
+    {
+        return revocableBytes;
+    }
+
+    @Managed
+    public synchronized long getFreeBytes()
+    {
+        return Math.max(0, maxBytes - reservedBytes - revocableBytes);
+    }
+
+    public synchronized boolean tryReserve(long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+
+        if (reservedBytes + bytes > maxBytes) {
+            return false;
+        }
+        reservedBytes += bytes;
+
+        if (reservedBytes + revocableBytes > maxBytes) {
+            requestMemoryRevoking();
+        }
+        return true;
+    }
+
+    public synchronized void free(long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+        checkState(bytes <= reservedBytes, "tried to free more memory than is reserved");
+        reservedBytes -= bytes;
+    }
+
+    public synchronized boolean tryReserveRevocable(OperatorContext operatorContext, long bytes)
+    {
+        checkNotNull(operatorContext, "operatorContext is null");
+        checkArgument(bytes >= 0, "bytes is negative");
+
+        if (reservedBytes + revocableBytes + bytes > maxBytes) {
+            return false;
+        }
+        revocableBytes += bytes;
+
+        Long current = revocableReservations.get(operatorContext);
+        revocableReservations.put(operatorContext, (current == null ? 0 : current) + bytes);
+        return true;
+    }
+
+    public synchronized void freeRevocable(OperatorContext operatorContext, long bytes)
+    {
+        checkNotNull(operatorContext, "operatorContext is null");
+        checkArgument(bytes >= 0, "bytes is negative");
+
+        Long current = revocableReservations.get(operatorContext);
+        checkState(current != null && bytes <= current, "tried to free more revocable memory than is reserved");
+        revocableBytes -= bytes;
+
+        if (current == bytes) {
+            revocableReservations.remove(operatorContext);
+        }
+        else {
+            revocableReservations.put(operatorContext, current - bytes);
+        }
+    }
+
+    public synchronized void freeAllRevocable(OperatorContext operatorContext)
+    {
+        checkNotNull(operatorContext, "operatorContext is null");
+
+        Long current = revocableReservations.remove(operatorContext);
+        if (current != null) {
+            revocableBytes -= current;
+        }
+    }
+
+    private void requestMemoryRevoking()
+    {
+        for (Entry<OperatorContext, Long> entry : revocableReservations.entrySet()) {
+            if (entry.getValue() > 0) {
+                entry.getKey().requestMemoryRevoking();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("maxBytes", maxBytes)
+                .add("reservedBytes", reservedBytes)
+                .add("revocableBytes", revocableBytes)
+                .toString();
+    }
+}
@@ -28,6 +28,7 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -73,6 +74,8 @@ public class OperatorContext
     private final AtomicLong finishUserNanos = new AtomicLong();
 
     private final AtomicLong memoryReservation = new AtomicLong();
+    private final AtomicLong revocableMemoryReservation = new AtomicLong();
+    private final AtomicBoolean memoryRevokingRequested = new AtomicBoolean();
 
     private final AtomicReference<Supplier<Object>> infoSupplier = new AtomicReference<>();
 
@@ -193,17 +196,74 @@ public class OperatorContext
     }
 
     public synchronized long setMemoryReservation(long newMemoryReservation)
+    {
+        checkState(trySetMemoryReservation(newMemoryReservation), "Task exceeded max memory size of %s", getMaxMemorySize());
+        return newMemoryReservation;
+    }
+
+    public synchronized boolean trySetMemoryReservation(long newMemoryReservation)
     {
         checkArgument(newMemoryReservation >= 0, "newMemoryReservation is negative");
 
         long delta = newMemoryReservation - memoryReservation.get();
+        if (delta > 0) {
+            return reserveMemory(delta);
+        }
+        if (delta < 0) {
+            freeMemory(-delta);
+        }
+        return true;
+    }
+
+    public synchronized void freeMemory(long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+        checkArgument(bytes <= memoryReservation.get(), "tried to free more memory than is reserved");
 
-        // currently, operator memory is not be released
+        driverContext.freeMemory(bytes);
+        memoryReservation.getAndAdd(-bytes);
+    }
+
+    public long getRevocableMemoryReservation()
+    {
+        return revocableMemoryReservation.get();
+    }
+
+    /**
+     * Sets the memory held by this operator that can be given back on request.
+     * Once the memory pool needs the memory, {@link #isMemoryRevokingRequested}
+     * returns true until the operator sets the reservation back to zero.
+     */
+    public synchronized boolean trySetRevocableMemoryReservation(long newRevocableMemoryReservation)
+    {
+        checkArgument(newRevocableMemoryReservation >= 0, "newRevocableMemoryReservation is negative");
+
+        long delta = newRevocableMemoryReservation - revocableMemoryReservation.get();
         if (delta > 0) {
-            checkState(reserveMemory(delta), "Task exceeded max memory size of %s", getMaxMemorySize());
+            if (!driverContext.reserveRevocableMemory(this, delta)) {
+                return false;
+            }
+            revocableMemoryReservation.getAndAdd(delta);
+        }
+        else if (delta < 0) {
+            driverContext.freeRevocableMemory(this, -delta);
+            revocableMemoryReservation.getAndAdd(delta);
         }
 
-        return newMemoryReservation;
+        if (newRevocableMemoryReservation == 0) {
+            memoryRevokingRequested.set(false);
+        }
+        return true;
+    }
+
+    public boolean isMemoryRevokingRequested()
+    {
+        return memoryRevokingRequested.get();
+    }
+
+    void requestMemoryRevoking()
+    {
+        memoryRevokingRequested.set(true);
     }
 
     public void setInfoSupplier(Supplier<Object> infoSupplier)
@@ -13,18 +13,22 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class OrderByOperator
-        implements Operator
+        implements Operator, AutoCloseable
 {
     public static class OrderByOperatorFactory
             implements OperatorFactory
@@ -35,6 +39,7 @@ public class OrderByOperator
         private final int expectedPositions;
         private final int[] sortChannels;
         private final SortOrder[] sortOrder;
+        private final Optional<File> spillDirectory;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -61,6 +66,18 @@ public class OrderByOperator
                 int expectedPositions,
                 int[] sortChannels,
                 SortOrder[] sortOrder)
+        {
+            this(operatorId, sourceTupleInfos, outputChannels, expectedPositions, sortChannels, sortOrder, Optional.<File>absent());
+        }
+
+        public OrderByOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int[] outputChannels,
+                int expectedPositions,
+                int[] sortChannels,
+                SortOrder[] sortOrder,
+                Optional<File> spillDirectory)
         {
             this.operatorId = operatorId;
             this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
@@ -68,6 +85,7 @@ public class OrderByOperator
             this.expectedPositions = expectedPositions;
             this.sortChannels = checkNotNull(sortChannels, "sortChannels is null");
             this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
             this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels);
         }
@@ -90,7 +108,8 @@ public class OrderByOperator
                     outputChannels,
                     expectedPositions,
                     sortChannels,
-                    sortOrder);
+                    sortOrder,
+                    spillDirectory);
         }
 
         @Override
@@ -114,9 +133,11 @@ public class OrderByOperator
     private final List<TupleInfo> tupleInfos;
 
     private final PagesIndex pageIndex;
+    private final ExternalSorter externalSorter;
 
     private final PageBuilder pageBuilder;
     private int currentPosition;
+    private Iterator<Page> sortedPages;
 
     private State state = State.NEEDS_INPUT;
 
@@ -126,7 +147,8 @@ public class OrderByOperator
             int[] outputChannels,
             int expectedPositions,
             int[] sortChannels,
-            SortOrder[] sortOrder)
+            SortOrder[] sortOrder,
+            Optional<File> spillDirectory)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.outputChannels = checkNotNull(outputChannels, "outputChannels is null");
@@ -134,7 +156,15 @@ public class OrderByOperator
         this.sortChannels = checkNotNull(sortChannels, "sortChannels is null");
         this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
 
-        this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        if (spillDirectory.isPresent()) {
+            this.externalSorter = new ExternalSorter(sourceTupleInfos, expectedPositions, sortChannels, sortOrder, operatorContext, spillDirectory.get());
+            this.pageIndex = null;
+        }
+        else {
+            this.externalSorter = null;
+            this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        }
 
         this.pageBuilder = new PageBuilder(this.tupleInfos);
     }
@@ -157,8 +187,13 @@ public class OrderByOperator
         if (state == State.NEEDS_INPUT) {
             state = State.HAS_OUTPUT;
 
-            // sort the index
-            pageIndex.sort(sortChannels, sortOrder);
+            if (externalSorter != null && externalSorter.isSpilled()) {
+                sortedPages = externalSorter.mergeSortedRuns();
+            }
+            else {
+                // sort the index
+                getPagesIndex().sort(sortChannels, sortOrder);
+            }
         }
     }
 
@@ -186,7 +221,12 @@ public class OrderByOperator
         checkState(state == State.NEEDS_INPUT, "Operator is already finishing");
         checkNotNull(page, "page is null");
 
-        pageIndex.addPage(page);
+        if (externalSorter != null) {
+            externalSorter.addPage(page);
+        }
+        else {
+            pageIndex.addPage(page);
+        }
     }
 
     @Override
@@ -196,6 +236,12 @@ public class OrderByOperator
             return null;
         }
 
+        if (sortedPages != null) {
+            return getMergedOutput();
+        }
+
+        PagesIndex pageIndex = getPagesIndex();
+
         if (currentPosition >= pageIndex.getPositionCount()) {
             state = State.FINISHED;
             return null;
@@ -220,6 +266,39 @@ public class OrderByOperator
         return page;
     }
 
+    @Override
+    public void close()
+    {
+        if (externalSorter != null) {
+            externalSorter.close();
+        }
+        operatorContext.setMemoryReservation(0);
+    }
+
+    private PagesIndex getPagesIndex()
+    {
+        if (externalSorter != null) {
+            return externalSorter.getPagesIndex();
+        }
+        return pageIndex;
+    }
+
+    private Page getMergedOutput()
+    {
+        if (!sortedPages.hasNext()) {
+            state = State.FINISHED;
+            return null;
+        }
+
+        // merged pages contain every source channel
+        Page page = sortedPages.next();
+        Block[] blocks = new Block[outputChannels.length];
+        for (int i = 0; i < outputChannels.length; i++) {
+            blocks[i] = page.getBlock(outputChannels[i]);
+        }
+        return new Page(page.getPositionCount(), blocks);
+    }
+
     private static SortOrder[] defaultSortOrder(int[] orderByChannels)
     {
         SortOrder[] sortOrder = new SortOrder[orderByChannels.length];
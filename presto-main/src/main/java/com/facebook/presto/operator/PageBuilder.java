@@ -105,6 +105,11 @@ public class PageBuilder
         return blockBuilders.length == 0 ? declaredPositions == 0 : blockBuilders[0].isEmpty();
     }
 
+    public int getPositionCount()
+    {
+        return blockBuilders.length == 0 ? declaredPositions : blockBuilders[0].getPositionCount();
+    }
+
     public long getSize()
     {
         long sizeInBytes = 0;
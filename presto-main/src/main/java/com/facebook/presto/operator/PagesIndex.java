@@ -17,12 +17,14 @@ import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.AbstractIterator;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import it.unimi.dsi.fastutil.Arrays;
 import it.unimi.dsi.fastutil.Swapper;
 import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -65,14 +67,35 @@ public class PagesIndex
     }
 
     public void addPage(Page page)
+    {
+        indexPage(page);
+        estimatedSize = operatorContext.setMemoryReservation(calculateEstimatedSize());
+    }
+
+    /**
+     * Adds the page to this index and returns false if the operator memory
+     * reservation could not be increased to cover the index.  The page is
+     * indexed either way.
+     */
+    public boolean tryAddPage(Page page)
+    {
+        indexPage(page);
+
+        long newEstimatedSize = calculateEstimatedSize();
+        if (!operatorContext.trySetMemoryReservation(newEstimatedSize)) {
+            return false;
+        }
+        estimatedSize = newEstimatedSize;
+        return true;
+    }
+
+    private void indexPage(Page page)
     {
         positionCount += page.getPositionCount();
         Block[] blocks = page.getBlocks();
         for (int channel = 0; channel < indexes.length; channel++) {
             indexes[channel].indexBlock((UncompressedBlock) blocks[channel]);
         }
-
-        estimatedSize = operatorContext.setMemoryReservation(calculateEstimatedSize());
     }
 
     public DataSize getEstimatedSize()
@@ -112,6 +135,35 @@ public class PagesIndex
         indexes[channel].appendTo(position, output);
     }
 
+    /**
+     * Returns the positions of this index, in the current order, as pages containing every channel.
+     */
+    public Iterator<Page> getPages()
+    {
+        return new AbstractIterator<Page>()
+        {
+            private final PageBuilder pageBuilder = new PageBuilder(tupleInfos);
+            private int currentPosition;
+
+            @Override
+            protected Page computeNext()
+            {
+                if (currentPosition >= positionCount) {
+                    return endOfData();
+                }
+
+                pageBuilder.reset();
+                while (!pageBuilder.isFull() && currentPosition < positionCount) {
+                    for (int channel = 0; channel < indexes.length; channel++) {
+                        indexes[channel].appendTo(currentPosition, pageBuilder.getBlockBuilder(channel));
+                    }
+                    currentPosition++;
+                }
+                return pageBuilder.build();
+            }
+        };
+    }
+
     public void sort(int[] sortChannels, SortOrder[] sortOrders)
     {
         MultiSliceFieldOrderedTupleComparator comparator = new MultiSliceFieldOrderedTupleComparator(this, sortChannels, sortOrders);
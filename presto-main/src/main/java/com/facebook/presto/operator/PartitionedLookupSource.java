@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.facebook.presto.operator.HashStrategyUtils.hashPartition;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A lookup source over join hashes that were built in parallel from hash
+ * partitioned input.  A probe row is looked up only in the partition that
+ * holds the build rows with the same hash, which is selected with
+ * {@link HashStrategyUtils#hashPartition}, the function used to partition
+ * the build rows.  Join positions encode the partition in the high 32 bits
+ * and the position within the partition in the low 32 bits.
+ */
+public class PartitionedLookupSource
+        implements LookupSource
+{
+    private final JoinHash[] partitions;
+
+    public PartitionedLookupSource(List<JoinHash> partitions)
+    {
+        checkNotNull(partitions, "partitions is null");
+        checkArgument(!partitions.isEmpty(), "partitions is empty");
+        this.partitions = ImmutableList.copyOf(partitions).toArray(new JoinHash[partitions.size()]);
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        return partitions[0].getChannelCount();
+    }
+
+    @Override
+    public void setProbeCursors(BlockCursor[] cursors, int[] probeJoinChannels)
+    {
+        for (JoinHash partition : partitions) {
+            partition.setProbeCursors(cursors, probeJoinChannels);
+        }
+    }
+
+    @Override
+    public long getJoinPosition()
+    {
+        // all partitions hash the probe row the same way
+        int hash = partitions[0].hashCurrentRow();
+        int partition = hashPartition(hash, partitions.length);
+        int position = partitions[partition].getJoinPosition(hash);
+        if (position < 0) {
+            return -1;
+        }
+        return encodePartitionedPosition(partition, position);
+    }
+
+    @Override
+    public long getNextJoinPosition(long currentPosition)
+    {
+        int partition = decodePartition(currentPosition);
+        long position = partitions[partition].getNextJoinPosition(decodePosition(currentPosition));
+        if (position < 0) {
+            return -1;
+        }
+        return encodePartitionedPosition(partition, (int) position);
+    }
+
+    @Override
+    public void appendTupleTo(long position, PageBuilder pageBuilder, int outputChannelOffset)
+    {
+        partitions[decodePartition(position)].appendTupleTo(decodePosition(position), pageBuilder, outputChannelOffset);
+    }
+
+    private static long encodePartitionedPosition(int partition, int position)
+    {
+        return (((long) partition) << 32) | position;
+    }
+
+    private static int decodePartition(long partitionedPosition)
+    {
+        return (int) (partitionedPosition >> 32);
+    }
+
+    private static int decodePosition(long partitionedPosition)
+    {
+        return (int) partitionedPosition;
+    }
+}
@@ -86,6 +86,11 @@ public class PipelineContext
         this.executor = checkNotNull(executor, "executor is null");
     }
 
+    public TaskContext getTaskContext()
+    {
+        return taskContext;
+    }
+
     public TaskId getTaskId()
     {
         return taskContext.getTaskId();
@@ -199,6 +204,22 @@ public class PipelineContext
         return result;
     }
 
+    public synchronized void freeMemory(long bytes)
+    {
+        taskContext.freeMemory(bytes);
+        memoryReservation.getAndAdd(-bytes);
+    }
+
+    public boolean reserveRevocableMemory(OperatorContext operatorContext, long bytes)
+    {
+        return taskContext.reserveRevocableMemory(operatorContext, bytes);
+    }
+
+    public void freeRevocableMemory(OperatorContext operatorContext, long bytes)
+    {
+        taskContext.freeRevocableMemory(operatorContext, bytes);
+    }
+
     public boolean isCpuTimerEnabled()
     {
         return taskContext.isCpuTimerEnabled();
@@ -99,7 +99,7 @@ public final class ProjectionFunctions
                         output.append(cursor.getLong(channelIndex));
                         break;
                     case VARIABLE_BINARY:
-                        output.append(cursor.getString(channelIndex));
+                        output.append(cursor.getSlice(channelIndex));
                         break;
                     case DOUBLE:
                         output.append(cursor.getDouble(channelIndex));
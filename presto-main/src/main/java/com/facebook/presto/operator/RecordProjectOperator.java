@@ -14,13 +14,16 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.spi.BatchRecordCursor;
 import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.ColumnWriter;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 
 import java.io.Closeable;
@@ -28,11 +31,14 @@ import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static io.airlift.units.DataSize.Unit.BYTE;
+import static java.lang.Math.min;
 
 public class RecordProjectOperator
         implements Operator, Closeable
 {
     private static final int ROWS_PER_REQUEST = 16384;
+    // batches are small so the page builder does not overshoot its size limit by much
+    private static final int ROWS_PER_BATCH = 1024;
     private final OperatorContext operatorContext;
     private final RecordCursor cursor;
     private final List<TupleInfo> tupleInfos;
@@ -115,7 +121,10 @@ public class RecordProjectOperator
     @Override
     public Page getOutput()
     {
-        if (!finishing) {
+        if (!finishing && cursor instanceof BatchRecordCursor) {
+            readBatches((BatchRecordCursor) cursor);
+        }
+        else if (!finishing) {
             int i = 0;
             for (; i < ROWS_PER_REQUEST; i++) {
                 if (pageBuilder.isFull()) {
@@ -145,7 +154,7 @@ public class RecordProjectOperator
                                 output.append(cursor.getDouble(column));
                                 break;
                             case VARIABLE_BINARY:
-                                output.append(cursor.getString(column));
+                                output.append(cursor.getSlice(column));
                                 break;
                             default:
                                 throw new AssertionError("unimplemented type: " + type);
@@ -171,4 +180,73 @@ public class RecordProjectOperator
 
         return page;
     }
+
+    private void readBatches(BatchRecordCursor batchCursor)
+    {
+        ColumnWriter[] writers = new ColumnWriter[tupleInfos.size()];
+        for (int column = 0; column < writers.length; column++) {
+            writers[column] = new BlockBuilderColumnWriter(pageBuilder.getBlockBuilder(column));
+        }
+
+        int positions = 0;
+        while (positions < ROWS_PER_REQUEST && !pageBuilder.isFull()) {
+            int batchSize = batchCursor.appendBatch(writers, min(ROWS_PER_BATCH, ROWS_PER_REQUEST - positions));
+            if (batchSize == 0) {
+                finishing = true;
+                break;
+            }
+            positions += batchSize;
+        }
+
+        long bytesProcessed = cursor.getCompletedBytes() - completedBytes;
+        operatorContext.recordGeneratedInput(new DataSize(bytesProcessed, BYTE), positions);
+        completedBytes += bytesProcessed;
+    }
+
+    private static class BlockBuilderColumnWriter
+            implements ColumnWriter
+    {
+        private final BlockBuilder blockBuilder;
+
+        private BlockBuilderColumnWriter(BlockBuilder blockBuilder)
+        {
+            this.blockBuilder = blockBuilder;
+        }
+
+        @Override
+        public void appendNull()
+        {
+            blockBuilder.appendNull();
+        }
+
+        @Override
+        public void appendBoolean(boolean value)
+        {
+            blockBuilder.append(value);
+        }
+
+        @Override
+        public void appendLong(long value)
+        {
+            blockBuilder.append(value);
+        }
+
+        @Override
+        public void appendDouble(double value)
+        {
+            blockBuilder.append(value);
+        }
+
+        @Override
+        public void appendString(byte[] value, int offset, int length)
+        {
+            blockBuilder.append(value, offset, length);
+        }
+
+        @Override
+        public void appendString(Slice value)
+        {
+            blockBuilder.append(value);
+        }
+    }
 }
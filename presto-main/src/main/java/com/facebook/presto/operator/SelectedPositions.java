@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Selection vector holding the positions of a page that passed a filter.
+ */
+public final class SelectedPositions
+{
+    private final int[] positions;
+    private int size;
+
+    public static SelectedPositions create(int capacity)
+    {
+        return new SelectedPositions(capacity);
+    }
+
+    private SelectedPositions(int capacity)
+    {
+        checkArgument(capacity >= 0, "capacity is negative");
+        this.positions = new int[capacity];
+    }
+
+    public void add(int position)
+    {
+        positions[size] = position;
+        size++;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int get(int index)
+    {
+        return positions[index];
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.serde.PagesSerde;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.Closeables;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.SIZE_OF_INT;
+import static java.nio.file.Files.createDirectories;
+
+/**
+ * A local temporary file holding pages in the {@link PagesSerde} format.
+ * Each page is written as a separate length prefixed stream, so the pages
+ * can be read back in order, or one at a time with the {@link SpilledPage}
+ * returned by {@link #append}.  Concurrent appends write to separate regions
+ * of the file.  The file is deleted when closed.
+ */
+@ThreadSafe
+public class SpillFile
+        implements Closeable
+{
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    @GuardedBy("this")
+    private long size;
+    @GuardedBy("this")
+    private long pageCount;
+    @GuardedBy("this")
+    private long positionCount;
+    @GuardedBy("this")
+    private long dataSize;
+    @GuardedBy("this")
+    private boolean closed;
+
+    public static SpillFile createSpillFile(File spillDirectory, String prefix)
+    {
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        checkNotNull(prefix, "prefix is null");
+        try {
+            createDirectories(spillDirectory.toPath());
+            File file = File.createTempFile(prefix, SPILL_FILE_SUFFIX, spillDirectory);
+            return new SpillFile(file);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Deletes the spill files left in the directory by a previous process.
+     * Must not be called while spill files are open in the directory.
+     */
+    public static void deleteSpillFiles(File spillDirectory)
+    {
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        File[] files = spillDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(SPILL_FILE_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private SpillFile(File file)
+            throws IOException
+    {
+        this.file = checkNotNull(file, "file is null");
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public synchronized long getPageCount()
+    {
+        return pageCount;
+    }
+
+    public synchronized long getPositionCount()
+    {
+        return positionCount;
+    }
+
+    public synchronized long getDataSize()
+    {
+        return dataSize;
+    }
+
+    public SpilledPage append(Page page)
+    {
+        checkNotNull(page, "page is null");
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput((int) Math.min(page.getDataSize().toBytes() + 1024, Integer.MAX_VALUE));
+        sliceOutput.writeInt(0);
+        PagesSerde.writePages(sliceOutput, page);
+        Slice slice = sliceOutput.slice();
+        slice.setInt(0, slice.length() - SIZE_OF_INT);
+        ByteBuffer buffer = ByteBuffer.wrap(slice.getBytes());
+
+        // reserve a region of the file, so concurrent writers do not wait on each other's IO
+        long position;
+        synchronized (this) {
+            checkState(!closed, "Spill file %s is closed", file);
+            position = size;
+            size += buffer.remaining();
+            pageCount++;
+            positionCount += page.getPositionCount();
+            dataSize += page.getDataSize().toBytes();
+        }
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return new SpilledPage(position + SIZE_OF_INT, buffer.capacity() - SIZE_OF_INT, page.getDataSize().toBytes());
+    }
+
+    public Page read(SpilledPage spilledPage)
+    {
+        checkNotNull(spilledPage, "spilledPage is null");
+        return readPage(spilledPage.getPosition(), spilledPage.getLength());
+    }
+
+    /**
+     * Returns an iterator over the pages appended to this file before this
+     * call.  The file can be read multiple times.
+     */
+    public Iterator<Page> read()
+    {
+        final long end;
+        synchronized (this) {
+            checkState(!closed, "Spill file %s is closed", file);
+            end = size;
+        }
+
+        return new AbstractIterator<Page>()
+        {
+            private long position;
+
+            @Override
+            protected Page computeNext()
+            {
+                if (position >= end) {
+                    return endOfData();
+                }
+                int length = readBytes(position, SIZE_OF_INT).getInt(0);
+                Page page = readPage(position + SIZE_OF_INT, length);
+                position += SIZE_OF_INT + length;
+                return page;
+            }
+        };
+    }
+
+    private Page readPage(long position, int length)
+    {
+        return PagesSerde.readPages(readBytes(position, length).getInput()).next();
+    }
+
+    private Slice readBytes(long position, int length)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of spill file " + file);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return Slices.wrappedBuffer(buffer.array());
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        Closeables.closeQuietly(randomAccessFile);
+        file.delete();
+    }
+
+    /**
+     * The location of a page in a spill file.
+     */
+    public static class SpilledPage
+    {
+        private final long position;
+        private final int length;
+        private final long dataSize;
+
+        private SpilledPage(long position, int length, long dataSize)
+        {
+            this.position = position;
+            this.length = length;
+            this.dataSize = dataSize;
+        }
+
+        public long getPosition()
+        {
+            return position;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * Size of the page in memory.
+         */
+        public long getDataSize()
+        {
+            return dataSize;
+        }
+    }
+}
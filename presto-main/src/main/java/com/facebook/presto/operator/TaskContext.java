@@ -29,8 +29,10 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,8 +59,15 @@ public class TaskContext
 
     private final long maxMemory;
     private final DataSize operatorPreAllocatedMemory;
+    private final MemoryPool memoryPool;
 
     private final AtomicLong memoryReservation = new AtomicLong();
+    private final AtomicLong revocableMemoryReservation = new AtomicLong();
+
+    @GuardedBy("this")
+    private final Set<OperatorContext> revocableMemoryOperators = new HashSet<>();
+    @GuardedBy("this")
+    private boolean memoryPoolReleased;
 
     private final DateTime createdTime = DateTime.now();
     private final long createNanos = System.nanoTime();
@@ -97,12 +106,24 @@ public class TaskContext
     }
 
     public TaskContext(TaskStateMachine taskStateMachine, Executor executor, Session session, DataSize maxMemory, DataSize operatorPreAllocatedMemory, boolean cpuTimerEnabled)
+    {
+        this(taskStateMachine, executor, session, maxMemory, operatorPreAllocatedMemory, new MemoryPool(maxMemory), cpuTimerEnabled);
+    }
+
+    public TaskContext(TaskStateMachine taskStateMachine,
+            Executor executor,
+            Session session,
+            DataSize maxMemory,
+            DataSize operatorPreAllocatedMemory,
+            MemoryPool memoryPool,
+            boolean cpuTimerEnabled)
     {
         this.taskStateMachine = checkNotNull(taskStateMachine, "taskStateMachine is null");
         this.executor = checkNotNull(executor, "executor is null");
         this.session = session;
         this.maxMemory = checkNotNull(maxMemory, "maxMemory is null").toBytes();
         this.operatorPreAllocatedMemory = checkNotNull(operatorPreAllocatedMemory, "operatorPreAllocatedMemory is null");
+        this.memoryPool = checkNotNull(memoryPool, "memoryPool is null");
 
         taskStateMachine.addStateChangeListener(new StateChangeListener<TaskState>()
         {
@@ -112,6 +133,7 @@ public class TaskContext
                 if (newValue.isDone()) {
                     executionEndTime.set(DateTime.now());
                     endNanos.set(System.nanoTime());
+                    releaseMemoryPool();
                 }
             }
         });
@@ -179,10 +201,69 @@ public class TaskContext
         if (memoryReservation.get() + bytes > maxMemory) {
             return false;
         }
+        if (!memoryPoolReleased && !memoryPool.tryReserve(bytes)) {
+            return false;
+        }
         memoryReservation.getAndAdd(bytes);
         return true;
     }
 
+    public synchronized void freeMemory(long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+        checkArgument(bytes <= memoryReservation.get(), "tried to free more memory than is reserved");
+
+        memoryReservation.getAndAdd(-bytes);
+        if (!memoryPoolReleased) {
+            memoryPool.free(bytes);
+        }
+    }
+
+    /**
+     * Revocable memory is not limited by the max memory of the task, since the
+     * memory pool can ask the operator to give it back at any time.
+     */
+    public synchronized boolean reserveRevocableMemory(OperatorContext operatorContext, long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+
+        if (!memoryPoolReleased) {
+            if (!memoryPool.tryReserveRevocable(operatorContext, bytes)) {
+                return false;
+            }
+            revocableMemoryOperators.add(operatorContext);
+        }
+        revocableMemoryReservation.getAndAdd(bytes);
+        return true;
+    }
+
+    public synchronized void freeRevocableMemory(OperatorContext operatorContext, long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+        checkArgument(bytes <= revocableMemoryReservation.get(), "tried to free more revocable memory than is reserved");
+
+        revocableMemoryReservation.getAndAdd(-bytes);
+        if (!memoryPoolReleased) {
+            memoryPool.freeRevocable(operatorContext, bytes);
+        }
+    }
+
+    private synchronized void releaseMemoryPool()
+    {
+        if (memoryPoolReleased) {
+            return;
+        }
+        memoryPoolReleased = true;
+
+        // drivers of a finished task may still be running, so the task keeps
+        // tracking its own reservation, but the node pool gets everything back now
+        memoryPool.free(memoryReservation.get());
+        for (OperatorContext operatorContext : revocableMemoryOperators) {
+            memoryPool.freeAllRevocable(operatorContext);
+        }
+        revocableMemoryOperators.clear();
+    }
+
     public boolean isCpuTimerEnabled()
     {
         return cpuTimerEnabled;
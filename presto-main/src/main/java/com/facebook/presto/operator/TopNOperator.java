@@ -13,22 +13,33 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
-import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.block.RandomAccessBlock;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleReadable;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
-import io.airlift.units.DataSize;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
+import static com.facebook.presto.operator.SyntheticAddress.decodePosition;
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
+import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.sizeOf;
 
 /**
  * Returns the top N rows from the source sorted according to the specified ordering in the keyChannelIndex channel.
@@ -42,7 +53,8 @@ public class TopNOperator
         private final int operatorId;
         private final int n;
         private final List<ProjectionFunction> projections;
-        private final Ordering<TupleReadable[]> ordering;
+        private final List<Integer> sortChannels;
+        private final List<SortOrder> sortOrders;
         private final boolean partial;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
@@ -51,13 +63,15 @@ public class TopNOperator
                 int operatorId,
                 int n,
                 List<ProjectionFunction> projections,
-                Ordering<TupleReadable[]> ordering,
+                List<Integer> sortChannels,
+                List<SortOrder> sortOrders,
                 boolean partial)
         {
             this.operatorId = operatorId;
             this.n = n;
             this.projections = projections;
-            this.ordering = ordering;
+            this.sortChannels = sortChannels;
+            this.sortOrders = sortOrders;
             this.partial = partial;
             this.tupleInfos = toTupleInfos(projections);
         }
@@ -77,7 +91,8 @@ public class TopNOperator
                     operatorContext,
                     n,
                     projections,
-                    ordering,
+                    sortChannels,
+                    sortOrders,
                     partial);
         }
 
@@ -88,13 +103,13 @@ public class TopNOperator
         }
     }
 
-    private static final int MAX_INITIAL_PRIORITY_QUEUE_SIZE = 10000;
-    private static final DataSize OVERHEAD_PER_TUPLE = new DataSize(100, DataSize.Unit.BYTE); // for estimating in-memory size. This is a completely arbitrary number
+    private static final int MAX_INITIAL_HEAP_SIZE = 10000;
 
     private final OperatorContext operatorContext;
     private final int n;
     private final List<ProjectionFunction> projections;
-    private final Ordering<TupleReadable[]> ordering;
+    private final int[] sortChannels;
+    private final SortOrder[] sortOrders;
     private final List<TupleInfo> tupleInfos;
     private final TopNMemoryManager memoryManager;
     private final boolean partial;
@@ -110,7 +125,8 @@ public class TopNOperator
             OperatorContext operatorContext,
             int n,
             List<ProjectionFunction> projections,
-            Ordering<TupleReadable[]> ordering,
+            List<Integer> sortChannels,
+            List<SortOrder> sortOrders,
             boolean partial)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
@@ -121,8 +137,11 @@ public class TopNOperator
         this.projections = ImmutableList.copyOf(checkNotNull(projections, "projections is null"));
         checkArgument(!projections.isEmpty(), "projections is empty");
 
-        // the priority queue needs to sort in reverse order to be able to remove the least element in O(1)
-        this.ordering = checkNotNull(ordering, "ordering is null").reverse();
+        checkNotNull(sortChannels, "sortChannels is null");
+        checkNotNull(sortOrders, "sortOrders is null");
+        checkArgument(sortChannels.size() == sortOrders.size(), "sortChannels and sortOrders have different sizes");
+        this.sortChannels = Ints.toArray(sortChannels);
+        this.sortOrders = sortOrders.toArray(new SortOrder[sortOrders.size()]);
 
         this.partial = partial;
 
@@ -177,7 +196,8 @@ public class TopNOperator
         if (topNBuilder == null) {
             topNBuilder = new TopNBuilder(
                     n,
-                    ordering,
+                    sortChannels,
+                    sortOrders,
                     memoryManager);
         }
 
@@ -227,91 +247,391 @@ public class TopNOperator
         return tupleInfos.build();
     }
 
+    /**
+     * Keeps the candidate rows in the pages they arrived in and tracks them in a
+     * heap of synthetic row addresses (page id and position) with the row that
+     * sorts last at the root.  Pages without candidates are released, and once
+     * most of the retained positions or page slots are no longer used, the
+     * candidates are copied into new compact pages.  Once the heap is full, a
+     * page whose first sort channel is dictionary encoded is skipped without
+     * being decoded if no dictionary entry can replace the root.
+     */
     private static class TopNBuilder
     {
         private final int n;
-        private final Ordering<TupleReadable[]> ordering;
+        private final int[] sortChannels;
+        private final SortOrder[] sortOrders;
         private final TopNMemoryManager memoryManager;
-        private final PriorityQueue<Tuple[]> globalCandidates;
 
-        private long memorySize;
+        private final ObjectArrayList<RandomAccessBlock[]> pages = new ObjectArrayList<>();
+        private final IntArrayList pageCandidateCounts = new IntArrayList();
+        private final LongArrayList pageSizes = new LongArrayList();
+        private List<TupleInfo> sourceTupleInfos;
 
-        private TopNBuilder(int n, Ordering<TupleReadable[]> ordering, TopNMemoryManager memoryManager)
+        private long[] heap;
+        private int heapSize;
+
+        private long retainedPositions;
+        private long retainedPagesSize;
+
+        private Dictionary sortDictionary;
+        private RandomAccessBlock sortDictionaryValues;
+
+        private TopNBuilder(int n, int[] sortChannels, SortOrder[] sortOrders, TopNMemoryManager memoryManager)
         {
             this.n = n;
-            this.ordering = ordering;
+            this.sortChannels = sortChannels;
+            this.sortOrders = sortOrders;
             this.memoryManager = memoryManager;
-            this.globalCandidates = new PriorityQueue<>(Math.min(n, MAX_INITIAL_PRIORITY_QUEUE_SIZE), ordering);
+            this.heap = new long[Math.min(n, MAX_INITIAL_HEAP_SIZE)];
         }
 
         public void processPage(Page page)
         {
-            long sizeDelta = mergeWithGlobalCandidates(page);
-            memorySize += sizeDelta;
+            if (sourceTupleInfos == null) {
+                ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+                for (Block block : page.getBlocks()) {
+                    tupleInfos.add(block.getTupleInfo());
+                }
+                sourceTupleInfos = tupleInfos.build();
+            }
+
+            if (heapSize == n && !mayContainCandidates(page)) {
+                return;
+            }
+
+            int pageId = addPage(page);
+            RandomAccessBlock[] blocks = pages.get(pageId);
+            for (int position = 0; position < page.getPositionCount(); position++) {
+                if (heapSize < n) {
+                    if (heapSize == heap.length) {
+                        heap = LongArrays.grow(heap, heapSize + 1);
+                    }
+                    heap[heapSize] = encodeSyntheticAddress(pageId, position);
+                    pageCandidateCounts.set(pageId, pageCandidateCounts.getInt(pageId) + 1);
+                    heapSize++;
+                    siftUp(heapSize - 1);
+                }
+                else if (compare(blocks, position, heap[0]) < 0) {
+                    // count the new candidate first, so this page is not released if the old root came from it
+                    long previous = heap[0];
+                    heap[0] = encodeSyntheticAddress(pageId, position);
+                    pageCandidateCounts.set(pageId, pageCandidateCounts.getInt(pageId) + 1);
+                    removeCandidate(previous);
+                    siftDown(0);
+                }
+            }
+
+            if (pageCandidateCounts.getInt(pageId) == 0) {
+                // no address refers to the page, so its slot is reused
+                releasePage(pageId);
+                pages.remove(pageId);
+                pageCandidateCounts.removeInt(pageId);
+                pageSizes.removeLong(pageId);
+            }
+
+            // compact once more than half of the retained positions are garbage, or the released
+            // page slots outnumber the candidates (every retained page holds at least one candidate)
+            if (retainedPositions > 2L * heapSize || pages.size() > 2L * heapSize) {
+                compact();
+            }
         }
 
-        private long mergeWithGlobalCandidates(Page page)
+        private boolean mayContainCandidates(Page page)
         {
-            long sizeDelta = 0;
+            // a row whose first sort value sorts after the root can not replace it
+            Block block = page.getBlock(sortChannels[0]);
+            if (!(block instanceof DictionaryEncodedBlock)) {
+                return true;
+            }
+            Dictionary dictionary = ((DictionaryEncodedBlock) block).getDictionary();
+            if (dictionary.size() >= page.getPositionCount()) {
+                // checking the dictionary costs more than decoding the page
+                return true;
+            }
 
-            BlockCursor[] cursors = new BlockCursor[page.getChannelCount()];
-            for (int i = 0; i < page.getChannelCount(); i++) {
-                cursors[i] = page.getBlock(i).cursor();
+            if (dictionary != sortDictionary) {
+                BlockBuilder blockBuilder = new BlockBuilder(dictionary.getTupleInfo());
+                for (int dictionaryKey = 0; dictionaryKey < dictionary.size(); dictionaryKey++) {
+                    dictionary.appendTupleTo(dictionaryKey, blockBuilder);
+                }
+                sortDictionary = dictionary;
+                sortDictionaryValues = blockBuilder.build().toRandomAccessBlock();
             }
 
-            for (int i = 0; i < page.getPositionCount(); i++) {
-                for (BlockCursor cursor : cursors) {
-                    checkState(cursor.advanceNextPosition());
+            RandomAccessBlock rootBlock = pages.get(decodeSliceIndex(heap[0]))[sortChannels[0]];
+            int rootPosition = decodePosition(heap[0]);
+            for (int dictionaryKey = 0; dictionaryKey < dictionary.size(); dictionaryKey++) {
+                if (compareValues(sortOrders[0], sortDictionaryValues, dictionaryKey, rootBlock, rootPosition) <= 0) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                if (globalCandidates.size() < n) {
-                    sizeDelta = addRow(sizeDelta, cursors);
+        private int addPage(Page page)
+        {
+            Block[] blocks = page.getBlocks();
+            RandomAccessBlock[] randomAccessBlocks = new RandomAccessBlock[blocks.length];
+            for (int channel = 0; channel < blocks.length; channel++) {
+                randomAccessBlocks[channel] = toRandomAccessBlock(blocks[channel]);
+            }
+
+            pages.add(randomAccessBlocks);
+            pageCandidateCounts.add(0);
+            pageSizes.add(page.getDataSize().toBytes());
+            retainedPositions += page.getPositionCount();
+            retainedPagesSize += page.getDataSize().toBytes();
+            return pages.size() - 1;
+        }
+
+        private void removeCandidate(long address)
+        {
+            int pageId = decodeSliceIndex(address);
+            int candidates = pageCandidateCounts.getInt(pageId) - 1;
+            pageCandidateCounts.set(pageId, candidates);
+            if (candidates == 0) {
+                releasePage(pageId);
+            }
+        }
+
+        private void releasePage(int pageId)
+        {
+            retainedPositions -= pages.get(pageId)[0].getPositionCount();
+            retainedPagesSize -= pageSizes.getLong(pageId);
+            pages.set(pageId, null);
+        }
+
+        private void compact()
+        {
+            ObjectArrayList<RandomAccessBlock[]> oldPages = pages.clone();
+            pages.clear();
+            pageCandidateCounts.clear();
+            pageSizes.clear();
+            retainedPositions = 0;
+            retainedPagesSize = 0;
+
+            // rows are copied in heap order, so rewriting the addresses keeps the heap valid
+            PageBuilder compactPageBuilder = new PageBuilder(sourceTupleInfos);
+            int compactPageStart = 0;
+            for (int index = 0; index < heapSize; index++) {
+                long address = heap[index];
+                RandomAccessBlock[] blocks = oldPages.get(decodeSliceIndex(address));
+                int position = decodePosition(address);
+                for (int channel = 0; channel < blocks.length; channel++) {
+                    appendValueTo(blocks[channel], position, compactPageBuilder.getBlockBuilder(channel));
                 }
-                else if (ordering.compare(cursors, globalCandidates.peek()) > 0) {
-                    Tuple[] previous = globalCandidates.remove();
-                    for (Tuple tuple : previous) {
-                        sizeDelta -= tuple.size();
-                    }
+                heap[index] = encodeSyntheticAddress(pages.size(), index - compactPageStart);
 
-                    sizeDelta = addRow(sizeDelta, cursors);
+                if (compactPageBuilder.isFull() || index == heapSize - 1) {
+                    int pageId = addPage(compactPageBuilder.build());
+                    pageCandidateCounts.set(pageId, index - compactPageStart + 1);
+                    compactPageBuilder.reset();
+                    compactPageStart = index + 1;
                 }
             }
+        }
 
-            return sizeDelta;
+        private void siftUp(int index)
+        {
+            long address = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (compare(heap[parent], address) >= 0) {
+                    break;
+                }
+                heap[index] = heap[parent];
+                index = parent;
+            }
+            heap[index] = address;
         }
 
-        private long addRow(long sizeDelta, BlockCursor[] cursors)
+        private void siftDown(int index)
         {
-            Tuple[] row = getValues(cursors);
-            for (Tuple tuple : row) {
-                sizeDelta += tuple.size();
+            long address = heap[index];
+            while (true) {
+                int child = (index * 2) + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && compare(heap[child + 1], heap[child]) > 0) {
+                    child++;
+                }
+                if (compare(address, heap[child]) >= 0) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
             }
-            sizeDelta += OVERHEAD_PER_TUPLE.toBytes();
-            globalCandidates.add(row);
-            return sizeDelta;
+            heap[index] = address;
+        }
+
+        private int compare(long leftAddress, long rightAddress)
+        {
+            return compare(pages.get(decodeSliceIndex(leftAddress)), decodePosition(leftAddress), rightAddress);
         }
 
-        private Tuple[] getValues(BlockCursor[] cursors)
+        private int compare(RandomAccessBlock[] leftBlocks, int leftPosition, long rightAddress)
         {
-            Tuple[] row = new Tuple[cursors.length];
-            for (int i = 0; i < cursors.length; i++) {
-                row[i] = cursors[i].getTuple();
+            RandomAccessBlock[] rightBlocks = pages.get(decodeSliceIndex(rightAddress));
+            int rightPosition = decodePosition(rightAddress);
+            for (int i = 0; i < sortChannels.length; i++) {
+                int channel = sortChannels[i];
+                int comparison = compareValues(sortOrders[i], leftBlocks[channel], leftPosition, rightBlocks[channel], rightPosition);
+                if (comparison != 0) {
+                    return comparison;
+                }
             }
-            return row;
+            return 0;
         }
 
         private boolean isFull()
         {
-            return memoryManager.canUse(memorySize);
+            return memoryManager.canUse(retainedPagesSize + sizeOf(heap));
         }
 
         public Iterator<TupleReadable[]> build()
         {
-            ImmutableList.Builder<TupleReadable[]> minSortedGlobalCandidates = ImmutableList.builder();
-            while (!globalCandidates.isEmpty()) {
-                minSortedGlobalCandidates.add(globalCandidates.remove());
+            // pop the heap from the last row to the first
+            long[] sortedAddresses = new long[heapSize];
+            for (int index = heapSize - 1; index >= 0; index--) {
+                sortedAddresses[index] = heap[0];
+                heapSize--;
+                heap[0] = heap[heapSize];
+                siftDown(0);
+            }
+
+            ImmutableList.Builder<Page> sortedPages = ImmutableList.builder();
+            PageBuilder sortedPageBuilder = new PageBuilder(sourceTupleInfos);
+            for (long address : sortedAddresses) {
+                RandomAccessBlock[] blocks = pages.get(decodeSliceIndex(address));
+                int position = decodePosition(address);
+                for (int channel = 0; channel < blocks.length; channel++) {
+                    appendValueTo(blocks[channel], position, sortedPageBuilder.getBlockBuilder(channel));
+                }
+                if (sortedPageBuilder.isFull()) {
+                    sortedPages.add(sortedPageBuilder.build());
+                    sortedPageBuilder.reset();
+                }
+            }
+            if (!sortedPageBuilder.isEmpty()) {
+                sortedPages.add(sortedPageBuilder.build());
+            }
+            return new PagesRowIterator(sortedPages.build().iterator());
+        }
+    }
+
+    private static RandomAccessBlock toRandomAccessBlock(Block block)
+    {
+        if (block instanceof DictionaryEncodedBlock) {
+            // dictionary blocks do not support random access, so decode them
+            BlockBuilder blockBuilder = new BlockBuilder(block.getTupleInfo());
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                cursor.appendTupleTo(blockBuilder);
+            }
+            block = blockBuilder.build();
+        }
+        return block.toRandomAccessBlock();
+    }
+
+    private static int compareValues(SortOrder sortOrder, RandomAccessBlock left, int leftPosition, RandomAccessBlock right, int rightPosition)
+    {
+        boolean leftIsNull = left.isNull(leftPosition);
+        boolean rightIsNull = right.isNull(rightPosition);
+
+        if (leftIsNull && rightIsNull) {
+            return 0;
+        }
+
+        if (leftIsNull) {
+            return sortOrder.isNullsFirst() ? -1 : 1;
+        }
+
+        if (rightIsNull) {
+            return sortOrder.isNullsFirst() ? 1 : -1;
+        }
+
+        int comparison;
+        switch (left.getTupleInfo().getType()) {
+            case BOOLEAN:
+                comparison = Boolean.compare(left.getBoolean(leftPosition), right.getBoolean(rightPosition));
+                break;
+            case FIXED_INT_64:
+                comparison = Long.compare(left.getLong(leftPosition), right.getLong(rightPosition));
+                break;
+            case DOUBLE:
+                comparison = Double.compare(left.getDouble(leftPosition), right.getDouble(rightPosition));
+                break;
+            case VARIABLE_BINARY:
+                comparison = left.getSlice(leftPosition).compareTo(right.getSlice(rightPosition));
+                break;
+            default:
+                throw new AssertionError("unimplemented type: " + left.getTupleInfo().getType());
+        }
+        return sortOrder.isAscending() ? comparison : -comparison;
+    }
+
+    private static void appendValueTo(RandomAccessBlock block, int position, BlockBuilder blockBuilder)
+    {
+        if (block.isNull(position)) {
+            blockBuilder.appendNull();
+            return;
+        }
+
+        switch (block.getTupleInfo().getType()) {
+            case BOOLEAN:
+                blockBuilder.append(block.getBoolean(position));
+                break;
+            case FIXED_INT_64:
+                blockBuilder.append(block.getLong(position));
+                break;
+            case DOUBLE:
+                blockBuilder.append(block.getDouble(position));
+                break;
+            case VARIABLE_BINARY:
+                blockBuilder.append(block.getSlice(position));
+                break;
+            default:
+                throw new AssertionError("unimplemented type: " + block.getTupleInfo().getType());
+        }
+    }
+
+    private static class PagesRowIterator
+            extends AbstractIterator<TupleReadable[]>
+    {
+        private final Iterator<Page> pages;
+        private BlockCursor[] cursors;
+
+        private PagesRowIterator(Iterator<Page> pages)
+        {
+            this.pages = pages;
+        }
+
+        @Override
+        protected TupleReadable[] computeNext()
+        {
+            while (cursors == null || !advanceCursors()) {
+                if (!pages.hasNext()) {
+                    return endOfData();
+                }
+
+                Page page = pages.next();
+                cursors = new BlockCursor[page.getChannelCount()];
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    cursors[channel] = page.getBlock(channel).cursor();
+                }
+            }
+            return cursors;
+        }
+
+        private boolean advanceCursors()
+        {
+            boolean advanced = true;
+            for (BlockCursor cursor : cursors) {
+                advanced = cursor.advanceNextPosition() && advanced;
             }
-            return minSortedGlobalCandidates.build().reverse().iterator();
+            return advanced;
         }
     }
 
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleReadable;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
+
+/**
+ * Reads the values of an uncompressed block directly from the block slice.
+ * Unlike a {@link com.facebook.presto.block.BlockCursor}, the reader can be
+ * positioned at any position, which allows generated code to evaluate
+ * expressions only for selected positions of a page.  Fixed width values are
+ * located by their position, and the offsets of variable width values are
+ * computed once when the reader is created.
+ */
+public final class UncompressedBlockReader
+        implements TupleReadable
+{
+    private final TupleInfo tupleInfo;
+    private final Slice slice;
+    private final int sliceOffset;
+    private final int entrySize;
+    private final int[] offsets;
+    private final int positionCount;
+
+    private int offset;
+
+    public static boolean isSupported(Block block)
+    {
+        return block instanceof UncompressedBlock;
+    }
+
+    public static UncompressedBlockReader forBlock(Block block)
+    {
+        checkNotNull(block, "block is null");
+        checkArgument(isSupported(block), "Block is not an uncompressed block: %s", block);
+        return new UncompressedBlockReader((UncompressedBlock) block);
+    }
+
+    private UncompressedBlockReader(UncompressedBlock block)
+    {
+        this.tupleInfo = block.getTupleInfo();
+        this.slice = block.getSlice();
+        this.sliceOffset = block.getSliceOffset();
+        this.positionCount = block.getPositionCount();
+
+        if (tupleInfo.getType().isFixedSize()) {
+            this.entrySize = tupleInfo.getFixedSize();
+            this.offsets = null;
+        }
+        else {
+            this.entrySize = -1;
+            this.offsets = new int[positionCount];
+            int entryOffset = sliceOffset;
+            for (int position = 0; position < positionCount; position++) {
+                offsets[position] = entryOffset;
+                entryOffset += tupleInfo.size(slice, entryOffset);
+            }
+        }
+        this.offset = sliceOffset;
+    }
+
+    public int getPositionCount()
+    {
+        return positionCount;
+    }
+
+    public void setPosition(int position)
+    {
+        if (offsets == null) {
+            offset = sliceOffset + (position * entrySize);
+        }
+        else {
+            checkElementIndex(position, positionCount, "position");
+            offset = offsets[position];
+        }
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public Tuple getTuple()
+    {
+        int size = tupleInfo.size(slice, offset);
+        Slice copy = Slices.allocate(size);
+        copy.setBytes(0, slice, offset, size);
+        return new Tuple(copy, tupleInfo);
+    }
+
+    @Override
+    public boolean getBoolean()
+    {
+        return slice.getByte(offset + SIZE_OF_BYTE) != 0;
+    }
+
+    @Override
+    public long getLong()
+    {
+        return slice.getLong(offset + SIZE_OF_BYTE);
+    }
+
+    @Override
+    public double getDouble()
+    {
+        return slice.getDouble(offset + SIZE_OF_BYTE);
+    }
+
+    @Override
+    public Slice getSlice()
+    {
+        return tupleInfo.getSlice(slice, offset);
+    }
+
+    @Override
+    public boolean isNull()
+    {
+        return slice.getByte(offset) != 0;
+    }
+}
@@ -16,13 +16,17 @@ package com.facebook.presto.operator;
 import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
 import com.facebook.presto.operator.window.WindowFunction;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ObjectArrays;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
 import it.unimi.dsi.fastutil.ints.IntComparator;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.facebook.presto.operator.SortOrder.ASC_NULLS_LAST;
@@ -30,7 +34,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class WindowOperator
-        implements Operator
+        implements Operator, AutoCloseable
 {
     public static class WindowOperatorFactory
             implements OperatorFactory
@@ -43,6 +47,7 @@ public class WindowOperator
         private final int[] sortChannels;
         private final SortOrder[] sortOrder;
         private final int expectedPositions;
+        private final Optional<File> spillDirectory;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -55,6 +60,20 @@ public class WindowOperator
                 int[] sortChannels,
                 SortOrder[] sortOrder,
                 int expectedPositions)
+        {
+            this(operatorId, sourceTupleInfos, outputChannels, windowFunctions, partitionChannels, sortChannels, sortOrder, expectedPositions, Optional.<File>absent());
+        }
+
+        public WindowOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int[] outputChannels,
+                List<WindowFunction> windowFunctions,
+                int[] partitionChannels,
+                int[] sortChannels,
+                SortOrder[] sortOrder,
+                int expectedPositions,
+                Optional<File> spillDirectory)
         {
             this.operatorId = operatorId;
             this.sourceTupleInfos = sourceTupleInfos;
@@ -64,6 +83,7 @@ public class WindowOperator
             this.sortChannels = sortChannels;
             this.sortOrder = sortOrder;
             this.expectedPositions = expectedPositions;
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
             this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels, windowFunctions);
         }
@@ -88,7 +108,8 @@ public class WindowOperator
                     partitionChannels,
                     sortChannels,
                     sortOrder,
-                    expectedPositions);
+                    expectedPositions,
+                    spillDirectory);
         }
 
         @Override
@@ -106,6 +127,8 @@ public class WindowOperator
     }
 
     private final OperatorContext operatorContext;
+    private final List<TupleInfo> sourceTupleInfos;
+    private final int expectedPositions;
     private final int[] outputChannels;
     private final List<WindowFunction> windowFunctions;
     private final int[] partitionChannels;
@@ -113,7 +136,9 @@ public class WindowOperator
     private final SortOrder[] sortOrder;
     private final List<TupleInfo> tupleInfos;
 
-    private final PagesIndex pageIndex;
+    private final ExternalSorter externalSorter;
+    private PagesIndex pageIndex;
+    private Iterator<Page> sortedPages;
 
     private final PageBuilder pageBuilder;
 
@@ -136,9 +161,12 @@ public class WindowOperator
             int[] partitionChannels,
             int[] sortChannels,
             SortOrder[] sortOrder,
-            int expectedPositions)
+            int expectedPositions,
+            Optional<File> spillDirectory)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
+        this.expectedPositions = expectedPositions;
         this.outputChannels = checkNotNull(outputChannels, "outputChannels is null").clone();
         this.windowFunctions = checkNotNull(windowFunctions, "windowFunctions is null");
         this.partitionChannels = checkNotNull(partitionChannels, "partitionChannels is null").clone();
@@ -147,7 +175,15 @@ public class WindowOperator
 
         this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels, windowFunctions);
 
-        this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        if (spillDirectory.isPresent()) {
+            this.externalSorter = new ExternalSorter(sourceTupleInfos, expectedPositions, getOrderChannels(), getOrdering(), operatorContext, spillDirectory.get());
+            this.pageIndex = null;
+        }
+        else {
+            this.externalSorter = null;
+            this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        }
         this.pageBuilder = new PageBuilder(this.tupleInfos);
     }
 
@@ -169,22 +205,21 @@ public class WindowOperator
         if (state == State.NEEDS_INPUT) {
             state = State.HAS_OUTPUT;
 
-            // sort by partition channels, then sort channels
-            int[] orderChannels = Ints.concat(partitionChannels, sortChannels);
-
-            SortOrder[] partitionOrder = new SortOrder[partitionChannels.length];
-            Arrays.fill(partitionOrder, ASC_NULLS_LAST);
-
-            SortOrder[] ordering = ObjectArrays.concat(partitionOrder, sortOrder, SortOrder.class);
-
-            // sort the index
-            pageIndex.sort(orderChannels, ordering);
+            if (externalSorter != null && externalSorter.isSpilled()) {
+                // partitions are loaded into a new index as the sorted runs are merged
+                sortedPages = externalSorter.mergeSortedRuns();
+                pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+            }
+            else {
+                if (externalSorter != null) {
+                    pageIndex = externalSorter.getPagesIndex();
+                }
 
-            // create partition comparator
-            partitionComparator = new MultiSliceFieldOrderedTupleComparator(pageIndex, partitionChannels, partitionOrder);
+                // sort by partition channels, then sort channels
+                pageIndex.sort(getOrderChannels(), getOrdering());
+            }
 
-            // create order comparator
-            orderComparator = new MultiSliceFieldOrderedTupleComparator(pageIndex, sortChannels, sortOrder);
+            createComparators();
         }
     }
 
@@ -212,7 +247,12 @@ public class WindowOperator
         checkState(state == State.NEEDS_INPUT, "Operator is already finishing");
         checkNotNull(page, "page is null");
 
-        pageIndex.addPage(page);
+        if (externalSorter != null) {
+            externalSorter.addPage(page);
+        }
+        else {
+            pageIndex.addPage(page);
+        }
     }
 
     @Override
@@ -222,6 +262,10 @@ public class WindowOperator
             return null;
         }
 
+        if (sortedPages != null && (currentPosition == 0 || currentPosition == partitionEnd)) {
+            loadNextPartition();
+        }
+
         if (currentPosition >= pageIndex.getPositionCount()) {
             state = State.FINISHED;
             return null;
@@ -232,6 +276,12 @@ public class WindowOperator
         while (!pageBuilder.isFull() && currentPosition < pageIndex.getPositionCount()) {
             // check for new partition
             boolean newPartition = (currentPosition == 0) || (currentPosition == partitionEnd);
+            if (newPartition && sortedPages != null) {
+                loadNextPartition();
+                if (currentPosition >= pageIndex.getPositionCount()) {
+                    break;
+                }
+            }
             if (newPartition) {
                 // find end of partition
                 partitionEnd++;
@@ -284,6 +334,87 @@ public class WindowOperator
         return page;
     }
 
+    @Override
+    public void close()
+    {
+        if (externalSorter != null) {
+            externalSorter.close();
+        }
+        operatorContext.setMemoryReservation(0);
+    }
+
+    /**
+     * Makes sure the partition starting at the current position is completely loaded
+     * from the merged sorted runs.  Positions of partitions that were already output
+     * are removed from the index before more pages are loaded.
+     */
+    private void loadNextPartition()
+    {
+        // input is sorted, so the partition is complete once a later position belongs to another partition
+        int positionCount = pageIndex.getPositionCount();
+        if (!sortedPages.hasNext() || (currentPosition < positionCount && partitionComparator.compare(currentPosition, positionCount - 1) != 0)) {
+            return;
+        }
+
+        if (currentPosition > 0) {
+            // the old index is alive while the remaining positions are copied, so both are reserved
+            long indexSize = pageIndex.getEstimatedSize().toBytes();
+            long remainingSize = 0;
+            List<Page> remainingPages = new ArrayList<>();
+            PageBuilder remainingPageBuilder = new PageBuilder(sourceTupleInfos);
+            for (int position = currentPosition; position < pageIndex.getPositionCount(); position++) {
+                for (int channel = 0; channel < sourceTupleInfos.size(); channel++) {
+                    pageIndex.appendTupleTo(channel, position, remainingPageBuilder.getBlockBuilder(channel));
+                }
+                if (remainingPageBuilder.isFull() || position == pageIndex.getPositionCount() - 1) {
+                    Page page = remainingPageBuilder.build();
+                    remainingPages.add(page);
+                    remainingSize += page.getDataSize().toBytes();
+                    operatorContext.setMemoryReservation(indexSize + remainingSize);
+                    remainingPageBuilder.reset();
+                }
+            }
+
+            // the new index replaces the reservation of the old one
+            pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+            for (Page page : remainingPages) {
+                pageIndex.addPage(page);
+            }
+            currentPosition = 0;
+            partitionEnd = 0;
+            peerGroupEnd = 0;
+            createComparators();
+        }
+
+        while (sortedPages.hasNext() && (pageIndex.getPositionCount() == 0 || partitionComparator.compare(0, pageIndex.getPositionCount() - 1) == 0)) {
+            pageIndex.addPage(sortedPages.next());
+        }
+    }
+
+    private void createComparators()
+    {
+        SortOrder[] partitionOrder = new SortOrder[partitionChannels.length];
+        Arrays.fill(partitionOrder, ASC_NULLS_LAST);
+
+        // create partition comparator
+        partitionComparator = new MultiSliceFieldOrderedTupleComparator(pageIndex, partitionChannels, partitionOrder);
+
+        // create order comparator
+        orderComparator = new MultiSliceFieldOrderedTupleComparator(pageIndex, sortChannels, sortOrder);
+    }
+
+    private int[] getOrderChannels()
+    {
+        return Ints.concat(partitionChannels, sortChannels);
+    }
+
+    private SortOrder[] getOrdering()
+    {
+        SortOrder[] partitionOrder = new SortOrder[partitionChannels.length];
+        Arrays.fill(partitionOrder, ASC_NULLS_LAST);
+        return ObjectArrays.concat(partitionOrder, sortOrder, SortOrder.class);
+    }
+
     private static List<TupleInfo> toTupleInfos(List<TupleInfo> sourceTupleInfos, int[] outputChannels, List<WindowFunction> windowFunctions)
     {
         ImmutableList.Builder<TupleInfo> tupleInfosBuilder = ImmutableList.builder();
@@ -19,17 +19,25 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.io.InputSupplier;
+import io.airlift.slice.DynamicSliceOutput;
 import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+import org.iq80.snappy.Snappy;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.zip.CRC32;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Arrays.asList;
 
 public final class PagesSerde
 {
+    private static final byte UNCOMPRESSED_FRAME = 0;
+    private static final byte SNAPPY_FRAME = 1;
+
     private PagesSerde()
     {
     }
@@ -47,23 +55,42 @@ public final class PagesSerde
                 Preconditions.checkNotNull(page, "page is null");
 
                 if (blockEncodings == null) {
-                    Block[] blocks = page.getBlocks();
-                    blockEncodings = new BlockEncoding[blocks.length];
-                    sliceOutput.writeInt(blocks.length);
-                    for (int i = 0; i < blocks.length; i++) {
-                        Block block = blocks[i];
-                        BlockEncoding blockEncoding = block.getEncoding();
-                        blockEncodings[i] = blockEncoding;
-                        BlockEncodings.writeBlockEncoding(sliceOutput, blockEncoding);
-                    }
+                    blockEncodings = writeBlockEncodings(sliceOutput, page);
                 }
+                writePage(sliceOutput, blockEncodings, page);
+
+                return this;
+            }
+        };
+    }
 
-                sliceOutput.writeInt(page.getPositionCount());
-                Block[] blocks = page.getBlocks();
-                for (int i = 0; i < blocks.length; i++) {
-                    blockEncodings[i].writeBlock(sliceOutput, blocks[i]);
+    /**
+     * Creates a writer for the compressed page format.  The block encodings are
+     * written once as in the uncompressed format, but each page is written as a
+     * frame with the uncompressed size, the codec, the frame size and a CRC32 of
+     * the uncompressed bytes.  Pages that do not shrink are left uncompressed.
+     */
+    public static PagesWriter createCompressedPagesWriter(final SliceOutput sliceOutput)
+    {
+        checkNotNull(sliceOutput, "sliceOutput is null");
+        return new PagesWriter()
+        {
+            private final DynamicSliceOutput pageBuffer = new DynamicSliceOutput(64 * 1024);
+            private BlockEncoding[] blockEncodings;
+
+            @Override
+            public PagesWriter append(Page page)
+            {
+                Preconditions.checkNotNull(page, "page is null");
+
+                if (blockEncodings == null) {
+                    blockEncodings = writeBlockEncodings(sliceOutput, page);
                 }
 
+                pageBuffer.reset();
+                writePage(pageBuffer, blockEncodings, page);
+                writeFrame(sliceOutput, pageBuffer.slice().getBytes());
+
                 return this;
             }
         };
@@ -87,6 +114,64 @@ public final class PagesSerde
         }
     }
 
+    public static void writeCompressedPages(SliceOutput sliceOutput, Page... pages)
+    {
+        writeCompressedPages(sliceOutput, asList(pages));
+    }
+
+    public static void writeCompressedPages(SliceOutput sliceOutput, Iterable<Page> pages)
+    {
+        PagesWriter pagesWriter = createCompressedPagesWriter(sliceOutput);
+        for (Page page : pages) {
+            pagesWriter.append(page);
+        }
+    }
+
+    private static BlockEncoding[] writeBlockEncodings(SliceOutput sliceOutput, Page page)
+    {
+        Block[] blocks = page.getBlocks();
+        BlockEncoding[] blockEncodings = new BlockEncoding[blocks.length];
+        sliceOutput.writeInt(blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            BlockEncoding blockEncoding = blocks[i].getEncoding();
+            blockEncodings[i] = blockEncoding;
+            BlockEncodings.writeBlockEncoding(sliceOutput, blockEncoding);
+        }
+        return blockEncodings;
+    }
+
+    private static void writePage(SliceOutput sliceOutput, BlockEncoding[] blockEncodings, Page page)
+    {
+        sliceOutput.writeInt(page.getPositionCount());
+        Block[] blocks = page.getBlocks();
+        for (int i = 0; i < blocks.length; i++) {
+            blockEncodings[i].writeBlock(sliceOutput, blocks[i]);
+        }
+    }
+
+    private static void writeFrame(SliceOutput sliceOutput, byte[] uncompressed)
+    {
+        CRC32 checksum = new CRC32();
+        checksum.update(uncompressed, 0, uncompressed.length);
+
+        byte[] compressed = new byte[Snappy.maxCompressedLength(uncompressed.length)];
+        int compressedSize = Snappy.compress(uncompressed, 0, uncompressed.length, compressed, 0);
+
+        sliceOutput.writeInt(uncompressed.length);
+        if (compressedSize < uncompressed.length) {
+            sliceOutput.writeByte(SNAPPY_FRAME);
+            sliceOutput.writeInt(compressedSize);
+            sliceOutput.writeInt((int) checksum.getValue());
+            sliceOutput.writeBytes(compressed, 0, compressedSize);
+        }
+        else {
+            sliceOutput.writeByte(UNCOMPRESSED_FRAME);
+            sliceOutput.writeInt(uncompressed.length);
+            sliceOutput.writeInt((int) checksum.getValue());
+            sliceOutput.writeBytes(uncompressed);
+        }
+    }
+
     public Iterable<Page> readPages(final InputSupplier<SliceInput> sliceInputSupplier)
     {
         Preconditions.checkNotNull(sliceInputSupplier, "sliceInputSupplier is null");
@@ -112,6 +197,36 @@ public final class PagesSerde
         return new PagesReader(sliceInput);
     }
 
+    public static Iterator<Page> readCompressedPages(SliceInput sliceInput)
+    {
+        Preconditions.checkNotNull(sliceInput, "sliceInput is null");
+        return new CompressedPagesReader(sliceInput);
+    }
+
+    private static BlockEncoding[] readBlockEncodings(SliceInput sliceInput)
+    {
+        if (!sliceInput.isReadable()) {
+            return new BlockEncoding[0];
+        }
+
+        int channelCount = sliceInput.readInt();
+        BlockEncoding[] blockEncodings = new BlockEncoding[channelCount];
+        for (int i = 0; i < blockEncodings.length; i++) {
+            blockEncodings[i] = BlockEncodings.readBlockEncoding(sliceInput);
+        }
+        return blockEncodings;
+    }
+
+    private static Page readPage(SliceInput sliceInput, BlockEncoding[] blockEncodings)
+    {
+        int positions = sliceInput.readInt();
+        Block[] blocks = new Block[blockEncodings.length];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = blockEncodings[i].readBlock(sliceInput);
+        }
+        return new Page(positions, blocks);
+    }
+
     private static class PagesReader
             extends AbstractIterator<Page>
     {
@@ -121,19 +236,29 @@ public final class PagesSerde
         public PagesReader(SliceInput sliceInput)
         {
             this.sliceInput = sliceInput;
+            this.blockEncodings = readBlockEncodings(sliceInput);
+        }
 
+        @Override
+        protected Page computeNext()
+        {
             if (!sliceInput.isReadable()) {
-                endOfData();
-                blockEncodings = new BlockEncoding[0];
+                return endOfData();
             }
-            else {
-                int channelCount = sliceInput.readInt();
+            return readPage(sliceInput, blockEncodings);
+        }
+    }
 
-                blockEncodings = new BlockEncoding[channelCount];
-                for (int i = 0; i < blockEncodings.length; i++) {
-                    blockEncodings[i] = BlockEncodings.readBlockEncoding(sliceInput);
-                }
-            }
+    private static class CompressedPagesReader
+            extends AbstractIterator<Page>
+    {
+        private final BlockEncoding[] blockEncodings;
+        private final SliceInput sliceInput;
+
+        public CompressedPagesReader(SliceInput sliceInput)
+        {
+            this.sliceInput = sliceInput;
+            this.blockEncodings = readBlockEncodings(sliceInput);
         }
 
         @Override
@@ -143,13 +268,31 @@ public final class PagesSerde
                 return endOfData();
             }
 
-            int positions = sliceInput.readInt();
-            Block[] blocks = new Block[blockEncodings.length];
-            for (int i = 0; i < blocks.length; i++) {
-                blocks[i] = blockEncodings[i].readBlock(sliceInput);
+            int uncompressedSize = sliceInput.readInt();
+            byte codec = sliceInput.readByte();
+            int frameSize = sliceInput.readInt();
+            int expectedChecksum = sliceInput.readInt();
+            byte[] frame = sliceInput.readSlice(frameSize).getBytes();
+
+            byte[] uncompressed;
+            switch (codec) {
+                case UNCOMPRESSED_FRAME:
+                    uncompressed = frame;
+                    break;
+                case SNAPPY_FRAME:
+                    uncompressed = new byte[uncompressedSize];
+                    Snappy.uncompress(frame, 0, frameSize, uncompressed, 0);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown page frame codec " + codec);
             }
-            Page page = new Page(positions, blocks);
-            return page;
+            checkState(uncompressed.length == uncompressedSize, "Expected page of %s bytes, but got %s bytes", uncompressedSize, uncompressed.length);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(uncompressed, 0, uncompressed.length);
+            checkState((int) checksum.getValue() == expectedChecksum, "Page checksum mismatch");
+
+            return readPage(Slices.wrappedBuffer(uncompressed).getInput(), blockEncodings);
         }
     }
 }
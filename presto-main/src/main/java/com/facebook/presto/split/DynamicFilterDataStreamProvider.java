@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.split;
+
+import com.facebook.presto.operator.DynamicFilter;
+import com.facebook.presto.operator.Operator;
+import com.facebook.presto.operator.OperatorContext;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.RecordProjectOperator;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Applies a {@link DynamicFilter} to the data streams of another provider.
+ */
+public class DynamicFilterDataStreamProvider
+        implements DataStreamProvider
+{
+    private final DataStreamProvider dataStreamProvider;
+    private final DynamicFilter dynamicFilter;
+
+    public DynamicFilterDataStreamProvider(DataStreamProvider dataStreamProvider, DynamicFilter dynamicFilter)
+    {
+        this.dataStreamProvider = checkNotNull(dataStreamProvider, "dataStreamProvider is null");
+        this.dynamicFilter = checkNotNull(dynamicFilter, "dynamicFilter is null");
+    }
+
+    @Override
+    public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
+    {
+        Operator dataStream = dataStreamProvider.createNewDataStream(operatorContext, split, columns);
+        if (dataStream instanceof RecordProjectOperator) {
+            RecordCursor cursor = ((RecordProjectOperator) dataStream).getCursor();
+
+            ImmutableList.Builder<ColumnType> columnTypes = ImmutableList.builder();
+            for (int field = 0; field < columns.size(); field++) {
+                columnTypes.add(cursor.getType(field));
+            }
+            return new RecordProjectOperator(operatorContext, columnTypes.build(), new DynamicFilterRecordCursor(cursor, dynamicFilter));
+        }
+        return new DynamicFilterOperator(dataStream, dynamicFilter);
+    }
+
+    private static class DynamicFilterRecordCursor
+            implements RecordCursor
+    {
+        private final RecordCursor cursor;
+        private final DynamicFilter dynamicFilter;
+
+        private DynamicFilterRecordCursor(RecordCursor cursor, DynamicFilter dynamicFilter)
+        {
+            this.cursor = cursor;
+            this.dynamicFilter = dynamicFilter;
+        }
+
+        @Override
+        public boolean advanceNextPosition()
+        {
+            while (cursor.advanceNextPosition()) {
+                if (!dynamicFilter.isReady() || dynamicFilter.contains(cursor)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long getTotalBytes()
+        {
+            return cursor.getTotalBytes();
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return cursor.getCompletedBytes();
+        }
+
+        @Override
+        public ColumnType getType(int field)
+        {
+            return cursor.getType(field);
+        }
+
+        @Override
+        public boolean getBoolean(int field)
+        {
+            return cursor.getBoolean(field);
+        }
+
+        @Override
+        public long getLong(int field)
+        {
+            return cursor.getLong(field);
+        }
+
+        @Override
+        public double getDouble(int field)
+        {
+            return cursor.getDouble(field);
+        }
+
+        @Override
+        public byte[] getString(int field)
+        {
+            return cursor.getString(field);
+        }
+
+        @Override
+        public Slice getSlice(int field)
+        {
+            return cursor.getSlice(field);
+        }
+
+        @Override
+        public boolean isNull(int field)
+        {
+            return cursor.isNull(field);
+        }
+
+        @Override
+        public void close()
+        {
+            cursor.close();
+        }
+    }
+
+    private static class DynamicFilterOperator
+            implements Operator
+    {
+        private final Operator operator;
+        private final DynamicFilter dynamicFilter;
+
+        private DynamicFilterOperator(Operator operator, DynamicFilter dynamicFilter)
+        {
+            this.operator = operator;
+            this.dynamicFilter = dynamicFilter;
+        }
+
+        @Override
+        public OperatorContext getOperatorContext()
+        {
+            return operator.getOperatorContext();
+        }
+
+        @Override
+        public List<TupleInfo> getTupleInfos()
+        {
+            return operator.getTupleInfos();
+        }
+
+        @Override
+        public void finish()
+        {
+            operator.finish();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return operator.isFinished();
+        }
+
+        @Override
+        public ListenableFuture<?> isBlocked()
+        {
+            return operator.isBlocked();
+        }
+
+        @Override
+        public boolean needsInput()
+        {
+            return operator.needsInput();
+        }
+
+        @Override
+        public void addInput(Page page)
+        {
+            operator.addInput(page);
+        }
+
+        @Override
+        public Page getOutput()
+        {
+            Page page = operator.getOutput();
+            if (page == null || !dynamicFilter.isReady()) {
+                return page;
+            }
+            return dynamicFilter.filter(page);
+        }
+    }
+}
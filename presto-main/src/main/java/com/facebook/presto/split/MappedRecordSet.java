@@ -18,6 +18,7 @@ import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
 
 import java.util.List;
 
@@ -116,6 +117,12 @@ public class MappedRecordSet
             return delegate.getString(userFieldToSystemField(field));
         }
 
+        @Override
+        public Slice getSlice(int field)
+        {
+            return delegate.getSlice(userFieldToSystemField(field));
+        }
+
         @Override
         public boolean isNull(int field)
         {
@@ -69,7 +69,6 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Primitives;
 import io.airlift.slice.Slice;
-import io.airlift.slice.Slices;
 
 import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.MethodHandle;
@@ -92,9 +91,11 @@ import static com.facebook.presto.byteCode.instruction.JumpInstruction.jump;
 import static com.facebook.presto.sql.gen.SliceConstant.sliceConstant;
 import static com.facebook.presto.sql.gen.TypedByteCodeNode.typedByteCodeNode;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Iterables.transform;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
 import static java.lang.String.format;
 import static java.lang.invoke.MethodHandles.lookup;
 
@@ -104,14 +105,35 @@ public class ByteCodeExpressionVisitor
     private final BootstrapFunctionBinder bootstrapFunctionBinder;
     private final Map<Input, Type> inputTypes;
     private final ByteCodeNode getSessionByteCode;
-    private final boolean sourceIsCursor;
+    private final InputSource inputSource;
 
-    public ByteCodeExpressionVisitor(BootstrapFunctionBinder bootstrapFunctionBinder, Map<Input, Type> inputTypes, ByteCodeNode getSessionByteCode, boolean sourceIsCursor)
+    /**
+     * Where the generated code reads the inputs of the expression from.
+     */
+    public enum InputSource
+    {
+        /**
+         * The fields of a {@link RecordCursor} in the variable "cursor".
+         */
+        CURSOR,
+        /**
+         * A {@link TupleReadable} per channel in the variables "channel_N".
+         */
+        TUPLE_READABLE,
+        /**
+         * Fixed width values are read from the slice of an uncompressed block in
+         * the variables "slice_N", at the offset of the current position in the
+         * variables "offset_N".  Other values are read like {@link #TUPLE_READABLE}.
+         */
+        BLOCK_SLICE
+    }
+
+    public ByteCodeExpressionVisitor(BootstrapFunctionBinder bootstrapFunctionBinder, Map<Input, Type> inputTypes, ByteCodeNode getSessionByteCode, InputSource inputSource)
     {
         this.bootstrapFunctionBinder = bootstrapFunctionBinder;
         this.inputTypes = inputTypes;
         this.getSessionByteCode = getSessionByteCode;
-        this.sourceIsCursor = sourceIsCursor;
+        this.inputSource = checkNotNull(inputSource, "inputSource is null");
     }
 
     @Override
@@ -153,7 +175,7 @@ public class ByteCodeExpressionVisitor
         Type type = inputTypes.get(input);
         checkState(type != null, "No type for input %s", input);
 
-        if (sourceIsCursor) {
+        if (inputSource == InputSource.CURSOR) {
             Block isNullCheck = new Block(context)
                     .setDescription(format("cursor.get%s(%d)", type, channel))
                     .getVariable("cursor")
@@ -205,8 +227,7 @@ public class ByteCodeExpressionVisitor
                     Block isNotNull = new Block(context)
                             .getVariable("cursor")
                             .push(channel)
-                            .invokeInterface(RecordCursor.class, "getString", byte[].class, int.class)
-                            .invokeStatic(Slices.class, "wrappedBuffer", Slice.class, byte[].class);
+                            .invokeInterface(RecordCursor.class, "getSlice", Slice.class, int.class);
 
                     return typedByteCodeNode(new IfStatement(context, isNullCheck, isNull, isNotNull), Slice.class);
                 }
@@ -214,6 +235,9 @@ public class ByteCodeExpressionVisitor
                     throw new UnsupportedOperationException("not yet implemented: " + type);
             }
         }
+        else if (inputSource == InputSource.BLOCK_SLICE && type != Type.VARCHAR) {
+            return visitBlockSliceInput(channel, type, context);
+        }
         else {
             Block isNullCheck = new Block(context)
                     .setDescription(format("channel_%d.get%s()", channel, type))
@@ -271,6 +295,49 @@ public class ByteCodeExpressionVisitor
         }
     }
 
+    private TypedByteCodeNode visitBlockSliceInput(int channel, Type type, CompilerContext context)
+    {
+        // an entry of an uncompressed block is a null flag byte followed by the value
+        Block isNullCheck = new Block(context)
+                .setDescription(format("slice_%d.get%s(offset_%d)", channel, type, channel))
+                .getVariable("slice_" + channel)
+                .getVariable("offset_" + channel)
+                .invokeVirtual(Slice.class, "getByte", byte.class, int.class);
+
+        Block isNotNull = new Block(context)
+                .getVariable("slice_" + channel)
+                .getVariable("offset_" + channel)
+                .push(SIZE_OF_BYTE)
+                .intAdd();
+
+        Class<?> javaType;
+        switch (type) {
+            case BOOLEAN:
+                javaType = boolean.class;
+                isNotNull.invokeVirtual(Slice.class, "getByte", byte.class, int.class)
+                        .push(0)
+                        .invokeStatic(Operations.class, "equal", boolean.class, int.class, int.class)
+                        .invokeStatic(Operations.class, "not", boolean.class, boolean.class);
+                break;
+            case BIGINT:
+                javaType = long.class;
+                isNotNull.invokeVirtual(Slice.class, "getLong", long.class, int.class);
+                break;
+            case DOUBLE:
+                javaType = double.class;
+                isNotNull.invokeVirtual(Slice.class, "getDouble", double.class, int.class);
+                break;
+            default:
+                throw new UnsupportedOperationException("not yet implemented: " + type);
+        }
+
+        Block isNull = new Block(context)
+                .putVariable("wasNull", true)
+                .pushJavaDefault(javaType);
+
+        return typedByteCodeNode(new IfStatement(context, isNullCheck, isNull, isNotNull), javaType);
+    }
+
     @Override
     protected TypedByteCodeNode visitCurrentTime(CurrentTime node, CompilerContext context)
     {
@@ -15,6 +15,7 @@ package com.facebook.presto.sql.gen;
 
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.byteCode.Block;
 import com.facebook.presto.byteCode.ClassDefinition;
 import com.facebook.presto.byteCode.ClassInfoLoader;
@@ -40,16 +41,21 @@ import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorContext;
 import com.facebook.presto.operator.OperatorFactory;
 import com.facebook.presto.operator.PageBuilder;
+import com.facebook.presto.operator.SelectedPositions;
 import com.facebook.presto.operator.SourceOperator;
 import com.facebook.presto.operator.SourceOperatorFactory;
+import com.facebook.presto.operator.UncompressedBlockReader;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.split.DataStreamProvider;
+import com.facebook.presto.sql.gen.ByteCodeExpressionVisitor.InputSource;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.analyzer.Type;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.sql.tree.DefaultExpressionTraversalVisitor;
 import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.Input;
+import com.facebook.presto.sql.tree.InputReference;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleReadable;
 import com.google.common.annotations.VisibleForTesting;
@@ -60,6 +66,8 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
 import com.google.common.io.Files;
 import io.airlift.log.Logger;
@@ -86,6 +94,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -99,9 +108,13 @@ import static com.facebook.presto.byteCode.OpCodes.NOP;
 import static com.facebook.presto.byteCode.ParameterizedType.type;
 import static com.facebook.presto.byteCode.ParameterizedType.typeFromPathName;
 import static com.facebook.presto.byteCode.control.ForLoop.forLoopBuilder;
+import static com.facebook.presto.sql.planner.DeterminismEvaluator.deterministic;
+import static com.facebook.presto.sql.planner.DeterminismEvaluator.isDeterministic;
 import static com.google.common.base.Objects.toStringHelper;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Iterables.all;
+import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.transform;
 import static java.util.Collections.nCopies;
 
@@ -275,7 +288,12 @@ public class ExpressionCompiler
                 .putField(sessionField)
                 .ret();
 
-        generateFilterAndProjectRowOriented(classDefinition, projections, inputTypes);
+        generateFilterAndProjectRowOriented(classDefinition, "filterAndProjectRowOriented", projections, inputTypes);
+        generateFilterAndProjectRowOriented(classDefinition, "filterRowOriented", ImmutableList.<Expression>of(), inputTypes);
+        generateFilterAndProjectColumnar(classDefinition, filter, projections, inputTypes);
+        generateIsDeterministicMethod(classDefinition, filter, projections);
+        generateIsChannelMethod(classDefinition, "isFilterChannel", extractInputChannels(ImmutableList.of(filter)));
+        generateIsChannelMethod(classDefinition, "isInputChannel", extractInputChannels(concat(ImmutableList.of(filter), projections)));
 
         //
         // filter method
@@ -408,7 +426,12 @@ public class ExpressionCompiler
                 .putField(sessionField)
                 .ret();
 
-        generateFilterAndProjectRowOriented(classDefinition, projections, inputTypes);
+        generateFilterAndProjectRowOriented(classDefinition, "filterAndProjectRowOriented", projections, inputTypes);
+        generateFilterAndProjectRowOriented(classDefinition, "filterRowOriented", ImmutableList.<Expression>of(), inputTypes);
+        generateFilterAndProjectColumnar(classDefinition, filter, projections, inputTypes);
+        generateIsDeterministicMethod(classDefinition, filter, projections);
+        generateIsChannelMethod(classDefinition, "isFilterChannel", extractInputChannels(ImmutableList.of(filter)));
+        generateIsChannelMethod(classDefinition, "isInputChannel", extractInputChannels(concat(ImmutableList.of(filter), projections)));
         generateFilterAndProjectCursorMethod(classDefinition, projections);
 
         //
@@ -460,12 +483,13 @@ public class ExpressionCompiler
     }
 
     private void generateFilterAndProjectRowOriented(ClassDefinition classDefinition,
+            String methodName,
             List<Expression> projections,
             Map<Input, Type> inputTypes)
     {
         MethodDefinition filterAndProjectMethod = classDefinition.declareMethod(new CompilerContext(bootstrapMethod),
                 a(PUBLIC),
-                "filterAndProjectRowOriented",
+                methodName,
                 type(void.class),
                 arg("blocks", com.facebook.presto.block.Block[].class),
                 arg("pageBuilder", PageBuilder.class));
@@ -484,7 +508,7 @@ public class ExpressionCompiler
                 .putVariable(rowsVariable);
 
         List<LocalVariableDefinition> cursorVariables = new ArrayList<>();
-        int channels = Ordering.natural().max(transform(inputTypes.keySet(), Input.channelGetter())) + 1;
+        int channels = getInputChannelCount(inputTypes);
         for (int i = 0; i < channels; i++) {
             LocalVariableDefinition cursorVariable = compilerContext.declareVariable(BlockCursor.class, "cursor_" + i);
             cursorVariables.add(cursorVariable);
@@ -582,6 +606,360 @@ public class ExpressionCompiler
         filterAndProjectMethod.getBody().ret();
     }
 
+    private void generateFilterAndProjectColumnar(ClassDefinition classDefinition,
+            Expression filter,
+            List<Expression> projections,
+            Map<Input, Type> inputTypes)
+    {
+        MethodDefinition filterAndProjectMethod = classDefinition.declareMethod(new CompilerContext(bootstrapMethod),
+                a(PUBLIC),
+                "filterAndProjectColumnar",
+                type(boolean.class),
+                arg("blocks", com.facebook.presto.block.Block[].class),
+                arg("pageBuilder", PageBuilder.class));
+
+        CompilerContext compilerContext = filterAndProjectMethod.getCompilerContext();
+
+        LocalVariableDefinition indexVariable = compilerContext.declareVariable(int.class, "index");
+        LocalVariableDefinition rowsVariable = compilerContext.declareVariable(int.class, "rows");
+        LocalVariableDefinition selectedPositionsVariable = compilerContext.declareVariable(SelectedPositions.class, "selectedPositions");
+
+        Set<Integer> usedChannels = extractInputChannels(concat(ImmutableList.of(filter), projections));
+
+        // only the channels used by the expressions are read
+        LabelNode unsupported = new LabelNode("unsupported");
+        LabelNode supported = new LabelNode("supported");
+        for (int channel : usedChannels) {
+            filterAndProjectMethod.getBody()
+                    .comment("if (!UncompressedBlockReader.isSupported(blocks[%s])) return false;", channel)
+                    .getVariable("blocks")
+                    .push(channel)
+                    .getObjectArrayElement()
+                    .invokeStatic(UncompressedBlockReader.class, "isSupported", boolean.class, com.facebook.presto.block.Block.class)
+                    .ifFalseGoto(unsupported);
+        }
+        filterAndProjectMethod.getBody()
+                .gotoLabel(supported)
+                .visitLabel(unsupported)
+                .push(false)
+                .retBoolean()
+                .visitLabel(supported);
+
+        filterAndProjectMethod.getBody()
+                .comment("int rows = blocks[0].getPositionCount();")
+                .getVariable("blocks")
+                .push(0)
+                .getObjectArrayElement()
+                .invokeInterface(com.facebook.presto.block.Block.class, "getPositionCount", int.class)
+                .putVariable(rowsVariable);
+
+        filterAndProjectMethod.getBody()
+                .comment("SelectedPositions selectedPositions = SelectedPositions.create(rows);")
+                .getVariable(rowsVariable)
+                .invokeStatic(SelectedPositions.class, "create", SelectedPositions.class, int.class)
+                .putVariable(selectedPositionsVariable);
+
+        // evaluate the filter for every position into the selection vector
+        generateFilterColumnarMethod(classDefinition, filter, inputTypes);
+        filterAndProjectMethod.getBody()
+                .comment("filterColumnar(blocks, rows, selectedPositions);")
+                .pushThis()
+                .getVariable("blocks")
+                .getVariable(rowsVariable)
+                .getVariable(selectedPositionsVariable)
+                .invokeVirtual(classDefinition.getType(),
+                        "filterColumnar",
+                        type(void.class),
+                        type(com.facebook.presto.block.Block[].class),
+                        type(int.class),
+                        type(SelectedPositions.class));
+
+        // project the selected positions one projection at a time
+        if (projections.isEmpty()) {
+            filterAndProjectMethod.getBody().append(selectedPositionsLoop(compilerContext, indexVariable, selectedPositionsVariable)
+                    .body(new Block(compilerContext)
+                            .comment("pageBuilder.declarePosition()")
+                            .getVariable("pageBuilder")
+                            .invokeVirtual(PageBuilder.class, "declarePosition", void.class))
+                    .build());
+        }
+        for (int projectionIndex = 0; projectionIndex < projections.size(); projectionIndex++) {
+            String methodName = "projectColumnar_" + projectionIndex;
+            generateProjectColumnarMethod(classDefinition, methodName, projections.get(projectionIndex), inputTypes);
+            filterAndProjectMethod.getBody()
+                    .comment("%s(blocks, selectedPositions, pageBuilder.getBlockBuilder(%s));", methodName, projectionIndex)
+                    .pushThis()
+                    .getVariable("blocks")
+                    .getVariable(selectedPositionsVariable)
+                    .getVariable("pageBuilder")
+                    .push(projectionIndex)
+                    .invokeVirtual(PageBuilder.class, "getBlockBuilder", BlockBuilder.class, int.class)
+                    .invokeVirtual(classDefinition.getType(),
+                            methodName,
+                            type(void.class),
+                            type(com.facebook.presto.block.Block[].class),
+                            type(SelectedPositions.class),
+                            type(BlockBuilder.class));
+        }
+
+        filterAndProjectMethod.getBody()
+                .push(true)
+                .retBoolean();
+    }
+
+    /**
+     * Generates a loop that adds the positions matching the filter to the selected positions.
+     * The filter is inlined into the loop, and reads fixed width values directly from the block slices.
+     */
+    private void generateFilterColumnarMethod(ClassDefinition classDefinition, Expression filter, Map<Input, Type> inputTypes)
+    {
+        MethodDefinition filterMethod = classDefinition.declareMethod(new CompilerContext(bootstrapMethod),
+                a(PUBLIC),
+                "filterColumnar",
+                type(void.class),
+                arg("blocks", com.facebook.presto.block.Block[].class),
+                arg("rows", int.class),
+                arg("selectedPositions", SelectedPositions.class));
+
+        filterMethod.comment("Filter: %s", filter.toString());
+
+        CompilerContext context = filterMethod.getCompilerContext();
+        context.declareVariable(type(boolean.class), "wasNull");
+        LocalVariableDefinition positionVariable = context.declareVariable(int.class, "position");
+
+        Map<Integer, Type> channelTypes = getChannelTypes(filter, inputTypes);
+        declareColumnarInputs(filterMethod.getBody(), context, channelTypes);
+
+        Block getSessionByteCode = new Block(context).pushThis().getField(classDefinition.getType(), "session", type(Session.class));
+        TypedByteCodeNode body = new ByteCodeExpressionVisitor(bootstrapFunctionBinder, inputTypes, getSessionByteCode, InputSource.BLOCK_SLICE).process(filter, context);
+
+        Block condition = new Block(context);
+        if (body.getType() == void.class) {
+            condition.push(false);
+        }
+        else {
+            LabelNode end = new LabelNode("end");
+            condition.comment("boolean wasNull = false;")
+                    .putVariable("wasNull", false)
+                    .append(body.getNode())
+                    .getVariable("wasNull")
+                    .ifFalseGoto(end)
+                    .pop(boolean.class)
+                    .push(false)
+                    .visitLabel(end);
+        }
+
+        Block loopBody = new Block(context);
+        setColumnarInputPositions(loopBody, channelTypes, positionVariable);
+        loopBody.append(new IfStatementBuilder(context)
+                .comment("if (filter) selectedPositions.add(position);")
+                .condition(condition)
+                .ifTrue(new Block(context)
+                        .getVariable("selectedPositions")
+                        .getVariable(positionVariable)
+                        .invokeVirtual(SelectedPositions.class, "add", void.class, int.class))
+                .build());
+
+        filterMethod.getBody()
+                .append(forLoopBuilder(context)
+                        .comment("for (position = 0; position < rows; position++)")
+                        .initialize(new Block(context).putVariable(positionVariable, 0))
+                        .condition(new Block(context)
+                                .getVariable(positionVariable)
+                                .getVariable("rows")
+                                .invokeStatic(Operations.class, "lessThan", boolean.class, int.class, int.class))
+                        .update(new Block(context).incrementVariable(positionVariable, (byte) 1))
+                        .body(loopBody)
+                        .build())
+                .ret();
+    }
+
+    /**
+     * Generates a loop that appends the projection of every selected position to the output.
+     * The projection is inlined into the loop, and reads fixed width values directly from the block slices.
+     */
+    private void generateProjectColumnarMethod(ClassDefinition classDefinition, String methodName, Expression projection, Map<Input, Type> inputTypes)
+    {
+        MethodDefinition projectionMethod = classDefinition.declareMethod(new CompilerContext(bootstrapMethod),
+                a(PUBLIC),
+                methodName,
+                type(void.class),
+                arg("blocks", com.facebook.presto.block.Block[].class),
+                arg("selectedPositions", SelectedPositions.class),
+                arg("output", BlockBuilder.class));
+
+        projectionMethod.comment("Projection: %s", projection.toString());
+
+        CompilerContext context = projectionMethod.getCompilerContext();
+        context.declareVariable(type(boolean.class), "wasNull");
+        LocalVariableDefinition indexVariable = context.declareVariable(int.class, "index");
+        LocalVariableDefinition positionVariable = context.declareVariable(int.class, "position");
+        LocalVariableDefinition selectedPositionsVariable = context.getVariable("selectedPositions").getLocalVariableDefinition();
+
+        Map<Integer, Type> channelTypes = getChannelTypes(projection, inputTypes);
+        declareColumnarInputs(projectionMethod.getBody(), context, channelTypes);
+
+        Block getSessionByteCode = new Block(context).pushThis().getField(classDefinition.getType(), "session", type(Session.class));
+        TypedByteCodeNode body = new ByteCodeExpressionVisitor(bootstrapFunctionBinder, inputTypes, getSessionByteCode, InputSource.BLOCK_SLICE).process(projection, context);
+
+        Block loopBody = new Block(context)
+                .comment("position = selectedPositions.get(index);")
+                .getVariable(selectedPositionsVariable)
+                .getVariable(indexVariable)
+                .invokeVirtual(SelectedPositions.class, "get", int.class, int.class)
+                .putVariable(positionVariable);
+        setColumnarInputPositions(loopBody, channelTypes, positionVariable);
+        loopBody.append(generateAppendProjection(context, body));
+
+        projectionMethod.getBody()
+                .append(selectedPositionsLoop(context, indexVariable, selectedPositionsVariable)
+                        .body(loopBody)
+                        .build())
+                .ret();
+    }
+
+    private void generateIsDeterministicMethod(ClassDefinition classDefinition, Expression filter, List<Expression> projections)
+    {
+        boolean deterministic = isDeterministic(filter) && all(projections, deterministic());
+        classDefinition.declareMethod(new CompilerContext(bootstrapMethod), a(PUBLIC), "isDeterministic", type(boolean.class))
+                .getBody()
+                .push(deterministic)
+                .retBoolean();
+    }
+
+    private void generateIsChannelMethod(ClassDefinition classDefinition, String methodName, Set<Integer> channels)
+    {
+        MethodDefinition method = classDefinition.declareMethod(new CompilerContext(bootstrapMethod), a(PUBLIC), methodName, type(boolean.class), arg("channel", int.class));
+
+        LabelNode match = new LabelNode("match");
+        for (int channel : channels) {
+            method.getBody()
+                    .comment("if (channel == %s) return true;", channel)
+                    .getVariable("channel")
+                    .push(channel)
+                    .invokeStatic(Operations.class, "equal", boolean.class, int.class, int.class)
+                    .ifTrueGoto(match);
+        }
+        method.getBody()
+                .push(false)
+                .retBoolean()
+                .visitLabel(match)
+                .push(true)
+                .retBoolean();
+    }
+
+    private static ForLoopBuilder selectedPositionsLoop(CompilerContext compilerContext, LocalVariableDefinition indexVariable, LocalVariableDefinition selectedPositionsVariable)
+    {
+        return forLoopBuilder(compilerContext)
+                .comment("for (index = 0; index < selectedPositions.size(); index++)")
+                .initialize(new Block(compilerContext).putVariable(indexVariable, 0))
+                .condition(new Block(compilerContext)
+                        .getVariable(indexVariable)
+                        .getVariable(selectedPositionsVariable)
+                        .invokeVirtual(SelectedPositions.class, "size", int.class)
+                        .invokeStatic(Operations.class, "lessThan", boolean.class, int.class, int.class))
+                .update(new Block(compilerContext).incrementVariable(indexVariable, (byte) 1));
+    }
+
+    private static Map<Integer, Type> getChannelTypes(Expression expression, Map<Input, Type> inputTypes)
+    {
+        ImmutableMap.Builder<Integer, Type> channelTypes = ImmutableMap.builder();
+        for (int channel : extractInputChannels(ImmutableList.of(expression))) {
+            Type type = inputTypes.get(new Input(channel));
+            checkState(type != null, "No type for channel %s", channel);
+            channelTypes.put(channel, type);
+        }
+        return channelTypes.build();
+    }
+
+    /**
+     * Declares the variables read by {@link InputSource#BLOCK_SLICE} expressions.  Fixed width
+     * channels are read from the block slice, and variable width channels through a reader.
+     */
+    private static void declareColumnarInputs(Block block, CompilerContext context, Map<Integer, Type> channelTypes)
+    {
+        for (Entry<Integer, Type> entry : channelTypes.entrySet()) {
+            int channel = entry.getKey();
+            if (entry.getValue() == Type.VARCHAR) {
+                LocalVariableDefinition readerVariable = context.declareVariable(UncompressedBlockReader.class, "channel_" + channel);
+                block.comment("UncompressedBlockReader %s = UncompressedBlockReader.forBlock(blocks[%s]);", readerVariable.getName(), channel)
+                        .getVariable("blocks")
+                        .push(channel)
+                        .getObjectArrayElement()
+                        .invokeStatic(UncompressedBlockReader.class, "forBlock", UncompressedBlockReader.class, com.facebook.presto.block.Block.class)
+                        .putVariable(readerVariable);
+                continue;
+            }
+
+            LocalVariableDefinition sliceVariable = context.declareVariable(Slice.class, "slice_" + channel);
+            LocalVariableDefinition sliceOffsetVariable = context.declareVariable(int.class, "sliceOffset_" + channel);
+            LocalVariableDefinition entrySizeVariable = context.declareVariable(int.class, "entrySize_" + channel);
+            context.declareVariable(int.class, "offset_" + channel);
+            block.comment("UncompressedBlock block_%s = (UncompressedBlock) blocks[%s];", channel, channel)
+                    .getVariable("blocks")
+                    .push(channel)
+                    .getObjectArrayElement()
+                    .checkCast(UncompressedBlock.class)
+                    .dup()
+                    .invokeVirtual(UncompressedBlock.class, "getSlice", Slice.class)
+                    .putVariable(sliceVariable)
+                    .dup()
+                    .invokeVirtual(UncompressedBlock.class, "getSliceOffset", int.class)
+                    .putVariable(sliceOffsetVariable)
+                    .invokeVirtual(UncompressedBlock.class, "getTupleInfo", TupleInfo.class)
+                    .invokeVirtual(TupleInfo.class, "getFixedSize", int.class)
+                    .putVariable(entrySizeVariable);
+        }
+    }
+
+    private static void setColumnarInputPositions(Block block, Map<Integer, Type> channelTypes, LocalVariableDefinition positionVariable)
+    {
+        for (Entry<Integer, Type> entry : channelTypes.entrySet()) {
+            int channel = entry.getKey();
+            if (entry.getValue() == Type.VARCHAR) {
+                block.comment("channel_%s.setPosition(position);", channel)
+                        .getVariable("channel_" + channel)
+                        .getVariable(positionVariable)
+                        .invokeVirtual(UncompressedBlockReader.class, "setPosition", void.class, int.class);
+            }
+            else {
+                block.comment("offset_%s = sliceOffset_%s + position * entrySize_%s;", channel, channel, channel)
+                        .getVariable("sliceOffset_" + channel)
+                        .getVariable(positionVariable)
+                        .getVariable("entrySize_" + channel)
+                        .intMultiply()
+                        .intAdd()
+                        .putVariable("offset_" + channel);
+            }
+        }
+    }
+
+    /**
+     * Returns the channels read by the expressions, which may be fewer than the input types.
+     */
+    private static Set<Integer> extractInputChannels(Iterable<Expression> expressions)
+    {
+        final ImmutableSet.Builder<Integer> channels = ImmutableSet.builder();
+        DefaultExpressionTraversalVisitor<Void, Void> visitor = new DefaultExpressionTraversalVisitor<Void, Void>()
+        {
+            @Override
+            public Void visitInputReference(InputReference node, Void context)
+            {
+                channels.add(node.getInput().getChannel());
+                return null;
+            }
+        };
+        for (Expression expression : expressions) {
+            visitor.process(expression, null);
+        }
+        return channels.build();
+    }
+
+    private static int getInputChannelCount(Map<Input, Type> inputTypes)
+    {
+        return Ordering.natural().max(transform(inputTypes.keySet(), Input.channelGetter())) + 1;
+    }
+
     private void generateFilterAndProjectCursorMethod(ClassDefinition classDefinition, List<Expression> projections)
     {
         MethodDefinition filterAndProjectMethod = classDefinition.declareMethod(new CompilerContext(bootstrapMethod),
@@ -697,7 +1075,7 @@ public class ExpressionCompiler
 
         filterMethod.getCompilerContext().declareVariable(type(boolean.class), "wasNull");
         Block getSessionByteCode = new Block(filterMethod.getCompilerContext()).pushThis().getField(classDefinition.getType(), "session", type(Session.class));
-        TypedByteCodeNode body = new ByteCodeExpressionVisitor(bootstrapFunctionBinder, inputTypes, getSessionByteCode, sourceIsCursor).process(filter, filterMethod.getCompilerContext());
+        TypedByteCodeNode body = new ByteCodeExpressionVisitor(bootstrapFunctionBinder, inputTypes, getSessionByteCode, sourceIsCursor ? InputSource.CURSOR : InputSource.TUPLE_READABLE).process(filter, filterMethod.getCompilerContext());
 
         if (body.getType() == void.class) {
             filterMethod
@@ -754,66 +1132,69 @@ public class ExpressionCompiler
         CompilerContext context = projectionMethod.getCompilerContext();
         context.declareVariable(type(boolean.class), "wasNull");
         Block getSessionByteCode = new Block(context).pushThis().getField(classDefinition.getType(), "session", type(Session.class));
-        TypedByteCodeNode body = new ByteCodeExpressionVisitor(bootstrapFunctionBinder, inputTypes, getSessionByteCode, sourceIsCursor).process(projection, context);
+        TypedByteCodeNode body = new ByteCodeExpressionVisitor(bootstrapFunctionBinder, inputTypes, getSessionByteCode, sourceIsCursor ? InputSource.CURSOR : InputSource.TUPLE_READABLE).process(projection, context);
 
-        if (body.getType() != void.class) {
-            projectionMethod
-                    .getBody()
-                    .comment("boolean wasNull = false;")
-                    .putVariable("wasNull", false)
-                    .getVariable("output")
-                    .append(body.getNode());
-
-            Block notNullBlock = new Block(context);
-            if (body.getType() == boolean.class) {
-                notNullBlock
-                        .comment("output.append(<booleanStackValue>);")
-                        .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, boolean.class)
-                        .pop();
-            }
-            else if (body.getType() == long.class) {
-                notNullBlock
-                        .comment("output.append(<longStackValue>);")
-                        .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, long.class)
-                        .pop();
-            }
-            else if (body.getType() == double.class) {
-                notNullBlock
-                        .comment("output.append(<doubleStackValue>);")
-                        .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, double.class)
-                        .pop();
-            }
-            else if (body.getType() == Slice.class) {
-                notNullBlock
-                        .comment("output.append(<sliceStackValue>);")
-                        .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, Slice.class)
-                        .pop();
-            }
-            else {
-                throw new UnsupportedOperationException("Type " + body.getType() + " can not be output yet");
-            }
+        projectionMethod.getBody()
+                .append(generateAppendProjection(context, body))
+                .ret();
+        return body.getType();
+    }
 
-            Block nullBlock = new Block(context)
-                    .comment("output.appendNull();")
-                    .pop(body.getType())
+    /**
+     * Appends the result of the projection to the block builder in the variable "output".
+     */
+    private static Block generateAppendProjection(CompilerContext context, TypedByteCodeNode body)
+    {
+        Block block = new Block(context);
+        if (body.getType() == void.class) {
+            return block.comment("output.appendNull();")
+                    .getVariable("output")
                     .invokeVirtual(BlockBuilder.class, "appendNull", BlockBuilder.class)
                     .pop();
+        }
+
+        block.comment("boolean wasNull = false;")
+                .putVariable("wasNull", false)
+                .getVariable("output")
+                .append(body.getNode());
 
-            projectionMethod.getBody()
-                    .comment("if the result was null, appendNull; otherwise append the value")
-                    .append(new IfStatement(context, new Block(context).getVariable("wasNull"), nullBlock, notNullBlock))
-                    .ret();
+        Block notNullBlock = new Block(context);
+        if (body.getType() == boolean.class) {
+            notNullBlock
+                    .comment("output.append(<booleanStackValue>);")
+                    .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, boolean.class)
+                    .pop();
+        }
+        else if (body.getType() == long.class) {
+            notNullBlock
+                    .comment("output.append(<longStackValue>);")
+                    .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, long.class)
+                    .pop();
+        }
+        else if (body.getType() == double.class) {
+            notNullBlock
+                    .comment("output.append(<doubleStackValue>);")
+                    .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, double.class)
+                    .pop();
+        }
+        else if (body.getType() == Slice.class) {
+            notNullBlock
+                    .comment("output.append(<sliceStackValue>);")
+                    .invokeVirtual(BlockBuilder.class, "append", BlockBuilder.class, Slice.class)
+                    .pop();
         }
         else {
-            projectionMethod
-                    .getBody()
-                    .comment("output.appendNull();")
-                    .getVariable("output")
-                    .invokeVirtual(BlockBuilder.class, "appendNull", BlockBuilder.class)
-                    .pop()
-                    .ret();
+            throw new UnsupportedOperationException("Type " + body.getType() + " can not be output yet");
         }
-        return body.getType();
+
+        Block nullBlock = new Block(context)
+                .comment("output.appendNull();")
+                .pop(body.getType())
+                .invokeVirtual(BlockBuilder.class, "appendNull", BlockBuilder.class)
+                .pop();
+
+        return block.comment("if the result was null, appendNull; otherwise append the value")
+                .append(new IfStatement(context, new Block(context).getVariable("wasNull"), nullBlock, notNullBlock));
     }
 
     private static class TypedOperatorClass
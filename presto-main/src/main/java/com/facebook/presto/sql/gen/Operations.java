@@ -153,6 +153,11 @@ public final class Operations
         return left != right;
     }
 
+    public static boolean equal(int left, int right)
+    {
+        return left == right;
+    }
+
     public static boolean lessThan(int left, int right)
     {
         return left < right;
@@ -13,9 +13,11 @@
  */
 package com.facebook.presto.sql.planner;
 
+import com.facebook.presto.SystemSessionProperties;
 import com.facebook.presto.metadata.FunctionInfo;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.metadata.Signature;
+import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.analyzer.Type;
 import com.facebook.presto.sql.planner.PlanFragment.OutputPartitioning;
 import com.facebook.presto.sql.planner.PlanFragment.PlanDistribution;
@@ -50,6 +52,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import java.util.HashMap;
 import java.util.List;
@@ -58,24 +61,30 @@ import java.util.Map;
 import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.FINAL;
 import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.PARTIAL;
 import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.SINGLE;
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.leftGetter;
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.rightGetter;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Splits a logical plan into fragments that can be shipped and executed on distributed nodes
  */
 public class DistributedLogicalPlanner
 {
+    private final Session session;
     private final Metadata metadata;
     private final PlanNodeIdAllocator idAllocator;
 
-    public DistributedLogicalPlanner(Metadata metadata, PlanNodeIdAllocator idAllocator)
+    public DistributedLogicalPlanner(Session session, Metadata metadata, PlanNodeIdAllocator idAllocator)
     {
+        this.session = checkNotNull(session, "session is null");
         this.metadata = metadata;
         this.idAllocator = idAllocator;
     }
 
     public SubPlan createSubPlans(Plan plan, boolean createSingleNodePlan)
     {
-        Visitor visitor = new Visitor(plan.getSymbolAllocator(), createSingleNodePlan);
+        boolean distributedJoins = SystemSessionProperties.isDistributedJoinEnabled(session);
+        Visitor visitor = new Visitor(plan.getSymbolAllocator(), createSingleNodePlan, distributedJoins);
         SubPlanBuilder builder = plan.getRoot().accept(visitor, null);
 
         SubPlan subplan = builder.build();
@@ -91,11 +100,13 @@ public class DistributedLogicalPlanner
 
         private final SymbolAllocator allocator;
         private final boolean createSingleNodePlan;
+        private final boolean distributedJoins;
 
-        public Visitor(SymbolAllocator allocator, boolean createSingleNodePlan)
+        public Visitor(SymbolAllocator allocator, boolean createSingleNodePlan, boolean distributedJoins)
         {
             this.allocator = allocator;
             this.createSingleNodePlan = createSingleNodePlan;
+            this.distributedJoins = distributedJoins;
         }
 
         @Override
@@ -389,6 +400,10 @@ public class DistributedLogicalPlanner
             SubPlanBuilder right = node.getRight().accept(this, context);
 
             if (left.isDistributed() || right.isDistributed()) {
+                if (distributedJoins && canPartitionJoin(node)) {
+                    return createPartitionedJoin(node, left, right);
+                }
+
                 switch (node.getType()) {
                     case INNER:
                     case LEFT:
@@ -422,6 +437,50 @@ public class DistributedLogicalPlanner
             }
         }
 
+        private boolean canPartitionJoin(JoinNode node)
+        {
+            if (node.getCriteria().isEmpty()) {
+                return false;
+            }
+
+            switch (node.getType()) {
+                case INNER:
+                case LEFT:
+                case RIGHT:
+                    break;
+                default:
+                    return false;
+            }
+
+            // rows are assigned to partitions by hashing the raw key values, so both sides must use the same representation
+            Map<Symbol, Type> types = allocator.getTypes();
+            for (JoinNode.EquiJoinClause clause : node.getCriteria()) {
+                if (types.get(clause.getLeft()).getRawType() != types.get(clause.getRight()).getRawType()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private SubPlanBuilder createPartitionedJoin(JoinNode node, SubPlanBuilder left, SubPlanBuilder right)
+        {
+            // repartition both sides on the join keys, so each node only builds a hash table for its share of the build side
+            left.setRoot(new SinkNode(idAllocator.getNextId(), left.getRoot(), left.getRoot().getOutputSymbols()))
+                    .setHashOutputPartitioning(Lists.transform(node.getCriteria(), leftGetter()));
+            right.setRoot(new SinkNode(idAllocator.getNextId(), right.getRoot(), right.getRoot().getOutputSymbols()))
+                    .setHashOutputPartitioning(Lists.transform(node.getCriteria(), rightGetter()));
+
+            JoinNode join = new JoinNode(node.getId(),
+                    node.getType(),
+                    new ExchangeNode(idAllocator.getNextId(), left.getId(), left.getRoot().getOutputSymbols()),
+                    new ExchangeNode(idAllocator.getNextId(), right.getId(), right.getRoot().getOutputSymbols()),
+                    node.getCriteria());
+
+            return createFixedDistributionPlan(join)
+                    .addChild(left.build())
+                    .addChild(right.build());
+        }
+
         @Override
         public SubPlanBuilder visitSemiJoin(SemiJoinNode node, Void context)
         {
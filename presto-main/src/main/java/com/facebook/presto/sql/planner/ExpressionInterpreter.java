@@ -58,7 +58,6 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import io.airlift.slice.Slice;
-import io.airlift.slice.Slices;
 import org.joni.Regex;
 
 import javax.annotation.Nullable;
@@ -191,7 +190,7 @@ public class ExpressionInterpreter
                     case DOUBLE:
                         return cursor.getDouble(channel);
                     case STRING:
-                        return Slices.wrappedBuffer(cursor.getString(channel));
+                        return cursor.getSlice(channel);
                     default:
                         throw new UnsupportedOperationException("not yet implemented");
                 }
@@ -13,12 +13,15 @@
  */
 package com.facebook.presto.sql.planner;
 
+import com.facebook.presto.SystemSessionProperties;
+import com.facebook.presto.execution.TaskManagerConfig;
 import com.facebook.presto.metadata.LocalStorageManager;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.metadata.Signature;
 import com.facebook.presto.operator.AggregationFunctionDefinition;
 import com.facebook.presto.operator.AggregationOperator.AggregationOperatorFactory;
 import com.facebook.presto.operator.DriverFactory;
+import com.facebook.presto.operator.DynamicFilter;
 import com.facebook.presto.operator.ExchangeClient;
 import com.facebook.presto.operator.ExchangeOperator.ExchangeOperatorFactory;
 import com.facebook.presto.operator.FilterAndProjectOperator.FilterAndProjectOperatorFactory;
@@ -31,6 +34,7 @@ import com.facebook.presto.operator.HashJoinOperator;
 import com.facebook.presto.operator.HashJoinOperator.HashJoinOperatorFactory;
 import com.facebook.presto.operator.HashSemiJoinOperator.HashSemiJoinOperatorFactory;
 import com.facebook.presto.operator.InMemoryExchange;
+import com.facebook.presto.operator.InMemoryExchangeMergeOperator.InMemoryExchangeMergeOperatorFactory;
 import com.facebook.presto.operator.InMemoryExchangeSourceOperator.InMemoryExchangeSourceOperatorFactory;
 import com.facebook.presto.operator.LimitOperator.LimitOperatorFactory;
 import com.facebook.presto.operator.MarkDistinctOperator.MarkDistinctOperatorFactory;
@@ -52,6 +56,7 @@ import com.facebook.presto.operator.window.WindowFunction;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.RecordSink;
 import com.facebook.presto.split.DataStreamProvider;
+import com.facebook.presto.split.DynamicFilterDataStreamProvider;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.analyzer.Type;
 import com.facebook.presto.sql.gen.ExpressionCompiler;
@@ -64,6 +69,7 @@ import com.facebook.presto.sql.planner.plan.MarkDistinctNode;
 import com.facebook.presto.sql.planner.plan.MaterializedViewWriterNode;
 import com.facebook.presto.sql.planner.plan.OutputNode;
 import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.sql.planner.plan.PlanVisitor;
 import com.facebook.presto.sql.planner.plan.ProjectNode;
 import com.facebook.presto.sql.planner.plan.SampleNode;
@@ -82,9 +88,7 @@ import com.facebook.presto.sql.tree.ExpressionTreeRewriter;
 import com.facebook.presto.sql.tree.FunctionCall;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
-import com.facebook.presto.tuple.TupleReadable;
 import com.facebook.presto.util.IterableTransformer;
 import com.facebook.presto.util.MoreFunctions;
 import com.google.common.base.Function;
@@ -106,6 +110,7 @@ import io.airlift.node.NodeInfo;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
@@ -134,6 +139,8 @@ public class LocalExecutionPlanner
     private final RecordSinkManager recordSinkManager;
     private final Supplier<ExchangeClient> exchangeClientSupplier;
     private final ExpressionCompiler compiler;
+    private final Optional<File> spillDirectory;
+    private final int defaultTaskConcurrency;
 
     @Inject
     public LocalExecutionPlanner(NodeInfo nodeInfo,
@@ -142,7 +149,8 @@ public class LocalExecutionPlanner
             LocalStorageManager storageManager,
             RecordSinkManager recordSinkManager,
             Supplier<ExchangeClient> exchangeClientSupplier,
-            ExpressionCompiler compiler)
+            ExpressionCompiler compiler,
+            TaskManagerConfig taskManagerConfig)
     {
         this.nodeInfo = checkNotNull(nodeInfo, "nodeInfo is null");
         this.dataStreamProvider = dataStreamProvider;
@@ -151,6 +159,10 @@ public class LocalExecutionPlanner
         this.storageManager = checkNotNull(storageManager, "storageManager is null");
         this.recordSinkManager = checkNotNull(recordSinkManager, "recordSinkManager is null");
         this.compiler = checkNotNull(compiler, "compiler is null");
+
+        checkNotNull(taskManagerConfig, "taskManagerConfig is null");
+        this.spillDirectory = taskManagerConfig.isSpillEnabled() ? Optional.of(taskManagerConfig.getSpillDirectory()) : Optional.<File>absent();
+        this.defaultTaskConcurrency = taskManagerConfig.getTaskConcurrency();
     }
 
     public LocalExecutionPlan plan(Session session,
@@ -179,6 +191,7 @@ public class LocalExecutionPlanner
         private final Map<Symbol, Type> types;
 
         private final List<DriverFactory> driverFactories;
+        private final Map<PlanNodeId, DynamicFilterSource> dynamicFilterSources = new HashMap<>();
 
         private int nextOperatorId;
         private boolean inputDriver = true;
@@ -230,6 +243,21 @@ public class LocalExecutionPlanner
             this.inputDriver = inputDriver;
         }
 
+        private void addDynamicFilterSource(PlanNodeId planNodeId, DynamicFilterSource dynamicFilterSource)
+        {
+            dynamicFilterSources.put(planNodeId, dynamicFilterSource);
+        }
+
+        private boolean hasDynamicFilterSource(PlanNodeId planNodeId)
+        {
+            return dynamicFilterSources.containsKey(planNodeId);
+        }
+
+        private Optional<DynamicFilterSource> removeDynamicFilterSource(PlanNodeId planNodeId)
+        {
+            return Optional.fromNullable(dynamicFilterSources.remove(planNodeId));
+        }
+
         public LocalExecutionPlanContext createSubContext()
         {
             return new LocalExecutionPlanContext(session, types, driverFactories);
@@ -251,6 +279,34 @@ public class LocalExecutionPlanner
         }
     }
 
+    /**
+     * The build side of an inner join whose keys can filter the scan feeding the probe side.
+     */
+    private static class DynamicFilterSource
+    {
+        private final HashSupplier hashSupplier;
+        private final Map<Symbol, Integer> buildKeyByProbeSymbol;
+
+        private DynamicFilterSource(HashSupplier hashSupplier, Map<Symbol, Integer> buildKeyByProbeSymbol)
+        {
+            this.hashSupplier = checkNotNull(hashSupplier, "hashSupplier is null");
+            this.buildKeyByProbeSymbol = ImmutableMap.copyOf(checkNotNull(buildKeyByProbeSymbol, "buildKeyByProbeSymbol is null"));
+        }
+
+        public HashSupplier getHashSupplier()
+        {
+            return hashSupplier;
+        }
+
+        /**
+         * Returns the index of the build key matched against each probe symbol.
+         */
+        public Map<Symbol, Integer> getBuildKeyByProbeSymbol()
+        {
+            return buildKeyByProbeSymbol;
+        }
+    }
+
     private class Visitor
             extends PlanVisitor<LocalExecutionPlanContext, PhysicalOperation>
     {
@@ -302,8 +358,21 @@ public class LocalExecutionPlanner
         @Override
         public PhysicalOperation visitWindow(WindowNode node, LocalExecutionPlanContext context)
         {
+            int taskConcurrency = getTaskConcurrency(context);
+            if (taskConcurrency > 1 && !node.getPartitionBy().isEmpty()) {
+                // window partitions are independent, so hash partition the rows between several window operators
+                LocalExecutionPlanContext parallelContext = context.createSubContext();
+                PhysicalOperation source = planLocalExchange(node.getSource(), node.getPartitionBy(), taskConcurrency, parallelContext);
+                PhysicalOperation window = planWindow(node, source, parallelContext);
+                return gatherParallelPipeline(window, taskConcurrency, parallelContext, context);
+            }
+
             PhysicalOperation source = node.getSource().accept(this, context);
+            return planWindow(node, source, context);
+        }
 
+        private PhysicalOperation planWindow(WindowNode node, PhysicalOperation source, LocalExecutionPlanContext context)
+        {
             List<Symbol> partitionBySymbols = node.getPartitionBy();
             List<Symbol> orderBySymbols = node.getOrderBy();
 
@@ -357,7 +426,8 @@ public class LocalExecutionPlanner
                     partitionChannels,
                     sortChannels,
                     sortOrder,
-                    1_000_000);
+                    1_000_000,
+                    spillDirectory);
 
             return new PhysicalOperation(operatorFactory, outputMappings.build(), source);
         }
@@ -376,15 +446,14 @@ public class LocalExecutionPlanner
                 sortOrders.add(node.getOrderings().get(symbol));
             }
 
-            Ordering<TupleReadable[]> ordering = Ordering.from(new FieldOrderedTupleComparator(sortChannels, sortOrders));
-
             IdentityProjectionInfo mappings = computeIdentityMapping(node.getOutputSymbols(), source.getLayout(), context.getTypes());
 
             OperatorFactory operator = new TopNOperatorFactory(
                     context.getNextOperatorId(),
                     (int) node.getCount(),
                     mappings.getProjections(),
-                    ordering,
+                    sortChannels,
+                    sortOrders,
                     node.isPartial());
 
             return new PhysicalOperation(operator, mappings.getOutputLayout(), source);
@@ -393,17 +462,40 @@ public class LocalExecutionPlanner
         @Override
         public PhysicalOperation visitSort(SortNode node, LocalExecutionPlanContext context)
         {
-            PhysicalOperation source = node.getSource().accept(this, context);
-
-            List<Symbol> orderBySymbols = node.getOrderBy();
+            int taskConcurrency = getTaskConcurrency(context);
+            if (taskConcurrency > 1) {
+                // sort the rows in several drivers and merge the sorted outputs
+                LocalExecutionPlanContext parallelContext = context.createSubContext();
+                PhysicalOperation source = planLocalExchange(node.getSource(), ImmutableList.<Symbol>of(), taskConcurrency, parallelContext);
+                PhysicalOperation sort = planSort(node, source, parallelContext);
+
+                InMemoryExchange exchange = new InMemoryExchange(sort.getTupleInfos(), taskConcurrency);
+                List<OperatorFactory> factories = ImmutableList.<OperatorFactory>builder()
+                        .addAll(sort.getOperatorFactories())
+                        .add(exchange.createBufferPerSinkFactory(parallelContext.getNextOperatorId()))
+                        .build();
+                context.addDriverFactory(new DriverFactory(parallelContext.isInputDriver(), false, factories, taskConcurrency));
+                exchange.noMoreSinkFactories();
+
+                // the main driver is not an input: the sorted pages are the input for the plan
+                context.setInputDriver(false);
+
+                OperatorFactory merge = new InMemoryExchangeMergeOperatorFactory(
+                        context.getNextOperatorId(),
+                        exchange,
+                        getOrderByChannels(node, sort.getLayout()),
+                        getSortOrders(node));
+                return new PhysicalOperation(merge, sort.getLayout());
+            }
 
-            int[] orderByChannels = Ints.toArray(getChannelsForSymbols(orderBySymbols, source.getLayout()));
+            PhysicalOperation source = node.getSource().accept(this, context);
+            return planSort(node, source, context);
+        }
 
-            SortOrder[] sortOrder = new SortOrder[orderBySymbols.size()];
-            for (int i = 0; i < orderBySymbols.size(); i++) {
-                Symbol symbol = orderBySymbols.get(i);
-                sortOrder[i] = node.getOrderings().get(symbol);
-            }
+        private PhysicalOperation planSort(SortNode node, PhysicalOperation source, LocalExecutionPlanContext context)
+        {
+            int[] orderByChannels = getOrderByChannels(node, source.getLayout());
+            SortOrder[] sortOrder = getSortOrders(node);
 
             int[] outputChannels = new int[source.getTupleInfos().size()];
             for (int i = 0; i < outputChannels.length; i++) {
@@ -416,11 +508,28 @@ public class LocalExecutionPlanner
                     outputChannels,
                     10_000,
                     orderByChannels,
-                    sortOrder);
+                    sortOrder,
+                    spillDirectory);
 
             return new PhysicalOperation(operator, source.getLayout(), source);
         }
 
+        private int[] getOrderByChannels(SortNode node, Map<Symbol, Input> layout)
+        {
+            return Ints.toArray(getChannelsForSymbols(node.getOrderBy(), layout));
+        }
+
+        private SortOrder[] getSortOrders(SortNode node)
+        {
+            List<Symbol> orderBySymbols = node.getOrderBy();
+            SortOrder[] sortOrder = new SortOrder[orderBySymbols.size()];
+            for (int i = 0; i < orderBySymbols.size(); i++) {
+                Symbol symbol = orderBySymbols.get(i);
+                sortOrder[i] = node.getOrderings().get(symbol);
+            }
+            return sortOrder;
+        }
+
         @Override
         public PhysicalOperation visitLimit(LimitNode node, LocalExecutionPlanContext context)
         {
@@ -433,6 +542,15 @@ public class LocalExecutionPlanner
         @Override
         public PhysicalOperation visitAggregation(AggregationNode node, LocalExecutionPlanContext context)
         {
+            int taskConcurrency = getTaskConcurrency(context);
+            if (taskConcurrency > 1 && !node.getGroupBy().isEmpty() && node.getStep() != AggregationNode.Step.PARTIAL) {
+                // groups are independent, so hash partition the rows on the group by keys between several aggregations
+                LocalExecutionPlanContext parallelContext = context.createSubContext();
+                PhysicalOperation source = planLocalExchange(node.getSource(), node.getGroupBy(), taskConcurrency, parallelContext);
+                PhysicalOperation aggregation = planGroupByAggregation(node, source, parallelContext);
+                return gatherParallelPipeline(aggregation, taskConcurrency, parallelContext, context);
+            }
+
             PhysicalOperation source = node.getSource().accept(this, context);
 
             if (node.getGroupBy().isEmpty()) {
@@ -484,7 +602,7 @@ public class LocalExecutionPlanner
 
             List<Symbol> outputSymbols = node.getOutputSymbols();
 
-            return visitScanFilterAndProject(context, sourceNode, filterExpression, projectionExpressions, outputSymbols);
+            return visitScanFilterAndProject(context, node.getId(), sourceNode, filterExpression, projectionExpressions, outputSymbols);
         }
 
         @Override
@@ -506,11 +624,12 @@ public class LocalExecutionPlanner
 
             List<Symbol> outputSymbols = node.getOutputSymbols();
 
-            return visitScanFilterAndProject(context, sourceNode, filterExpression, projectionExpressions, outputSymbols);
+            return visitScanFilterAndProject(context, node.getId(), sourceNode, filterExpression, projectionExpressions, outputSymbols);
         }
 
         private PhysicalOperation visitScanFilterAndProject(
                 LocalExecutionPlanContext context,
+                PlanNodeId planNodeId,
                 PlanNode sourceNode,
                 Expression filterExpression,
                 List<Expression> projectionExpressions,
@@ -557,6 +676,12 @@ public class LocalExecutionPlanner
             }
             Map<Symbol, Input> outputMappings = outputMappingsBuilder.build();
 
+            DataStreamProvider scanDataStreamProvider = dataStreamProvider;
+            Optional<DynamicFilterSource> dynamicFilterSource = context.removeDynamicFilterSource(planNodeId);
+            if (columns != null && dynamicFilterSource.isPresent()) {
+                scanDataStreamProvider = createDynamicFilterDataStreamProvider(dynamicFilterSource.get(), sourceLayout, projectionExpressions, outputSymbols);
+            }
+
             try {
                 // compiler uses inputs instead of symbols, so rewrite the expressions first
                 SymbolToInputRewriter symbolToInputRewriter = new SymbolToInputRewriter(sourceLayout);
@@ -570,7 +695,7 @@ public class LocalExecutionPlanner
                     SourceOperatorFactory operatorFactory = compiler.compileScanFilterAndProjectOperator(
                             context.getNextOperatorId(),
                             sourceNode.getId(),
-                            dataStreamProvider,
+                            scanDataStreamProvider,
                             columns,
                             rewrittenFilter,
                             rewrittenProjections,
@@ -623,7 +748,7 @@ public class LocalExecutionPlanner
                 OperatorFactory operatorFactory = new ScanFilterAndProjectOperatorFactory(
                         context.getNextOperatorId(),
                         sourceNode.getId(),
-                        dataStreamProvider,
+                        scanDataStreamProvider,
                         columns,
                         filterFunction,
                         projectionFunctions);
@@ -661,9 +786,44 @@ public class LocalExecutionPlanner
             return inputTypes.build();
         }
 
+        private DataStreamProvider createDynamicFilterDataStreamProvider(
+                DynamicFilterSource dynamicFilterSource,
+                Map<Symbol, Input> sourceLayout,
+                List<Expression> projectionExpressions,
+                List<Symbol> outputSymbols)
+        {
+            // only join keys that are projected straight from a scanned column can be filtered in the scan
+            Map<Integer, Integer> channels = new HashMap<>();
+            for (Map.Entry<Symbol, Integer> entry : dynamicFilterSource.getBuildKeyByProbeSymbol().entrySet()) {
+                int output = outputSymbols.indexOf(entry.getKey());
+                if (output >= 0 && projectionExpressions.get(output) instanceof QualifiedNameReference) {
+                    Symbol reference = Symbol.fromQualifiedName(((QualifiedNameReference) projectionExpressions.get(output)).getName());
+                    int channel = sourceLayout.get(reference).getChannel();
+                    if (!channels.containsKey(channel)) {
+                        channels.put(channel, entry.getValue());
+                    }
+                }
+            }
+
+            if (channels.isEmpty()) {
+                return dataStreamProvider;
+            }
+            DynamicFilter dynamicFilter = new DynamicFilter(dynamicFilterSource.getHashSupplier().getBuildKeyDomains(), channels);
+            return new DynamicFilterDataStreamProvider(dataStreamProvider, dynamicFilter);
+        }
+
         @Override
         public PhysicalOperation visitTableScan(TableScanNode node, LocalExecutionPlanContext context)
         {
+            if (context.hasDynamicFilterSource(node.getId())) {
+                // plan as a scan with an identity projection so the dynamic filter can be applied
+                List<Expression> projectionExpressions = new ArrayList<>();
+                for (Symbol symbol : node.getOutputSymbols()) {
+                    projectionExpressions.add(new QualifiedNameReference(symbol.toQualifiedName()));
+                }
+                return visitScanFilterAndProject(context, node.getId(), node, BooleanLiteral.TRUE_LITERAL, projectionExpressions, node.getOutputSymbols());
+            }
+
             ImmutableMap.Builder<Symbol, Input> outputMappings = ImmutableMap.builder();
             List<ColumnHandle> columns = new ArrayList<>();
 
@@ -706,28 +866,58 @@ public class LocalExecutionPlanner
                 List<Symbol> buildSymbols,
                 LocalExecutionPlanContext context)
         {
-            // Plan probe and introduce a projection to put all fields from the probe side into a single channel if necessary
-            PhysicalOperation probeSource = probeNode.accept(this, context);
-            List<Integer> probeChannels = ImmutableList.copyOf(getChannelsForSymbols(probeSymbols, probeSource.getLayout()));
-
-            // do the same on the build side
+            // Plan build first, so the probe side scan can be filtered with the build keys
             LocalExecutionPlanContext buildContext = context.createSubContext();
-            PhysicalOperation buildSource = buildNode.accept(this, buildContext);
+            int taskConcurrency = getTaskConcurrency(context);
+            PhysicalOperation buildSource;
+            if (taskConcurrency > 1) {
+                // build one hash partition per driver, with the rows partitioned on the build keys
+                buildSource = planLocalExchange(buildNode, buildSymbols, taskConcurrency, buildContext);
+            }
+            else {
+                buildSource = buildNode.accept(this, buildContext);
+            }
             List<Integer> buildChannels = ImmutableList.copyOf(getChannelsForSymbols(buildSymbols, buildSource.getLayout()));
 
+            // the drivers of the build are created in the same order as the buffers of the exchange
+            // are assigned, so the Nth build driver reads and builds hash partition N
             HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
                     buildContext.getNextOperatorId(),
                     buildSource.getTupleInfos(),
                     buildChannels,
-                    100_000);
+                    100_000,
+                    taskConcurrency);
             HashSupplier hashSupplier = hashBuilderOperatorFactory.getHashSupplier();
+
+            // rows of the probe side can only be dropped early if the join does not preserve them
+            if (node.getType() == JoinNode.Type.INNER && SystemSessionProperties.isDynamicFilteringEnabled(context.getSession())) {
+                // equi-join clauses are not coerced, so a key can only filter probe values of the same type
+                Map<Symbol, Integer> buildKeyByProbeSymbol = new HashMap<>();
+                for (int buildKey = 0; buildKey < probeSymbols.size(); buildKey++) {
+                    Symbol probeSymbol = probeSymbols.get(buildKey);
+                    Type probeType = context.getTypes().get(probeSymbol);
+                    if (probeType == context.getTypes().get(buildSymbols.get(buildKey)) && !buildKeyByProbeSymbol.containsKey(probeSymbol)) {
+                        buildKeyByProbeSymbol.put(probeSymbol, buildKey);
+                    }
+                }
+                if (!buildKeyByProbeSymbol.isEmpty()) {
+                    context.addDynamicFilterSource(probeNode.getId(), new DynamicFilterSource(hashSupplier, buildKeyByProbeSymbol));
+                }
+            }
+
+            // Plan probe and introduce a projection to put all fields from the probe side into a single channel if necessary
+            PhysicalOperation probeSource = probeNode.accept(this, context);
+            context.removeDynamicFilterSource(probeNode.getId());
+            List<Integer> probeChannels = ImmutableList.copyOf(getChannelsForSymbols(probeSymbols, probeSource.getLayout()));
+
             DriverFactory buildDriverFactory = new DriverFactory(
                     buildContext.isInputDriver(),
                     false,
                     ImmutableList.<OperatorFactory>builder()
                             .addAll(buildSource.getOperatorFactories())
                             .add(hashBuilderOperatorFactory)
-                            .build());
+                            .build(),
+                    taskConcurrency);
             context.addDriverFactory(buildDriverFactory);
 
             ImmutableMap.Builder<Symbol, Input> outputMappings = ImmutableMap.builder();
@@ -838,6 +1028,68 @@ public class LocalExecutionPlanner
             return new PhysicalOperation(operatorFactory, layout, source);
         }
 
+        private int getTaskConcurrency(LocalExecutionPlanContext context)
+        {
+            return SystemSessionProperties.getTaskConcurrency(context.getSession(), defaultTaskConcurrency);
+        }
+
+        /**
+         * Plans the source in its own pipeline, and distributes its output between
+         * the drivers of the pipeline of the specified context.  Rows are hash
+         * partitioned on the partitioning symbols, or pages are distributed round
+         * robin if there are no partitioning symbols.
+         */
+        private PhysicalOperation planLocalExchange(PlanNode sourceNode, List<Symbol> partitionBySymbols, int taskConcurrency, LocalExecutionPlanContext context)
+        {
+            LocalExecutionPlanContext subContext = context.createSubContext();
+            PhysicalOperation source = sourceNode.accept(this, subContext);
+
+            InMemoryExchange exchange = new InMemoryExchange(source.getTupleInfos(), taskConcurrency);
+            OperatorFactory sink;
+            if (partitionBySymbols.isEmpty()) {
+                sink = exchange.createSinkFactory(subContext.getNextOperatorId());
+            }
+            else {
+                sink = exchange.createHashPartitionedSinkFactory(subContext.getNextOperatorId(), getChannelsForSymbols(partitionBySymbols, source.getLayout()));
+            }
+
+            List<OperatorFactory> factories = ImmutableList.<OperatorFactory>builder()
+                    .addAll(source.getOperatorFactories())
+                    .add(sink)
+                    .build();
+            context.addDriverFactory(new DriverFactory(subContext.isInputDriver(), false, factories));
+            exchange.noMoreSinkFactories();
+
+            // the parallel drivers are not inputs: the source is the input for the plan
+            context.setInputDriver(false);
+
+            // each driver of the pipeline reads from its own buffer of the exchange
+            OperatorFactory factory = new InMemoryExchangeSourceOperatorFactory(context.getNextOperatorId(), exchange);
+            return new PhysicalOperation(factory, source.getLayout());
+        }
+
+        /**
+         * Runs the operation in the specified number of drivers and gathers their
+         * output into the pipeline of the specified context.
+         */
+        private PhysicalOperation gatherParallelPipeline(PhysicalOperation operation, int taskConcurrency, LocalExecutionPlanContext parallelContext, LocalExecutionPlanContext context)
+        {
+            InMemoryExchange exchange = new InMemoryExchange(operation.getTupleInfos());
+
+            List<OperatorFactory> factories = ImmutableList.<OperatorFactory>builder()
+                    .addAll(operation.getOperatorFactories())
+                    .add(exchange.createSinkFactory(parallelContext.getNextOperatorId()))
+                    .build();
+            context.addDriverFactory(new DriverFactory(parallelContext.isInputDriver(), false, factories, taskConcurrency));
+            exchange.noMoreSinkFactories();
+
+            // the main driver is not an input: the parallel drivers are the input for the plan
+            context.setInputDriver(false);
+
+            OperatorFactory factory = new InMemoryExchangeSourceOperatorFactory(context.getNextOperatorId(), exchange);
+            return new PhysicalOperation(factory, operation.getLayout());
+        }
+
         private PhysicalOperation createInMemoryExchange(TableWriterNode node, LocalExecutionPlanContext context)
         {
             LocalExecutionPlanContext subContext = context.createSubContext();
@@ -1052,7 +1304,8 @@ public class LocalExecutionPlanner
                     groupByChannels,
                     node.getStep(),
                     functionDefinitions,
-                    10_000);
+                    10_000,
+                    spillDirectory);
 
             return new PhysicalOperation(operatorFactory, outputMappings.build(), source);
         }
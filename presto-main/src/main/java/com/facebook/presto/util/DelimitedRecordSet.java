@@ -24,6 +24,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closeables;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.LineReader;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -151,6 +153,12 @@ public class DelimitedRecordSet
             return getField(field).getBytes(UTF_8);
         }
 
+        @Override
+        public Slice getSlice(int field)
+        {
+            return Slices.copiedBuffer(getField(field), UTF_8);
+        }
+
         @Override
         public boolean isNull(int field)
         {
@@ -926,6 +926,15 @@ public abstract class AbstractTestQueries
         );
     }
 
+    @Test
+    public void testJoinWithMixedKeyTypes()
+            throws Exception
+    {
+        // join keys are not coerced, so the build keys must not be used to filter probe values of another type
+        assertQuery("SELECT COUNT(*) FROM orders JOIN lineitem ON orders.orderkey = lineitem.discount");
+        assertQuery("SELECT COUNT(*) FROM lineitem JOIN orders ON lineitem.discount = orders.orderkey");
+    }
+
     @Test
     public void testSelfJoin()
             throws Exception
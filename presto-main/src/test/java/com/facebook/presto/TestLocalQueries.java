@@ -16,9 +16,11 @@ package com.facebook.presto;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.util.LocalQueryRunner;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.collect.ImmutableMap;
 import org.intellij.lang.annotations.Language;
 import org.testng.annotations.AfterClass;
 
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.util.LocalQueryRunner.createTpchLocalQueryRunner;
@@ -53,10 +55,15 @@ public class TestLocalQueries
         return 1;
     }
 
+    protected Map<String, String> getSessionProperties()
+    {
+        return ImmutableMap.of();
+    }
+
     @Override
     protected void setUpQueryFramework(String catalog, String schema)
     {
-        tpchLocalQueryRunner = createTpchLocalQueryRunner(new Session("user", "test", catalog, schema, null, null), getExecutor());
+        tpchLocalQueryRunner = createTpchLocalQueryRunner(new Session("user", "test", catalog, schema, null, null, getSessionProperties()), getExecutor());
 
         tpchLocalQueryRunner.getMetadata().addFunctions(CUSTOM_FUNCTIONS);
 
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static com.facebook.presto.SystemSessionProperties.TASK_CONCURRENCY;
+
+/**
+ * Runs the queries with final aggregations, window functions and sorts split
+ * across several drivers of the task, connected by in-memory exchanges.
+ */
+public class TestLocalQueriesTaskConcurrency
+        extends TestLocalQueries
+{
+    @Override
+    protected Map<String, String> getSessionProperties()
+    {
+        return ImmutableMap.of(TASK_CONCURRENCY, "4");
+    }
+}
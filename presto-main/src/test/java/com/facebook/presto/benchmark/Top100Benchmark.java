@@ -20,10 +20,8 @@ import com.facebook.presto.operator.SortOrder;
 import com.facebook.presto.operator.TopNOperator.TopNOperatorFactory;
 import com.facebook.presto.serde.BlocksFileEncoding;
 import com.facebook.presto.tpch.TpchBlocksProvider;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -49,7 +47,8 @@ public class Top100Benchmark
                 1,
                 100,
                 ImmutableList.of(singleColumn(Type.DOUBLE, 0)),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0), ImmutableList.of(SortOrder.DESC_NULLS_LAST))),
+                ImmutableList.of(0),
+                ImmutableList.of(SortOrder.DESC_NULLS_LAST),
                 false);
         return ImmutableList.of(alignmentOperator, topNOperator);
     }
@@ -14,18 +14,23 @@
 package com.facebook.presto.execution;
 
 import com.facebook.presto.execution.TaskExecutor.TaskHandle;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TaskExecutorTest
 {
@@ -113,6 +118,174 @@ public class TaskExecutorTest
         }
     }
 
+    @Test
+    public void testWorkStealing()
+            throws Exception
+    {
+        TaskExecutor taskExecutor = new TaskExecutor(2, new Duration(1, TimeUnit.MILLISECONDS), Ticker.systemTicker());
+        taskExecutor.start();
+
+        try {
+            TaskHandle taskHandle = taskExecutor.addTask(new TaskId("test", "test", "test"));
+            TestingSplit split1 = TestingSplit.sleeping(200);
+            TestingSplit split2 = TestingSplit.sleeping(200);
+            final ListenableFuture<?> future1 = getOnlyElement(taskExecutor.enqueueSplits(taskHandle, true, ImmutableList.of(split1)));
+            final ListenableFuture<?> future2 = getOnlyElement(taskExecutor.enqueueSplits(taskHandle, true, ImmutableList.of(split2)));
+            split1.awaitStarted();
+            split2.awaitStarted();
+
+            // the blocking split occupies one runner, which may still hold the
+            // other splits in its local deque, so the other runner must steal them
+            final AtomicBoolean othersFinished = new AtomicBoolean();
+            SplitRunner blocking = new TestingSplit(1, 0, 0)
+            {
+                @Override
+                public ListenableFuture<?> processFor(Duration duration)
+                        throws Exception
+                {
+                    future1.get(10, TimeUnit.SECONDS);
+                    future2.get(10, TimeUnit.SECONDS);
+                    othersFinished.set(true);
+                    return super.processFor(duration);
+                }
+            };
+            TaskHandle blockingHandle = taskExecutor.addTask(new TaskId("blocking", "test", "test"));
+            getOnlyElement(taskExecutor.enqueueSplits(blockingHandle, true, ImmutableList.of(blocking))).get(20, TimeUnit.SECONDS);
+
+            assertTrue(othersFinished.get());
+            assertEquals(split1.getCompletedQuanta(), 200);
+            assertEquals(split2.getCompletedQuanta(), 200);
+        }
+        finally {
+            taskExecutor.stop();
+        }
+    }
+
+    @Test
+    public void testNoStarvation()
+            throws Exception
+    {
+        TaskExecutor taskExecutor = new TaskExecutor(1, new Duration(1, TimeUnit.MILLISECONDS), Ticker.systemTicker());
+        taskExecutor.start();
+
+        try {
+            // a split that never finishes on its own keeps being requeued locally
+            TestingSplit endless = TestingSplit.sleeping(Integer.MAX_VALUE);
+            TaskHandle endlessHandle = taskExecutor.addTask(new TaskId("endless", "test", "test"));
+            ListenableFuture<?> endlessFuture = getOnlyElement(taskExecutor.enqueueSplits(endlessHandle, true, ImmutableList.of(endless)));
+            endless.awaitStarted();
+
+            // a split of another query in the same level must still get to run
+            TestingSplit split = TestingSplit.sleeping(10);
+            TaskHandle taskHandle = taskExecutor.addTask(new TaskId("test", "test", "test"));
+            getOnlyElement(taskExecutor.enqueueSplits(taskHandle, true, ImmutableList.of(split))).get(10, TimeUnit.SECONDS);
+
+            assertEquals(split.getCompletedQuanta(), 10);
+            assertFalse(endlessFuture.isDone());
+        }
+        finally {
+            taskExecutor.stop();
+        }
+    }
+
+    @Test
+    public void testQueryFairness()
+            throws Exception
+    {
+        TaskExecutor taskExecutor = new TaskExecutor(1, new Duration(1, TimeUnit.MILLISECONDS), Ticker.systemTicker());
+        taskExecutor.start();
+
+        try {
+            // both queries use thread time, so the query that has used less runs next
+            TestingSplit split1 = TestingSplit.spinning(Integer.MAX_VALUE);
+            TestingSplit split2 = TestingSplit.spinning(Integer.MAX_VALUE);
+            TaskHandle taskHandle1 = taskExecutor.addTask(new TaskId("query1", "test", "test"));
+            TaskHandle taskHandle2 = taskExecutor.addTask(new TaskId("query2", "test", "test"));
+            taskExecutor.enqueueSplits(taskHandle1, true, ImmutableList.of(split1));
+            taskExecutor.enqueueSplits(taskHandle2, true, ImmutableList.of(split2));
+            split1.awaitStarted();
+            split2.awaitStarted();
+
+            long start = System.nanoTime();
+            while (split1.getCompletedQuanta() + split2.getCompletedQuanta() < 400) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30), "splits did not make progress");
+                Thread.sleep(10);
+            }
+            int quanta1 = split1.getCompletedQuanta();
+            int quanta2 = split2.getCompletedQuanta();
+            assertTrue(quanta1 > (quanta1 + quanta2) / 4, String.format("query1 ran %s quanta and query2 ran %s quanta", quanta1, quanta2));
+            assertTrue(quanta2 > (quanta1 + quanta2) / 4, String.format("query1 ran %s quanta and query2 ran %s quanta", quanta1, quanta2));
+        }
+        finally {
+            taskExecutor.stop();
+        }
+    }
+
+    private static class TestingSplit
+            implements SplitRunner
+    {
+        private final int requiredQuanta;
+        private final long sleepMillis;
+        private final long spinNanos;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger completedQuanta = new AtomicInteger();
+
+        public static TestingSplit sleeping(int requiredQuanta)
+        {
+            return new TestingSplit(requiredQuanta, 1, 0);
+        }
+
+        public static TestingSplit spinning(int requiredQuanta)
+        {
+            return new TestingSplit(requiredQuanta, 0, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        private TestingSplit(int requiredQuanta, long sleepMillis, long spinNanos)
+        {
+            this.requiredQuanta = requiredQuanta;
+            this.sleepMillis = sleepMillis;
+            this.spinNanos = spinNanos;
+        }
+
+        public void awaitStarted()
+                throws InterruptedException
+        {
+            assertTrue(started.await(10, TimeUnit.SECONDS), "split was not started");
+        }
+
+        public int getCompletedQuanta()
+        {
+            return completedQuanta.get();
+        }
+
+        @Override
+        public ListenableFuture<?> processFor(Duration duration)
+                throws Exception
+        {
+            started.countDown();
+            if (sleepMillis > 0) {
+                Thread.sleep(sleepMillis);
+            }
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < spinNanos) {
+                // use thread time
+            }
+            completedQuanta.incrementAndGet();
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return completedQuanta.get() >= requiredQuanta;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
     private static class TestingJob
             implements SplitRunner
     {
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.execution.TaskExecutor.MultilevelSplitQueue;
+import com.facebook.presto.execution.TaskExecutor.PrioritizedSplitRunner;
+import com.facebook.presto.execution.TaskExecutor.TaskHandle;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestMultilevelSplitQueue
+{
+    private static final Duration SPLIT_RUN_QUANTA = new Duration(100, TimeUnit.MILLISECONDS);
+
+    private TaskExecutor taskExecutor;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        // the executor is only used to create task handles, so it is never started
+        taskExecutor = new TaskExecutor(1, SPLIT_RUN_QUANTA, Ticker.systemTicker());
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        taskExecutor.stop();
+    }
+
+    @Test
+    public void testLevelWeights()
+    {
+        MultilevelSplitQueue queue = new MultilevelSplitQueue(Ticker.systemTicker());
+        long[] thresholdSeconds = {0, 1, 10, 60, 300};
+        for (int level = 0; level < thresholdSeconds.length; level++) {
+            assertEquals(queue.getLevelStats(level).getWeight(), 1L << level);
+
+            // two splits per level so no level becomes empty while a split runs
+            TaskHandle taskHandle = createTaskHandle("query" + level);
+            taskHandle.addThreadUsageNanos(TimeUnit.SECONDS.toNanos(thresholdSeconds[level]));
+            queue.offer(new PrioritizedSplitRunner(taskHandle, new TestingSplit(), SPLIT_RUN_QUANTA));
+            queue.offer(new PrioritizedSplitRunner(taskHandle, new TestingSplit(), SPLIT_RUN_QUANTA));
+        }
+
+        // every split runs for the same time, so each level gets twice the runs of the next level
+        int[] runs = new int[thresholdSeconds.length];
+        int totalRuns = 3100;
+        for (int i = 0; i < totalRuns; i++) {
+            PrioritizedSplitRunner split = queue.poll();
+            runs[split.getPriorityLevel()]++;
+            queue.addLevelScheduledNanos(split.getPriorityLevel(), 1000);
+            queue.offer(split);
+        }
+
+        for (int level = 0; level < thresholdSeconds.length; level++) {
+            int expectedRuns = totalRuns * 16 / 31 >> level;
+            assertTrue(Math.abs(runs[level] - expectedRuns) <= 1, String.format("level %s ran %s times, expected %s", level, runs[level], expectedRuns));
+            assertEquals(queue.getLevelStats(level).getScheduledNanos(), runs[level] * 1000L);
+        }
+    }
+
+    @Test
+    public void testLevelPromotion()
+            throws Exception
+    {
+        // each run of a split is limited to the split run quanta
+        TestingSplit testingSplit = new TestingSplit();
+        new PrioritizedSplitRunner(createTaskHandle("quanta"), testingSplit, SPLIT_RUN_QUANTA).process();
+        assertEquals(testingSplit.getLastQuanta(), SPLIT_RUN_QUANTA);
+
+        MultilevelSplitQueue queue = new MultilevelSplitQueue(Ticker.systemTicker());
+        TaskHandle taskHandle = createTaskHandle("query");
+        PrioritizedSplitRunner split = new PrioritizedSplitRunner(taskHandle, new TestingSplit(), SPLIT_RUN_QUANTA);
+
+        queue.offer(split);
+        assertSame(queue.poll(), split);
+        assertEquals(split.getPriorityLevel(), 0);
+
+        // the level of the split follows the thread time used by its task
+        long[] thresholdSeconds = {1, 10, 60, 300};
+        long usedSeconds = 0;
+        for (int level = 1; level <= thresholdSeconds.length; level++) {
+            taskHandle.addThreadUsageNanos(TimeUnit.SECONDS.toNanos(thresholdSeconds[level - 1] - usedSeconds) - 1);
+            queue.offer(split);
+            assertSame(queue.poll(), split);
+            assertEquals(split.getPriorityLevel(), level - 1);
+
+            taskHandle.addThreadUsageNanos(1);
+            usedSeconds = thresholdSeconds[level - 1];
+            queue.offer(split);
+            assertSame(queue.poll(), split);
+            assertEquals(split.getPriorityLevel(), level);
+        }
+    }
+
+    @Test
+    public void testQuerySelection()
+    {
+        MultilevelSplitQueue queue = new MultilevelSplitQueue(Ticker.systemTicker());
+        TaskHandle taskHandle1 = createTaskHandle("query1");
+        TaskHandle taskHandle2 = createTaskHandle("query2");
+        taskHandle1.addThreadUsageNanos(TimeUnit.MILLISECONDS.toNanos(500));
+        taskHandle2.addThreadUsageNanos(TimeUnit.MILLISECONDS.toNanos(100));
+
+        PrioritizedSplitRunner split1 = new PrioritizedSplitRunner(taskHandle1, new TestingSplit(), SPLIT_RUN_QUANTA);
+        PrioritizedSplitRunner split2 = new PrioritizedSplitRunner(taskHandle2, new TestingSplit(), SPLIT_RUN_QUANTA);
+        queue.offer(split1);
+        queue.offer(split2);
+
+        // within a level, the query that has used the least thread time runs first
+        assertSame(queue.poll(), split2);
+
+        // a split held by a runner competes with the queued splits the same way
+        assertNull(queue.pollUnlessPreferred(split2));
+        taskHandle2.addThreadUsageNanos(TimeUnit.MILLISECONDS.toNanos(600));
+        assertSame(queue.pollUnlessPreferred(split2), split1);
+        assertEquals(queue.size(), 0);
+
+        queue.offer(split1);
+        queue.offer(split2);
+        assertSame(queue.poll(), split1);
+        assertSame(queue.poll(), split2);
+        assertNull(queue.poll());
+    }
+
+    private TaskHandle createTaskHandle(String queryId)
+    {
+        return taskExecutor.addTask(new TaskId(queryId, "stage", "task"));
+    }
+
+    private static class TestingSplit
+            implements SplitRunner
+    {
+        private final AtomicReference<Duration> lastQuanta = new AtomicReference<>();
+
+        public Duration getLastQuanta()
+        {
+            return lastQuanta.get();
+        }
+
+        @Override
+        public ListenableFuture<?> processFor(Duration duration)
+        {
+            lastQuanta.set(duration);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return false;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.connector.dual.DualSplit;
+import com.facebook.presto.execution.NodeScheduler.NodeSelector;
+import com.facebook.presto.metadata.InMemoryNodeManager;
+import com.facebook.presto.metadata.Node;
+import com.facebook.presto.metadata.NodeVersion;
+import com.facebook.presto.spi.HostAddress;
+import com.facebook.presto.spi.Split;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestNodeScheduler
+{
+    private final Node node1 = new Node("node1", URI.create("http://127.0.0.1:11"), NodeVersion.UNKNOWN);
+    private final Node node2 = new Node("node2", URI.create("http://127.0.0.1:12"), NodeVersion.UNKNOWN);
+    private final Node node3 = new Node("node3", URI.create("http://127.0.0.1:13"), NodeVersion.UNKNOWN);
+
+    private NodeSelector nodeSelector;
+    private List<Split> splits;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        InMemoryNodeManager nodeManager = new InMemoryNodeManager();
+        nodeManager.addNode("foo", node1, node2, node3);
+
+        nodeSelector = new NodeScheduler(nodeManager, new NodeSchedulerConfig()).createNodeSelector("foo");
+
+        // a host hint without a port makes every node on the host acceptable
+        ImmutableList.Builder<Split> splits = ImmutableList.builder();
+        for (int i = 0; i < 6; i++) {
+            splits.add(new DualSplit(HostAddress.fromString("127.0.0.1")));
+        }
+        this.splits = splits.build();
+    }
+
+    @Test
+    public void testAssignmentsSpreadOverNodes()
+    {
+        Multimap<Node, Split> assignments = nodeSelector.computeAssignments(splits, ImmutableMap.<Node, Integer>of(), 100);
+
+        assertEquals(assignments.size(), 6);
+        assertEquals(assignments.get(node1).size(), 2);
+        assertEquals(assignments.get(node2).size(), 2);
+        assertEquals(assignments.get(node3).size(), 2);
+    }
+
+    @Test
+    public void testAssignmentsRespectQueuedSplits()
+    {
+        Multimap<Node, Split> assignments = nodeSelector.computeAssignments(splits, ImmutableMap.of(node1, 2), 2);
+
+        // node1 is full, and the other nodes fill up after two splits each
+        assertEquals(assignments.size(), 4);
+        assertEquals(assignments.get(node1).size(), 0);
+        assertEquals(assignments.get(node2).size(), 2);
+        assertEquals(assignments.get(node3).size(), 2);
+    }
+
+    @Test
+    public void testAssignmentsFollowHostAndPortHint()
+    {
+        // a host hint with a port only makes that node acceptable
+        List<Split> splits = ImmutableList.<Split>of(new DualSplit(node2.getHostAndPort()), new DualSplit(node2.getHostAndPort()));
+        Multimap<Node, Split> assignments = nodeSelector.computeAssignments(splits, ImmutableMap.<Node, Integer>of(), 100);
+
+        assertEquals(assignments.size(), 2);
+        assertEquals(assignments.get(node2).size(), 2);
+    }
+}
@@ -17,8 +17,10 @@ import com.facebook.presto.OutputBuffers;
 import com.facebook.presto.UnpartitionedPagePartitionFunction;
 import com.facebook.presto.block.BlockAssertions;
 import com.facebook.presto.operator.Page;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 import io.airlift.units.DataSize;
@@ -28,6 +30,8 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -36,14 +40,18 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.facebook.presto.OutputBuffers.INITIAL_EMPTY_OUTPUT_BUFFERS;
 import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
 import static com.facebook.presto.execution.BufferResult.emptyResults;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
@@ -642,6 +650,164 @@ public class TestSharedBuffer
         addPagesJob.waitForFinished();
     }
 
+    @Test
+    public void testConcurrentProducers()
+            throws Exception
+    {
+        OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                .withBuffer("queue", new UnpartitionedPagePartitionFunction())
+                .withNoMoreBufferIds();
+        SharedBuffer sharedBuffer = new SharedBuffer(TASK_ID, executor, sizeOfPages(5), outputBuffers);
+
+        // several writers share the buffer, so most pages are queued while the reader drains it
+        int writers = 4;
+        int pagesPerWriter = 50;
+        List<AddPagesJob> addPagesJobs = new ArrayList<>();
+        for (int writer = 0; writer < writers; writer++) {
+            Page[] pages = new Page[pagesPerWriter];
+            for (int i = 0; i < pagesPerWriter; i++) {
+                pages[i] = createPage(writer * pagesPerWriter + i);
+            }
+            AddPagesJob addPagesJob = new AddPagesJob(sharedBuffer, pages);
+            addPagesJobs.add(addPagesJob);
+            executor.submit(addPagesJob);
+        }
+
+        GetPagesJob getPagesJob = new GetPagesJob(sharedBuffer, 0, writers * pagesPerWriter, 3);
+        executor.submit(getPagesJob);
+
+        for (AddPagesJob addPagesJob : addPagesJobs) {
+            addPagesJob.waitForFinished();
+        }
+        getPagesJob.waitForFinished();
+        assertEquals(getPagesJob.getElements().size(), writers * pagesPerWriter);
+        assertEquals(sharedBuffer.getInfo().getPagesAdded(), writers * pagesPerWriter);
+
+        sharedBuffer.finish();
+        assertBufferResultEquals(sharedBuffer.get("queue", writers * pagesPerWriter, sizeOfPages(1), NO_WAIT), emptyResults(writers * pagesPerWriter, false));
+        assertFinished(sharedBuffer);
+    }
+
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                    .withBuffer("queue", new UnpartitionedPagePartitionFunction())
+                    .withNoMoreBufferIds();
+            SharedBuffer sharedBuffer = new SharedBuffer(TASK_ID, executor, sizeOfPages(2), outputBuffers, Optional.of(spillDirectory));
+
+            // pages beyond the buffer size are spilled instead of blocking the producer
+            for (int i = 0; i < 10; i++) {
+                addPage(sharedBuffer, createPage(i));
+            }
+            sharedBuffer.finish();
+            assertQueueState(sharedBuffer, "queue", 10, 0);
+            assertEquals(spillDirectory.list().length, 1);
+
+            assertBufferResultEquals(sharedBuffer.get("queue", 0, sizeOfPages(3), NO_WAIT), bufferResult(0, createPage(0), createPage(1), createPage(2)));
+            assertBufferResultEquals(sharedBuffer.get("queue", 3, sizeOfPages(10), NO_WAIT), bufferResult(3,
+                    createPage(3),
+                    createPage(4),
+                    createPage(5),
+                    createPage(6),
+                    createPage(7),
+                    createPage(8),
+                    createPage(9)));
+            assertBufferResultEquals(sharedBuffer.get("queue", 10, sizeOfPages(10), NO_WAIT), emptyResults(10, true));
+            assertFinished(sharedBuffer);
+
+            // the spill file is deleted with the buffer
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test
+    public void testSpillFileRotation()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                    .withBuffer("queue", new UnpartitionedPagePartitionFunction())
+                    .withNoMoreBufferIds();
+            SharedBuffer sharedBuffer = new SharedBuffer(TASK_ID, executor, sizeOfPages(1), outputBuffers, Optional.of(spillDirectory));
+
+            // the second and third page are spilled
+            addPage(sharedBuffer, createPage(0));
+            addPage(sharedBuffer, createPage(1));
+            addPage(sharedBuffer, createPage(2));
+            String[] spillFiles = spillDirectory.list();
+            assertEquals(spillFiles.length, 1);
+
+            // the spill file is kept until all of its pages are acknowledged
+            assertBufferResultEquals(sharedBuffer.get("queue", 0, sizeOfPages(3), NO_WAIT), bufferResult(0, createPage(0), createPage(1), createPage(2)));
+            addPage(sharedBuffer, createPage(3));
+            assertEquals(spillDirectory.list(), spillFiles);
+            assertBufferResultEquals(sharedBuffer.get("queue", 3, sizeOfPages(1), NO_WAIT), bufferResult(3, createPage(3)));
+            addPage(sharedBuffer, createPage(4));
+            assertBufferResultEquals(sharedBuffer.get("queue", 4, sizeOfPages(1), NO_WAIT), bufferResult(4, createPage(4)));
+
+            // once consumed, the spill file is replaced when the next page is spilled
+            addPage(sharedBuffer, createPage(5));
+            String[] rotatedSpillFiles = spillDirectory.list();
+            assertEquals(rotatedSpillFiles.length, 1);
+            assertNotEquals(rotatedSpillFiles[0], spillFiles[0]);
+
+            sharedBuffer.finish();
+            assertBufferResultEquals(sharedBuffer.get("queue", 5, sizeOfPages(10), NO_WAIT), bufferResult(5, createPage(5)));
+            assertBufferResultEquals(sharedBuffer.get("queue", 6, sizeOfPages(10), NO_WAIT), emptyResults(6, true));
+            assertFinished(sharedBuffer);
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test
+    public void testDestroyWhileSpilling()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                    .withBuffer("queue", new UnpartitionedPagePartitionFunction())
+                    .withNoMoreBufferIds();
+            final SharedBuffer sharedBuffer = new SharedBuffer(TASK_ID, executor, sizeOfPages(1), outputBuffers, Optional.of(spillDirectory));
+
+            // producers writing to the spill file must not fail when the buffer is destroyed
+            List<Future<?>> producers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                producers.add(executor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for (int page = 0; page < 1000; page++) {
+                            sharedBuffer.enqueue(createPage(page));
+                        }
+                    }
+                }));
+            }
+            sharedBuffer.destroy();
+            for (Future<?> producer : producers) {
+                producer.get(10, SECONDS);
+            }
+
+            assertFinished(sharedBuffer);
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
     private ListenableFuture<?> enqueuePage(SharedBuffer sharedBuffer, Page page)
     {
         ListenableFuture<?> future = sharedBuffer.enqueue(page);
@@ -18,6 +18,7 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -34,11 +35,17 @@ public class TestTaskManagerConfig
         assertRecordedDefaults(recordDefaults(TaskManagerConfig.class)
                 .setTaskCpuTimerEnabled(true)
                 .setMaxShardProcessorThreads(Runtime.getRuntime().availableProcessors() * 4)
+                .setSplitRunQuanta(new Duration(1, TimeUnit.SECONDS))
+                .setTaskConcurrency(1)
                 .setInfoMaxAge(new Duration(15, TimeUnit.MINUTES))
                 .setClientTimeout(new Duration(5, TimeUnit.MINUTES))
                 .setMaxTaskMemoryUsage(new DataSize(256, Unit.MEGABYTE))
                 .setOperatorPreAllocatedMemory(new DataSize(16, Unit.MEGABYTE))
-                .setSinkMaxBufferSize(new DataSize(32, Unit.MEGABYTE)));
+                .setMemoryPoolSize(new DataSize(Runtime.getRuntime().maxMemory() * 0.7, Unit.BYTE))
+                .setSinkMaxBufferSize(new DataSize(32, Unit.MEGABYTE))
+                .setSinkSpillEnabled(false)
+                .setSpillEnabled(false)
+                .setSpillDirectory(new File("var/spill")));
     }
 
     @Test
@@ -48,20 +55,32 @@ public class TestTaskManagerConfig
                 .put("task.cpu-timer-enabled", "false")
                 .put("task.max-memory", "2GB")
                 .put("task.operator-pre-allocated-memory", "2MB")
+                .put("task.memory-pool-size", "8GB")
                 .put("task.shard.max-threads", "3")
+                .put("task.split-run-quanta", "250ms")
+                .put("task.concurrency", "8")
                 .put("task.info.max-age", "22m")
                 .put("task.client.timeout", "10s")
                 .put("sink.max-buffer-size", "42MB")
+                .put("sink.spill-enabled", "true")
+                .put("task.spill-enabled", "true")
+                .put("task.spill-directory", "/tmp/spill")
                 .build();
 
         TaskManagerConfig expected = new TaskManagerConfig()
                 .setTaskCpuTimerEnabled(false)
                 .setMaxTaskMemoryUsage(new DataSize(2, Unit.GIGABYTE))
                 .setOperatorPreAllocatedMemory(new DataSize(2, Unit.MEGABYTE))
+                .setMemoryPoolSize(new DataSize(8, Unit.GIGABYTE))
                 .setMaxShardProcessorThreads(3)
+                .setSplitRunQuanta(new Duration(250, TimeUnit.MILLISECONDS))
+                .setTaskConcurrency(8)
                 .setInfoMaxAge(new Duration(22, TimeUnit.MINUTES))
                 .setClientTimeout(new Duration(10, TimeUnit.SECONDS))
-                .setSinkMaxBufferSize(new DataSize(42, Unit.MEGABYTE));
+                .setSinkMaxBufferSize(new DataSize(42, Unit.MEGABYTE))
+                .setSinkSpillEnabled(true)
+                .setSpillEnabled(true)
+                .setSpillDirectory(new File("/tmp/spill"));
 
         assertFullMapping(properties, expected);
     }
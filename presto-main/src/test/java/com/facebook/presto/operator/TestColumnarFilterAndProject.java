@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.metadata.MetadataManager;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.gen.ExpressionCompiler;
+import com.facebook.presto.sql.planner.Symbol;
+import com.facebook.presto.sql.planner.SymbolToInputRewriter;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.ExpressionTreeRewriter;
+import com.facebook.presto.sql.tree.Input;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.sql.parser.SqlParser.createExpression;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_BOOLEAN;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestColumnarFilterAndProject
+{
+    private static final ExpressionCompiler COMPILER = new ExpressionCompiler(new MetadataManager());
+
+    // channel 1 is not used by any of the expressions
+    private static final Map<Symbol, Input> INPUT_MAPPING = ImmutableMap.<Symbol, Input>builder()
+            .put(new Symbol("bound_long"), new Input(0))
+            .put(new Symbol("bound_string"), new Input(2))
+            .put(new Symbol("bound_double"), new Input(3))
+            .put(new Symbol("bound_boolean"), new Input(4))
+            .build();
+
+    // like the planner, the input types include the unused channel
+    private static final Map<Input, Type> INPUT_TYPES = ImmutableMap.<Input, Type>builder()
+            .put(new Input(0), Type.BIGINT)
+            .put(new Input(1), Type.BIGINT)
+            .put(new Input(2), Type.VARCHAR)
+            .put(new Input(3), Type.DOUBLE)
+            .put(new Input(4), Type.BOOLEAN)
+            .build();
+
+    private ExecutorService executor;
+    private DriverContext driverContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testColumnarMatchesRowOriented()
+    {
+        AbstractFilterAndProjectOperator operator = createOperator(
+                "bound_long > 2 OR bound_string IS NULL",
+                "bound_long * 2",
+                "bound_string",
+                "length(bound_string)",
+                "bound_double + 1.5");
+
+        for (Page page : createInput()) {
+            PageBuilder columnar = new PageBuilder(operator.getTupleInfos());
+            assertTrue(operator.filterAndProjectColumnar(page.getBlocks(), columnar));
+
+            PageBuilder rowOriented = new PageBuilder(operator.getTupleInfos());
+            operator.filterAndProjectRowOriented(page.getBlocks(), rowOriented);
+
+            assertEquals(columnar.getPositionCount(), rowOriented.getPositionCount());
+            assertPageEquals(columnar.build(), rowOriented.build());
+        }
+    }
+
+    @Test
+    public void testFixedWidthColumnsMatchRowOriented()
+    {
+        // fixed width values are read from the block slices, including their null flags
+        AbstractFilterAndProjectOperator operator = createOperator(
+                "bound_boolean OR bound_long * 2 >= bound_double + 5",
+                "bound_long - 1",
+                "bound_double / 2",
+                "NOT bound_boolean",
+                "bound_long = 3",
+                "bound_double > bound_long");
+
+        for (Page page : createInput()) {
+            PageBuilder columnar = new PageBuilder(operator.getTupleInfos());
+            assertTrue(operator.filterAndProjectColumnar(page.getBlocks(), columnar));
+
+            PageBuilder rowOriented = new PageBuilder(operator.getTupleInfos());
+            operator.filterAndProjectRowOriented(page.getBlocks(), rowOriented);
+
+            assertEquals(columnar.getPositionCount(), rowOriented.getPositionCount());
+            assertPageEquals(columnar.build(), rowOriented.build());
+        }
+    }
+
+    @Test
+    public void testOperatorUsesColumnarPath()
+    {
+        String[] projections = {"bound_string", "bound_double * bound_long"};
+
+        List<Page> input = createInput();
+        AbstractFilterAndProjectOperator rowOrientedOperator = createOperator("bound_double IS NULL OR bound_double < 4.0", projections);
+        ImmutableList.Builder<Page> expected = ImmutableList.builder();
+        for (Page page : input) {
+            PageBuilder pageBuilder = new PageBuilder(rowOrientedOperator.getTupleInfos());
+            rowOrientedOperator.filterAndProjectRowOriented(page.getBlocks(), pageBuilder);
+            if (!pageBuilder.isEmpty()) {
+                expected.add(pageBuilder.build());
+            }
+        }
+
+        assertOperatorEquals(createOperator("bound_double IS NULL OR bound_double < 4.0", projections), input, expected.build());
+    }
+
+    @Test
+    public void testUnsupportedUsedChannel()
+    {
+        AbstractFilterAndProjectOperator operator = createOperator("bound_long > 0", "bound_long");
+
+        Block[] blocks = createInput().get(0).getBlocks();
+        blocks[0] = new RunLengthEncodedBlock(createTuple(5), blocks[0].getPositionCount());
+
+        PageBuilder pageBuilder = new PageBuilder(operator.getTupleInfos());
+        assertFalse(operator.filterAndProjectColumnar(blocks, pageBuilder));
+        assertTrue(pageBuilder.isEmpty());
+    }
+
+    private AbstractFilterAndProjectOperator createOperator(String filter, String... projections)
+    {
+        ImmutableList.Builder<Expression> projectionExpressions = ImmutableList.builder();
+        for (String projection : projections) {
+            projectionExpressions.add(bindInputs(createExpression(projection)));
+        }
+        OperatorFactory operatorFactory = COMPILER.compileFilterAndProjectOperator(0, bindInputs(createExpression(filter)), projectionExpressions.build(), INPUT_TYPES);
+        return (AbstractFilterAndProjectOperator) operatorFactory.createOperator(driverContext);
+    }
+
+    private static Expression bindInputs(Expression expression)
+    {
+        return ExpressionTreeRewriter.rewriteWith(new SymbolToInputRewriter(INPUT_MAPPING), expression);
+    }
+
+    private static List<Page> createInput()
+    {
+        List<Page> pages = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG, SINGLE_VARBINARY, SINGLE_DOUBLE, SINGLE_BOOLEAN)
+                .row(1, 0, "a", 1.0, true)
+                .row(null, 0, "bb", 2.0, false)
+                .row(3, 0, null, 3.0, null)
+                .row(4, 0, "dddd", null, true)
+                .row(5, 0, "", 5.0, false)
+                .pageBreak()
+                .row(null, 0, null, null, null)
+                .row(7, 0, "ggggggg", 0.5, true)
+                .row(2, 0, "hh", 8.0, true)
+                .build();
+
+        // the unused channel is not an uncompressed block, which must not disable the columnar path
+        ImmutableList.Builder<Page> input = ImmutableList.builder();
+        for (Page page : pages) {
+            Block[] blocks = page.getBlocks();
+            blocks[1] = new RunLengthEncodedBlock(createTuple(0), page.getPositionCount());
+            input.add(new Page(blocks));
+        }
+        return input.build();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.Domain;
+import com.facebook.presto.spi.InMemoryRecordSet;
+import com.facebook.presto.spi.Range;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.RecordSet;
+import com.facebook.presto.spi.SortedRangeSet;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.block.BlockAssertions.toValues;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestDynamicFilter
+{
+    private ExecutorService executor;
+    private OperatorContext operatorContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        operatorContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext()
+                .addOperatorContext(0, "test");
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSummarizeDistinctValues()
+    {
+        PagesIndex pagesIndex = createPagesIndex(ImmutableList.of(SINGLE_LONG, SINGLE_VARBINARY), rowPagesBuilder(SINGLE_LONG, SINGLE_VARBINARY)
+                .row(3, "b")
+                .row(1, "a")
+                .row(3, null)
+                .row(null, "c")
+                .build());
+
+        List<Domain> domains = DynamicFilter.summarizeBuildKeys(pagesIndex, Ints.asList(0, 1));
+        assertEquals(domains, ImmutableList.of(
+                Domain.create(SortedRangeSet.of(Range.equal(1L), Range.equal(3L)), false),
+                Domain.create(SortedRangeSet.of(Range.equal(utf8Slice("a")), Range.equal(utf8Slice("b")), Range.equal(utf8Slice("c"))), false)));
+    }
+
+    @Test
+    public void testSummarizeRange()
+    {
+        PagesIndex pagesIndex = createPagesIndex(ImmutableList.of(SINGLE_LONG), rowPagesBuilder(SINGLE_LONG)
+                .addSequencePage(5000, 10)
+                .build());
+
+        List<Domain> domains = DynamicFilter.summarizeBuildKeys(pagesIndex, Ints.asList(0));
+        assertEquals(domains, ImmutableList.of(Domain.create(SortedRangeSet.of(Range.range(10L, true, 5009L, true)), false)));
+    }
+
+    @Test
+    public void testSummarizeEmptyBuild()
+    {
+        PagesIndex pagesIndex = createPagesIndex(ImmutableList.of(SINGLE_LONG), ImmutableList.<Page>of());
+
+        List<Domain> domains = DynamicFilter.summarizeBuildKeys(pagesIndex, Ints.asList(0));
+        assertEquals(domains, ImmutableList.of(Domain.none(Long.class)));
+    }
+
+    @Test
+    public void testFilterPage()
+    {
+        List<Domain> domains = ImmutableList.of(Domain.create(SortedRangeSet.of(Range.equal(1L), Range.equal(3L)), false));
+        DynamicFilter dynamicFilter = new DynamicFilter(immediateFuture(domains), ImmutableMap.of(1, 0));
+        assertTrue(dynamicFilter.isReady());
+
+        Page page = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("a", 0)
+                .row("b", 1)
+                .row("c", null)
+                .row("d", 3)
+                .row("e", 4)
+                .build()
+                .get(0);
+
+        Page filtered = dynamicFilter.filter(page);
+        assertEquals(filtered.getPositionCount(), 2);
+        assertEquals(toValues(filtered.getBlock(0)), Arrays.<Object>asList("b", "d"));
+        assertEquals(toValues(filtered.getBlock(1)), Arrays.<Object>asList(1L, 3L));
+
+        // pages where every row matches are not copied
+        Page matching = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG).row("a", 1).row("b", 3).build().get(0);
+        assertSame(dynamicFilter.filter(matching), matching);
+
+        // pages where no row matches are dropped
+        Page notMatching = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG).row("a", 2).row("b", null).build().get(0);
+        assertNull(dynamicFilter.filter(notMatching));
+    }
+
+    @Test
+    public void testFilterStringCursor()
+    {
+        RecordSet recordSet = new InMemoryRecordSet(ImmutableList.of(ColumnType.STRING, ColumnType.STRING), ImmutableList.of(
+                Arrays.asList("a", "a"),
+                Arrays.asList("b", "m"),
+                Arrays.asList("c", "z"),
+                Arrays.asList(null, "m")));
+
+        // the first key is a set of values, the second a range
+        List<Domain> domains = ImmutableList.of(
+                Domain.create(SortedRangeSet.of(Range.equal(utf8Slice("a")), Range.equal(utf8Slice("b"))), false),
+                Domain.create(SortedRangeSet.of(Range.range(utf8Slice("b"), true, utf8Slice("n"), true)), false));
+        DynamicFilter dynamicFilter = new DynamicFilter(immediateFuture(domains), ImmutableMap.of(0, 0, 1, 1));
+        assertTrue(dynamicFilter.isReady());
+
+        List<Boolean> matches = new ArrayList<>();
+        RecordCursor cursor = recordSet.cursor();
+        while (cursor.advanceNextPosition()) {
+            matches.add(dynamicFilter.contains(cursor));
+        }
+        assertEquals(matches, ImmutableList.of(false, true, false, false));
+    }
+
+    @Test
+    public void testFilterBinaryKeys()
+    {
+        // keys that are not valid UTF-8 must not be matched through strings
+        Slice invalid = Slices.wrappedBuffer(new byte[] {(byte) 0xFF});
+        Slice otherInvalid = Slices.wrappedBuffer(new byte[] {(byte) 0xFE});
+        PagesIndex pagesIndex = createPagesIndex(ImmutableList.of(SINGLE_VARBINARY), ImmutableList.of(createBinaryPage(invalid)));
+
+        List<Domain> domains = DynamicFilter.summarizeBuildKeys(pagesIndex, Ints.asList(0));
+        DynamicFilter dynamicFilter = new DynamicFilter(immediateFuture(domains), ImmutableMap.of(0, 0));
+        assertTrue(dynamicFilter.isReady());
+
+        Page matching = createBinaryPage(invalid);
+        assertSame(dynamicFilter.filter(matching), matching);
+        assertNull(dynamicFilter.filter(createBinaryPage(otherInvalid)));
+    }
+
+    @Test
+    public void testFilterRangeOfValues()
+    {
+        List<Domain> domains = ImmutableList.of(
+                Domain.create(SortedRangeSet.of(Range.range(10L, true, 20L, true), Range.equal(30L)), false),
+                Domain.create(SortedRangeSet.of(Range.range(1.5, true, 2.5, false)), false));
+        DynamicFilter dynamicFilter = new DynamicFilter(immediateFuture(domains), ImmutableMap.of(0, 0, 1, 1));
+        assertTrue(dynamicFilter.isReady());
+
+        Page page = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE)
+                .row(9, 2.0)
+                .row(10, 2.0)
+                .row(25, 1.5)
+                .row(30, 2.5)
+                .row(31, 2.0)
+                .row(20, 3.0)
+                .build()
+                .get(0);
+
+        // values are matched against the span of the ranges
+        Page filtered = dynamicFilter.filter(page);
+        assertEquals(toValues(filtered.getBlock(0)), Arrays.<Object>asList(10L, 25L, 30L));
+    }
+
+    @Test
+    public void testNotReadyUntilBuildFinishes()
+    {
+        SettableFuture<List<Domain>> buildKeyDomains = SettableFuture.create();
+        DynamicFilter dynamicFilter = new DynamicFilter(buildKeyDomains, ImmutableMap.of(0, 0));
+        assertFalse(dynamicFilter.isReady());
+
+        buildKeyDomains.set(ImmutableList.of(Domain.singleValue(1L)));
+        assertTrue(dynamicFilter.isReady());
+    }
+
+    private static Page createBinaryPage(Slice value)
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_VARBINARY);
+        blockBuilder.append(value);
+        return new Page(blockBuilder.build());
+    }
+
+    private PagesIndex createPagesIndex(List<TupleInfo> tupleInfos, List<Page> pages)
+    {
+        PagesIndex pagesIndex = new PagesIndex(tupleInfos, 100, operatorContext);
+        for (Page page : pages) {
+            pagesIndex.addPage(page);
+        }
+        return pagesIndex;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.metadata.MetadataManager;
+import com.facebook.presto.operator.EncodedBlocksFilterAndProject.RowOrientedFilterAndProject;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.gen.ExpressionCompiler;
+import com.facebook.presto.sql.planner.Symbol;
+import com.facebook.presto.sql.planner.SymbolToInputRewriter;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.ExpressionTreeRewriter;
+import com.facebook.presto.sql.tree.Input;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
+import static com.facebook.presto.sql.parser.SqlParser.createExpression;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.Tuples.NULL_STRING_TUPLE;
+import static com.facebook.presto.tuple.Tuples.createTuple;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestEncodedBlocksFilterAndProject
+{
+    private static final ExpressionCompiler COMPILER = new ExpressionCompiler(new MetadataManager());
+
+    private static final Map<Symbol, Input> INPUT_MAPPING = ImmutableMap.<Symbol, Input>builder()
+            .put(new Symbol("dictionary_string"), new Input(0))
+            .put(new Symbol("rle_long"), new Input(1))
+            .put(new Symbol("plain_long"), new Input(2))
+            .put(new Symbol("plain_double"), new Input(3))
+            .build();
+
+    private static final Map<Input, Type> INPUT_TYPES = ImmutableMap.<Input, Type>builder()
+            .put(new Input(0), Type.VARCHAR)
+            .put(new Input(1), Type.BIGINT)
+            .put(new Input(2), Type.BIGINT)
+            .put(new Input(3), Type.DOUBLE)
+            .build();
+
+    private static final Dictionary DICTIONARY = new Dictionary(SINGLE_VARBINARY,
+            NULL_STRING_TUPLE.getTupleSlice(),
+            createTuple("apple").getTupleSlice(),
+            createTuple("banana").getTupleSlice(),
+            createTuple("cherry").getTupleSlice());
+
+    private ExecutorService executor;
+    private DriverContext driverContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDictionaryAndRunLengthEncodedChannels()
+    {
+        // the plain channels are not read, so each dictionary entry is evaluated once
+        AbstractFilterAndProjectOperator operator = createOperator(
+                "dictionary_string IS NULL OR dictionary_string <> 'banana'",
+                "upper(dictionary_string)",
+                "rle_long + 1");
+
+        assertEncodedMatchesRowOriented(operator, createPage());
+    }
+
+    @Test
+    public void testDictionaryFilterWithPlainProjections()
+    {
+        // only the filter is evaluated once per dictionary entry
+        AbstractFilterAndProjectOperator operator = createOperator(
+                "dictionary_string IS NULL OR dictionary_string = 'apple'",
+                "dictionary_string",
+                "plain_long * rle_long",
+                "plain_double");
+
+        assertEncodedMatchesRowOriented(operator, createPage());
+    }
+
+    @Test
+    public void testProjectionsNotEvaluatedOnPlaceholders()
+    {
+        AbstractFilterAndProjectOperator operator = createOperator("dictionary_string = 'apple'", "plain_long", "plain_double");
+        final RowOrientedFilterAndProject delegate = rowOriented(operator);
+        RowOrientedFilterAndProject rowOriented = new RowOrientedFilterAndProject()
+        {
+            @Override
+            public void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
+            {
+                // the plain channels are replaced by run length encoded nulls when only the filter is evaluated
+                assertFalse(blocks[2] instanceof RunLengthEncodedBlock);
+                assertFalse(blocks[3] instanceof RunLengthEncodedBlock);
+                delegate.filterAndProjectRowOriented(blocks, pageBuilder);
+            }
+
+            @Override
+            public void filterRowOriented(Block[] blocks, PageBuilder pageBuilder)
+            {
+                delegate.filterRowOriented(blocks, pageBuilder);
+            }
+
+            @Override
+            public boolean isFilterChannel(int channel)
+            {
+                return delegate.isFilterChannel(channel);
+            }
+
+            @Override
+            public boolean isInputChannel(int channel)
+            {
+                return delegate.isInputChannel(channel);
+            }
+        };
+
+        PageBuilder encoded = new PageBuilder(operator.getTupleInfos());
+        assertTrue(EncodedBlocksFilterAndProject.filterAndProject(createPage().getBlocks(), operator.getTupleInfos(), encoded, rowOriented));
+        assertEquals(encoded.getPositionCount(), 3);
+    }
+
+    @Test
+    public void testFilterSelectsAllOrNoPositions()
+    {
+        assertEncodedMatchesRowOriented(createOperator("rle_long = 7", "plain_long"), createPage());
+        assertEncodedMatchesRowOriented(createOperator("dictionary_string = 'date'", "plain_long"), createPage());
+    }
+
+    @Test
+    public void testFilterOnPlainChannel()
+    {
+        AbstractFilterAndProjectOperator operator = createOperator("plain_long > 2", "dictionary_string");
+
+        PageBuilder pageBuilder = new PageBuilder(operator.getTupleInfos());
+        assertFalse(EncodedBlocksFilterAndProject.filterAndProject(createPage().getBlocks(), operator.getTupleInfos(), pageBuilder, rowOriented(operator)));
+        assertTrue(pageBuilder.isEmpty());
+    }
+
+    @Test
+    public void testDictionaryLargerThanPage()
+    {
+        AbstractFilterAndProjectOperator operator = createOperator("dictionary_string = 'apple'", "dictionary_string");
+
+        Block[] blocks = createPage().getBlocks();
+        for (int channel = 0; channel < blocks.length; channel++) {
+            blocks[channel] = blocks[channel].getRegion(0, DICTIONARY.size());
+        }
+        PageBuilder pageBuilder = new PageBuilder(operator.getTupleInfos());
+        assertFalse(EncodedBlocksFilterAndProject.filterAndProject(blocks, operator.getTupleInfos(), pageBuilder, rowOriented(operator)));
+        assertTrue(pageBuilder.isEmpty());
+    }
+
+    @Test
+    public void testOperator()
+    {
+        String filter = "dictionary_string IS NULL OR dictionary_string < 'c'";
+        String[] projections = {"dictionary_string", "plain_long + rle_long"};
+
+        Page page = createPage();
+        AbstractFilterAndProjectOperator rowOrientedOperator = createOperator(filter, projections);
+        PageBuilder pageBuilder = new PageBuilder(rowOrientedOperator.getTupleInfos());
+        rowOrientedOperator.filterAndProjectRowOriented(page.getBlocks(), pageBuilder);
+
+        assertOperatorEquals(createOperator(filter, projections), ImmutableList.of(page), ImmutableList.of(pageBuilder.build()));
+    }
+
+    private static void assertEncodedMatchesRowOriented(AbstractFilterAndProjectOperator operator, Page page)
+    {
+        PageBuilder encoded = new PageBuilder(operator.getTupleInfos());
+        assertTrue(EncodedBlocksFilterAndProject.filterAndProject(page.getBlocks(), operator.getTupleInfos(), encoded, rowOriented(operator)));
+
+        PageBuilder rowOriented = new PageBuilder(operator.getTupleInfos());
+        operator.filterAndProjectRowOriented(page.getBlocks(), rowOriented);
+
+        assertEquals(encoded.getPositionCount(), rowOriented.getPositionCount());
+        if (!rowOriented.isEmpty()) {
+            assertPageEquals(encoded.build(), rowOriented.build());
+        }
+    }
+
+    private static RowOrientedFilterAndProject rowOriented(final AbstractFilterAndProjectOperator operator)
+    {
+        return new RowOrientedFilterAndProject()
+        {
+            @Override
+            public void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
+            {
+                operator.filterAndProjectRowOriented(blocks, pageBuilder);
+            }
+
+            @Override
+            public void filterRowOriented(Block[] blocks, PageBuilder pageBuilder)
+            {
+                operator.filterRowOriented(blocks, pageBuilder);
+            }
+
+            @Override
+            public boolean isFilterChannel(int channel)
+            {
+                return operator.isFilterChannel(channel);
+            }
+
+            @Override
+            public boolean isInputChannel(int channel)
+            {
+                return operator.isInputChannel(channel);
+            }
+        };
+    }
+
+    private AbstractFilterAndProjectOperator createOperator(String filter, String... projections)
+    {
+        ImmutableList.Builder<Expression> projectionExpressions = ImmutableList.builder();
+        for (String projection : projections) {
+            projectionExpressions.add(bindInputs(createExpression(projection)));
+        }
+        OperatorFactory operatorFactory = COMPILER.compileFilterAndProjectOperator(0, bindInputs(createExpression(filter)), projectionExpressions.build(), INPUT_TYPES);
+        return (AbstractFilterAndProjectOperator) operatorFactory.createOperator(driverContext);
+    }
+
+    private static Expression bindInputs(Expression expression)
+    {
+        return ExpressionTreeRewriter.rewriteWith(new SymbolToInputRewriter(INPUT_MAPPING), expression);
+    }
+
+    private static Page createPage()
+    {
+        Block plainLongs = new BlockBuilder(SINGLE_LONG)
+                .append(0)
+                .append(1)
+                .appendNull()
+                .append(3)
+                .append(4)
+                .append(5)
+                .append(6)
+                .append(7)
+                .build();
+        Block plainDoubles = new BlockBuilder(SINGLE_DOUBLE)
+                .append(0.5)
+                .append(1.5)
+                .append(2.5)
+                .appendNull()
+                .append(4.5)
+                .append(5.5)
+                .append(6.5)
+                .append(7.5)
+                .build();
+
+        return new Page(
+                new DictionaryEncodedBlock(DICTIONARY, createLongsBlock(1, 0, 2, 1, 3, 0, 1, 2)),
+                new RunLengthEncodedBlock(createTuple(7), 8),
+                plainLongs,
+                plainDoubles);
+    }
+}
@@ -27,6 +27,8 @@ import java.net.URI;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static com.facebook.presto.operator.ExchangeClient.getNextResponseSize;
+import static com.facebook.presto.operator.ExchangeClient.getRequestedClientCount;
 import static com.facebook.presto.operator.PageBufferClientStatus.uriGetter;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static com.google.common.collect.Maps.uniqueIndex;
@@ -94,6 +96,11 @@ public class TestExchangeClient
 
         // client should have sent only 2 requests: one to get all pages and once to get the done signal
         assertStatus(exchangeClient.getStatus().getPageBufferClientStatuses().get(0), location, "closed", 3, 2, 2, "queued");
+
+        // the one response with data was small and fast, so the response size stays at the maximum
+        ExchangeClientStatus status = exchangeClient.getStatus();
+        assertEquals(status.getAverageBytesPerRequest(), createPage(1).getDataSize().toBytes() + createPage(2).getDataSize().toBytes() + createPage(3).getDataSize().toBytes());
+        assertEquals(status.getMaxResponseSize().toBytes(), maxResponseSize.toBytes());
     }
 
     @Test
@@ -266,6 +273,104 @@ public class TestExchangeClient
         assertEquals(clientStatus.getHttpRequestState(), "queued", "httpRequestState");
     }
 
+    @Test
+    public void testFastRequestsGrowResponseSize()
+    {
+        long maxResponseSize = megabytes(16);
+        long fast = nanos(10);
+
+        assertEquals(getNextResponseSize(megabytes(4), maxResponseSize, megabytes(4), fast), megabytes(8));
+        assertEquals(getNextResponseSize(megabytes(8), maxResponseSize, megabytes(8), fast), megabytes(16));
+        assertEquals(getNextResponseSize(megabytes(16), maxResponseSize, megabytes(16), fast), megabytes(16));
+
+        // a request that takes exactly the target time is not slow
+        assertEquals(getNextResponseSize(megabytes(4), maxResponseSize, megabytes(4), nanos(500)), megabytes(8));
+    }
+
+    @Test
+    public void testSlowRequestsShrinkResponseSize()
+    {
+        long maxResponseSize = megabytes(16);
+        long slow = nanos(2_000);
+
+        assertEquals(getNextResponseSize(megabytes(16), maxResponseSize, megabytes(16), slow), megabytes(8));
+        assertEquals(getNextResponseSize(megabytes(8), maxResponseSize, megabytes(8), slow), megabytes(4));
+        assertEquals(getNextResponseSize(megabytes(2), maxResponseSize, megabytes(2), slow), megabytes(1));
+
+        // the response size does not drop below 1MB
+        assertEquals(getNextResponseSize(megabytes(1), maxResponseSize, megabytes(1), slow), megabytes(1));
+        assertEquals(getNextResponseSize(megabytes(3), maxResponseSize, megabytes(3), nanos(501)), megabytes(1) + megabytes(1) / 2);
+
+        // unless the maximum response size is smaller
+        long smallMaxResponseSize = new DataSize(512, Unit.KILOBYTE).toBytes();
+        assertEquals(getNextResponseSize(smallMaxResponseSize, smallMaxResponseSize, smallMaxResponseSize, slow), smallMaxResponseSize);
+    }
+
+    @Test
+    public void testPartialResponsesKeepResponseSize()
+    {
+        long maxResponseSize = megabytes(16);
+
+        // a response below half the requested size is limited by the source, not the transfer
+        long partial = megabytes(4) - 1;
+        assertEquals(getNextResponseSize(megabytes(8), maxResponseSize, partial, nanos(10)), megabytes(8));
+        assertEquals(getNextResponseSize(megabytes(8), maxResponseSize, partial, nanos(2_000)), megabytes(8));
+
+        // half the requested size counts as a full response
+        assertEquals(getNextResponseSize(megabytes(8), maxResponseSize, megabytes(4), nanos(10)), megabytes(16));
+        assertEquals(getNextResponseSize(megabytes(8), maxResponseSize, megabytes(4), nanos(2_000)), megabytes(4));
+    }
+
+    @Test
+    public void testRequestedClientCount()
+    {
+        // before the first response every source is requested
+        assertEquals(getRequestedClientCount(megabytes(32), 0, 3), Integer.MAX_VALUE);
+
+        // otherwise enough requests to fill the buffer, times the multiplier
+        assertEquals(getRequestedClientCount(megabytes(32), megabytes(1), 1), 32);
+        assertEquals(getRequestedClientCount(megabytes(32), megabytes(1), 3), 96);
+        assertEquals(getRequestedClientCount(megabytes(32), megabytes(4), 3), 24);
+
+        // at least one request is made while there is room in the buffer
+        assertEquals(getRequestedClientCount(100, megabytes(1), 3), 1);
+    }
+
+    @Test
+    public void testConcurrentRequestTarget()
+            throws Exception
+    {
+        DataSize maxResponseSize = new DataSize(10, Unit.MEGABYTE);
+        MockExchangeRequestProcessor processor = new MockExchangeRequestProcessor(maxResponseSize);
+
+        ExchangeClient exchangeClient = new ExchangeClient(new DataSize(32, Unit.MEGABYTE),
+                maxResponseSize,
+                3,
+                new TestingHttpClient(processor, executor),
+                executor);
+
+        // before the first response every source is requested, limited by the number of sources
+        URI location1 = URI.create("http://localhost:8081/foo");
+        URI location2 = URI.create("http://localhost:8082/bar");
+        processor.addPage(location1, createPage(1));
+        processor.addPage(location2, createPage(1));
+        exchangeClient.addLocation(location1);
+        exchangeClient.addLocation(location2);
+        assertEquals(exchangeClient.getStatus().getConcurrentRequestTarget(), 2);
+
+        exchangeClient.close();
+    }
+
+    private static long megabytes(long megabytes)
+    {
+        return new DataSize(megabytes, Unit.MEGABYTE).toBytes();
+    }
+
+    private static long nanos(long millis)
+    {
+        return new Duration(millis, TimeUnit.MILLISECONDS).roundTo(TimeUnit.NANOSECONDS);
+    }
+
     private Page createPage(int size)
     {
         return new Page(BlockAssertions.createLongSequenceBlock(0, size));
@@ -13,13 +13,18 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.HashAggregationOperator.HashAggregationOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
@@ -27,11 +32,14 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.operator.AggregationFunctionDefinition.aggregation;
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEqualsIgnoreOrder;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
 import static com.facebook.presto.operator.OperatorAssertion.toPages;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.operator.aggregation.AverageAggregations.LONG_AVERAGE;
@@ -47,10 +55,16 @@ import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.Assertions.assertEqualsIgnoreOrder;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestHashAggregationOperator
 {
@@ -144,6 +158,177 @@ public class TestHashAggregationOperator
         toPages(operator, input);
     }
 
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG)
+                .addSequencePage(50_000, 0)
+                .addSequencePage(50_000, 50_000)
+                .addSequencePage(50_000, 0)
+                .addSequencePage(50_000, 50_000)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(1, Unit.MEGABYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillDirectory = Files.createTempDir();
+        try {
+            HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                    0,
+                    ImmutableList.of(SINGLE_LONG),
+                    Ints.asList(0),
+                    Step.SINGLE,
+                    ImmutableList.of(aggregation(COUNT, new Input(0)),
+                            aggregation(LONG_SUM, new Input(0))),
+                    10_000,
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult.Builder expected = resultBuilder(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64);
+            for (int i = 0; i < 100_000; i++) {
+                expected.row(i, 2, 2 * i);
+            }
+
+            assertOperatorEqualsIgnoreOrder(operator, input, expected.build());
+            ((AutoCloseable) operator).close();
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test
+    public void testSpillOnMemoryRevoking()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG)
+                .addSequencePage(1_000, 0)
+                .addSequencePage(1_000, 500)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.MEGABYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillDirectory = Files.createTempDir();
+        try {
+            HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                    0,
+                    ImmutableList.of(SINGLE_LONG),
+                    Ints.asList(0),
+                    Step.SINGLE,
+                    ImmutableList.of(aggregation(COUNT, new Input(0))),
+                    10_000,
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+            OperatorContext operatorContext = operator.getOperatorContext();
+
+            operator.addInput(input.get(0));
+            assertTrue(operator.needsInput());
+            assertTrue(operatorContext.getRevocableMemoryReservation() > 0);
+
+            // the memory pool asks for the memory back between two pages
+            operatorContext.requestMemoryRevoking();
+            assertFalse(operator.needsInput());
+
+            // the builder is spilled instead of failing the query
+            assertNull(operator.getOutput());
+            assertEquals(operatorContext.getRevocableMemoryReservation(), 0);
+            assertFalse(operatorContext.isMemoryRevokingRequested());
+            assertTrue(operator.needsInput());
+
+            List<Page> output = toPages(operator, input.subList(1, 2));
+
+            MaterializedResult.Builder expected = resultBuilder(FIXED_INT_64, FIXED_INT_64);
+            for (int i = 0; i < 1_500; i++) {
+                expected.row(i, (i >= 500 && i < 1_000) ? 2 : 1);
+            }
+            assertEqualsIgnoreOrder(toMaterializedResult(operator.getTupleInfos(), output).getMaterializedTuples(), expected.build().getMaterializedTuples());
+
+            ((AutoCloseable) operator).close();
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test
+    public void testHashAggregationWithDoubleKey()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_DOUBLE, SINGLE_LONG)
+                .row(1.0, 1)
+                .row(null, 2)
+                .row(2.5, 3)
+                .row(1.0, 4)
+                .row(null, 5)
+                .pageBreak()
+                .row(2.5, 6)
+                .row(-0.5, 7)
+                .build();
+
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                0,
+                ImmutableList.of(SINGLE_DOUBLE),
+                Ints.asList(0),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(1)),
+                        aggregation(LONG_SUM, new Input(1))),
+                1);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(DOUBLE, FIXED_INT_64, FIXED_INT_64)
+                .row(1.0, 2, 5)
+                .row(null, 2, 7)
+                .row(2.5, 2, 9)
+                .row(-0.5, 1, 7)
+                .build();
+
+        assertOperatorEqualsIgnoreOrder(operator, input, expected);
+    }
+
+    @Test
+    public void testHashAggregationOnEncodedBlocks()
+            throws Exception
+    {
+        Dictionary dictionary = new Dictionary(SINGLE_VARBINARY,
+                createTuple("apple").getTupleSlice(),
+                createTuple("banana").getTupleSlice(),
+                createTuple("cherry").getTupleSlice());
+
+        List<Page> input = ImmutableList.of(
+                new Page(new DictionaryEncodedBlock(dictionary, createLongsBlock(0, 1, 0, 2, 1, 0)), createLongsBlock(1, 2, 3, 4, 5, 6)),
+                new Page(new RunLengthEncodedBlock(createTuple("banana"), 4), createLongsBlock(10, 10, 10, 10)));
+
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                0,
+                ImmutableList.of(SINGLE_VARBINARY),
+                Ints.asList(0),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0)),
+                        aggregation(LONG_SUM, new Input(1))),
+                100_000);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64)
+                .row("apple", 3, 10)
+                .row("banana", 6, 47)
+                .row("cherry", 1, 4)
+                .build();
+
+        assertOperatorEqualsIgnoreOrder(operator, input, expected);
+    }
+
     @Test
     public void testMultiSliceAggregationOutput()
     {
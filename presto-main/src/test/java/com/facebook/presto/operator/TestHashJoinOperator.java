@@ -16,6 +16,7 @@ package com.facebook.presto.operator;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.HashBuilderOperator.HashBuilderOperatorFactory;
 import com.facebook.presto.operator.HashJoinOperator.HashJoinOperatorFactory;
+import com.facebook.presto.operator.InMemoryExchangeSourceOperator.InMemoryExchangeSourceOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.util.MaterializedResult;
 import com.google.common.collect.ImmutableList;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEqualsIgnoreOrder;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
@@ -110,6 +112,128 @@ public class TestHashJoinOperator
         assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testInnerJoinWithDuplicateBuildKeys()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG, SINGLE_LONG)
+                .row("a", 1, 10)
+                .row("a", 2, 20)
+                .row("b", 1, 30)
+                .pageBreak()
+                .row("a", 1, 40)
+                .row("c", 3, 50)
+                .build());
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), Ints.asList(0, 1), 100);
+        Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        // probe, most rows do not match anything in the build
+        List<Page> probeInput = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(1000, 0, 0)
+                .row("a", 1)
+                .row("b", 2)
+                .row("c", 3)
+                .row("a", 2)
+                .build();
+        HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.innerJoin(
+                0,
+                hashBuilderOperatorFactory.getHashSupplier(),
+                ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG),
+                Ints.asList(0, 1));
+
+        Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+        // expected
+        MaterializedResult expected = MaterializedResult.resultBuilder(VARIABLE_BINARY,
+                FIXED_INT_64,
+                VARIABLE_BINARY,
+                FIXED_INT_64,
+                FIXED_INT_64)
+                .row("a", 1, "a", 1, 10)
+                .row("a", 1, "a", 1, 40)
+                .row("c", 3, "c", 3, 50)
+                .row("a", 2, "a", 2, 20)
+                .build();
+
+        assertOperatorEqualsIgnoreOrder(joinOperator, probeInput, expected);
+    }
+
+    @Test
+    public void testInnerJoinWithPartitionedBuild()
+            throws Exception
+    {
+        // partition the build rows on the join keys
+        DriverContext sinkDriverContext = taskContext.addPipelineContext(true, false).addDriverContext();
+        OperatorContext operatorContext = sinkDriverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG, SINGLE_LONG)
+                .row("a", 1, 10)
+                .row("a", 2, 20)
+                .row("b", 1, 30)
+                .pageBreak()
+                .row("a", 1, 40)
+                .row("c", 3, 50)
+                .build());
+        InMemoryExchange exchange = new InMemoryExchange(buildOperator.getTupleInfos(), 2);
+        OperatorFactory sinkFactory = exchange.createHashPartitionedSinkFactory(1, Ints.asList(0, 1));
+        Driver sinkDriver = new Driver(sinkDriverContext, buildOperator, sinkFactory.createOperator(sinkDriverContext));
+        sinkFactory.close();
+        exchange.noMoreSinkFactories();
+        while (!sinkDriver.isFinished()) {
+            sinkDriver.process();
+        }
+
+        // build a hash partition in each driver
+        InMemoryExchangeSourceOperatorFactory sourceFactory = new InMemoryExchangeSourceOperatorFactory(0, exchange);
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), Ints.asList(0, 1), 100, 2);
+        PipelineContext buildPipelineContext = taskContext.addPipelineContext(false, false);
+        for (int partition = 0; partition < 2; partition++) {
+            DriverContext driverContext = buildPipelineContext.addDriverContext();
+            Driver driver = new Driver(driverContext, sourceFactory.createOperator(driverContext), hashBuilderOperatorFactory.createOperator(driverContext));
+            while (!driver.isFinished()) {
+                driver.process();
+            }
+        }
+
+        // probe, most rows do not match anything in the build
+        List<Page> probeInput = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(1000, 0, 0)
+                .row("a", 1)
+                .row("b", 2)
+                .row("c", 3)
+                .row("a", 2)
+                .build();
+        HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.innerJoin(
+                0,
+                hashBuilderOperatorFactory.getHashSupplier(),
+                ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG),
+                Ints.asList(0, 1));
+
+        Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+        // expected
+        MaterializedResult expected = MaterializedResult.resultBuilder(VARIABLE_BINARY,
+                FIXED_INT_64,
+                VARIABLE_BINARY,
+                FIXED_INT_64,
+                FIXED_INT_64)
+                .row("a", 1, "a", 1, 10)
+                .row("a", 1, "a", 1, 40)
+                .row("c", 3, "c", 3, 50)
+                .row("a", 2, "a", 2, 20)
+                .build();
+
+        assertOperatorEqualsIgnoreOrder(joinOperator, probeInput, expected);
+    }
+
     @Test
     public void testInnerJoinWithNullProbe()
             throws Exception
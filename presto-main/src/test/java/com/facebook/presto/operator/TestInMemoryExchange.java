@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.InMemoryExchangeMergeOperator.InMemoryExchangeMergeOperatorFactory;
+import com.facebook.presto.operator.InMemoryExchangeSourceOperator.InMemoryExchangeSourceOperatorFactory;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.util.MaterializedResult;
+import com.facebook.presto.util.MaterializedTuple;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static com.facebook.presto.operator.OperatorAssertion.toPages;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestInMemoryExchange
+{
+    private ExecutorService executor;
+    private TaskContext taskContext;
+    private DriverContext driverContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session);
+        driverContext = taskContext
+                .addPipelineContext(false, false)
+                .addDriverContext();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testHashPartitionedSink()
+            throws Exception
+    {
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG, SINGLE_LONG), 2);
+
+        OperatorFactory sinkFactory = exchange.createHashPartitionedSinkFactory(0, ImmutableList.of(0));
+        Operator sink = sinkFactory.createOperator(driverContext);
+        sinkFactory.close();
+        exchange.noMoreSinkFactories();
+
+        List<Page> input = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG)
+                .addSequencePage(10, 0, 100)
+                .addSequencePage(10, 0, 200)
+                .build();
+        for (Page page : input) {
+            sink.addInput(page);
+        }
+        sink.finish();
+        assertTrue(exchange.isFinishing());
+
+        OperatorFactory sourceFactory = new InMemoryExchangeSourceOperatorFactory(1, exchange);
+        MaterializedResult first = toMaterializedResult(exchange.getTupleInfos(), toPages(sourceFactory.createOperator(driverContext)));
+        MaterializedResult second = toMaterializedResult(exchange.getTupleInfos(), toPages(sourceFactory.createOperator(driverContext)));
+        assertEquals(first.getMaterializedTuples().size() + second.getMaterializedTuples().size(), 20);
+
+        // all rows of a key are in the same buffer
+        Set<Object> firstKeys = getKeys(first);
+        Set<Object> secondKeys = getKeys(second);
+        assertEquals(firstKeys.size() + secondKeys.size(), 10);
+        for (Object key : firstKeys) {
+            assertFalse(secondKeys.contains(key));
+        }
+        assertTrue(exchange.isFinished());
+    }
+
+    @Test
+    public void testMergeSortedBuffers()
+            throws Exception
+    {
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG), 2);
+
+        OperatorFactory sinkFactory = exchange.createBufferPerSinkFactory(0);
+        Operator firstSink = sinkFactory.createOperator(driverContext);
+        Operator secondSink = sinkFactory.createOperator(driverContext);
+        sinkFactory.close();
+        exchange.noMoreSinkFactories();
+
+        OperatorFactory mergeFactory = new InMemoryExchangeMergeOperatorFactory(1, exchange, new int[] {0}, new SortOrder[] {SortOrder.ASC_NULLS_LAST});
+        Operator merge = mergeFactory.createOperator(driverContext);
+
+        firstSink.addInput(rowPagesBuilder(SINGLE_LONG).row(1).row(3).row(5).build().get(0));
+        firstSink.finish();
+
+        // the merge waits for a page in every buffer
+        assertFalse(merge.isBlocked().isDone());
+        assertNull(merge.getOutput());
+
+        secondSink.addInput(rowPagesBuilder(SINGLE_LONG).row(2).row(4).row(6).build().get(0));
+        assertTrue(merge.isBlocked().isDone());
+        MaterializedResult expected = toMaterializedResult(exchange.getTupleInfos(), rowPagesBuilder(SINGLE_LONG).addSequencePage(5, 1).build());
+        assertEquals(toMaterializedResult(exchange.getTupleInfos(), ImmutableList.of(merge.getOutput())), expected);
+
+        // the first buffer may still get pages until all sinks are finished
+        assertFalse(merge.isBlocked().isDone());
+        assertNull(merge.getOutput());
+        assertFalse(merge.isFinished());
+
+        secondSink.finish();
+        assertTrue(merge.isBlocked().isDone());
+        expected = toMaterializedResult(exchange.getTupleInfos(), rowPagesBuilder(SINGLE_LONG).row(6).build());
+        assertEquals(toMaterializedResult(exchange.getTupleInfos(), toPages(merge)), expected);
+        assertTrue(merge.isFinished());
+        assertEquals(getMemoryReservation(), 0);
+    }
+
+    @Test
+    public void testBufferPerSinkBlocksWhenBufferIsFull()
+            throws Exception
+    {
+        // every page fills a buffer
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG), 2, new DataSize(1, BYTE));
+
+        OperatorFactory sinkFactory = exchange.createBufferPerSinkFactory(0);
+        Operator firstSink = sinkFactory.createOperator(driverContext);
+        Operator secondSink = sinkFactory.createOperator(driverContext);
+        sinkFactory.close();
+        exchange.noMoreSinkFactories();
+
+        OperatorFactory mergeFactory = new InMemoryExchangeMergeOperatorFactory(1, exchange, new int[] {0}, new SortOrder[] {SortOrder.ASC_NULLS_LAST});
+        Operator merge = mergeFactory.createOperator(driverContext);
+
+        List<Page> input = rowPagesBuilder(SINGLE_LONG)
+                .addSequencePage(10, 0)
+                .addSequencePage(10, 10)
+                .build();
+        long firstPageBytes = input.get(0).getDataSize().toBytes();
+        long secondPageBytes = input.get(1).getDataSize().toBytes();
+
+        // a sink is only blocked by its own buffer, and reserves the memory of its pages
+        firstSink.addInput(input.get(0));
+        assertFalse(firstSink.needsInput());
+        ListenableFuture<?> blocked = firstSink.isBlocked();
+        assertFalse(blocked.isDone());
+        assertTrue(secondSink.needsInput());
+        assertEquals(firstSink.getOperatorContext().getOperatorStats().getMemoryReservation().toBytes(), firstPageBytes);
+        assertFalse(merge.isBlocked().isDone());
+
+        secondSink.addInput(input.get(1));
+        assertFalse(secondSink.needsInput());
+        assertEquals(getMemoryReservation(), firstPageBytes + secondPageBytes);
+
+        // the merge takes one page from every buffer, and keeps the page it has not merged yet
+        assertEquals(merge.getOutput().getPositionCount(), 10);
+        assertTrue(blocked.isDone());
+        assertTrue(firstSink.needsInput());
+        assertTrue(secondSink.needsInput());
+        assertEquals(firstSink.getOperatorContext().getOperatorStats().getMemoryReservation().toBytes(), 0);
+        assertEquals(merge.getOperatorContext().getOperatorStats().getMemoryReservation().toBytes(), secondPageBytes);
+        assertEquals(getMemoryReservation(), secondPageBytes);
+
+        firstSink.finish();
+        secondSink.finish();
+        assertEquals(merge.getOutput().getPositionCount(), 10);
+        assertTrue(merge.isFinished());
+        assertEquals(getMemoryReservation(), 0);
+    }
+
+    @Test
+    public void testRoundRobinSinkBlocksWhenBuffersAreFull()
+            throws Exception
+    {
+        // every page fills a buffer
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG), 2, new DataSize(1, BYTE));
+
+        OperatorFactory sinkFactory = exchange.createSinkFactory(0);
+        Operator sink = sinkFactory.createOperator(driverContext);
+        sinkFactory.close();
+        exchange.noMoreSinkFactories();
+
+        OperatorFactory sourceFactory = new InMemoryExchangeSourceOperatorFactory(1, exchange);
+        Operator firstSource = sourceFactory.createOperator(driverContext);
+        Operator secondSource = sourceFactory.createOperator(driverContext);
+
+        Page page = rowPagesBuilder(SINGLE_LONG).addSequencePage(10, 0).build().get(0);
+        long pageBytes = page.getDataSize().toBytes();
+
+        // the sink is blocked once no buffer can take a page
+        sink.addInput(page);
+        assertTrue(sink.needsInput());
+        sink.addInput(page);
+        assertFalse(sink.needsInput());
+        ListenableFuture<?> blocked = sink.isBlocked();
+        assertFalse(blocked.isDone());
+        assertEquals(getMemoryReservation(), 2 * pageBytes);
+
+        // reading a page unblocks the sink and frees the memory of the page
+        assertEquals(firstSource.getOutput().getPositionCount(), 10);
+        assertTrue(blocked.isDone());
+        assertTrue(sink.needsInput());
+        assertEquals(getMemoryReservation(), pageBytes);
+
+        // the next page goes to the buffer that is not full
+        sink.addInput(page);
+        assertFalse(sink.needsInput());
+        assertEquals(firstSource.getOutput().getPositionCount(), 10);
+        assertNull(firstSource.getOutput());
+
+        // a finished source discards its buffer
+        secondSource.finish();
+        assertTrue(sink.needsInput());
+        assertEquals(getMemoryReservation(), 0);
+    }
+
+    @Test
+    public void testHashPartitionedSinkBlocksWhenAnyBufferIsFull()
+            throws Exception
+    {
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG), 2, new DataSize(1, BYTE));
+
+        OperatorFactory sinkFactory = exchange.createHashPartitionedSinkFactory(0, ImmutableList.of(0));
+        Operator sink = sinkFactory.createOperator(driverContext);
+        sinkFactory.close();
+        exchange.noMoreSinkFactories();
+
+        OperatorFactory sourceFactory = new InMemoryExchangeSourceOperatorFactory(1, exchange);
+        Operator firstSource = sourceFactory.createOperator(driverContext);
+        Operator secondSource = sourceFactory.createOperator(driverContext);
+
+        // the rows of the page are partitioned between both buffers
+        sink.addInput(rowPagesBuilder(SINGLE_LONG).addSequencePage(100, 0).build().get(0));
+        assertFalse(sink.needsInput());
+
+        // the sink writes to every buffer, so it waits for both
+        assertNotNull(firstSource.getOutput());
+        assertFalse(sink.needsInput());
+        assertNotNull(secondSource.getOutput());
+        assertTrue(sink.needsInput());
+        assertEquals(getMemoryReservation(), 0);
+    }
+
+    private long getMemoryReservation()
+    {
+        return taskContext.getTaskStats().getMemoryReservation().toBytes();
+    }
+
+    private static Set<Object> getKeys(MaterializedResult result)
+    {
+        Set<Object> keys = new HashSet<>();
+        for (MaterializedTuple tuple : result.getMaterializedTuples()) {
+            keys.add(tuple.getField(0));
+        }
+        return keys;
+    }
+}
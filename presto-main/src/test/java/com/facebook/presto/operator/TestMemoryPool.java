@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.execution.TaskStateMachine;
+import com.facebook.presto.sql.analyzer.Session;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestMemoryPool
+{
+    private ExecutorService executor;
+    private MemoryPool memoryPool;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        memoryPool = new MemoryPool(new DataSize(1000, BYTE));
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReleaseMemory()
+    {
+        OperatorContext first = createOperatorContext(new TaskId("query", "stage", "first"));
+        OperatorContext second = createOperatorContext(new TaskId("query", "stage", "second"));
+
+        assertTrue(first.trySetMemoryReservation(800));
+        assertFalse(second.trySetMemoryReservation(300));
+        assertEquals(memoryPool.getReservedBytes(), 800);
+
+        // lowering the reservation gives the memory back to the pool
+        first.setMemoryReservation(500);
+        assertEquals(memoryPool.getReservedBytes(), 500);
+        assertTrue(second.trySetMemoryReservation(300));
+        assertEquals(memoryPool.getReservedBytes(), 800);
+    }
+
+    @Test
+    public void testRevocableMemory()
+    {
+        OperatorContext revocable = createOperatorContext(new TaskId("query", "stage", "first"));
+        OperatorContext other = createOperatorContext(new TaskId("query", "stage", "second"));
+
+        // revocable memory is only granted from free memory
+        assertTrue(revocable.trySetRevocableMemoryReservation(600));
+        assertFalse(revocable.trySetRevocableMemoryReservation(1100));
+        assertEquals(memoryPool.getRevocableBytes(), 600);
+
+        // a regular reservation can use memory held as revocable memory, which requests revoking
+        assertTrue(other.trySetMemoryReservation(300));
+        assertFalse(revocable.isMemoryRevokingRequested());
+        assertTrue(other.trySetMemoryReservation(700));
+        assertTrue(revocable.isMemoryRevokingRequested());
+        assertFalse(other.isMemoryRevokingRequested());
+
+        // giving the memory back clears the request
+        assertTrue(revocable.trySetRevocableMemoryReservation(0));
+        assertFalse(revocable.isMemoryRevokingRequested());
+        assertEquals(memoryPool.getRevocableBytes(), 0);
+        assertEquals(memoryPool.getReservedBytes(), 700);
+    }
+
+    @Test
+    public void testTaskDoneReleasesMemory()
+            throws Exception
+    {
+        TaskStateMachine taskStateMachine = new TaskStateMachine(new TaskId("query", "stage", "task"), executor);
+        OperatorContext operatorContext = createTaskContext(taskStateMachine)
+                .addPipelineContext(true, true)
+                .addDriverContext()
+                .addOperatorContext(0, "test");
+
+        assertTrue(operatorContext.trySetMemoryReservation(300));
+        assertTrue(operatorContext.trySetRevocableMemoryReservation(200));
+        assertEquals(memoryPool.getFreeBytes(), 500);
+
+        // state change listeners are notified asynchronously
+        taskStateMachine.cancel();
+        for (int i = 0; i < 100 && memoryPool.getFreeBytes() != 1000; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(memoryPool.getReservedBytes(), 0);
+        assertEquals(memoryPool.getRevocableBytes(), 0);
+
+        // the operator can still clean up after the pool was released
+        operatorContext.setMemoryReservation(0);
+        assertTrue(operatorContext.trySetRevocableMemoryReservation(0));
+        assertEquals(memoryPool.getFreeBytes(), 1000);
+    }
+
+    private OperatorContext createOperatorContext(TaskId taskId)
+    {
+        return createTaskContext(new TaskStateMachine(taskId, executor))
+                .addPipelineContext(true, true)
+                .addDriverContext()
+                .addOperatorContext(0, "test");
+    }
+
+    private TaskContext createTaskContext(TaskStateMachine taskStateMachine)
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        return new TaskContext(taskStateMachine, executor, session, new DataSize(900, BYTE), new DataSize(0, BYTE), memoryPool, true);
+    }
+}
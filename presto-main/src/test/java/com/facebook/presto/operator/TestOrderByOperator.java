@@ -17,13 +17,16 @@ import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.OrderByOperator.OrderByOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
@@ -38,7 +41,9 @@ import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
 
 public class TestOrderByOperator
 {
@@ -184,4 +189,50 @@ public class TestOrderByOperator
 
         toPages(operator, input);
     }
+
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE)
+                .row(1, 0.1)
+                .row(2, 0.2)
+                .pageBreak()
+                .row(-1, -0.1)
+                .row(4, 0.4)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillDirectory = Files.createTempDir();
+        try {
+            OrderByOperatorFactory operatorFactory = new OrderByOperatorFactory(
+                    0,
+                    ImmutableList.of(SINGLE_LONG, SINGLE_DOUBLE),
+                    new int[] {1},
+                    10,
+                    new int[] {0},
+                    new SortOrder[] {SortOrder.ASC_NULLS_LAST},
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult expected = resultBuilder(DOUBLE)
+                    .row(-0.1)
+                    .row(0.1)
+                    .row(0.2)
+                    .row(0.4)
+                    .build();
+
+            assertOperatorEquals(operator, input, expected);
+            ((AutoCloseable) operator).close();
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
 }
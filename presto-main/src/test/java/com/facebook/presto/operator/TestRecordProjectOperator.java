@@ -14,18 +14,26 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.spi.BatchRecordCursor;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.ColumnWriter;
 import com.facebook.presto.spi.InMemoryRecordSet;
+import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.InfiniteRecordSet;
 import com.facebook.presto.util.MaterializedResult;
 import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.spi.ColumnType.DOUBLE;
 import static com.facebook.presto.spi.ColumnType.LONG;
 import static com.facebook.presto.spi.ColumnType.STRING;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
@@ -98,6 +106,27 @@ public class TestRecordProjectOperator
         OperatorAssertion.assertOperatorEquals(operator, expected);
     }
 
+    @Test
+    public void testBatchCursor()
+            throws Exception
+    {
+        InMemoryRecordSet records = new InMemoryRecordSet(ImmutableList.of(STRING, LONG, DOUBLE), ImmutableList.<List<?>>of(
+                ImmutableList.of("abc", 1L, 0.1),
+                Arrays.asList(null, 2L, null),
+                ImmutableList.of("g", 0L, 0.3)));
+
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, RecordProjectOperator.class.getSimpleName());
+        Operator operator = new RecordProjectOperator(operatorContext, records.getColumnTypes(), new TestingBatchRecordCursor(records.cursor()));
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, TupleInfo.Type.DOUBLE)
+                .row("abc", 1, 0.1)
+                .row(null, 2, null)
+                .row("g", 0, 0.3)
+                .build();
+
+        OperatorAssertion.assertOperatorEquals(operator, expected);
+    }
+
     @Test
     public void testFinish()
             throws Exception
@@ -150,4 +179,120 @@ public class TestRecordProjectOperator
         assertEquals(operator.needsInput(), false);
         assertEquals(operator.getOutput(), null);
     }
+
+    /**
+     * Reads a row cursor in single row batches, and writes strings from the
+     * middle of a larger buffer to check that offsets are honored.
+     */
+    private static class TestingBatchRecordCursor
+            implements BatchRecordCursor
+    {
+        private final RecordCursor delegate;
+
+        private TestingBatchRecordCursor(RecordCursor delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int appendBatch(ColumnWriter[] columns, int maxPositions)
+        {
+            if (!delegate.advanceNextPosition()) {
+                return 0;
+            }
+            for (int field = 0; field < columns.length; field++) {
+                ColumnWriter output = columns[field];
+                if (delegate.isNull(field)) {
+                    output.appendNull();
+                    continue;
+                }
+                switch (delegate.getType(field)) {
+                    case BOOLEAN:
+                        output.appendBoolean(delegate.getBoolean(field));
+                        break;
+                    case LONG:
+                        output.appendLong(delegate.getLong(field));
+                        break;
+                    case DOUBLE:
+                        output.appendDouble(delegate.getDouble(field));
+                        break;
+                    case STRING:
+                        byte[] value = delegate.getString(field);
+                        byte[] buffer = new byte[value.length + 2];
+                        System.arraycopy(value, 0, buffer, 1, value.length);
+                        output.appendString(buffer, 1, value.length);
+                        break;
+                    default:
+                        throw new AssertionError("unimplemented type: " + delegate.getType(field));
+                }
+            }
+            return 1;
+        }
+
+        @Override
+        public long getTotalBytes()
+        {
+            return delegate.getTotalBytes();
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return delegate.getCompletedBytes();
+        }
+
+        @Override
+        public ColumnType getType(int field)
+        {
+            return delegate.getType(field);
+        }
+
+        @Override
+        public boolean advanceNextPosition()
+        {
+            throw new UnsupportedOperationException("rows must be read in batches");
+        }
+
+        @Override
+        public boolean getBoolean(int field)
+        {
+            return delegate.getBoolean(field);
+        }
+
+        @Override
+        public long getLong(int field)
+        {
+            return delegate.getLong(field);
+        }
+
+        @Override
+        public double getDouble(int field)
+        {
+            return delegate.getDouble(field);
+        }
+
+        @Override
+        public byte[] getString(int field)
+        {
+            return delegate.getString(field);
+        }
+
+        @Override
+        public Slice getSlice(int field)
+        {
+            return delegate.getSlice(field);
+        }
+
+        @Override
+        public boolean isNull(int field)
+        {
+            return delegate.isNull(field);
+        }
+
+        @Override
+        public void close()
+        {
+            delegate.close();
+        }
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestSelectedPositions
+{
+    @Test
+    public void testAdd()
+    {
+        SelectedPositions selectedPositions = SelectedPositions.create(10);
+        assertEquals(selectedPositions.size(), 0);
+
+        selectedPositions.add(1);
+        selectedPositions.add(4);
+        selectedPositions.add(9);
+
+        assertEquals(selectedPositions.size(), 3);
+        assertEquals(selectedPositions.get(0), 1);
+        assertEquals(selectedPositions.get(1), 4);
+        assertEquals(selectedPositions.get(2), 9);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        assertEquals(SelectedPositions.create(0).size(), 0);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testAddBeyondCapacity()
+    {
+        SelectedPositions selectedPositions = SelectedPositions.create(1);
+        selectedPositions.add(0);
+        selectedPositions.add(1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeCapacity()
+    {
+        SelectedPositions.create(-1);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.operator.SpillFile.SpilledPage;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static io.airlift.testing.FileUtils.deleteRecursively;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestSpillFile
+{
+    private File spillDirectory;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        spillDirectory = Files.createTempDir();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        deleteRecursively(spillDirectory);
+    }
+
+    @Test
+    public void testReadInOrder()
+    {
+        List<Page> pages = createPages();
+
+        SpillFile spillFile = SpillFile.createSpillFile(spillDirectory, "test-");
+        for (Page page : pages) {
+            spillFile.append(page);
+        }
+        assertEquals(spillFile.getPageCount(), pages.size());
+        assertEquals(spillFile.getPositionCount(), 9);
+
+        // the file can be read more than once
+        assertPagesEqual(spillFile.read(), pages);
+        assertPagesEqual(spillFile.read(), pages);
+
+        spillFile.close();
+        assertFalse(spillFile.getFile().exists());
+    }
+
+    @Test
+    public void testReadSpilledPage()
+    {
+        List<Page> pages = createPages();
+
+        SpillFile spillFile = SpillFile.createSpillFile(spillDirectory, "test-");
+        List<SpilledPage> spilledPages = new ArrayList<>();
+        for (Page page : pages) {
+            spilledPages.add(spillFile.append(page));
+        }
+
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            assertEquals(spilledPages.get(i).getDataSize(), pages.get(i).getDataSize().toBytes());
+            assertPageEquals(spillFile.read(spilledPages.get(i)), pages.get(i));
+        }
+
+        // pages appended after a read are still readable
+        Page page = pages.get(0);
+        assertPageEquals(spillFile.read(spillFile.append(page)), page);
+
+        spillFile.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testAppendAfterClose()
+    {
+        SpillFile spillFile = SpillFile.createSpillFile(spillDirectory, "test-");
+        spillFile.close();
+        spillFile.append(createPages().get(0));
+    }
+
+    @Test
+    public void testDeleteSpillFiles()
+            throws Exception
+    {
+        SpillFile spillFile = SpillFile.createSpillFile(spillDirectory, "test-");
+        spillFile.append(createPages().get(0));
+        File other = new File(spillDirectory, "other.txt");
+        Files.touch(other);
+
+        SpillFile.deleteSpillFiles(spillDirectory);
+        assertFalse(spillFile.getFile().exists());
+        assertTrue(other.exists());
+        spillFile.close();
+    }
+
+    private static List<Page> createPages()
+    {
+        return rowPagesBuilder(SINGLE_LONG, SINGLE_VARBINARY)
+                .row(1, "a")
+                .row(2, null)
+                .row(3, "ccc")
+                .pageBreak()
+                .row(null, "")
+                .pageBreak()
+                .addSequencePage(5, 10, 20)
+                .build();
+    }
+
+    private static void assertPagesEqual(Iterator<Page> actual, List<Page> expected)
+    {
+        ImmutableList<Page> actualPages = ImmutableList.copyOf(actual);
+        assertEquals(actualPages.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertPageEquals(actualPages.get(i), expected.get(i));
+        }
+    }
+}
@@ -69,6 +69,17 @@ public class TestTaskStats
         assertExpectedTaskStats(actual);
     }
 
+    @Test
+    public void testSummarize()
+    {
+        TaskStats summary = EXPECTED.summarize();
+
+        assertEquals(summary.getPipelines().size(), 0);
+        assertEquals(summary.getTotalDrivers(), EXPECTED.getTotalDrivers());
+        assertEquals(summary.getTotalCpuTime(), EXPECTED.getTotalCpuTime());
+        assertEquals(summary.getOutputPositions(), EXPECTED.getOutputPositions());
+    }
+
     public static void assertExpectedTaskStats(TaskStats actual)
     {
         assertEquals(actual.getCreateTime(), new DateTime(1, UTC));
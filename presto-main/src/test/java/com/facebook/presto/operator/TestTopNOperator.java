@@ -13,13 +13,13 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.TopNOperator.TopNOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
 import com.facebook.presto.util.MaterializedResult;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -27,6 +27,7 @@ import org.testng.annotations.Test;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
 import static com.facebook.presto.operator.ProjectionFunctions.singleColumn;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
@@ -36,6 +37,7 @@ import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static java.util.concurrent.Executors.newCachedThreadPool;
@@ -82,7 +84,8 @@ public class TestTopNOperator
                 0,
                 2,
                 ImmutableList.of(singleColumn(FIXED_INT_64, 0), singleColumn(DOUBLE, 1)),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0), ImmutableList.of(SortOrder.DESC_NULLS_LAST))),
+                ImmutableList.of(0),
+                ImmutableList.of(SortOrder.DESC_NULLS_LAST),
                 false);
 
         Operator operator = factory.createOperator(driverContext);
@@ -95,6 +98,38 @@ public class TestTopNOperator
         assertOperatorEquals(operator, input, expected);
     }
 
+    @Test
+    public void testManyPages()
+            throws Exception
+    {
+        RowPagesBuilder rowPagesBuilder = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE);
+        for (int i = 0; i < 10; i++) {
+            rowPagesBuilder.addSequencePage(100, i * 100, i * 100);
+        }
+        List<Page> input = rowPagesBuilder
+                .row(null, 0.5)
+                .row(500, 0.5)
+                .build();
+
+        TopNOperatorFactory factory = new TopNOperatorFactory(
+                0,
+                3,
+                ImmutableList.of(singleColumn(FIXED_INT_64, 0), singleColumn(DOUBLE, 1)),
+                ImmutableList.of(0),
+                ImmutableList.of(SortOrder.DESC_NULLS_FIRST),
+                false);
+
+        Operator operator = factory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, DOUBLE)
+                .row(null, 0.5)
+                .row(999, 999.0)
+                .row(998, 998.0)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
     @Test
     public void testMultiFieldKey()
             throws Exception
@@ -111,12 +146,12 @@ public class TestTopNOperator
                 .row("e", 6)
                 .build();
 
-        FieldOrderedTupleComparator comparator = new FieldOrderedTupleComparator(ImmutableList.of(0, 1), ImmutableList.of(SortOrder.DESC_NULLS_LAST, SortOrder.DESC_NULLS_LAST));
         TopNOperatorFactory operatorFactory = new TopNOperatorFactory(
                 0,
                 3,
                 ImmutableList.of(singleColumn(VARIABLE_BINARY, 0), singleColumn(FIXED_INT_64, 1)),
-                Ordering.from(comparator),
+                ImmutableList.of(0, 1),
+                ImmutableList.of(SortOrder.DESC_NULLS_LAST, SortOrder.DESC_NULLS_LAST),
                 false);
 
         Operator operator = operatorFactory.createOperator(driverContext);
@@ -151,7 +186,8 @@ public class TestTopNOperator
                 0,
                 2,
                 ImmutableList.of(singleColumn(FIXED_INT_64, 0), singleColumn(DOUBLE, 1)),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0), ImmutableList.of(SortOrder.ASC_NULLS_LAST))),
+                ImmutableList.of(0),
+                ImmutableList.of(SortOrder.ASC_NULLS_LAST),
                 false);
 
         Operator operator = operatorFactory.createOperator(driverContext);
@@ -163,4 +199,77 @@ public class TestTopNOperator
 
         assertOperatorEquals(operator, input, expected);
     }
+
+    @Test
+    public void testManyPagesWithoutCandidates()
+            throws Exception
+    {
+        // every page replaces the candidates of the pages before it, and then no page has a candidate
+        RowPagesBuilder rowPagesBuilder = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE);
+        for (int i = 0; i < 50; i++) {
+            rowPagesBuilder.addSequencePage(10, i * 10, i * 10);
+        }
+        for (int i = 0; i < 50; i++) {
+            rowPagesBuilder.addSequencePage(10, -i * 10, -i * 10);
+        }
+        List<Page> input = rowPagesBuilder.build();
+
+        TopNOperatorFactory factory = new TopNOperatorFactory(
+                0,
+                3,
+                ImmutableList.of(singleColumn(FIXED_INT_64, 0), singleColumn(DOUBLE, 1)),
+                ImmutableList.of(0),
+                ImmutableList.of(SortOrder.DESC_NULLS_LAST),
+                false);
+
+        Operator operator = factory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, DOUBLE)
+                .row(499, 499.0)
+                .row(498, 498.0)
+                .row(497, 497.0)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
+    @Test
+    public void testDictionaryEncodedSortChannel()
+            throws Exception
+    {
+        Dictionary dictionary = new Dictionary(SINGLE_VARBINARY,
+                createTuple("apple").getTupleSlice(),
+                createTuple("banana").getTupleSlice(),
+                createTuple("cherry").getTupleSlice(),
+                createTuple("date").getTupleSlice());
+        Dictionary smallDictionary = new Dictionary(SINGLE_VARBINARY,
+                createTuple("apple").getTupleSlice(),
+                createTuple("banana").getTupleSlice());
+        Dictionary appleDictionary = new Dictionary(SINGLE_VARBINARY, createTuple("apple").getTupleSlice());
+
+        List<Page> input = ImmutableList.of(
+                new Page(new DictionaryEncodedBlock(dictionary, createLongsBlock(0, 1, 2, 0)), createLongsBlock(1, 2, 3, 4)),
+                // the dictionary ties with the last candidate, so the page is decoded, but has no candidates
+                new Page(new DictionaryEncodedBlock(smallDictionary, createLongsBlock(0, 1, 0, 1, 0)), createLongsBlock(5, 6, 7, 8, 9)),
+                // no dictionary entry can replace a candidate, so the page is skipped
+                new Page(new DictionaryEncodedBlock(appleDictionary, createLongsBlock(0, 0, 0, 0, 0)), createLongsBlock(10, 11, 12, 13, 14)),
+                new Page(new DictionaryEncodedBlock(dictionary, createLongsBlock(3, 0, 0, 0, 0)), createLongsBlock(20, 21, 22, 23, 24)));
+
+        TopNOperatorFactory operatorFactory = new TopNOperatorFactory(
+                0,
+                2,
+                ImmutableList.of(singleColumn(VARIABLE_BINARY, 0), singleColumn(FIXED_INT_64, 1)),
+                ImmutableList.of(0),
+                ImmutableList.of(SortOrder.DESC_NULLS_LAST),
+                false);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64)
+                .row("date", 20)
+                .row("cherry", 3)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import io.airlift.slice.Slices;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_BOOLEAN;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestUncompressedBlockReader
+{
+    @Test
+    public void testFixedWidth()
+    {
+        Block block = new BlockBuilder(SINGLE_LONG)
+                .append(10)
+                .appendNull()
+                .append(30)
+                .build();
+
+        UncompressedBlockReader reader = UncompressedBlockReader.forBlock(block);
+        assertEquals(reader.getPositionCount(), 3);
+
+        // positions may be visited in any order
+        reader.setPosition(2);
+        assertFalse(reader.isNull());
+        assertEquals(reader.getLong(), 30);
+        assertEquals(reader.getTuple(), createTuple(30));
+
+        reader.setPosition(1);
+        assertTrue(reader.isNull());
+
+        reader.setPosition(0);
+        assertFalse(reader.isNull());
+        assertEquals(reader.getLong(), 10);
+    }
+
+    @Test
+    public void testBooleanAndDouble()
+    {
+        UncompressedBlockReader booleans = UncompressedBlockReader.forBlock(new BlockBuilder(SINGLE_BOOLEAN).append(false).append(true).build());
+        booleans.setPosition(1);
+        assertTrue(booleans.getBoolean());
+        booleans.setPosition(0);
+        assertFalse(booleans.getBoolean());
+
+        UncompressedBlockReader doubles = UncompressedBlockReader.forBlock(new BlockBuilder(SINGLE_DOUBLE).append(1.5).append(-2.5).build());
+        doubles.setPosition(1);
+        assertEquals(doubles.getDouble(), -2.5);
+        doubles.setPosition(0);
+        assertEquals(doubles.getDouble(), 1.5);
+    }
+
+    @Test
+    public void testVariableWidth()
+    {
+        Block block = new BlockBuilder(SINGLE_VARBINARY)
+                .append("alice")
+                .appendNull()
+                .append("")
+                .append("bob")
+                .build();
+
+        UncompressedBlockReader reader = UncompressedBlockReader.forBlock(block);
+        assertEquals(reader.getPositionCount(), 4);
+
+        reader.setPosition(3);
+        assertFalse(reader.isNull());
+        assertEquals(reader.getSlice(), Slices.copiedBuffer("bob", UTF_8));
+        assertEquals(reader.getTuple(), createTuple("bob"));
+
+        reader.setPosition(1);
+        assertTrue(reader.isNull());
+
+        reader.setPosition(2);
+        assertFalse(reader.isNull());
+        assertEquals(reader.getSlice().length(), 0);
+
+        reader.setPosition(0);
+        assertEquals(reader.getSlice(), Slices.copiedBuffer("alice", UTF_8));
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testVariableWidthInvalidPosition()
+    {
+        UncompressedBlockReader reader = UncompressedBlockReader.forBlock(new BlockBuilder(SINGLE_VARBINARY).append("alice").build());
+        reader.setPosition(1);
+    }
+
+    @Test
+    public void testIsSupported()
+    {
+        assertTrue(UncompressedBlockReader.isSupported(new BlockBuilder(SINGLE_LONG).append(1).build()));
+        assertTrue(UncompressedBlockReader.isSupported(new BlockBuilder(SINGLE_VARBINARY).append("a").build()));
+        assertFalse(UncompressedBlockReader.isSupported(new RunLengthEncodedBlock(createTuple(1), 10)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testForUnsupportedBlock()
+    {
+        UncompressedBlockReader.forBlock(new RunLengthEncodedBlock(createTuple(1), 10));
+    }
+}
@@ -19,13 +19,16 @@ import com.facebook.presto.operator.window.RowNumberFunction;
 import com.facebook.presto.operator.window.WindowFunction;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
@@ -42,7 +45,9 @@ import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
 
 public class TestWindowOperator
 {
@@ -212,6 +217,56 @@ public class TestWindowOperator
         toPages(operator, input);
     }
 
+    @Test
+    public void testRowNumberPartitionSpillToDisk()
+            throws Exception
+    {
+        RowPagesBuilder rowPagesBuilder = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG);
+        for (int i = 0; i < 100_000; i++) {
+            if (i > 0 && i % 5_000 == 0) {
+                rowPagesBuilder.pageBreak();
+            }
+            rowPagesBuilder.row(i % 10, 100_000 - i);
+        }
+        List<Page> input = rowPagesBuilder.build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(1, Unit.MEGABYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillDirectory = Files.createTempDir();
+        try {
+            WindowOperatorFactory operatorFactory = new WindowOperatorFactory(
+                    0,
+                    ImmutableList.of(SINGLE_LONG, SINGLE_LONG),
+                    ints(0, 1),
+                    ROW_NUMBER,
+                    ints(0),
+                    ints(1),
+                    sortOrder(SortOrder.ASC_NULLS_LAST),
+                    10,
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult.Builder expected = resultBuilder(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64);
+            for (int partition = 0; partition < 10; partition++) {
+                int rowNumber = 1;
+                for (int i = 99_999 - ((99_999 - partition) % 10); i >= 0; i -= 10) {
+                    expected.row(partition, 100_000 - i, rowNumber++);
+                }
+            }
+
+            assertOperatorEquals(operator, input, expected.build());
+            ((AutoCloseable) operator).close();
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
     private static int[] ints(int... array)
     {
         return array;
@@ -17,15 +17,20 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.Page;
 import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
 import org.testng.annotations.Test;
 
 import java.util.Iterator;
 
 import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
+import static com.facebook.presto.serde.PagesSerde.readCompressedPages;
 import static com.facebook.presto.serde.PagesSerde.readPages;
+import static com.facebook.presto.serde.PagesSerde.writeCompressedPages;
 import static com.facebook.presto.serde.PagesSerde.writePages;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TestPagesSerde
 {
@@ -48,4 +53,42 @@ public class TestPagesSerde
         assertPageEquals(pageIterator.next(), expectedPage);
         assertFalse(pageIterator.hasNext());
     }
+
+    @Test
+    public void testCompressedRoundTrip()
+    {
+        BlockBuilder repetitiveBlock = new BlockBuilder(SINGLE_VARBINARY);
+        for (int i = 0; i < 1000; i++) {
+            repetitiveBlock.append("value");
+        }
+        Page compressiblePage = new Page(repetitiveBlock.build());
+        Page smallPage = new Page(new BlockBuilder(SINGLE_VARBINARY).append("a").build());
+
+        DynamicSliceOutput uncompressedOutput = new DynamicSliceOutput(1024);
+        writePages(uncompressedOutput, compressiblePage, smallPage);
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writeCompressedPages(sliceOutput, compressiblePage, smallPage);
+        assertTrue(sliceOutput.size() < uncompressedOutput.size());
+
+        Iterator<Page> pageIterator = readCompressedPages(sliceOutput.slice().getInput());
+        assertPageEquals(pageIterator.next(), compressiblePage);
+        assertPageEquals(pageIterator.next(), smallPage);
+        assertFalse(pageIterator.hasNext());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Page checksum mismatch")
+    public void testCompressedChecksumMismatch()
+    {
+        // a single long does not compress, so the frame holds the raw page bytes
+        Page page = new Page(new BlockBuilder(SINGLE_LONG).append(42).build());
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writeCompressedPages(sliceOutput, page);
+
+        Slice slice = sliceOutput.slice();
+        int lastByte = slice.length() - 1;
+        slice.setByte(lastByte, slice.getByte(lastByte) + 1);
+        readCompressedPages(slice.getInput()).next();
+    }
 }
@@ -18,6 +18,8 @@ import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
 import java.util.List;
 
@@ -118,6 +120,12 @@ public class InfiniteRecordSet
             throw new IllegalArgumentException("Field " + field + " is not a String, but is a " + value.getClass().getName());
         }
 
+        @Override
+        public Slice getSlice(int field)
+        {
+            return Slices.wrappedBuffer(getString(field));
+        }
+
         @Override
         public boolean isNull(int field)
         {
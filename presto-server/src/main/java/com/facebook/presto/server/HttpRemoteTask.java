@@ -116,6 +116,10 @@ public class HttpRemoteTask
     @GuardedBy("this")
     private long currentRequestStartNanos;
 
+    // the fragment is large, so it is only sent until the task has been created on the worker
+    @GuardedBy("this")
+    private boolean sendPlan = true;
+
     @GuardedBy("this")
     private final SetMultimap<PlanNodeId, ScheduledSplit> pendingSplits = HashMultimap.create();
     @GuardedBy("this")
@@ -374,7 +378,7 @@ public class HttpRemoteTask
 
         List<TaskSource> sources = getSources();
         TaskUpdateRequest updateRequest = new TaskUpdateRequest(session,
-                planFragment,
+                sendPlan ? planFragment : null,
                 sources,
                 outputBuffers.get());
 
@@ -471,6 +475,9 @@ public class HttpRemoteTask
         try (SetThreadName setThreadName = new SetThreadName("HttpRemoteTask-%s", taskId)) {
             updateTaskInfo(newValue);
             lastSuccessfulRequest.set(System.nanoTime());
+
+            // the worker answered for the task, so the task exists
+            sendPlan = false;
             errorCount.set(0);
             errorsSinceLastSuccess.clear();
 
@@ -37,15 +37,17 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.List;
 
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_COMPRESSED_PAGES;
 import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
 
 @Provider
-@Consumes(PRESTO_PAGES)
-@Produces(PRESTO_PAGES)
+@Consumes({PRESTO_PAGES, PRESTO_COMPRESSED_PAGES})
+@Produces({PRESTO_PAGES, PRESTO_COMPRESSED_PAGES})
 public class PagesMapper
         implements MessageBodyReader<List<Page>>, MessageBodyWriter<List<Page>>
 {
     private static final MediaType PRESTO_PAGES_TYPE = MediaType.valueOf(PRESTO_PAGES);
+    private static final MediaType PRESTO_COMPRESSED_PAGES_TYPE = MediaType.valueOf(PRESTO_COMPRESSED_PAGES);
     private static final Type LIST_GENERIC_TOKEN;
 
     static {
@@ -62,7 +64,7 @@ public class PagesMapper
     {
         return List.class.isAssignableFrom(type) &&
                 TypeToken.of(genericType).resolveType(LIST_GENERIC_TOKEN).getRawType().equals(Page.class) &&
-                mediaType.isCompatible(PRESTO_PAGES_TYPE);
+                isPagesMediaType(mediaType);
     }
 
     @Override
@@ -74,7 +76,11 @@ public class PagesMapper
             InputStream input)
             throws IOException, WebApplicationException
     {
-        return ImmutableList.copyOf(PagesSerde.readPages(new InputStreamSliceInput(input)));
+        InputStreamSliceInput sliceInput = new InputStreamSliceInput(input);
+        if (mediaType.isCompatible(PRESTO_COMPRESSED_PAGES_TYPE)) {
+            return ImmutableList.copyOf(PagesSerde.readCompressedPages(sliceInput));
+        }
+        return ImmutableList.copyOf(PagesSerde.readPages(sliceInput));
     }
 
     @Override
@@ -82,7 +88,7 @@ public class PagesMapper
     {
         return List.class.isAssignableFrom(type) &&
                 TypeToken.of(genericType).resolveType(LIST_GENERIC_TOKEN).getRawType().equals(Page.class) &&
-                mediaType.isCompatible(PRESTO_PAGES_TYPE);
+                isPagesMediaType(mediaType);
     }
 
     @Override
@@ -101,6 +107,17 @@ public class PagesMapper
             OutputStream output)
             throws IOException, WebApplicationException
     {
-        PagesSerde.writePages(new OutputStreamSliceOutput(output), pages);
+        OutputStreamSliceOutput sliceOutput = new OutputStreamSliceOutput(output);
+        if (mediaType.isCompatible(PRESTO_COMPRESSED_PAGES_TYPE)) {
+            PagesSerde.writeCompressedPages(sliceOutput, pages);
+        }
+        else {
+            PagesSerde.writePages(sliceOutput, pages);
+        }
+    }
+
+    private static boolean isPagesMediaType(MediaType mediaType)
+    {
+        return mediaType.isCompatible(PRESTO_PAGES_TYPE) || mediaType.isCompatible(PRESTO_COMPRESSED_PAGES_TYPE);
     }
 }
@@ -239,7 +239,7 @@ public class PluginManager
         return new SimpleChildFirstClassLoader(urls,
                 getClass().getClassLoader(),
                 ImmutableList.of("org.slf4j"),
-                ImmutableList.of("com.facebook.presto", "com.fasterxml.jackson"));
+                ImmutableList.of("com.facebook.presto", "com.fasterxml.jackson", "io.airlift.slice"));
     }
 
     private List<File> listFiles(File installedPluginsDir)
@@ -37,9 +37,11 @@ import com.facebook.presto.tuple.TupleInfo.Type;
 import com.facebook.presto.util.IterableTransformer;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -74,7 +76,9 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -85,6 +89,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_CATALOG;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_SCHEMA;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_SESSION;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_SOURCE;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_USER;
 import static com.facebook.presto.execution.QueryInfo.queryIdGetter;
@@ -139,6 +144,7 @@ public class StatementResource
             @HeaderParam(PRESTO_SOURCE) String source,
             @HeaderParam(PRESTO_CATALOG) String catalog,
             @HeaderParam(PRESTO_SCHEMA) String schema,
+            @HeaderParam(PRESTO_SESSION) List<String> sessionProperties,
             @HeaderParam(USER_AGENT) String userAgent,
             @Context HttpServletRequest requestContext,
             @Context UriInfo uriInfo)
@@ -151,13 +157,28 @@ public class StatementResource
 
         String remoteUserAddress = requestContext.getRemoteAddr();
 
-        Session session = new Session(user, source, catalog, schema, remoteUserAddress, userAgent);
+        Session session = new Session(user, source, catalog, schema, remoteUserAddress, userAgent, parseSessionProperties(sessionProperties));
         ExchangeClient exchangeClient = exchangeClientSupplier.get();
         Query query = new Query(session, statement, queryManager, exchangeClient);
         queries.put(query.getQueryId(), query);
         return Response.ok(query.getNextResults(uriInfo, new Duration(1, TimeUnit.MILLISECONDS))).build();
     }
 
+    static Map<String, String> parseSessionProperties(List<String> sessionProperties)
+    {
+        Map<String, String> properties = new LinkedHashMap<>();
+        if (sessionProperties != null) {
+            for (String header : sessionProperties) {
+                for (String property : Splitter.on(',').trimResults().omitEmptyStrings().split(header)) {
+                    List<String> nameValue = ImmutableList.copyOf(Splitter.on('=').limit(2).trimResults().split(property));
+                    assertRequest(nameValue.size() == 2 && !nameValue.get(0).isEmpty(), "Invalid %s header: %s", PRESTO_SESSION, property);
+                    properties.put(nameValue.get(0), nameValue.get(1));
+                }
+            }
+        }
+        return ImmutableMap.copyOf(properties);
+    }
+
     static void assertRequest(boolean expression, String format, Object... args)
     {
         if (!expression) {
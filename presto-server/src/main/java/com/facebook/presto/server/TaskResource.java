@@ -46,7 +46,10 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_CURRENT_STATE;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_MAX_SIZE;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_MAX_WAIT;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_COMPRESSION;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_COMPRESSION_SNAPPY;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_NEXT_TOKEN;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_TOKEN;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -139,10 +142,12 @@ public class TaskResource
 
     @GET
     @Path("{taskId}/results/{outputId}/{token}")
-    @Produces(PrestoMediaTypes.PRESTO_PAGES)
+    @Produces({PrestoMediaTypes.PRESTO_PAGES, PrestoMediaTypes.PRESTO_COMPRESSED_PAGES})
     public Response getResults(@PathParam("taskId") TaskId taskId,
             @PathParam("outputId") String outputId,
-            @PathParam("token") long token)
+            @PathParam("token") long token,
+            @HeaderParam(PRESTO_MAX_SIZE) DataSize maxSize,
+            @HeaderParam(PRESTO_PAGE_COMPRESSION) String compression)
             throws InterruptedException
     {
         checkNotNull(taskId, "taskId is null");
@@ -153,15 +158,23 @@ public class TaskResource
         long end = start + remainingNanos;
         int maxSleepMillis = 1;
 
+        // exchange clients size their responses based on the observed transfer rate
+        if (maxSize == null || maxSize.toBytes() > DEFAULT_MAX_SIZE.toBytes()) {
+            maxSize = DEFAULT_MAX_SIZE;
+        }
+
+        // only compress pages for clients that asked for it, so older clients still get the plain format
+        String pagesMediaType = PRESTO_PAGE_COMPRESSION_SNAPPY.equalsIgnoreCase(compression) ? PrestoMediaTypes.PRESTO_COMPRESSED_PAGES : PrestoMediaTypes.PRESTO_PAGES;
+
         while (remainingNanos > 0) {
             // todo we need a much better way to determine if a task is unknown (e.g. not scheduled yet), done, or there is current no more data
             try {
-                BufferResult result = taskManager.getTaskResults(taskId, outputId, token, DEFAULT_MAX_SIZE, new Duration(remainingNanos, NANOSECONDS));
+                BufferResult result = taskManager.getTaskResults(taskId, outputId, token, maxSize, new Duration(remainingNanos, NANOSECONDS));
                 List<Page> pages = result.getPages();
 
                 if (!pages.isEmpty()) {
                     GenericEntity<?> entity = new GenericEntity<>(pages, new TypeToken<List<Page>>() {}.getType());
-                    return Response.ok(entity)
+                    return Response.ok(entity, pagesMediaType)
                             .header(PRESTO_PAGE_TOKEN, result.getToken())
                             .header(PRESTO_PAGE_NEXT_TOKEN, result.getNextToken())
                             .build();
@@ -23,8 +23,15 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
+
 import java.util.List;
 
+/**
+ * An update of a task.  The fragment is only sent until the task has been
+ * created, and the sources only contain the splits that have not been
+ * acknowledged yet.
+ */
 public class TaskUpdateRequest
 {
     private final Session session;
@@ -35,12 +42,11 @@ public class TaskUpdateRequest
     @JsonCreator
     public TaskUpdateRequest(
             @JsonProperty("session") Session session,
-            @JsonProperty("fragment") PlanFragment fragment,
+            @JsonProperty("fragment") @Nullable PlanFragment fragment,
             @JsonProperty("sources") List<TaskSource> sources,
             @JsonProperty("outputIds") OutputBuffers outputIds)
     {
         Preconditions.checkNotNull(session, "session is null");
-        Preconditions.checkNotNull(fragment, "fragment is null");
         Preconditions.checkNotNull(sources, "sources is null");
         Preconditions.checkNotNull(outputIds, "outputIds is null");
 
@@ -56,6 +62,7 @@ public class TaskUpdateRequest
         return session;
     }
 
+    @Nullable
     @JsonProperty
     public PlanFragment getFragment()
     {
@@ -214,6 +214,11 @@ public class TestDistributedQueries
         return 3;
     }
 
+    protected Map<String, String> getSessionProperties()
+    {
+        return ImmutableMap.of();
+    }
+
     @Override
     protected void setUpQueryFramework(String catalog, String schema)
             throws Exception
@@ -295,7 +300,7 @@ public class TestDistributedQueries
     @Override
     protected MaterializedResult computeActual(@Language("SQL") String sql)
     {
-        ClientSession session = new ClientSession(coordinator.getBaseUrl(), "testuser", "test", "default", "default", true);
+        ClientSession session = new ClientSession(coordinator.getBaseUrl(), "testuser", "test", "default", "default", getSessionProperties(), true);
 
         try (StatementClient client = new StatementClient(httpClient, queryResultsCodec, session, sql)) {
             AtomicBoolean loggedUri = new AtomicBoolean(false);
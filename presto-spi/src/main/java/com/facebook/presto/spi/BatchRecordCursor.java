@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+/**
+ * A cursor that can hand over batches of rows directly to the engine instead
+ * of being read a value at a time.  Engines that do not know about this
+ * interface can still read the cursor as a plain {@link RecordCursor}.
+ * <p>
+ * A cursor must be read either with {@link #appendBatch} or with
+ * {@link #advanceNextPosition}, but not both.
+ */
+public interface BatchRecordCursor
+        extends RecordCursor
+{
+    /**
+     * Reads up to {@code maxPositions} rows and appends the value of every field
+     * to the writer for that field, so {@code columns.length} must equal the
+     * number of fields of the cursor.
+     *
+     * @return the number of rows appended, which is zero only when the cursor is exhausted
+     */
+    int appendBatch(ColumnWriter[] columns, int maxPositions);
+}
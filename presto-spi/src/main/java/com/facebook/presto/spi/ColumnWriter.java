@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+import io.airlift.slice.Slice;
+
+/**
+ * Receives the values of a single column, one position at a time, from a
+ * {@link BatchRecordCursor}.  The engine implements this directly over its
+ * block builders, so values are not materialized as objects or copied into
+ * intermediate arrays.
+ */
+public interface ColumnWriter
+{
+    void appendNull();
+
+    void appendBoolean(boolean value);
+
+    void appendLong(long value);
+
+    void appendDouble(double value);
+
+    /**
+     * Appends a STRING value.  The bytes are copied before this method
+     * returns, so the caller may reuse the buffer.
+     */
+    void appendString(byte[] value, int offset, int length);
+
+    /**
+     * Appends a STRING value.  The slice is copied before this method returns.
+     */
+    void appendString(Slice value);
+}
@@ -13,6 +13,9 @@
  */
 package com.facebook.presto.spi;
 
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -140,6 +143,12 @@ public class InMemoryRecordSet
             throw new IllegalArgumentException("Field " + field + " is not a String, but is a " + value.getClass().getName());
         }
 
+        @Override
+        public Slice getSlice(int field)
+        {
+            return Slices.wrappedBuffer(getString(field));
+        }
+
         @Override
         public boolean isNull(int field)
         {
@@ -13,6 +13,8 @@
  */
 package com.facebook.presto.spi;
 
+import io.airlift.slice.Slice;
+
 import java.io.Closeable;
 
 public interface RecordCursor
@@ -34,6 +36,13 @@ public interface RecordCursor
 
     byte[] getString(int field);
 
+    /**
+     * Returns the value of a STRING field without copying it.  The slice may be
+     * a view over a buffer owned by the cursor, so it is only valid until the
+     * cursor is advanced or closed.
+     */
+    Slice getSlice(int field);
+
     boolean isNull(int field);
 
     @Override